@@ -0,0 +1,486 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2018 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+import at.tugraz.genome.lda.quantification.BinaryChromIndex;
+import at.tugraz.genome.lda.quantification.ChromSummaryIndex;
+import at.tugraz.genome.lda.utils.Pair;
+import at.tugraz.genome.lda.utils.StaticUtils;
+import at.tugraz.genome.maspectras.utils.StringUtils;
+
+/**
+ * Persistent state of a batch quantification started by the command line interface. For every raw/quant pair,
+ * the manifest stores the reached processing stage, the amount of failed attempts, and fingerprints of the inputs,
+ * the settings, the result file, and the source file of the translation. With this information, an interrupted batch
+ * can be resumed: up-to-date results are skipped, failed pairs are retried, and chrom directories of interrupted
+ * translations, or of source files that have been changed since, are removed.
+ * The file fingerprints are based on the sizes and modification times, since the files may have several GB.
+ * The manifest is a tab-delimited text file that is rewritten completely (over a temporary file) at every change.
+ *
+ * @author agent
+ *
+ */
+public class BatchJobManifest
+{
+  /** the default file name of the manifest in the raw directory*/
+  public final static String DEFAULT_FILE_NAME = "lda_batch_manifest.txt";
+
+  /** no processing happened so far*/
+  public final static String STAGE_PENDING = "PENDING";
+  /** the translation to chrom was started, but did not finish*/
+  public final static String STAGE_TRANSLATING = "TRANSLATING";
+  /** the chrom file is complete*/
+  public final static String STAGE_TRANSLATED = "TRANSLATED";
+  /** the quantification is finished, but the result file is not written yet*/
+  public final static String STAGE_QUANTIFIED = "QUANTIFIED";
+  /** the result file is written*/
+  public final static String STAGE_EXPORTED = "EXPORTED";
+  /** the processing failed*/
+  public final static String STAGE_FAILED = "FAILED";
+
+  private final static String HEADER = "#LDA batch manifest";
+  private final static String SEPARATOR = "\t";
+
+  /** the manifest file*/
+  private File file_;
+  /** the fingerprint of the current settings*/
+  private String settingsFingerprint_;
+  /** the entries in the order of their creation*/
+  private Vector<Entry> entries_;
+  /** lookup for the entries; key: the one of the getKey method*/
+  private Hashtable<String,Entry> lookup_;
+
+  /**
+   * creates the manifest and reads the entries of a previous run, if the file exists
+   * @param file the manifest file
+   * @param settingsFingerprint the fingerprint of the current settings
+   * @throws IOException if the existing file cannot be read
+   */
+  public BatchJobManifest(File file, String settingsFingerprint) throws IOException {
+    this.file_ = file;
+    this.settingsFingerprint_ = settingsFingerprint;
+    this.entries_ = new Vector<Entry>();
+    this.lookup_ = new Hashtable<String,Entry>();
+    if (file.exists()) read();
+  }
+
+  /**
+   * reads the entries of the manifest file; lines that cannot be parsed are ignored
+   * @throws IOException if the file cannot be read
+   */
+  private void read() throws IOException {
+    BufferedReader reader = new BufferedReader(new FileReader(file_));
+    try {
+      String line;
+      while ((line = reader.readLine())!=null){
+        if (line.length()==0 || line.startsWith("#")) continue;
+        String[] columns = line.split(SEPARATOR,-1);
+        if (columns.length!=8) continue;
+        Entry entry = new Entry(columns[0],columns[1]);
+        entry.stage_ = columns[2];
+        try {
+          entry.attempts_ = Integer.parseInt(columns[3]);
+        } catch (NumberFormatException nfx){
+          continue;
+        }
+        entry.inputFingerprint_ = columns[4];
+        entry.settingsFingerprint_ = columns[5];
+        entry.resultFingerprint_ = columns[6];
+        entry.sourceFingerprint_ = columns[7];
+        addEntry(entry);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * writes the manifest to a temporary file which replaces the old one, so that an interruption never leaves a truncated manifest
+   * @throws IOException if the file cannot be written
+   */
+  public synchronized void write() throws IOException {
+    File tempFile = new File(file_.getAbsolutePath()+".tmp");
+    BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile));
+    try {
+      writer.write(HEADER);
+      writer.newLine();
+      writer.write("#sample"+SEPARATOR+"quant"+SEPARATOR+"stage"+SEPARATOR+"attempts"+SEPARATOR+"input"+SEPARATOR+"settings"+SEPARATOR+"result"+SEPARATOR+"source");
+      writer.newLine();
+      for (Entry entry : entries_){
+        writer.write(entry.sample_+SEPARATOR+entry.quantFileName_+SEPARATOR+entry.stage_+SEPARATOR+entry.attempts_+SEPARATOR+
+            entry.inputFingerprint_+SEPARATOR+entry.settingsFingerprint_+SEPARATOR+entry.resultFingerprint_+SEPARATOR+entry.sourceFingerprint_);
+        writer.newLine();
+      }
+    } finally {
+      writer.close();
+    }
+    Files.move(tempFile.toPath(), file_.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @param entry the entry to add to the manifest
+   */
+  private void addEntry(Entry entry){
+    String key = getKey(entry.sample_,entry.quantFileName_);
+    if (lookup_.containsKey(key)) entries_.remove(lookup_.get(key));
+    entries_.add(entry);
+    lookup_.put(key, entry);
+  }
+
+  /**
+   * returns the entry of a sample/quant file combination; a new entry is created if there is none
+   * @param sample the name of the sample, i.e. the raw file name without suffix
+   * @param quantFileName the name of the quant file
+   * @return the entry of this combination
+   */
+  public synchronized Entry getEntry(String sample, String quantFileName){
+    String key = getKey(sample,quantFileName);
+    Entry entry = lookup_.get(key);
+    if (entry==null){
+      entry = new Entry(sample,quantFileName);
+      addEntry(entry);
+    }
+    return entry;
+  }
+
+  /**
+   * @return all entries of the manifest
+   */
+  public synchronized Vector<Entry> getEntries(){
+    return new Vector<Entry>(entries_);
+  }
+
+  /**
+   * @return the fingerprint of the current settings
+   */
+  public String getSettingsFingerprint(){
+    return settingsFingerprint_;
+  }
+
+  /**
+   * @param sample the name of the sample
+   * @param quantFileName the name of the quant file
+   * @return the key for the lookup
+   */
+  private static String getKey(String sample, String quantFileName){
+    return sample+SEPARATOR+quantFileName;
+  }
+
+  /**
+   * @param rawFile a raw file, an mzXML/mzML file, or a chrom directory
+   * @return the name of the sample, i.e. the file name without suffix
+   */
+  public static String getSampleName(File rawFile){
+    return StaticUtils.extractFileNameAndSuffix(rawFile.getAbsolutePath())[0];
+  }
+
+  /**
+   * computes the fingerprint of the current settings: the LDA settings as written to the result files, the
+   * parameters of the command line, and the MSn rules directory
+   * @param parameters the parameters of the command line
+   * @return the fingerprint
+   */
+  public static String computeSettingsFingerprint(String parameters){
+    CRC32 crc = new CRC32();
+    List<Pair<String,String>> propertyRows = LipidomicsConstants.getInstance().getPropertyRowList(null, null);
+    for (Pair<String,String> row : propertyRows){
+      update(crc,row.getKey());
+      update(crc,row.getValue());
+    }
+    update(crc,parameters);
+    update(crc,at.tugraz.genome.lda.msn.RulesContainer.currentRulesDir_);
+    return Long.toHexString(crc.getValue());
+  }
+
+  /**
+   * @param suffix the suffix of a file in the raw directory
+   * @return true if files with this suffix are translated to chrom directories
+   */
+  public static boolean isTranslationSource(String suffix){
+    return suffix.equalsIgnoreCase("mzxml")||suffix.equalsIgnoreCase("mzml")||suffix.equalsIgnoreCase("raw")||suffix.equalsIgnoreCase("d")||suffix.equalsIgnoreCase("wiff");
+  }
+
+  /**
+   * computes the fingerprint of the source files of a sample, i.e. the files in the raw directory with the name of the
+   * sample that are translated to a chrom directory; the sizes and modification times are used only
+   * @param rawFile a raw file, an mzXML/mzML file, or a chrom directory of the sample
+   * @return the fingerprint; an empty String if there is no source file
+   */
+  public static String computeSourceFingerprint(File rawFile){
+    File rawDir = rawFile.getAbsoluteFile().getParentFile();
+    File[] candidates = rawDir!=null ? rawDir.listFiles() : null;
+    if (candidates==null) return "";
+    Arrays.sort(candidates);
+    String sample = getSampleName(rawFile);
+    CRC32 crc = new CRC32();
+    boolean found = false;
+    for (File file : candidates){
+      String[] fileNameAndSuffix = StaticUtils.extractFileNameAndSuffix(file.getAbsolutePath());
+      if (!fileNameAndSuffix[0].equals(sample) || !isTranslationSource(fileNameAndSuffix[1])) continue;
+      updateMetadata(crc,file,file.getName());
+      found = true;
+    }
+    if (!found) return "";
+    return Long.toHexString(crc.getValue());
+  }
+
+  /**
+   * computes the fingerprint of the inputs of a quantification: the source files of the sample, the sizes and modification
+   * times of the files of the chrom directory, the content of the header file and the header of the index file, and the size
+   * and modification time of the quant file; the summary index is skipped, since it is derived from the other files
+   * @param chromFile the chrom file (or any other path resolving to the chrom file)
+   * @param quantFile the quant file
+   * @return the fingerprint; an empty String if a file is not accessible
+   */
+  public static String computeInputFingerprint(File chromFile, File quantFile){
+    CRC32 crc = new CRC32();
+    String[] chromPaths = StringUtils.getChromFilePaths(chromFile.getAbsolutePath());
+    File headerFile = new File(chromPaths[1]);
+    File indexFile = new File(chromPaths[2]);
+    if (!headerFile.isFile() || !indexFile.isFile()) return "";
+    update(crc,computeSourceFingerprint(chromFile));
+    try {
+      updateMetadata(crc,headerFile.getParentFile(),"");
+      update(crc,headerFile,Integer.MAX_VALUE);
+      update(crc,indexFile,BinaryChromIndex.HEADER_BYTES);
+    } catch (IOException iox){
+      return "";
+    }
+    //for the Alex123 directories, the modification time of the directory is used
+    updateMetadata(crc,quantFile,quantFile.getName());
+    return Long.toHexString(crc.getValue());
+  }
+
+  /**
+   * @param resultFile the result file
+   * @return the fingerprint of the size and the modification time of the file; an empty String if the file does not exist
+   */
+  public static String computeResultFingerprint(File resultFile){
+    if (!resultFile.isFile()) return "";
+    return Long.toHexString(resultFile.length())+"_"+Long.toHexString(resultFile.lastModified());
+  }
+
+  /**
+   * @param crc the checksum to update
+   * @param value the String to add to the checksum
+   */
+  private static void update(CRC32 crc, String value){
+    if (value==null) value = "";
+    byte[] bytes = value.getBytes();
+    crc.update(bytes,0,bytes.length);
+    crc.update(0);
+  }
+
+  /**
+   * adds the name, the size, and the modification time of a file to the checksum; for directories, the ones of the
+   * contained files are added recursively - the summary index of a chrom directory is skipped
+   * @param crc the checksum to update
+   * @param file the file or directory
+   * @param name the name of the file relative to the first directory
+   */
+  private static void updateMetadata(CRC32 crc, File file, String name){
+    if (file.getName().endsWith(ChromSummaryIndex.FILE_SUFFIX)) return;
+    update(crc,name);
+    if (file.isDirectory()){
+      File[] children = file.listFiles();
+      if (children==null) return;
+      Arrays.sort(children);
+      for (File child : children) updateMetadata(crc,child,name+"/"+child.getName());
+    } else {
+      update(crc,Long.toHexString(file.length())+"_"+Long.toHexString(file.lastModified()));
+    }
+  }
+
+  /**
+   * @param crc the checksum to update
+   * @param file the file whose beginning is added to the checksum
+   * @param maxBytes the maximum amount of bytes to add
+   * @throws IOException if the file cannot be read
+   */
+  private static void update(CRC32 crc, File file, int maxBytes) throws IOException {
+    byte[] buffer = new byte[(int)Math.min(maxBytes,64*1024)];
+    InputStream in = new FileInputStream(file);
+    try {
+      int count;
+      int remaining = maxBytes;
+      while (remaining>0 && (count = in.read(buffer,0,Math.min(buffer.length,remaining)))!=-1){
+        crc.update(buffer,0,count);
+        remaining -= count;
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+
+  /**
+   * the stored state of one raw/quant pair
+   * @author agent
+   *
+   */
+  public class Entry
+  {
+    private String sample_;
+    private String quantFileName_;
+    private String stage_;
+    private int attempts_;
+    private String inputFingerprint_;
+    private String settingsFingerprint_;
+    private String resultFingerprint_;
+    private String sourceFingerprint_;
+
+    private Entry(String sample, String quantFileName){
+      this.sample_ = sample;
+      this.quantFileName_ = quantFileName;
+      this.stage_ = STAGE_PENDING;
+      this.attempts_ = 0;
+      this.inputFingerprint_ = "";
+      this.settingsFingerprint_ = "";
+      this.resultFingerprint_ = "";
+      this.sourceFingerprint_ = "";
+    }
+
+    public String getSample()
+    {
+      return sample_;
+    }
+
+    public String getQuantFileName()
+    {
+      return quantFileName_;
+    }
+
+    public String getStage()
+    {
+      return stage_;
+    }
+
+    /**
+     * @return the amount of failed attempts
+     */
+    public int getAttempts()
+    {
+      return attempts_;
+    }
+
+    /**
+     * @return the fingerprint of the source files at the time of the translation; an empty String if it is not known
+     */
+    public String getSourceFingerprint()
+    {
+      return sourceFingerprint_;
+    }
+
+    /**
+     * checks whether the stored result is still valid
+     * @param chromFile the chrom file of the sample
+     * @param quantFile the quant file
+     * @param resultFile the result file
+     * @return true if the pair was quantified with the same inputs and settings, and the result file was not changed since
+     */
+    public boolean isUpToDate(File chromFile, File quantFile, File resultFile){
+      if (!stage_.equals(STAGE_EXPORTED)) return false;
+      if (!settingsFingerprint_.equals(BatchJobManifest.this.settingsFingerprint_)) return false;
+      if (resultFingerprint_.length()==0 || !resultFingerprint_.equals(computeResultFingerprint(resultFile))) return false;
+      String inputFingerprint = computeInputFingerprint(chromFile,quantFile);
+      return inputFingerprint.length()>0 && inputFingerprint_.equals(inputFingerprint);
+    }
+
+    /**
+     * @param stage the new stage of the pair
+     * @return true if the stage changed
+     */
+    public boolean setStage(String stage){
+      if (stage_.equals(stage)) return false;
+      this.stage_ = stage;
+      return true;
+    }
+
+    /**
+     * stores that the chrom file is complete together with the fingerprint of the source files it was translated from;
+     * a known fingerprint is kept, since it is reset when the chrom directory of changed source files is removed
+     * @param rawFile the raw file of the pair
+     * @return true if the stage changed
+     */
+    public boolean setTranslated(File rawFile){
+      if (stage_.equals(STAGE_TRANSLATED)) return false;
+      if (sourceFingerprint_.length()==0) this.sourceFingerprint_ = computeSourceFingerprint(rawFile);
+      this.stage_ = STAGE_TRANSLATED;
+      return true;
+    }
+
+    /**
+     * forgets the fingerprint of the source files, since the chrom directory has been removed
+     */
+    public void resetSourceFingerprint(){
+      this.sourceFingerprint_ = "";
+    }
+
+    /**
+     * sets the stage to failed and increases the amount of attempts
+     * @return true if the stage changed
+     */
+    public boolean setFailed(){
+      if (stage_.equals(STAGE_FAILED)) return false;
+      this.stage_ = STAGE_FAILED;
+      this.attempts_++;
+      return true;
+    }
+
+    /**
+     * stores a written result file together with the fingerprints of the inputs, settings, and the result file;
+     * the fingerprint of the source files is stored too, if it is not known yet
+     * @param chromFile the chrom file of the sample
+     * @param quantFile the quant file
+     * @param resultFile the result file
+     * @return true if the stage changed
+     */
+    public boolean setExported(File chromFile, File quantFile, File resultFile){
+      if (stage_.equals(STAGE_EXPORTED)) return false;
+      this.stage_ = STAGE_EXPORTED;
+      if (sourceFingerprint_.length()==0) this.sourceFingerprint_ = computeSourceFingerprint(chromFile);
+      this.inputFingerprint_ = computeInputFingerprint(chromFile,quantFile);
+      this.settingsFingerprint_ = BatchJobManifest.this.settingsFingerprint_;
+      this.resultFingerprint_ = computeResultFingerprint(resultFile);
+      this.attempts_ = 0;
+      return true;
+    }
+  }
+}
@@ -24,9 +24,10 @@
 package at.tugraz.genome.lda;
 
 import java.io.File;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Hashtable;
 import java.util.Vector;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JLabel;
 import javax.swing.JProgressBar;
@@ -41,6 +42,15 @@ import at.tugraz.genome.maspectras.GlobalConstants;
 import at.tugraz.genome.maspectras.utils.StringUtils;
 
 /**
+ * Supervises the batch quantification: every row of the table is translated (vendor format -> mzXML/mzML -> chrom) if
+ * necessary, and quantified afterwards. The translations and quantifications report their completion by a callback,
+ * which advances the rows to their next stage.
+ * By default, the rows are processed one after the other. With the batchPipeline setting, one translation lane runs beside
+ * up to batchMaxConcurrentQuantifications quantifications, thus, the translation of the next file overlaps the quantification
+ * of the current one. The concurrent quantifications share process-wide state: the settings of LipidomicsConstants are read
+ * only, except the raw file name and the target list flags, which are set and written to the result file while holding the
+ * lock of the LipidomicsConstants instance; the RulesContainer creates its cached instances under a class lock; the
+ * ChromatogramCache is synchronized, and its keys contain the chrom file. The settings must not be changed while a batch runs.
  * 
  * @author Juergen Hartler
  * @author Leonida M. Lamp
@@ -48,8 +58,19 @@ import at.tugraz.genome.maspectras.utils.StringUtils;
  */
 public class BatchQuantThread extends Thread
 {
+  /** the period for refreshing the progress of the running quantifications - the stages do not depend on it*/
+  private final static int PROGRESS_PERIOD = 1000;
+  /** an additional file is quantified only if at least this fraction of the maximum heap is free*/
+  private final static float PIPELINE_MIN_FREE_HEAP = 0.25f;
+
+  //the processing stages of a row
+  private final static int STAGE_WAITING = 0;
+  private final static int STAGE_TO_INTERMEDIATE = 1;
+  private final static int STAGE_TO_CHROM = 2;
+  private final static int STAGE_READY = 3;
+  private final static int STAGE_QUANTIFYING = 4;
+  private final static int STAGE_DONE = 5;
 
-  private QuantificationThread quantThread_;
   private RawToMzxmlThread rawmzThread_;
   private MzxmlToChromThread mzThread_;
   
@@ -60,8 +81,7 @@ public class BatchQuantThread extends Thread
 //  private float mzTolerance_;
   private float minusTime_;
   private float plusTime_;
-  private Timer timer_;
-  private boolean finished_;
+  private volatile boolean finished_;
   private int amountOfIsotopes_;
   int isotopesMustMatch_;
   private boolean searchUnknownTime_;
@@ -72,13 +92,28 @@ public class BatchQuantThread extends Thread
   /** was the task started by the command line interface*/
   private boolean cli_;
   
-  private int currentLine_;
   private boolean readFromRaw_;
-  int oneThird_;
   private int numberOfProcessors_;
   private boolean areWiffPresent_;
   private Vector<RawQuantificationPairVO> generatedMzXMLsFromWiff_;
   
+  /** true if translations and quantifications of several rows run at the same time*/
+  private boolean pipelined_;
+  /** the processing stage of each row; null if the stages have to be initialized*/
+  private int[] rowStages_;
+  /** the row that occupies the translation lane; -1 if the lane is free*/
+  private int translationRow_;
+  /** the running quantifications; key: the row*/
+  private Hashtable<Integer,QuantificationThread> runningQuants_;
+  /** the maximum amount of concurrent quantifications*/
+  private int maxConcurrentQuants_;
+  /** the amount of threads each translation or quantification may use*/
+  private int threadsPerJob_;
+  /** one permit is released whenever a translation or quantification has finished*/
+  private Semaphore completions_;
+  /** the completion callback of the translations and quantifications*/
+  private Runnable completionCallback_;
+  
   public BatchQuantThread(BatchQuantificationTable quantTable, BatchQuantificationTableModel quantTableModel, 
       JProgressBar progressBar, JLabel quantifyingLabel,//float mzTolerance,
       float minusTime, float plusTime,int amountOfIsotopes, int isotopesMustMatch, boolean searchUnknownTime,
@@ -90,12 +125,9 @@ public class BatchQuantThread extends Thread
 //    this.mzTolerance_ = mzTolerance;
     this.minusTime_ = minusTime;
     this.plusTime_ = plusTime;
-    currentLine_ = 0;
-    this.quantThread_ = null;
     this.rawmzThread_ = null;
     this.mzThread_ = null;
     this.readFromRaw_ = false;
-    this.oneThird_ = 100/(3*quantTableModel.getRowCount());
     this.amountOfIsotopes_ = amountOfIsotopes;
     this.isotopesMustMatch_ = isotopesMustMatch;
     this.searchUnknownTime_ = searchUnknownTime;
@@ -106,115 +138,139 @@ public class BatchQuantThread extends Thread
     this.areWiffPresent_ = false;
     this.ionMode_ = ionMode;
     this.cli_ = cli;
+    this.pipelined_ = LipidomicsConstants.isBatchPipeline();
+    this.rowStages_ = null;
+    this.translationRow_ = -1;
+    this.runningQuants_ = new Hashtable<Integer,QuantificationThread>();
+    if (pipelined_){
+      this.maxConcurrentQuants_ = LipidomicsConstants.getBatchMaxConcurrentQuantifications();
+      //the translation lane and the quantification lanes share the processors
+      this.threadsPerJob_ = Math.max(1, numberOfProcessors_/(maxConcurrentQuants_+1));
+    } else {
+      this.maxConcurrentQuants_ = 1;
+      this.threadsPerJob_ = numberOfProcessors_;
+    }
+    this.completions_ = new Semaphore(0);
+    this.completionCallback_ = new Runnable(){
+      public void run(){
+        completions_.release();
+      }
+    };
   }
     
   public void run(){
-    timer_ = new java.util.Timer();
-    timer_.schedule(new ThreadSupervisor(), 10, 1000);
+    try{
+      while (!finished_){
+        if (advanceStages()) continue;
+        if (finished_) break;
+        completions_.tryAcquire(PROGRESS_PERIOD, TimeUnit.MILLISECONDS);
+        completions_.drainPermits();
+      }
+    } catch (InterruptedException ex){
+      finished_ = true;
+    }
   }
   
   public boolean finished(){
-    if (finished_)
-      this.timer_.cancel();
     return this.finished_;
   }
   
-  private class ThreadSupervisor extends TimerTask{
-
-    public void run()
-    {
-      handleTimerEvent();
-    }   
+  /**
+   * hands the rows over to their next stage: the finished translations and quantifications are evaluated, the rows
+   * requiring a translation are started in the translation lane, and the rows having a chrom file are quantified
+   * @return true if the table was replaced by the mzXML files of wiff conversions, and the stages have to be advanced again
+   */
+  private boolean advanceStages(){
+    if (rowStages_==null){
+      rowStages_ = new int[quantTableModel_.getRowCount()];
+      for (int i=0; i!=rowStages_.length; i++) rowStages_[i] = STAGE_WAITING;
+      translationRow_ = -1;
+    }
+    checkTranslation();
+    checkQuantifications();
+    prepareWaitingRows();
+    startQuantifications();
+    updateProgress();
+    for (int i=0; i!=rowStages_.length; i++){
+      if (rowStages_[i]!=STAGE_DONE) return false;
+    }
+    if (areWiffPresent_){
+      areWiffPresent_ = false;
+      quantTableModel_.clearFiles();
+      quantTableModel_.addFiles(this.generatedMzXMLsFromWiff_);
+      rowStages_ = null;
+      return true;
+    }
+    this.finished_ = true;
+    return false;
   }
   
-  private void handleTimerEvent(){
-    if (this.currentLine_<this.quantTableModel_.getRowCount()){
-      if (this.rawmzThread_!=null && this.rawmzThread_.finished()){
-        RawQuantificationPairVO filePair = quantTableModel_.getDataByRow((this.currentLine_));
-        if (this.rawmzThread_.getErrorString()!=null&&this.rawmzThread_.getErrorString().length()>0){
-          filePair.setStatus("ERROR");
-          quantTableModel_.fileQuantificationError(filePair);
-          this.currentLine_++;
-        }else{
-          this.rawmzThread_ = null;
-          if (filePair.getRawFileName().endsWith(".wiff")){
-            areWiffPresent_ = true;
-            Vector<File> filesToTranslate = getMzXMLFilesOfWiffConversion(filePair.getRawFile().getAbsolutePath());
-            for (File fileToTranslate : filesToTranslate){
-              boolean isThere = false;
-              for (RawQuantificationPairVO attachedFile : generatedMzXMLsFromWiff_){
-                if (fileToTranslate.getAbsolutePath().equalsIgnoreCase(attachedFile.getRawFile().getAbsolutePath()) &&
-                    filePair.getQuantFile().getAbsolutePath().equalsIgnoreCase(attachedFile.getQuantFile().getAbsolutePath())) isThere = true;
-              }
-              if (!isThere) generatedMzXMLsFromWiff_.add(new RawQuantificationPairVO(fileToTranslate,filePair.getQuantFile(),true));
-            }
-            quantTableModel_.fileQuantified(filePair);
-            this.currentLine_ = this.currentLine_+1;
-          } else {
-            filePair.setStatus("Trans to chrom");
-            this.quantTableModel_.fireTableDataChanged();
-            this.quantifyingLabel_.setText("Translating "+filePair.getRawFileName()+" to chrom");
-            this.progressBar_.setValue((this.currentLine_*100)/this.quantTableModel_.getRowCount()+oneThird_);
-            this.readFromRaw_ = true;
-            String mzXMLFilePath = filePair.getRawFile().getAbsolutePath().substring(0,filePair.getRawFile().getAbsolutePath().lastIndexOf("."))
-                +"."+LipidomicsConstants.getIntermediateFileFormat();
-            mzThread_ = new MzxmlToChromThread(mzXMLFilePath,numberOfProcessors_);
-            mzThread_.start();
-          }
-        }
+  /**
+   * checks whether the thread of the translation lane has finished, and hands the row over to the next stage
+   */
+  private void checkTranslation(){
+    if (this.rawmzThread_!=null && this.rawmzThread_.finished()){
+      RawQuantificationPairVO filePair = quantTableModel_.getDataByRow(translationRow_);
+      if (this.rawmzThread_.getErrorString()!=null&&this.rawmzThread_.getErrorString().length()>0){
+        filePair.setStatus("ERROR");
+        quantTableModel_.fileQuantificationError(filePair);
+        rowStages_[translationRow_] = STAGE_DONE;
+        translationRow_ = -1;
+      }else if (filePair.getRawFileName().endsWith(".wiff")){
+        areWiffPresent_ = true;
+        collectMzXMLFilesOfWiffConversion(filePair);
+        quantTableModel_.fileQuantified(filePair);
+        rowStages_[translationRow_] = STAGE_DONE;
+        translationRow_ = -1;
+      } else {
+        this.readFromRaw_ = true;
+        String mzXMLFilePath = filePair.getRawFile().getAbsolutePath().substring(0,filePair.getRawFile().getAbsolutePath().lastIndexOf("."))
+            +"."+LipidomicsConstants.getIntermediateFileFormat();
+        startChromTranslation(translationRow_,mzXMLFilePath);
       }
-      if (this.mzThread_!=null && this.mzThread_.finished()){
-        RawQuantificationPairVO filePair = quantTableModel_.getDataByRow((this.currentLine_));
-        if (this.mzThread_.getErrorString()!=null&&this.mzThread_.getErrorString().length()>0){
-          filePair.setStatus("ERROR");
-          quantTableModel_.fileQuantificationError(filePair);
-          this.currentLine_++;
-        }else{
-          //delete the mzXML file when raw data was used
-          if (readFromRaw_ || filePair.isFromWiff()){
-            this.readFromRaw_ = false;
-            RawToMzxmlThread.deleteMzXMLFiles(filePair.getRawFile().getAbsolutePath().substring(0,filePair.getRawFile().getAbsolutePath().lastIndexOf("."))
-                +"."+LipidomicsConstants.getIntermediateFileFormat());
-          }
-          //when there is polarity switched data, the file name changes
-          boolean quantPossible = true;
-          if (mzThread_.isPolaritySwitched()){
-            adaptTableToPolaritySwitchedData();
-            filePair = quantTableModel_.getDataByRow((this.currentLine_));
-            if (filePair.getStatus()!=null && filePair.getStatus().startsWith("ERROR")){
-              currentLine_++;
-              quantPossible = false;
-            } else
-              this.quantTable_.getSelectionModel().setSelectionInterval(this.currentLine_, this.currentLine_);
-          }
-          if (quantPossible){
-            filePair.setStatus("Quantifying");
-            this.quantifyingLabel_.setText("Quantifying "+filePair.getRawFileName()+" with "+filePair.getQuantFileName());
-            this.progressBar_.setValue((this.currentLine_*100)/this.quantTableModel_.getRowCount()+2*oneThird_);
-            quantThread_ = new QuantificationThread(filePair.getRawFile().getAbsolutePath(), filePair.getQuantFile().getAbsolutePath(),
-                LipidDataAnalyzer.getResultFilePath(filePair.getRawFile().getAbsolutePath(), filePair.getQuantFile().getAbsolutePath()),
-                //this.mzTolerance_,
-                minusTime_,plusTime_,this.amountOfIsotopes_,this.isotopesMustMatch_,this.searchUnknownTime_,this.basePeakCutoff_,rtShift_, 
-                numberOfProcessors_,ionMode_,cli_);
-            quantThread_.start();
-          }
+      this.rawmzThread_ = null;
+    }
+    if (this.mzThread_!=null && this.mzThread_.finished()){
+      RawQuantificationPairVO filePair = quantTableModel_.getDataByRow(translationRow_);
+      if (this.mzThread_.getErrorString()!=null&&this.mzThread_.getErrorString().length()>0){
+        filePair.setStatus("ERROR");
+        quantTableModel_.fileQuantificationError(filePair);
+        rowStages_[translationRow_] = STAGE_DONE;
+      }else{
+        //delete the mzXML file when raw data was used
+        if (readFromRaw_ || filePair.isFromWiff()){
+          this.readFromRaw_ = false;
+          RawToMzxmlThread.deleteMzXMLFiles(filePair.getRawFile().getAbsolutePath().substring(0,filePair.getRawFile().getAbsolutePath().lastIndexOf("."))
+              +"."+LipidomicsConstants.getIntermediateFileFormat());
         }
-        this.mzThread_ = null;
-      }
-      if (this.quantThread_!=null && !this.quantThread_.finished() && 
-          (this.quantThread_.getErrorString()==null||this.quantThread_.getErrorString().length()==0)){   
-        if (quantThread_.getTotalAmountOfLipids()>0&&quantThread_.getCurrentLipidCount()>0){
-          RawQuantificationPairVO filePair = quantTableModel_.getDataByRow((this.currentLine_));
-          this.progressBar_.setValue((this.currentLine_*100)/this.quantTableModel_.getRowCount()+2*oneThird_+((oneThird_*(quantThread_.getCurrentLipidCount()-1))/quantThread_.getTotalAmountOfLipids()));
-          filePair.setStatus("Quantifying "+quantThread_.getCurrentLipid()+" ("+quantThread_.getCurrentLipidCount()+"/"+quantThread_.getTotalAmountOfLipids()+")");
-          this.quantTable_.repaint();
-        }  
+        //when there is polarity switched data, the file name changes
+        if (mzThread_.isPolaritySwitched()){
+          adaptTableToPolaritySwitchedData(translationRow_);
+          filePair = quantTableModel_.getDataByRow(translationRow_);
+        }
+        if (filePair.getStatus()!=null && filePair.getStatus().startsWith("ERROR")){
+          rowStages_[translationRow_] = STAGE_DONE;
+        } else {
+          filePair.setStatus("Waiting");
+          rowStages_[translationRow_] = STAGE_READY;
+        }
+        this.quantTable_.repaint();
       }
-      
-      if (this.quantThread_!=null && this.quantThread_.finished()){
-        RawQuantificationPairVO filePair = quantTableModel_.getDataByRow((this.currentLine_));
-        if (this.quantThread_.getErrorString()!=null&&this.quantThread_.getErrorString().length()>0){
-          String errorString = quantThread_.getErrorString();
+      this.mzThread_ = null;
+      translationRow_ = -1;
+    }
+  }
+  
+  /**
+   * updates the progress of the running quantifications, and releases the finished ones
+   */
+  private void checkQuantifications(){
+    for (Integer row : new Vector<Integer>(runningQuants_.keySet())){
+      QuantificationThread quantThread = runningQuants_.get(row);
+      RawQuantificationPairVO filePair = quantTableModel_.getDataByRow(row);
+      if (quantThread.finished()){
+        if (quantThread.getErrorString()!=null&&quantThread.getErrorString().length()>0){
+          String errorString = quantThread.getErrorString();
           if (errorString.indexOf(":")>-1) errorString = errorString.substring(errorString.indexOf(":")+1);
           filePair.setStatus("ERROR: "+errorString);
           quantTableModel_.fileQuantificationError(filePair);
@@ -222,145 +278,248 @@ public class BatchQuantThread extends Thread
           filePair.setStatus("Finished");
           quantTableModel_.fileQuantified(filePair);
         }
-        this.quantThread_ = null;
-        this.quantTable_.getSelectionModel().removeSelectionInterval(0, this.quantTable_.getRowCount());
-        this.progressBar_.setValue((this.currentLine_*100)/this.quantTableModel_.getRowCount());
-        this.currentLine_ = this.currentLine_+1;
+        runningQuants_.remove(row);
+        rowStages_[row] = STAGE_DONE;
+        if (!pipelined_) this.quantTable_.getSelectionModel().removeSelectionInterval(0, this.quantTable_.getRowCount());
+      } else if (quantThread.isExporting()){
+        filePair.setStatus("Exporting");
+        this.quantTable_.repaint();
+      } else if ((quantThread.getErrorString()==null||quantThread.getErrorString().length()==0) &&
+          quantThread.getTotalAmountOfLipids()>0&&quantThread.getCurrentLipidCount()>0){
+        filePair.setStatus("Quantifying "+quantThread.getCurrentLipid()+" ("+quantThread.getCurrentLipidCount()+"/"+quantThread.getTotalAmountOfLipids()+")");
+        this.quantTable_.repaint();
       }
-      if (this.currentLine_<this.quantTableModel_.getRowCount() && quantTableModel_.getDataByRow(this.currentLine_).getStatus()!=null && quantTableModel_.getDataByRow(this.currentLine_).getStatus().startsWith("ERROR")){
-        currentLine_++;
-      } else if (this.currentLine_<this.quantTableModel_.getRowCount()&& this.rawmzThread_ == null && this.mzThread_==null && this.quantThread_ == null){
-        readFromRaw_ = false;
-        boolean threadStarted = false;
-        RawQuantificationPairVO filePair = quantTableModel_.getDataByRow((this.currentLine_));
-        String suffix = filePair.getRawFile().getAbsolutePath().substring(filePair.getRawFile().getAbsolutePath().lastIndexOf("."));
-        if (suffix.equalsIgnoreCase(".RAW")||suffix.equalsIgnoreCase(".d")||suffix.equalsIgnoreCase(".wiff")){
-          File rawFile = new File(filePair.getRawFile().getAbsolutePath());
-          if ((rawFile.isFile()&& ((Settings.getReadWPath()!=null&&Settings.getReadWPath().length()>0)||(Settings.getMsConvertPath()!=null&&Settings.getMsConvertPath().length()>0)))||
-              (rawFile.isDirectory() && ((suffix.equalsIgnoreCase(".RAW")&&((Settings.getMassWolfPath()!=null&&Settings.getMassWolfPath().length()>0)||((Settings.getMassPlusPlusPath()!=null&&Settings.getMassPlusPlusPath().length()>0))))
-                                     ||   (suffix.equalsIgnoreCase(".d") &&Settings.getMsConvertPath()!=null&&Settings.getMsConvertPath().length()>0)))){
-            File headerFile = new File(StringUtils.getChromFilePaths(filePair.getRawFile().getAbsolutePath())[1]);
-            File mzXMLFile = new File(filePair.getRawFile().getAbsolutePath().substring(0,filePair.getRawFile().getAbsolutePath().length()-suffix.length())+"."+LipidomicsConstants.getIntermediateFileFormat());
-            if (!headerFile.exists()&&!mzXMLFile.exists()){
-              boolean isMassPlusPlus = false;
-              boolean watersMsConvert = false;
-              filePair.setStatus("Trans to "+LipidomicsConstants.getIntermediateFileFormat());
-              this.quantTable_.scrollToCenter(this.currentLine_, 0);
-              this.quantTable_.getSelectionModel().setSelectionInterval(this.currentLine_, this.currentLine_);
-              this.quantTable_.repaint();
-              this.quantifyingLabel_.setText("Translating "+filePair.getRawFileName()+" to "+LipidomicsConstants.getIntermediateFileFormat());
-              this.progressBar_.setValue((this.currentLine_*100)/this.quantTableModel_.getRowCount());
-//              String execCommand = "";
-//              if (rawFile.isFile())
-//                execCommand =  "\""+LipidomicsConstants.getReadWPath()+"\" \""+ filePair.getRawFile().getAbsolutePath()+"\" p";
-//              if (rawFile.isDirectory())
-//                execCommand =  "\""+LipidomicsConstants.getMassWolfPath()+"\" --mzXML \""+ filePair.getRawFile().getAbsolutePath()+"\" \""+mzXMLFile+"\"";
-              String[] params = new String[3];
-              if (rawFile.isFile()){
-                if (Settings.getMsConvertPath()!=null&&Settings.getMsConvertPath().length()>0){
-                  params = BatchQuantThread.getMsConvertParams(filePair.getRawFile().getAbsolutePath());
-                } else if (Settings.getReadWPath()!=null&&Settings.getReadWPath().length()>0){
-                  params[0] = Settings.getReadWPath();
-                  params[1] = filePair.getRawFile().getAbsolutePath();
-                  params[2] = "p";
-                }  
-              }
-              if (rawFile.isDirectory()){
-                if (suffix.equalsIgnoreCase(".RAW")){
-                  if (LipidomicsConstants.useMsconvertForWaters()) {
-                    params =BatchQuantThread.getMsConvertParamsWaters(filePair.getRawFile().getAbsolutePath());
-                    watersMsConvert = true;
-                  } else if (Settings.getMassPlusPlusPath()!=null&&Settings.getMassPlusPlusPath().length()>0){
-                    params = new String[8];
-                    params[0] = Settings.getMassPlusPlusPath();
-                    params[1] = "-in";
-                    params[2] = filePair.getRawFile().getAbsolutePath();
-                    params[3] = "-out";
-                    params[4] = LipidomicsConstants.getIntermediateFileFormat().toLowerCase(); //Not tested yet for mzML, also unsure whether it has to be lower case..
-                    params[5] = mzXMLFile.getAbsolutePath();
-                    params[6] = "-sample";
-                    params[7] = "0";
-                    if (LipidomicsConstants.isMS2()) isMassPlusPlus = true;
-                  }else if (Settings.getMassWolfPath()!=null&&Settings.getMassWolfPath().length()>0){
-                    params = new String[4];
-                    params[0] = Settings.getMassWolfPath();
-                    params[1] = "--"+LipidomicsConstants.getIntermediateFileFormat();
-                    params[2] = filePair.getRawFile().getAbsolutePath();
-                    params[3] = mzXMLFile.getAbsolutePath();  
-                  }
-                }else if(suffix.equalsIgnoreCase(".d")){
-                  if (Settings.getMsConvertPath()!=null&&Settings.getMsConvertPath().length()>0){
-                    params =BatchQuantThread.getMsConvertParams(filePair.getRawFile().getAbsolutePath());
-                  }                    
-                }
-              }
-              this.rawmzThread_ = new RawToMzxmlThread(params,isMassPlusPlus,watersMsConvert);
-              rawmzThread_.start();
-              threadStarted = true;
-            }
-          }else{
-            filePair.setStatus("ERROR");
-            quantTableModel_.fileQuantificationError(filePair);
-            this.currentLine_++;
-            threadStarted=true;
-            return;            
-          }
-        }
-//        if (LipidomicsConstants.getReadWPath()==null||LipidomicsConstants.getReadWPath().length()<1){
-//          filePair.setStatus("ERROR");
-//          quantTableModel_.fileQuantificationError(filePair);
-//          this.currentLine_++;
-//          threadStarted=true;
-//          return;
-//        }
-        if (suffix.equalsIgnoreCase(".mzXML") || suffix.equalsIgnoreCase(".mzML")){
-          File headerFile = new File(StringUtils.getChromFilePaths(filePair.getRawFile().getAbsolutePath())[1]);
-          if (!headerFile.exists()){
-            filePair.setStatus("Trans to chrom");
-            this.quantTable_.scrollToCenter(this.currentLine_, 0);
-            this.quantTable_.getSelectionModel().setSelectionInterval(this.currentLine_, this.currentLine_);
-            this.quantTable_.repaint();
-            this.quantifyingLabel_.setText("Translating "+filePair.getRawFileName()+" to chrom");
-            this.progressBar_.setValue((this.currentLine_*100)/this.quantTableModel_.getRowCount()+oneThird_);
-            mzThread_ = new MzxmlToChromThread(filePair.getRawFile().getAbsolutePath(),numberOfProcessors_);
-            mzThread_.start();
-            threadStarted = true;
-          }
-        }
-        if (!threadStarted){
-          filePair.setStatus("Quantifying");
-          this.quantTable_.scrollToCenter(this.currentLine_, 0);
-          this.quantTable_.getSelectionModel().setSelectionInterval(this.currentLine_, this.currentLine_);
-          this.quantTable_.repaint();
-          this.quantifyingLabel_.setText("Quantifying "+filePair.getRawFileName()+" with "+filePair.getQuantFileName());
-          this.progressBar_.setValue((this.currentLine_*100)/this.quantTableModel_.getRowCount()+2*oneThird_);
-          quantThread_ = new QuantificationThread(filePair.getRawFile().getAbsolutePath(), filePair.getQuantFile().getAbsolutePath(),
-              LipidDataAnalyzer.getResultFilePath(filePair.getRawFile().getAbsolutePath(), filePair.getQuantFile().getAbsolutePath()),
-              //this.mzTolerance_,
-              minusTime_,plusTime_,this.amountOfIsotopes_,this.isotopesMustMatch_,this.searchUnknownTime_,this.basePeakCutoff_,rtShift_,
-              numberOfProcessors_,ionMode_,cli_);
-          quantThread_.start();
-          threadStarted = true;
-        }
-        if (!threadStarted){
+    }
+  }
+  
+  /**
+   * decides for the waiting rows whether they can be quantified directly or require a translation; the first row
+   * requiring a translation is started when the translation lane is free - rows sharing a raw file wait for the translation of the first one;
+   * without pipelining, only the first unfinished row is prepared, as soon as nothing else is running
+   */
+  private void prepareWaitingRows(){
+    for (int i=0; i!=rowStages_.length; i++){
+      if (!pipelined_ && rowStages_[i]!=STAGE_WAITING && rowStages_[i]!=STAGE_DONE) return;
+      if (rowStages_[i]!=STAGE_WAITING) continue;
+      RawQuantificationPairVO filePair = quantTableModel_.getDataByRow(i);
+      if (filePair.getStatus()!=null && filePair.getStatus().startsWith("ERROR")){
+        rowStages_[i] = STAGE_DONE;
+        continue;
+      }
+      if (isRawFileInTranslation(i)) continue;
+      String suffix = filePair.getRawFile().getAbsolutePath().substring(filePair.getRawFile().getAbsolutePath().lastIndexOf("."));
+      File headerFile = new File(StringUtils.getChromFilePaths(filePair.getRawFile().getAbsolutePath())[1]);
+      if (suffix.equalsIgnoreCase(".RAW")||suffix.equalsIgnoreCase(".d")||suffix.equalsIgnoreCase(".wiff")){
+        File rawFile = new File(filePair.getRawFile().getAbsolutePath());
+        if (!isRawConverterAvailable(rawFile,suffix)){
           filePair.setStatus("ERROR");
           quantTableModel_.fileQuantificationError(filePair);
-          this.currentLine_++;
-          
+          rowStages_[i] = STAGE_DONE;
+          continue;
+        }
+        File mzXMLFile = new File(filePair.getRawFile().getAbsolutePath().substring(0,filePair.getRawFile().getAbsolutePath().length()-suffix.length())+"."+LipidomicsConstants.getIntermediateFileFormat());
+        if (!headerFile.exists()&&!mzXMLFile.exists()){
+          if (translationRow_!=-1) continue;
+          readFromRaw_ = false;
+          filePair.setStatus("Trans to "+LipidomicsConstants.getIntermediateFileFormat());
+          showRow(i);
+          this.quantifyingLabel_.setText("Translating "+filePair.getRawFileName()+" to "+LipidomicsConstants.getIntermediateFileFormat());
+          this.rawmzThread_ = createRawToMzxmlThread(filePair.getRawFile().getAbsolutePath(),rawFile,suffix,mzXMLFile);
+          rawmzThread_.setCompletionCallback(completionCallback_);
+          rawmzThread_.start();
+          translationRow_ = i;
+          rowStages_[i] = STAGE_TO_INTERMEDIATE;
+          if (pipelined_) continue;
+          return;
         }
       }
+      if ((suffix.equalsIgnoreCase(".mzXML") || suffix.equalsIgnoreCase(".mzML")) && !headerFile.exists()){
+        if (translationRow_!=-1) continue;
+        readFromRaw_ = false;
+        showRow(i);
+        startChromTranslation(i,filePair.getRawFile().getAbsolutePath());
+        if (pipelined_) continue;
+        return;
+      }
+      filePair.setStatus("Waiting");
+      rowStages_[i] = STAGE_READY;
+      if (!pipelined_) return;
     }
-    if (this.currentLine_>=this.quantTableModel_.getRowCount()){
-      if (areWiffPresent_){
-        areWiffPresent_ = false;
-        quantTableModel_.clearFiles();
-        quantTableModel_.addFiles(this.generatedMzXMLsFromWiff_);
-        this.oneThird_ = 100/(3*quantTableModel_.getRowCount());
-        currentLine_ = 0;
-      }else this.finished_ = true;
+  }
+  
+  /**
+   * starts the translation of an mzXML/mzML file to chrom in the translation lane
+   * @param row the row of the file
+   * @param mzXMLFilePath the path to the mzXML/mzML file
+   */
+  private void startChromTranslation(int row, String mzXMLFilePath){
+    RawQuantificationPairVO filePair = quantTableModel_.getDataByRow(row);
+    filePair.setStatus("Trans to chrom");
+    this.quantTableModel_.fireTableDataChanged();
+    this.quantifyingLabel_.setText("Translating "+filePair.getRawFileName()+" to chrom");
+    mzThread_ = new MzxmlToChromThread(mzXMLFilePath,threadsPerJob_);
+    mzThread_.setCompletionCallback(completionCallback_);
+    mzThread_.start();
+    translationRow_ = row;
+    rowStages_[row] = STAGE_TO_CHROM;
+  }
+  
+  /**
+   * scrolls to a row that is started; without pipelining, the row is selected as well
+   * @param row the row
+   */
+  private void showRow(int row){
+    this.quantTable_.scrollToCenter(row, 0);
+    if (!pipelined_) this.quantTable_.getSelectionModel().setSelectionInterval(row, row);
+    this.quantTable_.repaint();
+  }
+  
+  /**
+   * 
+   * @param row the row to check
+   * @return true if a previous row with the same raw file has not finished its translation yet
+   */
+  private boolean isRawFileInTranslation(int row){
+    String rawPath = quantTableModel_.getDataByRow(row).getRawFile().getAbsolutePath();
+    for (int i=0; i!=row; i++){
+      if (rowStages_[i]>=STAGE_READY) continue;
+      if (quantTableModel_.getDataByRow(i).getRawFile().getAbsolutePath().equalsIgnoreCase(rawPath)) return true;
     }
+    return false;
   }
   
+  /**
+   * starts the quantification of the rows that are ready, as long as a quantification lane is free and enough heap is left
+   */
+  private void startQuantifications(){
+    for (int i=0; i!=rowStages_.length && runningQuants_.size()<maxConcurrentQuants_; i++){
+      if (rowStages_[i]!=STAGE_READY) continue;
+      if (runningQuants_.size()>0 && !isEnoughHeapFree()) return;
+      RawQuantificationPairVO filePair = quantTableModel_.getDataByRow(i);
+      filePair.setStatus("Quantifying");
+      showRow(i);
+      this.quantifyingLabel_.setText("Quantifying "+filePair.getRawFileName()+" with "+filePair.getQuantFileName());
+      QuantificationThread quantThread = new QuantificationThread(filePair.getRawFile().getAbsolutePath(), filePair.getQuantFile().getAbsolutePath(),
+          LipidDataAnalyzer.getResultFilePath(filePair.getRawFile().getAbsolutePath(), filePair.getQuantFile().getAbsolutePath()),
+          //this.mzTolerance_,
+          minusTime_,plusTime_,this.amountOfIsotopes_,this.isotopesMustMatch_,this.searchUnknownTime_,this.basePeakCutoff_,rtShift_,
+          threadsPerJob_,ionMode_,cli_);
+      quantThread.setCompletionCallback(completionCallback_);
+      runningQuants_.put(i, quantThread);
+      rowStages_[i] = STAGE_QUANTIFYING;
+      quantThread.start();
+    }
+  }
+  
+  /**
+   * 
+   * @return true if the free heap allows an additional quantification
+   */
+  private boolean isEnoughHeapFree(){
+    Runtime runtime = Runtime.getRuntime();
+    long used = runtime.totalMemory()-runtime.freeMemory();
+    return (runtime.maxMemory()-used)>=(long)(PIPELINE_MIN_FREE_HEAP*runtime.maxMemory());
+  }
+  
+  /**
+   * sets the progress bar - every row contributes thirds for the translations and the quantification
+   */
+  private void updateProgress(){
+    float thirds = 0f;
+    for (int i=0; i!=rowStages_.length; i++){
+      if (rowStages_[i]==STAGE_DONE) thirds += 3f;
+      else if (rowStages_[i]==STAGE_READY) thirds += 2f;
+      else if (rowStages_[i]==STAGE_TO_CHROM) thirds += 1f;
+      else if (rowStages_[i]==STAGE_QUANTIFYING){
+        thirds += 2f;
+        QuantificationThread quantThread = runningQuants_.get(i);
+        if (quantThread!=null && quantThread.getTotalAmountOfLipids()>0&&quantThread.getCurrentLipidCount()>0)
+          thirds += ((float)(quantThread.getCurrentLipidCount()-1))/((float)quantThread.getTotalAmountOfLipids());
+      }
+    }
+    this.progressBar_.setValue((int)((thirds*100f)/(3f*rowStages_.length)));
+  }
+  
+  /**
+   * 
+   * @param rawFile the raw file
+   * @param suffix the suffix of the raw file
+   * @return true if a converter for this vendor format is set
+   */
+  private static boolean isRawConverterAvailable(File rawFile, String suffix){
+    return (rawFile.isFile()&& ((Settings.getReadWPath()!=null&&Settings.getReadWPath().length()>0)||(Settings.getMsConvertPath()!=null&&Settings.getMsConvertPath().length()>0)))||
+        (rawFile.isDirectory() && ((suffix.equalsIgnoreCase(".RAW")&&((Settings.getMassWolfPath()!=null&&Settings.getMassWolfPath().length()>0)||((Settings.getMassPlusPlusPath()!=null&&Settings.getMassPlusPlusPath().length()>0))))
+                               ||   (suffix.equalsIgnoreCase(".d") &&Settings.getMsConvertPath()!=null&&Settings.getMsConvertPath().length()>0)));
+  }
+  
+  /**
+   * creates the thread for translating a vendor file to the intermediate file format
+   * @param rawPath the path to the vendor file
+   * @param rawFile the vendor file
+   * @param suffix the suffix of the vendor file
+   * @param mzXMLFile the intermediate file to be written
+   * @return the thread for the translation (not started)
+   */
+  private static RawToMzxmlThread createRawToMzxmlThread(String rawPath, File rawFile, String suffix, File mzXMLFile){
+    boolean isMassPlusPlus = false;
+    boolean watersMsConvert = false;
+    String[] params = new String[3];
+    if (rawFile.isFile()){
+      if (Settings.getMsConvertPath()!=null&&Settings.getMsConvertPath().length()>0){
+        params = BatchQuantThread.getMsConvertParams(rawPath);
+      } else if (Settings.getReadWPath()!=null&&Settings.getReadWPath().length()>0){
+        params[0] = Settings.getReadWPath();
+        params[1] = rawPath;
+        params[2] = "p";
+      }  
+    }
+    if (rawFile.isDirectory()){
+      if (suffix.equalsIgnoreCase(".RAW")){
+        if (LipidomicsConstants.useMsconvertForWaters()) {
+          params =BatchQuantThread.getMsConvertParamsWaters(rawPath);
+          watersMsConvert = true;
+        } else if (Settings.getMassPlusPlusPath()!=null&&Settings.getMassPlusPlusPath().length()>0){
+          params = new String[8];
+          params[0] = Settings.getMassPlusPlusPath();
+          params[1] = "-in";
+          params[2] = rawPath;
+          params[3] = "-out";
+          params[4] = LipidomicsConstants.getIntermediateFileFormat().toLowerCase(); //Not tested yet for mzML, also unsure whether it has to be lower case..
+          params[5] = mzXMLFile.getAbsolutePath();
+          params[6] = "-sample";
+          params[7] = "0";
+          if (LipidomicsConstants.isMS2()) isMassPlusPlus = true;
+        }else if (Settings.getMassWolfPath()!=null&&Settings.getMassWolfPath().length()>0){
+          params = new String[4];
+          params[0] = Settings.getMassWolfPath();
+          params[1] = "--"+LipidomicsConstants.getIntermediateFileFormat();
+          params[2] = rawPath;
+          params[3] = mzXMLFile.getAbsolutePath();  
+        }
+      }else if(suffix.equalsIgnoreCase(".d")){
+        if (Settings.getMsConvertPath()!=null&&Settings.getMsConvertPath().length()>0){
+          params =BatchQuantThread.getMsConvertParams(rawPath);
+        }                    
+      }
+    }
+    return new RawToMzxmlThread(params,isMassPlusPlus,watersMsConvert);
+  }
+  
+  /**
+   * adds the mzXML files generated from a wiff file to the list of files to be quantified in a second round
+   * @param filePair the raw/quant pair of the wiff file
+   */
+  private void collectMzXMLFilesOfWiffConversion(RawQuantificationPairVO filePair){
+    Vector<File> filesToTranslate = getMzXMLFilesOfWiffConversion(filePair.getRawFile().getAbsolutePath());
+    for (File fileToTranslate : filesToTranslate){
+      boolean isThere = false;
+      for (RawQuantificationPairVO attachedFile : generatedMzXMLsFromWiff_){
+        if (fileToTranslate.getAbsolutePath().equalsIgnoreCase(attachedFile.getRawFile().getAbsolutePath()) &&
+            filePair.getQuantFile().getAbsolutePath().equalsIgnoreCase(attachedFile.getQuantFile().getAbsolutePath())) isThere = true;
+      }
+      if (!isThere) generatedMzXMLsFromWiff_.add(new RawQuantificationPairVO(fileToTranslate,filePair.getQuantFile(),true));
+    }
+  }
   
   public static String[] getMsConvertParams(String fileToTranslate){
     String[] params = new String[5];
@@ -403,10 +562,11 @@ public class BatchQuantThread extends Thread
   
   /**
    * changes the display table of the quantification progress to the multiple chrom files of polarity switched data
+   * @param startRow the row whose raw file was translated
    */
-  private void adaptTableToPolaritySwitchedData(){
-    String fileName = quantTableModel_.getDataByRow((this.currentLine_)).getRawFileName();
-    for (int i=this.currentLine_; i!=quantTableModel_.getRowCount(); i++){
+  private void adaptTableToPolaritySwitchedData(int startRow){
+    String fileName = quantTableModel_.getDataByRow(startRow).getRawFileName();
+    for (int i=startRow; i!=quantTableModel_.getRowCount(); i++){
       RawQuantificationPairVO filePair = quantTableModel_.getDataByRow(i);
       if (!filePair.getRawFileName().equalsIgnoreCase(fileName)) continue;
       String quantName = filePair.getQuantFileName();
@@ -49,6 +49,7 @@ import org.w3c.dom.Document;
 import at.tugraz.genome.lda.exception.ExcelInputFileException;
 import at.tugraz.genome.lda.parser.LDAResultReader;
 import at.tugraz.genome.lda.quantification.LipidParameterSet;
+import at.tugraz.genome.lda.quantification.LipidomicsChromReader;
 import at.tugraz.genome.lda.quantification.QuantificationResult;
 import at.tugraz.genome.lda.swing.ExportPanel;
 import at.tugraz.genome.lda.swing.LipidomicsTableCellRenderer;
@@ -276,7 +277,7 @@ public class ChromExportThread extends Thread
       String chroFile = chromsToUse.get(i);
       String[] filePaths = StringUtils.getChromFilePaths(chroFile);
       try {
-        ChromatogramReader reader_ = new ChromatogramReader(filePaths[1], filePaths[2],filePaths[3], filePaths[0],LipidomicsConstants.isSparseData(),LipidomicsConstants.getChromSmoothRange());
+        ChromatogramReader reader_ = new LipidomicsChromReader(filePaths[1], filePaths[2],filePaths[3], filePaths[0],LipidomicsConstants.isSparseData(),LipidomicsConstants.getChromSmoothRange(),false);
         Hashtable<String,Boolean> showMods = new Hashtable<String,Boolean>();
         QuantificationResult result = LDAResultReader.readResultFile(resultsToUse.get(i), showMods);
         Vector<LipidParameterSet> params = result.getIdentifications().get(lipidClass_);
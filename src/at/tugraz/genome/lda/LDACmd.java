@@ -23,10 +23,16 @@
 
 package at.tugraz.genome.lda;
 import java.io.File;
+import java.io.IOException;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import javax.swing.JLabel;
@@ -44,6 +50,7 @@ import at.tugraz.genome.lda.swing.BatchQuantificationTable;
 import at.tugraz.genome.lda.swing.BatchQuantificationTableModel;
 import at.tugraz.genome.lda.utils.StaticUtils;
 import at.tugraz.genome.lda.vos.RawQuantificationPairVO;
+import at.tugraz.genome.maspectras.utils.StringUtils;
 
 
 /**
@@ -62,6 +69,20 @@ public class LDACmd
   
   /** timer for checking whether the thread is finished*/
   private Timer timer_;
+  
+  /** the persistent state of a resumable batch; null if the batch is not resumable*/
+  private BatchJobManifest manifest_ = null;
+  /** the table model of the batch quantification*/
+  private BatchQuantificationTableModel batchQuantTableModel_ = null;
+  /** the manifest entries of the raw/quant pairs that were put into the table*/
+  private IdentityHashMap<RawQuantificationPairVO,BatchJobManifest.Entry> manifestEntries_ = null;
+  /** updates the manifest outside the timer thread, since the fingerprints require file system access*/
+  private ExecutorService manifestExecutor_ = null;
+  /** the update of the manifest that is currently running*/
+  private Future<?> manifestUpdate_ = null;
+  
+  /** the default amount of retries for failed files of a resumed batch*/
+  private final static int MAX_RETRIES_DEFAULT = 2;
 
   /**
    * class for command line interface
@@ -106,6 +127,12 @@ public class LDACmd
     option=new Option("u","unknown", true, "search unknown retention time");
     option.setRequired(false);
     parameters.addOption(option);
+    option=new Option("r","resume", false, "keep a job manifest in the raw directory; an interrupted batch is resumed, up-to-date results are skipped, and failed files are retried");
+    option.setRequired(false);
+    parameters.addOption(option);
+    option=new Option("retry","maxRetries", true, "how often a failed file is retried by a resumed batch (default "+MAX_RETRIES_DEFAULT+")");
+    option.setRequired(false);
+    parameters.addOption(option);
     option=new Option("v","version", false, "version of Lipid Data Analyzer");
     option.setRequired(false);
     parameters.addOption(option);    
@@ -236,6 +263,18 @@ public class LDACmd
       if (command.getOptionValue("u").equalsIgnoreCase("false") || command.getOptionValue("u").equalsIgnoreCase("no"))
         searchUnknownBatchTime = false;
     }
+    boolean resume = command.hasOption("r");
+    int maxRetries = MAX_RETRIES_DEFAULT;
+    try{
+      if (command.getOptionValue("retry")!=null) maxRetries = Integer.parseInt(command.getOptionValue("retry"));
+      if (maxRetries<0) {
+        log_.severe("Maximum retries must not be negative");
+        System.exit(1);
+      }
+    }catch (NumberFormatException nfx){
+      log_.severe("Maximum retries is not integer format");
+      System.exit(1);
+    }
     
     System.out.println("rawDirString: "+rawDirString);
     System.out.println("quantDirString: "+quantDirString);
@@ -247,11 +286,13 @@ public class LDACmd
     System.out.println("plusTimeTol: "+plusTimeTol);
     System.out.println("rtShift: "+rtShift);
     System.out.println("searchUnknownBatchTime: "+searchUnknownBatchTime);
+    System.out.println("resume: "+resume);
+    if (resume) System.out.println("maxRetries: "+maxRetries);
     System.out.println("------------------------------------------");
     LDACmd cmd = new LDACmd();
     cmd.prepareAndStartQuatification(rawDirString, quantDirString, nrProcessors, cutoff,
         isotopesMustMatch, amountOfIsotopes, minusTimeTol, plusTimeTol, rtShift,
-        searchUnknownBatchTime);
+        searchUnknownBatchTime, resume, maxRetries);
   }
   
   /**
@@ -266,10 +307,13 @@ public class LDACmd
    * @param plusTimeTol retention time after tolerance
    * @param rtShift retention time shift
    * @param searchUnknownBatchTime search unknown retention time
+   * @param resume keep a job manifest for resuming an interrupted batch
+   * @param maxRetries how often a failed file is retried by a resumed batch
    */
   private void prepareAndStartQuatification(String rawDirString, String quantDirString,
       int nrProcessors, float cutoff, int isotopesMustMatch, int amountOfIsotopes,
-      float minusTimeTol, float plusTimeTol, float rtShift, boolean searchUnknownBatchTime) {
+      float minusTimeTol, float plusTimeTol, float rtShift, boolean searchUnknownBatchTime,
+      boolean resume, int maxRetries) {
     BatchQuantificationTableModel batchQuantTableModel = new BatchQuantificationTableModel();
     BatchQuantificationTable batchQuantTable = new BatchQuantificationTable(batchQuantTableModel);
     
@@ -285,6 +329,16 @@ public class LDACmd
       File rawDir = new File(rawDirString );
       File quantDir = new File(quantDirString);
       if (rawDir.exists()&&rawDir.isDirectory()&&quantDir.exists()&&quantDir.isDirectory()){
+        if (resume){
+          String parameters = cutoff+";"+isotopesMustMatch+";"+amountOfIsotopes+";"+minusTimeTol+";"+plusTimeTol+";"+rtShift+";"+searchUnknownBatchTime;
+          try {
+            manifest_ = new BatchJobManifest(new File(rawDir,BatchJobManifest.DEFAULT_FILE_NAME),BatchJobManifest.computeSettingsFingerprint(parameters));
+          }catch(IOException iox) {
+            log_.severe("The job manifest cannot be read: "+iox.getMessage());
+            System.exit(1);
+          }
+          removeInterruptedTranslations(rawDir);
+        }
         File[] rawFileCandidates = rawDir.listFiles();
         Hashtable<String,Vector<File>> avoidDuplication = new Hashtable<String,Vector<File>>();
         boolean mzXMLOrChromPresent = false;
@@ -362,12 +416,20 @@ public class LDACmd
             quantFiles.add(quantDir);
           Vector<RawQuantificationPairVO> pairs = new Vector<RawQuantificationPairVO>();
           
-          if (rawFiles.size()>0 && quantFiles.size()>0 && (pairs = LipidDataAnalyzer.generateQuantificationPairVOs(rawFiles,quantFiles)).size()>0){
+          if (manifest_!=null && rawFiles.size()>0 && quantFiles.size()>0){
+            pairs = LipidDataAnalyzer.generateQuantificationPairVOs(rawFiles,quantFiles);
+            if (pairs.size()>0 && (pairs=selectPairsToProcess(pairs,maxRetries)).size()==0){
+              log_.info("All files are up-to-date - nothing to do");
+              System.exit(0);
+            }
+          }
+          if (rawFiles.size()>0 && quantFiles.size()>0 && (pairs.size()>0 || (pairs = LipidDataAnalyzer.generateQuantificationPairVOs(rawFiles,quantFiles)).size()>0)){
             boolean ionMode = false;
 //            if (this.ionModeBatch_!=null && ((String)ionModeBatch_.getSelectedItem()).equalsIgnoreCase("+"))
 //              ionMode = true;
             batchQuantTableModel.clearFiles();
             batchQuantTableModel.addFiles(pairs);
+            batchQuantTableModel_ = batchQuantTableModel;
             progressBatchBar.setValue(0);
             try {
               batchQuantThread_ = new BatchQuantThread(batchQuantTable, batchQuantTableModel,progressBatchBar, 
@@ -419,11 +481,162 @@ public class LDACmd
   }
   
   private void handleTimerEvent(){
-    if (this.batchQuantThread_!=null && this.batchQuantThread_.finished()){
+    //the finished state is read first, so that the manifest receives the final states of the rows
+    boolean finished = this.batchQuantThread_!=null && this.batchQuantThread_.finished();
+    if (manifest_!=null){
+      //a running update is not queued again - the next timer event transfers the remaining changes
+      if (manifestUpdate_!=null && !manifestUpdate_.isDone() && !finished) return;
+      if (manifestExecutor_==null) manifestExecutor_ = Executors.newSingleThreadExecutor();
+      manifestUpdate_ = manifestExecutor_.submit(() -> updateManifest());
+      if (finished) waitForManifestUpdate();
+    }
+    if (finished){
       this.batchQuantThread_ = null;
       System.exit(0);
     }
   }
+  
+  /**
+   * waits until the manifest contains the final states of the rows
+   */
+  private void waitForManifestUpdate(){
+    try {
+      manifestUpdate_.get();
+    } catch (InterruptedException | ExecutionException ex) {
+      log_.warning("The job manifest cannot be updated: "+ex.getMessage());
+    }
+  }
+  
+  /**
+   * removes chrom directories whose translation was interrupted, i.e. the manifest knows that the translation did
+   * not finish, or the header file is missing, and the ones whose source file has been changed since the translation -
+   * the directories are only removed if the source file is still present
+   * @param rawDir the directory containing the raw data
+   */
+  private void removeInterruptedTranslations(File rawDir){
+    Hashtable<String,String> interrupted = new Hashtable<String,String>();
+    Hashtable<String,Vector<BatchJobManifest.Entry>> entriesOfSample = new Hashtable<String,Vector<BatchJobManifest.Entry>>();
+    for (BatchJobManifest.Entry entry : manifest_.getEntries()){
+      if (entry.getStage().equals(BatchJobManifest.STAGE_TRANSLATING)){
+        interrupted.put(entry.getSample(), entry.getSample());
+        entry.setStage(BatchJobManifest.STAGE_PENDING);
+      }
+      if (!entriesOfSample.containsKey(entry.getSample())) entriesOfSample.put(entry.getSample(), new Vector<BatchJobManifest.Entry>());
+      entriesOfSample.get(entry.getSample()).add(entry);
+    }
+    Hashtable<String,File> chromDirs = new Hashtable<String,File>();
+    Hashtable<String,String> sources = new Hashtable<String,String>();
+    for (File file : rawDir.listFiles()){
+      String[] fileNameAndSuffix = StaticUtils.extractFileNameAndSuffix(file.getAbsolutePath());
+      String suffix = fileNameAndSuffix[1];
+      if (suffix.equalsIgnoreCase("chrom") && file.isDirectory())
+        chromDirs.put(fileNameAndSuffix[0], file);
+      else if (BatchJobManifest.isTranslationSource(suffix))
+        sources.put(fileNameAndSuffix[0], fileNameAndSuffix[0]);
+    }
+    for (String sample : chromDirs.keySet()){
+      if (!sources.containsKey(sample)) continue;
+      File chromDir = chromDirs.get(sample);
+      File headerFile = new File(StringUtils.getChromFilePaths(chromDir.getAbsolutePath())[1]);
+      Vector<BatchJobManifest.Entry> entries = entriesOfSample.containsKey(sample) ? entriesOfSample.get(sample) : new Vector<BatchJobManifest.Entry>();
+      boolean sourceChanged = false;
+      String sourceFingerprint = BatchJobManifest.computeSourceFingerprint(chromDir);
+      for (BatchJobManifest.Entry entry : entries){
+        if (entry.getSourceFingerprint().length()>0 && !entry.getSourceFingerprint().equals(sourceFingerprint)) sourceChanged = true;
+      }
+      if (sourceChanged){
+        log_.info("Removing the chrom directory "+chromDir.getAbsolutePath()+" - the source file has been changed");
+      } else if (!interrupted.containsKey(sample) && headerFile.exists()){
+        continue;
+      } else {
+        log_.info("Removing the incomplete chrom directory "+chromDir.getAbsolutePath());
+      }
+      deleteRecursively(chromDir);
+      for (BatchJobManifest.Entry entry : entries) entry.resetSourceFingerprint();
+    }
+  }
+  
+  /**
+   * @param file the file or directory to delete together with its content
+   */
+  private static void deleteRecursively(File file){
+    File[] children = file.listFiles();
+    if (children!=null){
+      for (File child : children) deleteRecursively(child);
+    }
+    file.delete();
+  }
+  
+  /**
+   * removes the pairs with up-to-date results, and the ones that failed too often
+   * @param pairs the raw/quant pairs of the raw and quant directory
+   * @param maxRetries how often a failed pair is retried
+   * @return the raw/quant pairs that have to be processed
+   */
+  private Vector<RawQuantificationPairVO> selectPairsToProcess(Vector<RawQuantificationPairVO> pairs, int maxRetries){
+    Vector<RawQuantificationPairVO> toProcess = new Vector<RawQuantificationPairVO>();
+    manifestEntries_ = new IdentityHashMap<RawQuantificationPairVO,BatchJobManifest.Entry>();
+    for (RawQuantificationPairVO pair : pairs){
+      BatchJobManifest.Entry entry = manifest_.getEntry(BatchJobManifest.getSampleName(pair.getRawFile()),pair.getQuantFileName());
+      File resultFile = new File(LipidDataAnalyzer.getResultFilePath(pair.getRawFile().getAbsolutePath(), pair.getQuantFile().getAbsolutePath()));
+      if (entry.isUpToDate(pair.getRawFile(), pair.getQuantFile(), resultFile)){
+        log_.info("Skipping "+pair.getRawFileName()+" with "+pair.getQuantFileName()+" - the result is up-to-date");
+        continue;
+      }
+      if (entry.getStage().equals(BatchJobManifest.STAGE_FAILED) && entry.getAttempts()>maxRetries){
+        log_.warning("Skipping "+pair.getRawFileName()+" with "+pair.getQuantFileName()+" - it failed "+entry.getAttempts()+" times");
+        continue;
+      }
+      entry.setStage(BatchJobManifest.STAGE_PENDING);
+      manifestEntries_.put(pair, entry);
+      toProcess.add(pair);
+    }
+    writeManifest();
+    return toProcess;
+  }
+  
+  /**
+   * transfers the status of the rows of the batch quantification table to the manifest
+   */
+  private void updateManifest(){
+    if (batchQuantTableModel_==null) return;
+    boolean changed = false;
+    for (int i=0; i!=batchQuantTableModel_.getRowCount(); i++){
+      RawQuantificationPairVO pair = batchQuantTableModel_.getDataByRow(i);
+      String status = pair.getStatus();
+      if (status==null) continue;
+      BatchJobManifest.Entry entry = manifestEntries_.get(pair);
+      if (entry==null){
+        //the mzXML files generated from wiff files are added later on
+        entry = manifest_.getEntry(BatchJobManifest.getSampleName(pair.getRawFile()),pair.getQuantFileName());
+        manifestEntries_.put(pair, entry);
+      }
+      if (status.startsWith("ERROR")){
+        changed = entry.setFailed() || changed;
+      } else if (status.equals("Finished")){
+        File resultFile = new File(LipidDataAnalyzer.getResultFilePath(pair.getRawFile().getAbsolutePath(), pair.getQuantFile().getAbsolutePath()));
+        changed = entry.setExported(pair.getRawFile(), pair.getQuantFile(), resultFile) || changed;
+      } else if (status.equals("Exporting")){
+        changed = entry.setStage(BatchJobManifest.STAGE_QUANTIFIED) || changed;
+      } else if (status.startsWith("Trans to")){
+        changed = entry.setStage(BatchJobManifest.STAGE_TRANSLATING) || changed;
+      } else if (status.startsWith("Quantifying") || status.equals("Waiting")){
+        changed = entry.setTranslated(pair.getRawFile()) || changed;
+      }
+    }
+    if (changed) writeManifest();
+  }
+  
+  /**
+   * writes the manifest - a failure is logged, but does not stop the batch
+   */
+  private void writeManifest(){
+    try {
+      manifest_.write();
+    }catch(IOException iox) {
+      log_.warning("The job manifest cannot be written: "+iox.getMessage());
+    }
+  }
 
   /**
    * checks the batch quantification thread whether it is finished
@@ -263,6 +263,32 @@ public class LipidomicsConstants
   private String threeDViewerMs2DefaultMZResolution_;
   /** typically, for Waters files Mass++ is used; however, when you want to use msconvert, set this parameter to true*/
   private boolean useMsconvertForWaters_;
+  /** write the chrom files in the binary columnar format (true) or in the old Base64 line format (false)*/
+  private boolean binaryChromFormat_;
+  /** read binary chrom files by memory mappings that are shared between the analyzers of the quantification threads*/
+  private boolean memoryMappedChrom_;
+  /** when the chrom translation requires several iterations, parse the raw file only once and spill the scans of the later iterations to temporary bucket files*/
+  private boolean singlePassChromTranslation_;
+  /** the amount of worker threads for decoding the binary peak data of mzXML/mzML files; 0 decodes in the parsing thread*/
+  private int xmlDecodeThreads_;
+  /** the amount of threads that read and smooth the isotope chromatograms of an MS1 analyte in parallel; 0 reads them in the quantification thread*/
+  private int isotopeChromThreads_;
+  /** process the batch quantification as pipeline: translations of later files overlap the quantification of earlier ones*/
+  private boolean batchPipeline_;
+  /** the maximum amount of files that are quantified concurrently in the pipelined batch mode*/
+  private int batchMaxConcurrentQuantifications_;
+  /** the maximum size in MB of the smoothed chromatograms that are cached and shared between the quantification threads; 0 disables the cache*/
+  private int chromCacheSize_;
+  /** the maximum size in MB of the MS1 chrom blocks that are read ahead in one forward sweep for the whole target list; 0 disables the sweep*/
+  private int chromSweepSize_;
+  /** the implementation of the Savitzky-Golay and the mean smoothing on the CPU; one of CHROM_SMOOTH_ENGINE_JAVA or CHROM_SMOOTH_ENGINE_MASPECTRAS*/
+  private String chromSmoothEngine_;
+  /** the file where the theoretical isotopic distributions are stored between runs; null if they are not stored*/
+  private String isoDistributionCacheFile_;
+  /** skip the MS1 analytes without signal in their m/z band, according to the MS1 summary written at the chrom translation*/
+  private boolean ms1PreScreen_;
+  /** the MS1 pre-screen skips analytes whose highest intensity in the m/z band is below this per mille value of the highest intensity of the file*/
+  private float ms1PreScreenCutoff_;
   
   /** the name of the instrument in PSI controlled vocabulary*/
   private Parameter mzTabInstrumentName_;
@@ -497,6 +523,29 @@ public class LipidomicsConstants
   private final static String CHAIN_CUTOFF_DEFAULT = "0.01";
   private final static String ALEX_TARGETLIST = "alexTargetlist";
   private final static String USE_MSCONVERT_FOR_WATERS = "useMsconvertForWaters";
+  private final static String BINARY_CHROM_FORMAT = "binaryChromFormat";
+  private final static String MEMORY_MAPPED_CHROM = "memoryMappedChrom";
+  private final static String SINGLE_PASS_CHROM_TRANSLATION = "singlePassChromTranslation";
+  private final static String XML_DECODE_THREADS = "xmlDecodeThreads";
+  private final static String XML_DECODE_THREADS_DEFAULT = "4";
+  private final static String ISOTOPE_CHROM_THREADS = "isotopeChromThreads";
+  private final static String ISOTOPE_CHROM_THREADS_DEFAULT = "4";
+  private final static String BATCH_PIPELINE = "batchPipeline";
+  private final static String BATCH_MAX_CONCURRENT_QUANTIFICATIONS = "batchMaxConcurrentQuantifications";
+  private final static String BATCH_MAX_CONCURRENT_QUANTIFICATIONS_DEFAULT = "2";
+  private final static String CHROM_CACHE_SIZE = "chromCacheSize";
+  private final static String CHROM_CACHE_SIZE_DEFAULT = "0";
+  private final static String CHROM_SWEEP_SIZE = "chromSweepSize";
+  private final static String CHROM_SWEEP_SIZE_DEFAULT = "128";
+  private final static String CHROM_SMOOTH_ENGINE = "chromSmoothEngine";
+  /** possible input parameter for CHROM_SMOOTH_ENGINE: the smoothing of the SavGolSmoother and the sliding window mean of LipidomicsChromatogram*/
+  public final static String CHROM_SMOOTH_ENGINE_JAVA = "java";
+  /** possible input parameter for CHROM_SMOOTH_ENGINE: the original smoothing of CgChromatogram*/
+  public final static String CHROM_SMOOTH_ENGINE_MASPECTRAS = "maspectras";
+  private final static String ISO_DISTRIBUTION_CACHE_FILE = "isoDistributionCacheFile";
+  private final static String MS1_PRE_SCREEN = "ms1PreScreen";
+  private final static String MS1_PRE_SCREEN_CUTOFF = "ms1PreScreenCutoff";
+  private final static String MS1_PRE_SCREEN_CUTOFF_DEFAULT = "0";
 
   
   private final static String MZTAB_INSTRUMENT = "mzTabInstrumentName";
@@ -760,6 +809,60 @@ public class LipidomicsConstants
     if (useMsconvertForWatersString!=null&&(useMsconvertForWatersString.equalsIgnoreCase("true")||useMsconvertForWatersString.equalsIgnoreCase("yes")))
       useMsconvertForWaters_ = true;
     
+    String binaryChromFormatString = properties.getProperty(BINARY_CHROM_FORMAT,"false");
+    binaryChromFormat_ = false;
+    if (binaryChromFormatString!=null&&(binaryChromFormatString.equalsIgnoreCase("true")||binaryChromFormatString.equalsIgnoreCase("yes")))
+      binaryChromFormat_ = true;
+    
+    String memoryMappedChromString = properties.getProperty(MEMORY_MAPPED_CHROM,"false");
+    memoryMappedChrom_ = false;
+    if (memoryMappedChromString!=null&&(memoryMappedChromString.equalsIgnoreCase("true")||memoryMappedChromString.equalsIgnoreCase("yes")))
+      memoryMappedChrom_ = true;
+    
+    String singlePassChromTranslationString = properties.getProperty(SINGLE_PASS_CHROM_TRANSLATION,"true");
+    singlePassChromTranslation_ = true;
+    if (singlePassChromTranslationString!=null&&(singlePassChromTranslationString.equalsIgnoreCase("false")||singlePassChromTranslationString.equalsIgnoreCase("no")))
+      singlePassChromTranslation_ = false;
+    
+    xmlDecodeThreads_ = Integer.parseInt(properties.getProperty(XML_DECODE_THREADS,XML_DECODE_THREADS_DEFAULT));
+    if (xmlDecodeThreads_<0) xmlDecodeThreads_ = 0;
+    
+    isotopeChromThreads_ = Integer.parseInt(properties.getProperty(ISOTOPE_CHROM_THREADS,ISOTOPE_CHROM_THREADS_DEFAULT));
+    if (isotopeChromThreads_<0) isotopeChromThreads_ = 0;
+    
+    String batchPipelineString = properties.getProperty(BATCH_PIPELINE,"false");
+    batchPipeline_ = false;
+    if (batchPipelineString!=null&&(batchPipelineString.equalsIgnoreCase("true")||batchPipelineString.equalsIgnoreCase("yes")))
+      batchPipeline_ = true;
+    
+    batchMaxConcurrentQuantifications_ = Integer.parseInt(properties.getProperty(BATCH_MAX_CONCURRENT_QUANTIFICATIONS,BATCH_MAX_CONCURRENT_QUANTIFICATIONS_DEFAULT));
+    if (batchMaxConcurrentQuantifications_<1) batchMaxConcurrentQuantifications_ = 1;
+    
+    chromCacheSize_ = Integer.parseInt(properties.getProperty(CHROM_CACHE_SIZE,CHROM_CACHE_SIZE_DEFAULT));
+    if (chromCacheSize_<0) chromCacheSize_ = 0;
+    
+    chromSweepSize_ = Integer.parseInt(properties.getProperty(CHROM_SWEEP_SIZE,CHROM_SWEEP_SIZE_DEFAULT));
+    if (chromSweepSize_<0) chromSweepSize_ = 0;
+    
+    String smoothEngine = properties.getProperty(CHROM_SMOOTH_ENGINE,CHROM_SMOOTH_ENGINE_JAVA).trim();
+    if (smoothEngine.equalsIgnoreCase(CHROM_SMOOTH_ENGINE_JAVA))
+      chromSmoothEngine_ = CHROM_SMOOTH_ENGINE_JAVA;
+    else if (smoothEngine.equalsIgnoreCase(CHROM_SMOOTH_ENGINE_MASPECTRAS))
+      chromSmoothEngine_ = CHROM_SMOOTH_ENGINE_MASPECTRAS;
+    else
+      throw new SettingsException("The smoothing engine \""+smoothEngine+"\" is unknown! Please use "+CHROM_SMOOTH_ENGINE_JAVA+" or "+CHROM_SMOOTH_ENGINE_MASPECTRAS+" instead!");
+    
+    isoDistributionCacheFile_ = properties.getProperty(ISO_DISTRIBUTION_CACHE_FILE,"").trim();
+    if (isoDistributionCacheFile_.length()==0) isoDistributionCacheFile_ = null;
+    
+    String ms1PreScreenString = properties.getProperty(MS1_PRE_SCREEN,"true");
+    ms1PreScreen_ = true;
+    if (ms1PreScreenString!=null&&(ms1PreScreenString.equalsIgnoreCase("false")||ms1PreScreenString.equalsIgnoreCase("no")))
+      ms1PreScreen_ = false;
+    
+    ms1PreScreenCutoff_ = Float.parseFloat(properties.getProperty(MS1_PRE_SCREEN_CUTOFF,MS1_PRE_SCREEN_CUTOFF_DEFAULT));
+    if (ms1PreScreenCutoff_<0f) ms1PreScreenCutoff_ = 0f;
+    
     mzTabInstrumentName_ = extractEBIParam(MZTAB_INSTRUMENT,properties);
     mzTabInstrumentSource_ = extractEBIParam(MZTAB_IONSOURCE,properties);
     mzTabInstrumentAnalyzer_ = extractEBIParam(MZTAB_MSANALYZER,properties);
@@ -2012,6 +2115,42 @@ public class LipidomicsConstants
     if (useMsconvertForWaters_==true) {
       propertyRows.add(new Pair<String,String>(USE_MSCONVERT_FOR_WATERS,String.valueOf(useMsconvertForWaters_)));
     }
+    if (binaryChromFormat_) {
+      propertyRows.add(new Pair<String,String>(BINARY_CHROM_FORMAT,String.valueOf(binaryChromFormat_)));
+    }
+    if (memoryMappedChrom_==true) {
+      propertyRows.add(new Pair<String,String>(MEMORY_MAPPED_CHROM,String.valueOf(memoryMappedChrom_)));
+    }
+    if (singlePassChromTranslation_==false) {
+      propertyRows.add(new Pair<String,String>(SINGLE_PASS_CHROM_TRANSLATION,String.valueOf(singlePassChromTranslation_)));
+    }
+    if (xmlDecodeThreads_!=Integer.parseInt(XML_DECODE_THREADS_DEFAULT)) {
+      propertyRows.add(new Pair<String,String>(XML_DECODE_THREADS,String.valueOf(xmlDecodeThreads_)));
+    }
+    if (isotopeChromThreads_!=Integer.parseInt(ISOTOPE_CHROM_THREADS_DEFAULT)) {
+      propertyRows.add(new Pair<String,String>(ISOTOPE_CHROM_THREADS,String.valueOf(isotopeChromThreads_)));
+    }
+    if (batchPipeline_==true) {
+      propertyRows.add(new Pair<String,String>(BATCH_PIPELINE,String.valueOf(batchPipeline_)));
+    }
+    if (batchMaxConcurrentQuantifications_!=Integer.parseInt(BATCH_MAX_CONCURRENT_QUANTIFICATIONS_DEFAULT)) {
+      propertyRows.add(new Pair<String,String>(BATCH_MAX_CONCURRENT_QUANTIFICATIONS,String.valueOf(batchMaxConcurrentQuantifications_)));
+    }
+    if (chromCacheSize_!=Integer.parseInt(CHROM_CACHE_SIZE_DEFAULT)) {
+      propertyRows.add(new Pair<String,String>(CHROM_CACHE_SIZE,String.valueOf(chromCacheSize_)));
+    }
+    if (chromSweepSize_!=Integer.parseInt(CHROM_SWEEP_SIZE_DEFAULT)) {
+      propertyRows.add(new Pair<String,String>(CHROM_SWEEP_SIZE,String.valueOf(chromSweepSize_)));
+    }
+    if (!chromSmoothEngine_.equals(CHROM_SMOOTH_ENGINE_JAVA)) {
+      propertyRows.add(new Pair<String,String>(CHROM_SMOOTH_ENGINE,chromSmoothEngine_));
+    }
+    if (ms1PreScreen_==false) {
+      propertyRows.add(new Pair<String,String>(MS1_PRE_SCREEN,String.valueOf(ms1PreScreen_)));
+    }
+    if (ms1PreScreenCutoff_!=Float.parseFloat(MS1_PRE_SCREEN_CUTOFF_DEFAULT)) {
+      propertyRows.add(new Pair<String,String>(MS1_PRE_SCREEN_CUTOFF,String.valueOf(ms1PreScreenCutoff_)));
+    }
     
     String key;
     String value;
@@ -2288,6 +2427,19 @@ public class LipidomicsConstants
         && use3D_ == other.use3D_
         && useMostOverlappingIsotopeOnly_ == other.useMostOverlappingIsotopeOnly_
         && useMsconvertForWaters_ == other.useMsconvertForWaters_
+        && binaryChromFormat_ == other.binaryChromFormat_
+        && memoryMappedChrom_ == other.memoryMappedChrom_
+        && singlePassChromTranslation_ == other.singlePassChromTranslation_
+        && xmlDecodeThreads_ == other.xmlDecodeThreads_
+        && isotopeChromThreads_ == other.isotopeChromThreads_
+        && batchPipeline_ == other.batchPipeline_
+        && batchMaxConcurrentQuantifications_ == other.batchMaxConcurrentQuantifications_
+        && chromCacheSize_ == other.chromCacheSize_
+        && chromSweepSize_ == other.chromSweepSize_
+        && chromSmoothEngine_.equals(other.chromSmoothEngine_)
+        && (isoDistributionCacheFile_==null ? other.isoDistributionCacheFile_==null : isoDistributionCacheFile_.equals(other.isoDistributionCacheFile_))
+        && ms1PreScreen_ == other.ms1PreScreen_
+        && ms1PreScreenCutoff_ == other.ms1PreScreenCutoff_
         && useNoiseCutoff_ == other.useNoiseCutoff_;
   }
 
@@ -2357,6 +2509,103 @@ public class LipidomicsConstants
     getInstance();
     return instance_.useMsconvertForWaters_;
   }
+  
+  /** true when new chrom files shall be written in the binary columnar format, which cannot be read by LDA versions before this format was introduced; false (default) for the old Base64 line format*/
+  public static boolean isBinaryChromFormat()
+  {
+    getInstance();
+    return instance_.binaryChromFormat_;
+  }
+  
+  /** true when binary chrom files shall be read by shared memory mappings instead of file streams*/
+  public static boolean isMemoryMappedChrom()
+  {
+    getInstance();
+    return instance_.memoryMappedChrom_;
+  }
+  
+  /** true when a chrom translation in several iterations shall parse the raw file only once*/
+  public static boolean isSinglePassChromTranslation()
+  {
+    getInstance();
+    return instance_.singlePassChromTranslation_;
+  }
+  
+  /** the amount of worker threads for decoding the binary peak data of mzXML/mzML files; 0 if the parsing thread decodes*/
+  public static int getXmlDecodeThreads()
+  {
+    getInstance();
+    return instance_.xmlDecodeThreads_;
+  }
+  
+  /** the amount of threads that read the isotope chromatograms of an MS1 analyte in parallel; 0 if the quantification thread reads them*/
+  public static int getIsotopeChromThreads()
+  {
+    getInstance();
+    return instance_.isotopeChromThreads_;
+  }
+  
+  /** true when the batch quantification shall overlap the translation of later files with the quantification of earlier ones*/
+  public static boolean isBatchPipeline()
+  {
+    getInstance();
+    return instance_.batchPipeline_;
+  }
+  
+  /** the maximum amount of files that are quantified concurrently in the pipelined batch mode*/
+  public static int getBatchMaxConcurrentQuantifications()
+  {
+    getInstance();
+    return instance_.batchMaxConcurrentQuantifications_;
+  }
+  
+  /** the maximum size in MB of the smoothed chromatograms that are shared between the quantification threads; 0 if the cache is disabled*/
+  public static int getChromCacheSize()
+  {
+    getInstance();
+    return instance_.chromCacheSize_;
+  }
+  
+  /** the maximum size in MB of the MS1 chrom blocks that are read ahead in one forward sweep for the whole target list; 0 if there is no sweep*/
+  public static int getChromSweepSize()
+  {
+    getInstance();
+    return instance_.chromSweepSize_;
+  }
+  
+  /** the implementation of the Savitzky-Golay smoothing on the CPU; CHROM_SMOOTH_ENGINE_JAVA or CHROM_SMOOTH_ENGINE_MASPECTRAS*/
+  public static String getChromSmoothEngine()
+  {
+    getInstance();
+    return instance_.chromSmoothEngine_;
+  }
+  
+  /** true if the chromatograms are smoothed by the SavGolSmoother instead of CgChromatogram.Smooth; the CUDA smoothing has precedence*/
+  public static boolean useJavaSmoothEngine()
+  {
+    return getChromSmoothEngine().equals(CHROM_SMOOTH_ENGINE_JAVA);
+  }
+  
+  /** the file where the theoretical isotopic distributions are stored between runs; null if they are not stored*/
+  public static String getIsoDistributionCacheFile()
+  {
+    getInstance();
+    return instance_.isoDistributionCacheFile_;
+  }
+  
+  /** true if the MS1 analytes without signal in their m/z band are skipped, according to the MS1 summary of the chrom file*/
+  public static boolean isMs1PreScreen()
+  {
+    getInstance();
+    return instance_.ms1PreScreen_;
+  }
+  
+  /** the per mille value of the highest intensity of the file an m/z band has to exceed to pass the MS1 pre-screen; 0 if only empty bands are skipped*/
+  public static float getMs1PreScreenCutoff()
+  {
+    getInstance();
+    return instance_.ms1PreScreenCutoff_;
+  }
 
   /** lookup for classes whether MSn fragments were defined*/
   public Hashtable<String,Boolean> getAlexTargetlistUsed()
@@ -39,6 +39,8 @@ public class MzxmlToChromThread extends Thread
   private int numberOfThreads_;
   /** true when the mzXML file contains polarity switched data*/
   private boolean polaritySwitched_;
+  /** is called when the thread has finished; null if nobody has to be notified*/
+  private Runnable completionCallback_;
   
   public MzxmlToChromThread(String filePath, int numberOfThreads){
     this.filePath_ = filePath;
@@ -54,6 +56,15 @@ public class MzxmlToChromThread extends Thread
       errorString_ = ex.toString();     
     }
     finished_ = true;
+    if (completionCallback_!=null) completionCallback_.run();
+  }
+  
+  /**
+   * sets a callback that is called when the thread has finished - successfully or not; it has to be set before the thread is started
+   * @param completionCallback the callback
+   */
+  public void setCompletionCallback(Runnable completionCallback){
+    this.completionCallback_ = completionCallback;
   }
   
   public boolean finished(){
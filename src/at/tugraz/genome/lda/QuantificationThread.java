@@ -30,14 +30,16 @@ import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.swing.JFrame;
 
@@ -70,10 +72,14 @@ import at.tugraz.genome.lda.msn.RulesContainer;
 import at.tugraz.genome.lda.msn.hydroxy.parser.HydroxyEncoding;
 import at.tugraz.genome.lda.msn.vos.FattyAcidVO;
 import at.tugraz.genome.lda.msn.vos.RtPredictVO;
+import at.tugraz.genome.lda.quantification.ChromExtractionPlan;
+import at.tugraz.genome.lda.quantification.ChromatogramCache;
+import at.tugraz.genome.lda.quantification.ChromSummaryIndex;
 import at.tugraz.genome.lda.quantification.LipidParameterSet;
 import at.tugraz.genome.lda.quantification.LipidomicsAnalyzer;
 import at.tugraz.genome.lda.quantification.QuantificationResult;
 import at.tugraz.genome.lda.swing.Range;
+import at.tugraz.genome.lda.utils.IsotopeDistributionCache;
 import at.tugraz.genome.lda.utils.RangeInteger;
 import at.tugraz.genome.lda.utils.StaticUtils;
 import at.tugraz.genome.lda.vos.DoubleStringVO;
@@ -103,6 +109,8 @@ public class QuantificationThread extends Thread
   private float minusTime_;
   private float plusTime_;
   private boolean finished_ = false;
+  /** the quantification is finished, and the result file is being written*/
+  private volatile boolean exporting_ = false;
   private int amountOfIsotopes_;
   private int isotopesMustMatch_;
   private String errorString_ = null;
@@ -120,6 +128,10 @@ public class QuantificationThread extends Thread
   private boolean msnRoundFinished_;
   /** was the task started by the command line interface*/
   private boolean cli_;
+  /** is called when the quantification has finished; null if nobody has to be notified*/
+  private Runnable completionCallback_;
+  /** the identifier of the chrom file in the shared ChromatogramCache; null if the cache is not used*/
+  private String chromCacheFile_;
   
   private Hashtable<Integer,Boolean> availableThreads_;
   private Hashtable<Integer,LipidomicsAnalyzer> analyzers_;
@@ -138,7 +150,20 @@ public class QuantificationThread extends Thread
   
   private long startCalcTime_;
   
-  private Timer timer_;
+  /** executes the SingleQuantThreads; there is one worker per analyzer*/
+  private ExecutorService workers_;
+  /** reads and smoothes the isotope chromatograms of the analytes in parallel; shared by the analyzers; null if disabled*/
+  private ExecutorService isotopeWorkers_;
+  /** evaluates finished SingleQuantThreads and assigns new ones; a single thread, thus the result hashes are accessed sequentially*/
+  private ExecutorService supervisor_;
+  /** the task of the supervisor - it is executed whenever a SingleQuantThread has finished*/
+  private ThreadSupervisor threadSupervisor_;
+  /** the sequence in which the analytes are assigned to the analyzers; entries: class name, analyte name, modification name*/
+  private Vector<String[]> dispatchSequence_;
+  /** reads the MS1 chromatograms of the whole target list in one forward sweep; null if there is no sweep*/
+  private ChromExtractionPlan extractionPlan_;
+  /** the analytes skipped by the MS1 pre-screen, since there is no signal in their m/z band; entries: class name, analyte name, modification name*/
+  private Vector<String[]> preScreenedOut_;
   
   /** in the case of MSnFirst: contains LM-Models and suggestions for the next range for quantitation*/
   private Hashtable<String,Hashtable<String,RtPredictVO>> latestRtPredictions_; 
@@ -180,10 +205,26 @@ public class QuantificationThread extends Thread
       ex.printStackTrace();
       errorString_ = ex.toString();
       this.finished_ = true;
-      
+      notifyCompletion();
     }
   }
   
+  /**
+   * sets a callback that is called when the quantification has finished - successfully or not; it has to be set before the thread is started
+   * @param completionCallback the callback
+   */
+  public void setCompletionCallback(Runnable completionCallback){
+    this.completionCallback_ = completionCallback;
+  }
+  
+  /**
+   * removes the chromatograms of the chrom file from the shared cache, and calls the completion callback
+   */
+  private void notifyCompletion(){
+    if (chromCacheFile_!=null) ChromatogramCache.getInstance().clear(chromCacheFile_);
+    if (completionCallback_!=null) completionCallback_.run();
+  }
+  
   public String getChromFile() {
     return this.chromFile_;
   }
@@ -192,11 +233,18 @@ public class QuantificationThread extends Thread
   }
   
   public boolean finished(){
-    if (finished_ && this.timer_!=null)
-      this.timer_.cancel();
+    if (finished_)
+      shutDownExecutors();
     return this.finished_;
   }
   
+  /**
+   * @return true if the quantification is finished, and the result file is being written
+   */
+  public boolean isExporting(){
+    return exporting_;
+  }
+  
   public String getErrorString(){
     return this.errorString_;
   }
@@ -215,6 +263,7 @@ public class QuantificationThread extends Thread
     String errorMessage = StaticUtils.existChromNecessaryFiles(pureFile);
     if (errorMessage!=null && errorMessage.length()>0) throw new Exception(errorMessage);
     String[] chromPaths = StringUtils.getChromFilePaths(pureFile+".chrom");
+    if (ChromatogramCache.isEnabled()) chromCacheFile_ = ChromatogramCache.createFileIdentifier(chromPaths[1]);
     float[] maxRetTimes = initThreadMonitors(chromPaths, numberOfProcessors, basePeakCutoff);
     float highestRetTime = maxRetTimes[1];
     float lowestRetTime = maxRetTimes[0];
@@ -233,11 +282,19 @@ public class QuantificationThread extends Thread
     
       totalAmountOfLipids_ = 0;
       for (String className : classSequence.keySet()) totalAmountOfLipids_ += analyteSequence.get(className).size();
-      timer_ = new java.util.Timer();
-      timer_.schedule(new ThreadSupervisor(quantContent,basePeakCutoff,resultFile), 10, 100);
+      initDispatchSequence(classSequence, analyteSequence, (Hashtable<String,Hashtable<String,Hashtable<String,QuantVO>>>)quantContent.get(3));
+      workers_ = Executors.newFixedThreadPool(numberOfProcessors);
+      if (LipidomicsConstants.getIsotopeChromThreads()>0){
+        isotopeWorkers_ = Executors.newFixedThreadPool(LipidomicsConstants.getIsotopeChromThreads());
+        for (LipidomicsAnalyzer analyzer : analyzers_.values()) analyzer.setIsotopeExecutor(isotopeWorkers_);
+      }
+      supervisor_ = Executors.newSingleThreadExecutor();
+      threadSupervisor_ = new ThreadSupervisor(quantContent,basePeakCutoff,resultFile);
+      triggerSupervisor();
     } else {
       this.errorString_ = "The quantification file/folder does not contain any usable files";
       this.finished_ = true;
+      notifyCompletion();
     }
   }
   
@@ -698,6 +755,7 @@ public class QuantificationThread extends Thread
     results.add(analyteSequence);
     results.add(adductInsensitiveRtFilter);
     results.add(quantObjects);
+    IsotopeDistributionCache.store();
     return results;
   }
   
@@ -746,7 +804,124 @@ public class QuantificationThread extends Thread
   }
   
   
-  private class ThreadSupervisor extends TimerTask{
+  /**
+   * schedules an execution of the ThreadSupervisor - called at the start and whenever a SingleQuantThread has finished
+   */
+  private void triggerSupervisor(){
+    try{
+      supervisor_.execute(threadSupervisor_);
+    } catch (RejectedExecutionException rex){
+      // the quantitation is already finished or stopped because of an error
+    }
+  }
+  
+  /**
+   * stops the worker and the supervisor threads, and the sweep of the extraction plan; running SingleQuantThreads are finished nevertheless
+   */
+  private void shutDownExecutors(){
+    if (workers_!=null) workers_.shutdown();
+    if (isotopeWorkers_!=null) isotopeWorkers_.shutdown();
+    if (supervisor_!=null) supervisor_.shutdown();
+    if (extractionPlan_!=null) extractionPlan_.stop();
+  }
+  
+  /**
+   * creates the sequence in which the analytes are assigned to the analyzers; if the chromatograms are read in a forward sweep
+   * (chromSweepSize>0), the MS1 m/z ranges of all analytes are registered at the extraction plan, and the analytes are sorted by m/z
+   * @param classSequence the sequence of the analyte classes; value: the MS-level
+   * @param analyteSequence the sequence of the analytes of each class
+   * @param quantObjects the parsed target list
+   * @throws CgException thrown if the index of the chrom file cannot be read
+   */
+  private void initDispatchSequence(LinkedHashMap<String,Integer> classSequence, Hashtable<String,Vector<String>> analyteSequence,
+      final Hashtable<String,Hashtable<String,Hashtable<String,QuantVO>>> quantObjects) throws CgException{
+    dispatchSequence_ = new Vector<String[]>();
+    for (String className : classSequence.keySet()){
+      for (String analyteName : analyteSequence.get(className)){
+        for (String mod : quantObjects.get(className).get(analyteName).keySet())
+          dispatchSequence_.add(new String[]{className,analyteName,mod});
+      }
+    }
+    preScreenMS1Signal(classSequence, quantObjects);
+    extractionPlan_ = null;
+    if (LipidomicsConstants.getChromSweepSize()==0 || LipidomicsConstants.isShotgun()==LipidomicsConstants.SHOTGUN_TRUE) return;
+    extractionPlan_ = analyzers_.get(0).createExtractionPlan(LipidomicsConstants.getChromSweepSize()*1024l*1024l);
+    if (extractionPlan_==null) return;
+    for (String[] entry : dispatchSequence_){
+      if (classSequence.get(entry[0])!=1) continue;
+      QuantVO vo = quantObjects.get(entry[0]).get(entry[1]).get(entry[2]);
+      float mz = (float)vo.getAnalyteMass();
+      float tolerance = LipidomicsConstants.getCoarseChromMzTolerance(mz);
+      float isotopeDistance = LipidomicsConstants.getNeutronMass()/(float)vo.getCharge();
+      int isotopes = Math.max(1, Math.max(vo.getProbabs().size(), vo.getMustMatchProbabs().size()));
+      //the chromatogram of the previous isotope is read too
+      if (vo.getNegativeStartValue()<0)
+        extractionPlan_.addRange(vo, mz-(isotopes-1)*isotopeDistance-tolerance, mz+isotopeDistance+tolerance);
+      else
+        extractionPlan_.addRange(vo, mz-isotopeDistance-tolerance, mz+(isotopes-1)*isotopeDistance+tolerance);
+    }
+    Collections.sort(dispatchSequence_, new Comparator<String[]>(){
+      public int compare(String[] o1, String[] o2){
+        return Double.compare(quantObjects.get(o1[0]).get(o1[1]).get(o1[2]).getAnalyteMass(), quantObjects.get(o2[0]).get(o2[1]).get(o2[2]).getAnalyteMass());
+      }});
+    for (LipidomicsAnalyzer analyzer : analyzers_.values()) analyzer.setExtractionPlan(extractionPlan_);
+    extractionPlan_.start();
+  }
+  
+  /**
+   * removes the MS1 analytes from the dispatch sequence whose m/z band does not exceed the ms1PreScreenCutoff - by default,
+   * analytes without any signal in their band; the check is based on the summary written at the chrom translation, and the
+   * whole retention time range is checked, since smoothing and peak borders reach beyond any time window;
+   * analytes that are identified by MSn first are never skipped, since their MSn spectra are checked nevertheless
+   * @param classSequence the sequence of the analyte classes; value: the MS-level
+   * @param quantObjects the parsed target list
+   */
+  private void preScreenMS1Signal(LinkedHashMap<String,Integer> classSequence, Hashtable<String,Hashtable<String,Hashtable<String,QuantVO>>> quantObjects){
+    preScreenedOut_ = new Vector<String[]>();
+    if (!LipidomicsConstants.isMs1PreScreen() || LipidomicsConstants.isShotgun()!=LipidomicsConstants.SHOTGUN_FALSE) return;
+    LipidomicsAnalyzer analyzer = analyzers_.get(0);
+    ChromSummaryIndex summary = analyzer.getMs1Summary();
+    if (summary==null) return;
+    float cutoff = summary.getHighestIntensity()*LipidomicsConstants.getMs1PreScreenCutoff()/1000f;
+    Vector<String[]> passed = new Vector<String[]>();
+    for (String[] entry : dispatchSequence_){
+      QuantVO vo = quantObjects.get(entry[0]).get(entry[1]).get(entry[2]);
+      if (classSequence.get(entry[0])!=1 || (LipidomicsConstants.isMS2() && isMSnFirst(vo))){
+        passed.add(entry);
+        continue;
+      }
+      float mz = (float)vo.getAnalyteMass();
+      float tolerance = LipidomicsConstants.getCoarseChromMzTolerance(mz);
+      float highest = analyzer.getHighestMs1Intensity(summary, mz-tolerance, mz+tolerance);
+      if (highest>cutoff) passed.add(entry);
+      else preScreenedOut_.add(entry);
+    }
+    dispatchSequence_ = passed;
+  }
+  
+  /**
+   * checks the MS identification order of an analyte and of its isobaric species
+   * @param quantVO the analyte
+   * @return true if the analyte is identified by MSn first
+   */
+  private boolean isMSnFirst(QuantVO quantVO){
+    boolean msnFirst = false;
+    Vector<QuantVO> quants = new Vector<QuantVO>();
+    quants.add(quantVO);
+    quants.addAll(quantVO.getOtherIsobaricSpecies());
+    for (int i=0; i!=quants.size();i++){
+      QuantVO quant = quants.get(i);
+      try{
+        int msIdentOrder = RulesContainer.getMSIdentificationOrder(StaticUtils.getRuleName(quant.getAnalyteClass(),quant.getModName()));
+        if (i==0 && (msIdentOrder==RulesContainer.ORDER_MSN_FIRST || msIdentOrder==RulesContainer.ORDER_MSN_ONLY)) msnFirst = true;
+        else if (msIdentOrder==RulesContainer.ORDER_MS1_FIRST) msnFirst = false;
+      } catch(Exception ex){
+      }                
+    }
+    return msnFirst;
+  }
+  
+  private class ThreadSupervisor implements Runnable{
     private LinkedHashMap<String,Integer> classSequence_;
     private Hashtable<String,Vector<String>> analyteSequence_;
     private Hashtable<String,Boolean> adductInsensitiveRtFilter_;
@@ -771,16 +946,18 @@ public class QuantificationThread extends Thread
     { 
       try{
         if (!finished_)
-          handleTimerEvent(classSequence_,analyteSequence_,adductInsensitiveRtFilter_,quantObjects_,bpCutoff_,rsFile_,chromFileName_);
+          handleThreadEvent(classSequence_,analyteSequence_,adductInsensitiveRtFilter_,quantObjects_,bpCutoff_,rsFile_,chromFileName_);
       } catch (Exception ex){
         ex.printStackTrace();
         errorString_ = ex.toString();
         finished_ = true;
+        shutDownExecutors();
         for (Integer analyzer : analyzers_.keySet()){
           if (analyzers_.get(analyzer).getUseCuda()){
             analyzers_.get(analyzer).getSavGolJNI().Frees();
           }
         }
+        notifyCompletion();
       }
     }
     
@@ -814,12 +991,16 @@ public class QuantificationThread extends Thread
         ms2Removed_.put(className, resultsNeg);
         unsplittedPeaks_.put(className, unsplitted);
       }  
+      for (String[] entry : preScreenedOut_) quantStatus_.get(entry[0]).get(entry[1]).put(entry[2], STATUS_FINISHED);
     }
 
   }
   
   
-  private void handleTimerEvent(LinkedHashMap<String,Integer> classSequence,Hashtable<String,Vector<String>> analyteSequence,
+  /**
+   * reads the results of the finished SingleQuantThreads, and assigns the waiting analytes to the free analyzers
+   */
+  private void handleThreadEvent(LinkedHashMap<String,Integer> classSequence,Hashtable<String,Vector<String>> analyteSequence,
       Hashtable<String,Boolean> adductInsensitiveRtFilter, Hashtable<String,Hashtable<String,Hashtable<String,QuantVO>>> quantObjects,
       float basePeakCutoff, String resultFile, String chromFile){
     
@@ -992,6 +1173,7 @@ public class QuantificationThread extends Thread
           }
         }
         quantStatus_.get(className).get(analyte).put(mod, STATUS_FINISHED);
+        if (extractionPlan_!=null) extractionPlan_.release(quantObjects.get(className).get(analyte).get(mod));
         singleThread = null;
         availableThreads_.put(i,true);
       }
@@ -1006,55 +1188,33 @@ public class QuantificationThread extends Thread
     //if there are free threads, assign jobs to them!
     int currentThreadNumber = 0;
     if (!error && availableThread.size()>0){
-      for (String className : classSequence.keySet()){
+      for (String[] entry : dispatchSequence_){
         if (currentThreadNumber>=availableThread.size())
           break;
-        Hashtable<String,Hashtable<String,QuantVO>> classQuant = quantObjects.get(className);
-        quantObjects.get(className);
+        String className = entry[0];
+        String analyteName = entry[1];
+        String mod = entry[2];
         int msLevel = classSequence.get(className);
-        for (String analyteName : analyteSequence.get(className)){
-          if (currentThreadNumber>=availableThread.size())
-            break;
-          Hashtable<String,QuantVO> analyteQuant = classQuant.get(analyteName);
-          int modCount = 0;
-          for (String mod : analyteQuant.keySet()){
-            if (currentThreadNumber>=availableThread.size())
-              break;
-            if (quantStatus_.get(className).get(analyteName).get(mod)==STATUS_WAITING){
-              int threadIndex = (availableThread.get(currentThreadNumber));
-              availableThreads_.put(threadIndex, false);
-              quantStatus_.get(className).get(analyteName).put(mod,STATUS_CALCULATING);
-              boolean msnFirst = false;
-              if (LipidomicsConstants.isMS2() && !this.msnRoundFinished_){
-                Vector<QuantVO> quants = new Vector<QuantVO>();
-                quants.add(analyteQuant.get(mod));
-                quants.addAll(analyteQuant.get(mod).getOtherIsobaricSpecies());
-                for (int i=0; i!=quants.size();i++){
-                  QuantVO quant = quants.get(i);
-                  try{
-                    int msIdentOrder = RulesContainer.getMSIdentificationOrder(StaticUtils.getRuleName(quant.getAnalyteClass(),quant.getModName()));
-                    if (i==0 && (msIdentOrder==RulesContainer.ORDER_MSN_FIRST || msIdentOrder==RulesContainer.ORDER_MSN_ONLY)) msnFirst = true;
-                    else if (msIdentOrder==RulesContainer.ORDER_MS1_FIRST) msnFirst = false;
-                  } catch(Exception ex){
-                  }                
-
-                }
-              }
-              SingleQuantThread thread = new SingleQuantThread(analyzers_.get(threadIndex), analyteQuant.get(mod), msLevel, msnFirst);
-              threads_.put(threadIndex, thread);
-              threadToClass_.put(threadIndex,className);
-              threadToAnalyte_.put(threadIndex,analyteName);
-              threadToMod_.put(threadIndex,mod);
-              thread.start();
-              if (modCount==0){
-//                currentLipidCount_++;
-                currentLipid_ = className+" "+analyteName;
-              }
-              currentThreadNumber++;
-            }
-            modCount++;
+        Hashtable<String,QuantVO> analyteQuant = quantObjects.get(className).get(analyteName);
+        if (quantStatus_.get(className).get(analyteName).get(mod)==STATUS_WAITING){
+          int threadIndex = (availableThread.get(currentThreadNumber));
+          availableThreads_.put(threadIndex, false);
+          quantStatus_.get(className).get(analyteName).put(mod,STATUS_CALCULATING);
+          boolean msnFirst = false;
+          if (LipidomicsConstants.isMS2() && !this.msnRoundFinished_) msnFirst = isMSnFirst(analyteQuant.get(mod));
+          SingleQuantThread thread = new SingleQuantThread(analyzers_.get(threadIndex), analyteQuant.get(mod), msLevel, msnFirst);
+          threads_.put(threadIndex, thread);
+          threadToClass_.put(threadIndex,className);
+          threadToAnalyte_.put(threadIndex,analyteName);
+          threadToMod_.put(threadIndex,mod);
+          thread.setCompletionListener(() -> triggerSupervisor());
+          workers_.execute(thread);
+          if (mod.equals(analyteQuant.keySet().iterator().next())){
+//            currentLipidCount_++;
+            currentLipid_ = className+" "+analyteName;
           }
-        }  
+          currentThreadNumber++;
+        }
       }
       int currentLipidCount = 0;
       for (String className : quantStatus_.keySet()){
@@ -1098,6 +1258,7 @@ public class QuantificationThread extends Thread
       int countToProcess = 0;
       if (areThereMS1HitsToProcess){
         PostQuantificationProcessor processor = new PostQuantificationProcessor(results_,ms2Removed_,adductInsensitiveRtFilter);
+        processor.setExecutor(workers_);
         try {
           latestRtPredictions_ = processor.predictRetentionTimesBasedOnResults(onlyMS1DataPresent_,latestRtPredictions_);
           Hashtable<String,Hashtable<String,Boolean>> predictionFound = new Hashtable<String,Hashtable<String,Boolean>>();
@@ -1174,7 +1335,11 @@ public class QuantificationThread extends Thread
         }
       }
       //TODO: this is only here to prevent an endless loop
-      if (countToProcess>0) stopThread = false;
+      if (countToProcess>0){
+        stopThread = false;
+        // no SingleQuantThread is running - the supervisor has to assign the reinitialized analytes by itself
+        triggerSupervisor();
+      }
     }
     if (stopThread){
       if (!error){
@@ -1189,6 +1354,7 @@ public class QuantificationThread extends Thread
         }
         if (LipidomicsConstants.isShotgun()!=LipidomicsConstants.SHOTGUN_TRUE && LipidomicsConstants.isMS2()){
           PostQuantificationProcessor processor = new PostQuantificationProcessor(results_,ms2Removed_,adductInsensitiveRtFilter);
+          processor.setExecutor(workers_);
           try {
             results_ = processor.chooseMoreLikelyOne(quantObjects);
           }
@@ -1219,11 +1385,13 @@ public class QuantificationThread extends Thread
         executeFinalProcesses(classSequence,analyteSequence,quantObjects,basePeakCutoff,resultFile,chromFile);
       }
       finished_ = true;
+      shutDownExecutors();
       for (Integer analyzer : analyzers_.keySet()){
         if (analyzers_.get(analyzer).getUseCuda()){
           analyzers_.get(analyzer).getSavGolJNI().Frees();
         }
       }
+      notifyCompletion();
     }
   }
   
@@ -1409,63 +1577,68 @@ public class QuantificationThread extends Thread
       correctedParams.put(sheetName, corrected);
     }
     System.out.println("Required time: "+((System.currentTimeMillis()-startCalcTime_)/(60*1000))+" minutes "+(System.currentTimeMillis()-startCalcTime_)%(60*1000)/1000+" seconds");
-    try {
-      LipidomicsConstants constants = LipidomicsConstants.getInstance();
-      constants.setRawFileName(chromFile);
-      boolean isAlexTargetList = false;
-      Hashtable<String,Boolean> alexTargetlistUsed = new Hashtable<String,Boolean>();
-      if (Settings.useAlex()){
-        for (String className : quantObjects.keySet()){
-          Hashtable<String,Hashtable<String,QuantVO>> quantsOfClass = quantObjects.get(className);
-          for (Hashtable<String,QuantVO> quantsOfAnalyte : quantsOfClass.values()){
-            for (QuantVO quant : quantsOfAnalyte.values()){
-              if (quant instanceof TargetlistEntry){
-                isAlexTargetList = true;
-                if (((TargetlistEntry)quant).hasAlex123FragmentsForClass() && !alexTargetlistUsed.containsKey(className)){
-                  alexTargetlistUsed.put(className, true);
+    exporting_ = true;
+    //the raw file name and the target list flags are set at the shared settings, which are written to the result file -
+    //the concurrent quantifications of a pipelined batch must not interleave here
+    synchronized (LipidomicsConstants.getInstance()){
+      try {
+        LipidomicsConstants constants = LipidomicsConstants.getInstance();
+        constants.setRawFileName(chromFile);
+        boolean isAlexTargetList = false;
+        Hashtable<String,Boolean> alexTargetlistUsed = new Hashtable<String,Boolean>();
+        if (Settings.useAlex()){
+          for (String className : quantObjects.keySet()){
+            Hashtable<String,Hashtable<String,QuantVO>> quantsOfClass = quantObjects.get(className);
+            for (Hashtable<String,QuantVO> quantsOfAnalyte : quantsOfClass.values()){
+              for (QuantVO quant : quantsOfAnalyte.values()){
+                if (quant instanceof TargetlistEntry){
+                  isAlexTargetList = true;
+                  if (((TargetlistEntry)quant).hasAlex123FragmentsForClass() && !alexTargetlistUsed.containsKey(className)){
+                    alexTargetlistUsed.put(className, true);
+                  }
                 }
               }
+              if (isAlexTargetList) break;
             }
-            if (isAlexTargetList) break;
           }
         }
-      }
-      constants.setAlexTargetlist(isAlexTargetList);
-      constants.setAlexTargetlistUsed(alexTargetlistUsed);
-      HydroxyEncoding[] encodings = getOnlyUsedHydroxyEncodings(correctedParams,Settings.getFaHydroxyEncoding(),Settings.getLcbHydroxyEncoding());
-      QuantificationResult quantRes = new QuantificationResult(correctedParams,constants,classSequence,encodings[0],encodings[1]);
+        constants.setAlexTargetlist(isAlexTargetList);
+        constants.setAlexTargetlistUsed(alexTargetlistUsed);
+        HydroxyEncoding[] encodings = getOnlyUsedHydroxyEncodings(correctedParams,Settings.getFaHydroxyEncoding(),Settings.getLcbHydroxyEncoding());
+        QuantificationResult quantRes = new QuantificationResult(correctedParams,constants,classSequence,encodings[0],encodings[1]);
       
-//      long timeMillis_0 = System.currentTimeMillis();
-//      String resultFilePOI = resultFile.substring(0,resultFile.indexOf("."))+"_POI.xlsx";
-//      QuantificationResultExporterApachePOI.writeResultsToExcel(resultFilePOI,quantRes);
-//      long timeMillis_1 = System.currentTimeMillis();
+  //      long timeMillis_0 = System.currentTimeMillis();
+  //      String resultFilePOI = resultFile.substring(0,resultFile.indexOf("."))+"_POI.xlsx";
+  //      QuantificationResultExporterApachePOI.writeResultsToExcel(resultFilePOI,quantRes);
+  //      long timeMillis_1 = System.currentTimeMillis();
       
-      QuantificationResultExporter.writeResultsToExcel(resultFile,quantRes);
+        QuantificationResultExporter.writeResultsToExcel(resultFile,quantRes);
       
       
-//      long timeMillis_2 = System.currentTimeMillis();
-//      
-//      System.out.println(String.format("Time required by Apache POI: %s \n"
-//          + "Time required by fastExcel: %s", 
-//          (timeMillis_1-timeMillis_0)/1000.0, (timeMillis_2-timeMillis_1)/1000.0));
+  //      long timeMillis_2 = System.currentTimeMillis();
+  //      
+  //      System.out.println(String.format("Time required by Apache POI: %s \n"
+  //          + "Time required by fastExcel: %s", 
+  //          (timeMillis_1-timeMillis_0)/1000.0, (timeMillis_2-timeMillis_1)/1000.0));
       
       
-      if (isAlexTargetList || cli_){
-        String alexResultFile = new String(resultFile);
-        if (alexResultFile.endsWith(".xls") || alexResultFile.endsWith(".xlsx"))
-          alexResultFile = alexResultFile.substring(0,alexResultFile.lastIndexOf("."));
-        alexResultFile += ".tab";
-        Vector<QuantificationResult> results = new Vector<QuantificationResult>();
-        results.add(quantRes);
-        RdbOutputWriter rdbWriter = new RdbOutputWriter();
-        rdbWriter.write(alexResultFile, results, classSequence, analyteSequence, quantObjects);
+        if (isAlexTargetList || cli_){
+          String alexResultFile = new String(resultFile);
+          if (alexResultFile.endsWith(".xls") || alexResultFile.endsWith(".xlsx"))
+            alexResultFile = alexResultFile.substring(0,alexResultFile.lastIndexOf("."));
+          alexResultFile += ".tab";
+          Vector<QuantificationResult> results = new Vector<QuantificationResult>();
+          results.add(quantRes);
+          RdbOutputWriter rdbWriter = new RdbOutputWriter();
+          rdbWriter.write(alexResultFile, results, classSequence, analyteSequence, quantObjects);
+        }
+      } catch (ExportException ex) {
+        new WarningMessage(new JFrame(), "Error", ex.getMessage());
+      }
+      catch (Exception e) {
+        e.printStackTrace();
+        this.errorString_ = e.toString();
       }
-    } catch (ExportException ex) {
-      new WarningMessage(new JFrame(), "Error", ex.getMessage());
-    }
-    catch (Exception e) {
-      e.printStackTrace();
-      this.errorString_ = e.toString();
     }
   }
     
@@ -1684,6 +1857,7 @@ public class QuantificationThread extends Thread
     results.add(analyteSequence);
     results.add(adductInsensitiveRtFilter);
     results.add(quantObjects);
+    IsotopeDistributionCache.store();
     //TODO: these few lines are only for testing purposes
 //    classSequence = new LinkedHashMap<String,Integer>();
 //    classSequence.put("TAG", 1);
@@ -1740,7 +1914,7 @@ public class QuantificationThread extends Thread
     if (amountOfIsotopes<isotopesMustMatch)
       amountOfIsotopes = isotopesMustMatch;
     if (amountOfIsotopes>0){
-      Vector<Vector<Double>> bothDistris = elementParser.calculateChemicalFormulaIntensityDistribution(chemicalFormula, amountOfIsotopes+1, false);
+      Vector<Vector<Double>> bothDistris = IsotopeDistributionCache.calculateChemicalFormulaIntensityDistribution(elementParser, chemicalFormula, amountOfIsotopes+1, false);
       probabs = bothDistris.get(0);
       if (bothDistris.size()>1){
         Vector<Double> negDistri = bothDistris.get(1);
@@ -1758,7 +1932,7 @@ public class QuantificationThread extends Thread
       if (amountOfIsotopes == isotopesMustMatch){
         mustMatchProbabs = new Vector<Double>(probabs);
       }else{
-        Vector<Vector<Double>> bothDistris = elementParser.calculateChemicalFormulaIntensityDistribution(chemicalFormula, isotopesMustMatch+1, false);
+        Vector<Vector<Double>> bothDistris = IsotopeDistributionCache.calculateChemicalFormulaIntensityDistribution(elementParser, chemicalFormula, isotopesMustMatch+1, false);
         mustMatchProbabs = bothDistris.get(0);
         if (bothDistris.size()>1){
           Vector<Double> negDistri = bothDistris.get(1);
@@ -43,6 +43,8 @@ public class RawToMzxmlThread extends Thread
   boolean watersMsConvert_;
   boolean finished_ = false;
   String errorString_;
+  /** is called when the thread has finished; null if nobody has to be notified*/
+  private Runnable completionCallback_;
   
   public RawToMzxmlThread(String[] params, boolean isMassPlusPlus, boolean watersMsConvert){
     params_ = params;
@@ -130,6 +132,15 @@ public class RawToMzxmlThread extends Thread
       errorString_ = ex.toString();     
     }
     finished_ = true;
+    if (completionCallback_!=null) completionCallback_.run();
+  }
+  
+  /**
+   * sets a callback that is called when the thread has finished - successfully or not; it has to be set before the thread is started
+   * @param completionCallback the callback
+   */
+  public void setCompletionCallback(Runnable completionCallback){
+    this.completionCallback_ = completionCallback;
   }
   
   public boolean finished(){
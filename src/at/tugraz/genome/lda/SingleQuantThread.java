@@ -56,11 +56,11 @@ import at.tugraz.genome.maspectras.utils.Calculator;
 import at.tugraz.genome.voutils.GeneralComparator;
 
 /**
- * 
+ * The quantitation of one analyte/modification - it is executed by a worker of the QuantificationThread
  * @author Juergen Hartler
  *
  */
-public class SingleQuantThread extends Thread
+public class SingleQuantThread implements Runnable
 {
   
   private LipidomicsAnalyzer analyzer_;
@@ -76,6 +76,8 @@ public class SingleQuantThread extends Thread
   private Hashtable<QuantVO,Hashtable<String,LipidParameterSet>> ms2RemovedHits_;
   /** if a peak split has to be removed because a split partner has a wrong retention time, the unsplit peak version is stored*/
   private Hashtable<QuantVO,Hashtable<String,LipidParameterSet>> peaksBeforeSplit_;
+  /** is informed when the quantitation is finished (successfully or not); may be null*/
+  private Runnable completionListener_;
   
   
   public SingleQuantThread(LipidomicsAnalyzer analyzer, QuantVO quantSet, int msLevel, boolean msnFirst){
@@ -99,6 +101,15 @@ public class SingleQuantThread extends Thread
       
     }
     finished_ = true;
+    if (completionListener_!=null) completionListener_.run();
+  }
+  
+  /**
+   * sets a listener that is informed when the quantitation is finished - the listener is executed by the thread of the quantitation
+   * @param completionListener the listener
+   */
+  public void setCompletionListener(Runnable completionListener){
+    this.completionListener_ = completionListener;
   }
   
   private Hashtable<QuantVO,Hashtable<String,LipidParameterSet>> startSingleQuantification(LipidomicsAnalyzer analyzer, QuantVO quantSet, int msLevel) throws CgException, LipidCombinameEncodingException {
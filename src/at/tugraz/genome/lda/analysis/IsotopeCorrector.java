@@ -23,6 +23,8 @@
 
 package at.tugraz.genome.lda.analysis;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Hashtable;
 import java.util.Vector;
 
@@ -30,6 +32,7 @@ import at.tugraz.genome.lda.LipidomicsConstants;
 import at.tugraz.genome.lda.analysis.vos.IsoLocationSpaces;
 import at.tugraz.genome.lda.analysis.vos.IsoOverlapVO;
 import at.tugraz.genome.lda.quantification.LipidParameterSet;
+import at.tugraz.genome.lda.utils.IsotopeDistributionCache;
 import at.tugraz.genome.lda.utils.StaticUtils;
 import at.tugraz.genome.maspectras.parser.exceptions.SpectrummillParserException;
 import at.tugraz.genome.maspectras.parser.spectrummill.ElementConfigParser;
@@ -43,24 +46,36 @@ public class IsotopeCorrector
 {
 
   private final static int ISO_MAX_CORRECTION = 5;
+  /** safety margin for the m/z window of the candidate lookup; the exact window is checked by checkIsotopicOverlap*/
+  private final static float MZ_WINDOW_MARGIN = 0.01f;
 
   public static Hashtable<String,Vector<LipidParameterSet>> correctIsotopicPattern(ElementConfigParser elementParser, Hashtable<String,Vector<LipidParameterSet>> toCorrect) throws SpectrummillParserException{
     Hashtable<String,LipidParameterSet> correctedParams = new Hashtable<String,LipidParameterSet>();
     Hashtable<String,LipidParameterSet> forCorrection = new Hashtable<String,LipidParameterSet>();
     Hashtable<String,IsoOverlapVO> correctionInfo = new Hashtable<String,IsoOverlapVO>();
+    //all molecules in the sequence of the comparison, and their positions in ascending m/z order
+    Vector<String> groups = new Vector<String>();
+    Vector<LipidParameterSet> allMols = new Vector<LipidParameterSet>();
+    for (String group : toCorrect.keySet()){
+      for (LipidParameterSet mol : toCorrect.get(group)){
+        groups.add(group);
+        allMols.add(mol);
+      }
+    }
+    Integer[] mzOrder = createMzOrder(allMols);
     for (String group1 : toCorrect.keySet()){
       Vector<LipidParameterSet> mols1 = toCorrect.get(group1);
       for (LipidParameterSet mol : mols1){
         String analId = uniqueId(group1,mol.getNameIncludingModification());
         IsoOverlapVO overlap = new IsoOverlapVO(analId,mol.getIsotopicProbes().size());
-        for (String group2 : toCorrect.keySet()){
-          Vector<LipidParameterSet> mols2 = toCorrect.get(group2);
-          for (LipidParameterSet compare : mols2){
-            if (!group1.equalsIgnoreCase(group2)||!mol.getNameIncludingModification().equalsIgnoreCase(compare.getNameIncludingModification())){
-              IsoLocationSpaces overlapLocation = checkIsotopicOverlap(elementParser,mol,compare, group2);
-              if (overlapLocation.hasOverlap()){
-                overlap.addOverlapLocation(overlapLocation);
-              }
+        // only molecules within the m/z range of the isotopes can overlap
+        for (int index : getOverlapCandidates(mol,allMols,mzOrder)){
+          String group2 = groups.get(index);
+          LipidParameterSet compare = allMols.get(index);
+          if (!group1.equalsIgnoreCase(group2)||!mol.getNameIncludingModification().equalsIgnoreCase(compare.getNameIncludingModification())){
+            IsoLocationSpaces overlapLocation = checkIsotopicOverlap(elementParser,mol,compare, group2);
+            if (overlapLocation.hasOverlap()){
+              overlap.addOverlapLocation(overlapLocation);
             }
           }
         }
@@ -129,12 +144,56 @@ public class IsotopeCorrector
     return corrected;
   }
   
+  /**
+   * sorts the molecules by their m/z value
+   * @param mols the molecules in the sequence of the comparison
+   * @return the positions of the molecules in ascending m/z order; molecules without a valid m/z value are at the end
+   */
+  private static Integer[] createMzOrder(Vector<LipidParameterSet> mols){
+    Integer[] mzOrder = new Integer[mols.size()];
+    for (int i=0; i!=mzOrder.length; i++) mzOrder[i] = i;
+    Arrays.sort(mzOrder, new Comparator<Integer>(){
+      public int compare(Integer o1, Integer o2){
+        return Float.compare(mols.get(o1).Mz[0], mols.get(o2).Mz[0]);
+      }
+    });
+    return mzOrder;
+  }
+  
+  /**
+   * returns the molecules whose m/z value is within the range checked by checkIsotopicOverlap
+   * @param toCheck the molecule that might be overlapped
+   * @param mols the molecules in the sequence of the comparison
+   * @param mzOrder the positions of the molecules in ascending m/z order
+   * @return the positions of the candidates in the sequence of the comparison
+   */
+  private static int[] getOverlapCandidates(LipidParameterSet toCheck, Vector<LipidParameterSet> mols, Integer[] mzOrder){
+    float range = ISO_MAX_CORRECTION*LipidomicsConstants.getNeutronMass()+LipidomicsConstants.getCoarseChromMzTolerance(toCheck.Mz[0])+MZ_WINDOW_MARGIN;
+    float lowerMz = toCheck.Mz[0]-range;
+    float upperMz = toCheck.Mz[0]+range;
+    if (Float.isNaN(lowerMz) || Float.isNaN(upperMz)) return new int[0];
+    //the first molecule that is not below the lower border
+    int lower = 0;
+    int upper = mzOrder.length;
+    while (lower<upper){
+      int middle = (lower+upper)>>>1;
+      if (mols.get(mzOrder[middle]).Mz[0]<lowerMz) lower = middle+1;
+      else upper = middle;
+    }
+    int stop = lower;
+    while (stop<mzOrder.length && mols.get(mzOrder[stop]).Mz[0]<=upperMz) stop++;
+    int[] candidates = new int[stop-lower];
+    for (int i=lower; i!=stop; i++) candidates[i-lower] = mzOrder[i];
+    Arrays.sort(candidates);
+    return candidates;
+  }
+  
   private static IsoLocationSpaces checkIsotopicOverlap(ElementConfigParser elementParser, LipidParameterSet toCheck, LipidParameterSet overlapping, String overlapGroup) throws SpectrummillParserException{
 //    IsoOverlapVO over = new IsoOverlapVO(uniqueId(overlapGroup,overlapping.getNameIncludingModification()),ISO_MAX_CORRECTION);
     IsoLocationSpaces over = new IsoLocationSpaces(uniqueId(overlapGroup,overlapping.getNameIncludingModification()),ISO_MAX_CORRECTION);
     if ((toCheck.Mz[0]+ISO_MAX_CORRECTION*LipidomicsConstants.getNeutronMass()+LipidomicsConstants.getCoarseChromMzTolerance(toCheck.Mz[0]))>overlapping.Mz[0]&&(toCheck.Mz[0]-ISO_MAX_CORRECTION*LipidomicsConstants.getNeutronMass()-LipidomicsConstants.getCoarseChromMzTolerance(toCheck.Mz[0]))<overlapping.Mz[0]){
       boolean negative = false;
-      Vector<Vector<Double>> bothDistris = elementParser.calculateChemicalFormulaIntensityDistribution(overlapping.getChemicalFormula(), ISO_MAX_CORRECTION, false);
+      Vector<Vector<Double>> bothDistris = IsotopeDistributionCache.calculateChemicalFormulaIntensityDistribution(elementParser, overlapping.getChemicalFormula(), ISO_MAX_CORRECTION, false);
       Vector<Double> distri = bothDistris.get(0);
       if (bothDistris.size()>1){
         Vector<Double> negDistri = bothDistris.get(1);
@@ -584,10 +584,13 @@ public class MSnAnalyzer
     Hashtable<Boolean,Vector<FragmentVO>> headFragments = fragCalc_.getHeadFragments(set_.getOhNumber());
     Vector<FragmentVO> mandatoryHeadFragments = headFragments.get(true);
     Vector<FragmentVO> addHeadFragments = headFragments.get(false);
+    Vector<FragmentVO> allHeadFragments = new Vector<FragmentVO>(mandatoryHeadFragments);
+    allHeadFragments.addAll(addHeadFragments);
+    Hashtable<FragmentVO,CgProbe> headAreas = analyzer_.calculateMs2Areas(allHeadFragments, probesWithMSnSpectra);
     boolean foundHeadFragments = false;
     for (FragmentVO fragment : mandatoryHeadFragments){
       if (!probesWithMSnSpectra.containsKey(fragment.getMsLevel())) continue;
-      CgProbe probe = analyzer_.calculateMs2Area(fragment.getMass(), fragment.getFormula(), fragment.getMsLevel(), fragment.getCharge(), fragment.isMandatory()==FragmentRuleVO.MANDATORY_OTHER, probesWithMSnSpectra.get(fragment.getMsLevel()));
+      CgProbe probe = getMs2Area(fragment, headAreas, probesWithMSnSpectra);
 //      System.out.println("Mand: "+fragment.getName()+";"+fragment.getMass()+";"+probe.Area+";"+probe.AreaStatus+";"+checkBasePeakCutoff(probe,fragment.getMsLevel()));
       if (probe.AreaStatus == CgAreaStatus.OK && checkCutoffs(probe,fragment.getMsLevel(),0f)){
         foundHeadFragments = true;
@@ -603,7 +606,7 @@ public class MSnAnalyzer
     }
     for (FragmentVO fragment : addHeadFragments){
       if (!probesWithMSnSpectra.containsKey(fragment.getMsLevel())) continue;
-      CgProbe probe = analyzer_.calculateMs2Area(fragment.getMass(), fragment.getFormula(), fragment.getMsLevel(), fragment.getCharge(), fragment.isMandatory()==FragmentRuleVO.MANDATORY_OTHER, probesWithMSnSpectra.get(fragment.getMsLevel()));
+      CgProbe probe = getMs2Area(fragment, headAreas, probesWithMSnSpectra);
 //      System.out.println("Add: "+fragment.getName()+";"+fragment.getMass()+";"+probe.Area+";"+probe.AreaStatus+";"+checkBasePeakCutoff(probe,fragment.getMsLevel()));
       if (probe.AreaStatus == CgAreaStatus.OK && checkCutoffs(probe,fragment.getMsLevel(),0f)){
         foundHeadFragments = true;
@@ -658,6 +661,22 @@ public class MSnAnalyzer
     return basePeak;
   }
   
+  /**
+   * returns the area of an MSn fragment - the area is taken from the ones calculated at once for precursor-indexed data;
+   * for other data, it is calculated only now, so that the checks stop at the first infringed mandatory fragment without calculating the remaining ones
+   * @param fragment the fragment to be quantified
+   * @param areas the areas calculated at once by calculateMs2Areas
+   * @param probesWithMSnSpectra MS1 identifications where MSn spectra can be extracted
+   * @return the area of the fragment
+   * @throws CgException errors from the quantitation process
+   */
+  private CgProbe getMs2Area(FragmentVO fragment, Hashtable<FragmentVO,CgProbe> areas, Hashtable<Integer,Vector<CgProbe>> probesWithMSnSpectra) throws CgException{
+    CgProbe probe = areas.get(fragment);
+    if (probe==null)
+      probe = analyzer_.calculateMs2Area(fragment.getMass(), fragment.getFormula(), fragment.getMsLevel(), fragment.getCharge(), fragment.isMandatory()==FragmentRuleVO.MANDATORY_OTHER, probesWithMSnSpectra.get(fragment.getMsLevel()));
+    return probe;
+  }
+  
   /**
    * verifies if the chain fragment rules are fulfilled
    * stores all verified chain combinations, and discards hits below the cutoff
@@ -676,8 +695,23 @@ public class MSnAnalyzer
     Hashtable<Short,Vector<IntensityRuleVO>> intRules = fragCalc_.getChainIntensityRulesSameChain();
     Set<String> forbiddenChains = new HashSet<String>();
     Hashtable<String,Vector<IntensityRuleVO>> absRulesToCheck = new Hashtable<String,Vector<IntensityRuleVO>>();
+    //for precursor-indexed data, the areas of the fragments of all chains are calculated at once
+    Vector<Hashtable<Boolean,Vector<FragmentVO>>> fragmentsOfChains = new Vector<Hashtable<Boolean,Vector<FragmentVO>>>();
+    Vector<FragmentVO> allChainFragments = new Vector<FragmentVO>();
     for (FattyAcidVO chain : fas){
       Hashtable<Boolean,Vector<FragmentVO>> chainFragments = fragCalc_.getChainFragments(chain);
+      fragmentsOfChains.add(chainFragments);
+      for (Vector<FragmentVO> fragments : chainFragments.values()){
+        for (FragmentVO fragment : fragments){
+          // a fragment cannot have any negative chemical elements
+          if (fragment.getFormula().indexOf("-")==-1) allChainFragments.add(fragment);
+        }
+      }
+    }
+    Hashtable<FragmentVO,CgProbe> chainAreas = analyzer_.calculateMs2Areas(allChainFragments, probesWithMSnSpectra);
+    for (int i=0; i!=fas.size(); i++){
+      FattyAcidVO chain = fas.get(i);
+      Hashtable<Boolean,Vector<FragmentVO>> chainFragments = fragmentsOfChains.get(i);
 //      for (Integer chainType : allChainFragments.keySet()){
         //System.out.println(fa.getName()+": "+chainType);
       Vector<FragmentVO> mandatoryChainFragments = chainFragments.get(true);
@@ -694,7 +728,7 @@ public class MSnAnalyzer
         }
         //if (chain.getName().equalsIgnoreCase("18:1")) System.out.println(chain.getChainId()+";"+fragment.getName()+" ; "+fragment.getMass());
         if (!probesWithMSnSpectra.containsKey(fragment.getMsLevel())) continue;
-        CgProbe probe = analyzer_.calculateMs2Area(fragment.getMass(), fragment.getFormula(), fragment.getMsLevel(), fragment.getCharge(), fragment.isMandatory()==FragmentRuleVO.MANDATORY_OTHER, probesWithMSnSpectra.get(fragment.getMsLevel()));
+        CgProbe probe = getMs2Area(fragment, chainAreas, probesWithMSnSpectra);
         if (probe.AreaStatus == CgAreaStatus.OK && checkCutoffs(probe,fragment.getMsLevel(),RulesContainer.getChainAbsoluteThreshold(StaticUtils.getRuleName(this.className_, this.modName_)))){
           //if (chain.getName().equalsIgnoreCase("18:1")) System.out.println("!!! "+chain.getChainId()+";"+fragment.getMass()+";"+fragment.getName()+";"+probe.Area);
           foundChainFragments = true;
@@ -714,7 +748,7 @@ public class MSnAnalyzer
           continue;
 //      if (chainType==FragmentRuleVO.ALKYL_CHAIN && fa.getName().equalsIgnoreCase("18:1")) System.out.println("!!! 18:1: "+fragment.getMass());
         if (!probesWithMSnSpectra.containsKey(fragment.getMsLevel())) continue;
-        CgProbe probe = analyzer_.calculateMs2Area(fragment.getMass(), fragment.getFormula(), fragment.getMsLevel(), fragment.getCharge(), fragment.isMandatory()==FragmentRuleVO.MANDATORY_OTHER, probesWithMSnSpectra.get(fragment.getMsLevel()));
+        CgProbe probe = getMs2Area(fragment, chainAreas, probesWithMSnSpectra);
         if (probe.AreaStatus == CgAreaStatus.OK && checkCutoffs(probe,fragment.getMsLevel(),RulesContainer.getChainAbsoluteThreshold(StaticUtils.getRuleName(this.className_, this.modName_)))){
 //        System.out.println(fa.getName()+";"+fragment.getName()+";"+fragment.getMass()+";"+probe.Area+";"+probe.AreaStatus+"; Add");
           foundChainFragments = true;
@@ -23,7 +23,10 @@
 package at.tugraz.genome.lda.msn;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Set;
 import java.util.Vector;
@@ -324,6 +327,9 @@ public class MSnPeakSeparator
       QuantVO quant = sharedPeaks.iterator().next().getPartners().get(0).getQuantVO();
       chrom = analyzer_.readOneChromatogram((float)quant.getAnalyteMass(),msLevel_);
     }
+    // the shared peaks have to be separated one after the other on the one analyzer: splitTwoIsobaricPeaks
+    // works on the MSn spectra cache that the previous split left prepared, and it recalculates the peaks
+    // and the MS2 identifications of the partners on the caches of this analyzer
     for (SharedMS1PeakVO shared : sharedPeaks){
       float start = Float.MAX_VALUE;
       float stop = 0f;
@@ -402,43 +408,124 @@ public class MSnPeakSeparator
   public static Vector<SharedMS1PeakVO> detectSharedMS1PeakInstances(Hashtable<QuantVO,Hashtable<String,LipidParameterSet>> hitsAccordingToQuant){
     Vector<SharedMS1PeakVO> sharedPeaks = new Vector<SharedMS1PeakVO>();
     Vector<QuantVO> quants = new Vector<QuantVO>(hitsAccordingToQuant.keySet());
-    Hashtable<Integer,Hashtable<String,String>> alreadyAdded = new Hashtable<Integer,Hashtable<String,String>>();
-    for (int i1=0; i1!=quants.size(); i1++){
-      QuantVO quant1 = quants.get(i1);
-      Hashtable<String,LipidParameterSet> hits1 =  hitsAccordingToQuant.get(quant1);
-      Hashtable<String,String> added = new Hashtable<String,String>();
-      if (alreadyAdded.containsKey(i1)) added = alreadyAdded.get(i1);
-      for (String rt1 : hits1.keySet()){
-        if (added.containsKey(rt1)) continue;
-        LipidParameterSet set1 = hits1.get(rt1);        
-        SharedMS1PeakVO sharedPeak = new SharedMS1PeakVO();
-        sharedPeak.addSharedInstance(quant1, set1);
-        boolean otherAdded = false;
-        for (int i2=i1+1; i2<quants.size(); i2++){
-          Hashtable<String,String> added2 = new Hashtable<String,String>();
-          if (alreadyAdded.containsKey(i2)) added2 = alreadyAdded.get(i2);
-          QuantVO quant2 = quants.get(i2);
-          Hashtable<String,LipidParameterSet> hits2 =  hitsAccordingToQuant.get(quant2);
-          for (String rt2 : hits2.keySet()){
-            if (added2.containsKey(rt2)) continue;
-            LipidParameterSet set2 = hits2.get(rt2);
-            if (rt1.equalsIgnoreCase(rt2) || LipidomicsAnalyzer.isPeakCenterTheSame(set1, set2)){
-              sharedPeak.addSharedInstance(quant2, set2);
-              otherAdded = true;
-              added2.put(rt2, rt2);
-            }
-          }
-          alreadyAdded.put(i2, added2);
-        }
-        if (otherAdded && sharedPeak.areThereMS2Hits()){
-          sharedPeaks.add(sharedPeak);
-          added.put(rt1, rt1);
-          alreadyAdded.put(i1, added);
+    //the hits are numbered in the sequence of the former nested loops: QuantVO after QuantVO, and within one in the order of the retention time keys
+    Vector<QuantVO> hitQuants = new Vector<QuantVO>();
+    Vector<Integer> hitQuantIndices = new Vector<Integer>();
+    Vector<String> hitRts = new Vector<String>();
+    Vector<LipidParameterSet> hitSets = new Vector<LipidParameterSet>();
+    for (int i=0; i!=quants.size(); i++){
+      Hashtable<String,LipidParameterSet> hits =  hitsAccordingToQuant.get(quants.get(i));
+      for (String rt : hits.keySet()){
+        hitQuants.add(quants.get(i));
+        hitQuantIndices.add(i);
+        hitRts.add(rt);
+        hitSets.add(hits.get(rt));
+      }
+    }
+    float[][] ranges = new float[hitSets.size()][];
+    for (int i=0; i!=hitSets.size(); i++) ranges[i] = LipidomicsAnalyzer.getPeakCenterOverlapRange(hitSets.get(i));
+    Integer[] byLowerBorder = createLowerBorderIndex(ranges);
+    float maxFiniteWidth = 0f;
+    Vector<Integer> infiniteRanges = new Vector<Integer>();
+    for (int i=0; i!=ranges.length; i++){
+      if (Float.isInfinite(ranges[i][0]) || Float.isInfinite(ranges[i][1])){
+        if (ranges[i][0]<=ranges[i][1]) infiniteRanges.add(i);
+      } else if (ranges[i][0]<=ranges[i][1]) maxFiniteWidth = Math.max(maxFiniteWidth, ranges[i][1]-ranges[i][0]);
+    }
+    Hashtable<String,Vector<Integer>> sameRts = new Hashtable<String,Vector<Integer>>();
+    for (int i=0; i!=hitRts.size(); i++){
+      String rt = hitRts.get(i).toLowerCase();
+      if (!sameRts.containsKey(rt)) sameRts.put(rt, new Vector<Integer>());
+      sameRts.get(rt).add(i);
+    }
+    
+    boolean[] added = new boolean[hitSets.size()];
+    for (int hit1=0; hit1!=hitSets.size(); hit1++){
+      if (added[hit1]) continue;
+      int i1 = hitQuantIndices.get(hit1);
+      String rt1 = hitRts.get(hit1);
+      LipidParameterSet set1 = hitSets.get(hit1);
+      SharedMS1PeakVO sharedPeak = new SharedMS1PeakVO();
+      sharedPeak.addSharedInstance(hitQuants.get(hit1), set1);
+      boolean otherAdded = false;
+      for (int hit2 : getSharedPeakCandidates(hit1, ranges, byLowerBorder, maxFiniteWidth, infiniteRanges, sameRts.get(rt1.toLowerCase()))){
+        if (hitQuantIndices.get(hit2)<=i1 || added[hit2]) continue;
+        LipidParameterSet set2 = hitSets.get(hit2);
+        if (rt1.equalsIgnoreCase(hitRts.get(hit2)) || LipidomicsAnalyzer.isPeakCenterTheSame(set1, set2)){
+          sharedPeak.addSharedInstance(hitQuants.get(hit2), set2);
+          otherAdded = true;
+          added[hit2] = true;
         }
       }
+      if (otherAdded && sharedPeak.areThereMS2Hits()){
+        sharedPeaks.add(sharedPeak);
+      }
     }
     return sharedPeaks;
   }
+  
+  /**
+   * sorts the hits by the lower border of their peak center overlap range
+   * @param ranges the peak center overlap ranges of the hits
+   * @return the indices of the hits with non-empty ranges, sorted by the lower border
+   */
+  private static Integer[] createLowerBorderIndex(float[][] ranges){
+    Vector<Integer> nonEmpty = new Vector<Integer>();
+    for (int i=0; i!=ranges.length; i++){
+      if (ranges[i][0]<=ranges[i][1] && !Float.isInfinite(ranges[i][0]) && !Float.isInfinite(ranges[i][1])) nonEmpty.add(i);
+    }
+    Integer[] sorted = nonEmpty.toArray(new Integer[nonEmpty.size()]);
+    Arrays.sort(sorted, new Comparator<Integer>(){
+      public int compare(Integer o1, Integer o2){
+        return Float.compare(ranges[o1][0], ranges[o2][0]);
+      }});
+    return sorted;
+  }
+  
+  /**
+   * returns the hits that may share a peak with a hit: the ones with the same retention time key, and the ones whose
+   * peak center overlap range overlaps with the one of the hit; only these hits can fulfill LipidomicsAnalyzer.isPeakCenterTheSame
+   * @param hit the number of the hit
+   * @param ranges the peak center overlap ranges of the hits
+   * @param byLowerBorder the numbers of the hits with finite, non-empty ranges, sorted by the lower border
+   * @param maxFiniteWidth the maximum width of the finite ranges
+   * @param infiniteRanges the numbers of the hits with infinite ranges
+   * @param sameRt the numbers of the hits with the same retention time key (case insensitive)
+   * @return the numbers of the candidate hits in ascending order, i.e. in the order of the former nested loops
+   */
+  private static int[] getSharedPeakCandidates(int hit, float[][] ranges, Integer[] byLowerBorder, float maxFiniteWidth, Vector<Integer> infiniteRanges,
+      Vector<Integer> sameRt){
+    Set<Integer> candidates = new HashSet<Integer>(sameRt);
+    float lower = ranges[hit][0];
+    float upper = ranges[hit][1];
+    if (lower<=upper){
+      candidates.addAll(infiniteRanges);
+      if (Float.isInfinite(lower) || Float.isInfinite(upper)){
+        for (Integer other : byLowerBorder) candidates.add(other);
+      } else {
+        //the ranges overlap if the lower border of the other one is within [lower-maxFiniteWidth,upper], and its upper border is not below lower;
+        //the start of the search is lowered by a small margin, so that rounding errors cannot exclude a candidate
+        double searchStart = (double)lower-(double)maxFiniteWidth-1d-Math.abs((double)lower)*0.0001d;
+        int start = 0;
+        int stop = byLowerBorder.length;
+        while (start<stop){
+          int middle = (start+stop)>>>1;
+          if (ranges[byLowerBorder[middle]][0]<searchStart) start = middle+1;
+          else stop = middle;
+        }
+        for (int i=start; i<byLowerBorder.length; i++){
+          float[] other = ranges[byLowerBorder[i]];
+          if (other[0]>upper) break;
+          if (other[1]>=lower) candidates.add(byLowerBorder[i]);
+        }
+      }
+    }
+    int[] sorted = new int[candidates.size()];
+    int count = 0;
+    for (Integer candidate : candidates) sorted[count++] = candidate;
+    Arrays.sort(sorted);
+    return sorted;
+  }
 
   
   /**
@@ -23,6 +23,7 @@
 package at.tugraz.genome.lda.msn;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedHashMap;
@@ -113,17 +114,21 @@ public class OtherAdductChecker
     
     for (String lipidClass : results.keySet()) {
       for (String analyte : results.get(lipidClass).keySet()) {
+        //the retention times of the adducts of this analyte - created when the first adduct requires another one
+        Hashtable<String,float[]> rtsOfMods = null;
         for (String mod : results.get(lipidClass).get(analyte).keySet()) {
           ruleName = StaticUtils.getRuleName(lipidClass,mod);
           Hashtable<String,LipidParameterSet> sameMod = results.get(lipidClass).get(analyte).get(mod);
           if (!requiresOtherAdducts.containsKey(ruleName) || requiresOtherAdducts.get(ruleName)==false)
             continue;
+          if (rtsOfMods==null)
+            rtsOfMods = getSortedRtsOfMods(results.get(lipidClass).get(analyte));
           for (String rt : sameMod.keySet()) {
             boolean oneFound = false;
             boolean allFound = true;
+            float rtValue = Float.parseFloat(rt);
             for (String otherMod : otherRequiredAdducts.get(ruleName)) {
-              //System.out.println(lipidClass+analyte+"_"+mod+"_"+rt+":  "+otherMod+"-"+isOtherModPresentInResults(lipidClass,analyte,otherMod,rt,timeTolerance,results));
-              if (isOtherModPresentInResults(lipidClass,analyte,otherMod,rt,timeTolerance.get(ruleName),results))
+              if (isOtherModPresentInResults(rtsOfMods.get(otherMod),rtValue,timeTolerance.get(ruleName)))
                 oneFound = true;
               else
                 allFound = false;
@@ -293,32 +298,46 @@ public class OtherAdductChecker
   
   /**
    * searches the results whether another required modification is present in the results
-   * @param lClass the lipid class to look for
-   * @param analyte the name of the analyte
-   * @param mod the name of the modification
-   * @param rtString the string representation of the retention time to look for
+   * @param foundRts the sorted retention times of the other modification of the same analyte; null if there are none
+   * @param rt the retention time to look for
    * @param tolerance the allowed retention time tolerance
-   * @param results the detected results, i.e. the place to look for the other adducts
    * @return true when the other required modifications were found
    */
-  private static boolean isOtherModPresentInResults(String lClass, String analyte, String mod, String rtString, float tolerance,
-      Hashtable<String,Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>> results) {
-    if (!results.containsKey(lClass) || !results.get(lClass).containsKey(analyte) || !results.get(lClass).get(analyte).containsKey(mod))
+  private static boolean isOtherModPresentInResults(float[] foundRts, float rt, float tolerance) {
+    if (foundRts==null)
       return false;
-    boolean found = false;
-    float rt = Float.parseFloat(rtString);
     float startRt = rt-tolerance;
     float stopRt = rt+tolerance;
-    float foundRt;
-    //iterate over the found RTs and check which ones are within the tolerance
-    for (String foundRtString : results.get(lClass).get(analyte).get(mod).keySet()) {
-      foundRt = Float.parseFloat(foundRtString);
-      if (startRt<=foundRt && foundRt<=stopRt) {
-        found = true;
-        break;
-      }
-    }    
-    return found;
+    //the first found RT that is not smaller than the start of the tolerance window
+    int lower = 0;
+    int upper = foundRts.length;
+    while (lower<upper) {
+      int middle = (lower+upper)>>>1;
+      if (foundRts[middle]<startRt)
+        lower = middle+1;
+      else
+        upper = middle;
+    }
+    return lower<foundRts.length && foundRts[lower]<=stopRt;
+  }
+  
+  
+  /**
+   * creates an index of the retention times of each modification of an analyte
+   * @param hitsOfAnalyte the detected hits of an analyte; first key: modification; second key: retention time
+   * @return the parsed retention times in ascending order; key: modification
+   */
+  private static Hashtable<String,float[]> getSortedRtsOfMods(Hashtable<String,Hashtable<String,LipidParameterSet>> hitsOfAnalyte) {
+    Hashtable<String,float[]> rtsOfMods = new Hashtable<String,float[]>();
+    for (String mod : hitsOfAnalyte.keySet()) {
+      float[] rts = new float[hitsOfAnalyte.get(mod).size()];
+      int count = 0;
+      for (String rt : hitsOfAnalyte.get(mod).keySet())
+        rts[count++] = Float.parseFloat(rt);
+      Arrays.sort(rts);
+      rtsOfMods.put(mod, rts);
+    }
+    return rtsOfMods;
   }
  
   
@@ -375,14 +394,16 @@ public class OtherAdductChecker
    */
   public static Vector<String> getParamsFromId(String id){
     Vector<String> params = new Vector<String>();
-    String rest = new String(id);
-    while (rest.length()>0) {
-      if (rest.indexOf(SEP)!=-1) {
-        params.add(rest.substring(0,rest.indexOf(SEP)));
-        rest = rest.substring(rest.indexOf(SEP)+SEP.length());
+    int start = 0;
+    int sepIndex;
+    while (start<id.length()) {
+      sepIndex = id.indexOf(SEP,start);
+      if (sepIndex!=-1) {
+        params.add(id.substring(start,sepIndex));
+        start = sepIndex+SEP.length();
       } else {
-        params.add(rest);
-        rest = "";
+        params.add(id.substring(start));
+        start = id.length();
       }
     }
     return params;
@@ -31,6 +31,12 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -78,6 +84,8 @@ public class PostQuantificationProcessor
   private Hashtable<String,LevenbergMarquardtOptimizer> predictedModels_;
   /** does the predicted model respect OH*/
   private Hashtable<String,Boolean> respectOhs_;
+  /** fits the models of independent classes and modifications in parallel; if null, the models are fitted in the calling thread*/
+  private ExecutorService executor_;
   
   
   /**
@@ -94,6 +102,15 @@ public class PostQuantificationProcessor
     respectOhs_ = new Hashtable<String,Boolean>();
   }
   
+  /**
+   * sets an executor for fitting the retention time models of independent classes and modifications in parallel; the results are
+   * the same as in the calling thread. The executor must not be occupied by the calling thread itself.
+   * @param executor the executor; if null, the models are fitted in the calling thread
+   */
+  public void setExecutor(ExecutorService executor){
+    this.executor_ = executor;
+  }
+  
   /**
    * starts the filtering process and returns the filtered data
    * @return filtered data
@@ -122,115 +139,171 @@ public class PostQuantificationProcessor
     Hashtable<String,Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>> negativeExamples = dataOrdered.get(2);
     Hashtable<String,Hashtable<String,RtPredictVO>> rtPredictVOs = new Hashtable<String,Hashtable<String,RtPredictVO>>();
     
+    // the models of the class mod combinations are independent of each other
+    Vector<String> fitClasses = new Vector<String>();
+    Vector<String> fitMods = new Vector<String>();
+    @SuppressWarnings("rawtypes")
+    Vector<Callable<Vector>> fits = new Vector<Callable<Vector>>();
     for (String className : ms1ToPredict.keySet()){
       if (!postProcessData.containsKey(className)) continue;
-      Hashtable<String,RtPredictVO> classRtPredictVOs = new Hashtable<String,RtPredictVO>();
       for (String mod : postProcessData.get(className).keySet()){
         Hashtable<String,Hashtable<String,LipidParameterSet>> negatives = new Hashtable<String,Hashtable<String,LipidParameterSet>>();
         if (negativeExamples.containsKey(className) && negativeExamples.get(className).containsKey(mod)) negatives = negativeExamples.get(className).get(mod);
-        String ruleName = StaticUtils.getRuleName(className, mod);
-        Hashtable<String,Hashtable<String,LipidParameterSet>> result = postProcessData.get(className).get(mod);
-        try {
-          Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>> paramsOrdered = new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>();
-          Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>> negativesOrdered = new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>();
-          @SuppressWarnings("rawtypes")
-          Vector ranges;
-          RangeInteger cAtomsRange = null;
-          Hashtable<Integer,RangeInteger> dbsRanges = null;
-//          if (prevPredictions!=null && prevPredictions.containsKey(className) && prevPredictions.get(className).containsKey(mod)){
-//            RtPredictVO predVO = prevPredictions.get(className).get(mod);
-//            cAtomsRange = predVO.getcAtomsRange();
-//            dbsRanges = predVO.getDbsRanges();
-//          }else{
-            ranges = groupAccordingToCAtomsAndDoubleBonds(result,new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>(),paramsOrdered,className,ruleName);
-            cAtomsRange = (RangeInteger)ranges.get(0);
-            dbsRanges = (Hashtable<Integer,RangeInteger>)ranges.get(1);
-//          }
-          @SuppressWarnings({ "rawtypes", "unused" })
-          Vector rangesNeg = groupAccordingToCAtomsAndDoubleBonds(negatives,new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>(),negativesOrdered,className,ruleName);
-          float tolerance = 4f;
-          float maxDev = -1f;
-          if (RulesContainer.getRetentionTimeMaxDeviation(ruleName)!=null) maxDev = new Float(RulesContainer.getRetentionTimeMaxDeviation(ruleName));
-          
-          //this is for oh
-          boolean diffOh = false;
-          int oh = -1;
-          for (Hashtable<Integer,Hashtable<String,LipidParameterSet>> sameC : paramsOrdered.values()){
-            for (Hashtable<String,LipidParameterSet> sameDbs : sameC.values()) {
-              for (LipidParameterSet set : sameDbs.values()) {
-                if (oh==-1)
-                  oh = set.getOhNumber();
-                else if (oh!=set.getOhNumber())
-                  diffOh = true;
-              }
-            }
-          }
-          @SuppressWarnings("rawtypes")
-          Vector resultsLM = doIterativeLMOptimization(paramsOrdered,paramsOrdered,cAtomsRange,dbsRanges,negativesOrdered,tolerance,maxDev,diffOh);
-          LevenbergMarquardtOptimizer optimizer = (LevenbergMarquardtOptimizer)resultsLM.get(0);
-          LevenbergMarquardtOptimizer counterModel = (LevenbergMarquardtOptimizer)resultsLM.get(1);
-                    
-          // the model was fitted - now check for which hits shall we make the prediction
-          Hashtable<String,Hashtable<String,LipidParameterSet>> unprocResult = new Hashtable<String,Hashtable<String,LipidParameterSet>>(result); 
-          for (String analyteName : ms1ToPredict.get(className).keySet()){
-            Hashtable<String,QuantVO> analytesMod = ms1ToPredict.get(className).get(analyteName);
-            if (!analytesMod.containsKey(mod) || unprocResult.containsKey(analyteName)) continue;
-            QuantVO quantVO = analytesMod.get(mod);
-            LipidParameterSet setForPred = new LipidParameterSet((float)quantVO.getAnalyteMass(), quantVO.getAnalyteName(),
-                quantVO.getDbs(), quantVO.getOhNumber(), quantVO.getModName(), "-1.0", quantVO.getAnalyteFormula(), quantVO.getModFormula(),
-                quantVO.getCharge());
-            Hashtable<String,LipidParameterSet> forPred = new Hashtable<String,LipidParameterSet>();
-            forPred.put(setForPred.getRt(), setForPred);
-            unprocResult.put(analyteName, forPred);
-          }
-          Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>> unprocessed = new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>();
-          ranges = groupAccordingToCAtomsAndDoubleBonds(unprocResult,new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>(),unprocessed,className,ruleName);
-          RangeInteger cAtomsMaxRange = (RangeInteger)ranges.get(0);
-          Hashtable<Integer,RangeInteger> dbsMaxRanges = (Hashtable<Integer,RangeInteger>)ranges.get(1);
-          if (prevPredictions!=null && prevPredictions.containsKey(className) && prevPredictions.get(className).containsKey(mod)){
-            RtPredictVO predVO = prevPredictions.get(className).get(mod);
-            cAtomsRange = predVO.getcAtomsRange();
-            dbsRanges = predVO.getDbsRanges();
+        final Hashtable<String,Hashtable<String,LipidParameterSet>> negativesOfMod = negatives;
+        final Hashtable<String,Hashtable<String,LipidParameterSet>> result = postProcessData.get(className).get(mod);
+        fitClasses.add(className);
+        fitMods.add(mod);
+        fits.add(() -> predictRetentionTimes(className,mod,result,negativesOfMod,ms1ToPredict.get(className),prevPredictions));
+      }
+    }
+    
+    // the predictions are applied in the sequence of the class mod combinations
+    Vector<Object> outcomes = executeIndependently(fits);
+    for (int i=0; i!=outcomes.size(); i++){
+      String className = fitClasses.get(i);
+      String mod = fitMods.get(i);
+      Object outcome = outcomes.get(i);
+      if (outcome instanceof Exception) throwPostProcessingException((Exception)outcome);
+      @SuppressWarnings("rawtypes")
+      Vector prediction = (Vector)outcome;
+      RtPredictVO predVO = (RtPredictVO)prediction.get(0);
+      if (predVO!=null){
+        if (!rtPredictVOs.containsKey(className)) rtPredictVOs.put(className, new Hashtable<String,RtPredictVO>());
+        rtPredictVOs.get(className).put(mod, predVO);
+      }
+      Vector<QuantVO> quantVOs = (Vector<QuantVO>)prediction.get(1);
+      Vector<Float> retTimes = (Vector<Float>)prediction.get(2);
+      for (int j=0; j!=quantVOs.size(); j++) quantVOs.get(j).setRetTime(retTimes.get(j));
+      if (prediction.get(3)!=null)
+        System.out.println("Warning: "+className+"_"+mod+" was not RT filtered: "+((LMException)prediction.get(3)).getMessage());
+    }
+    return rtPredictVOs;
+  }
+  
+  /**
+   * fits the model of a class mod combination and predicts the RT of the lipids where no MSn spectra are present
+   * @param className the name of the lipid class
+   * @param mod the name of the modification
+   * @param result the MSn identifications of this class mod combination
+   * @param negatives the MSn identifications of other classes for the counter model
+   * @param ms1ToPredictOfClass lipids of this class to quantify where no MSn spectra are present
+   * @param prevPredictions the predictions of the previous round
+   * @return get(0): RtPredictVO of the fitted model (null if the model could not be fitted); get(1): Vector of QuantVOs; get(2): Vector of
+   *         their predicted retention times; get(3): LMException if the model could not be fitted or a prediction was not possible, otherwise null
+   * @throws RulesException specifies in detail which rule has been infringed
+   * @throws NoRuleException thrown if the library is not there
+   * @throws IOException general exception if there is something wrong about the file
+   * @throws SpectrummillParserException exception if there is something wrong about the elementconfig.xml, or an element is not there
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private Vector predictRetentionTimes(String className, String mod, Hashtable<String,Hashtable<String,LipidParameterSet>> result,
+      Hashtable<String,Hashtable<String,LipidParameterSet>> negatives, Hashtable<String,Hashtable<String,QuantVO>> ms1ToPredictOfClass,
+      Hashtable<String,Hashtable<String,RtPredictVO>> prevPredictions) throws RulesException, NoRuleException, IOException, SpectrummillParserException {
+    RtPredictVO predVO = null;
+    Vector<QuantVO> quantVOs = new Vector<QuantVO>();
+    Vector<Float> retTimes = new Vector<Float>();
+    LMException lmException = null;
+    String ruleName = StaticUtils.getRuleName(className, mod);
+    try {
+      Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>> paramsOrdered = new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>();
+      Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>> negativesOrdered = new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>();
+      Vector ranges;
+      RangeInteger cAtomsRange = null;
+      Hashtable<Integer,RangeInteger> dbsRanges = null;
+//      if (prevPredictions!=null && prevPredictions.containsKey(className) && prevPredictions.get(className).containsKey(mod)){
+//        RtPredictVO predVO = prevPredictions.get(className).get(mod);
+//        cAtomsRange = predVO.getcAtomsRange();
+//        dbsRanges = predVO.getDbsRanges();
+//      }else{
+        ranges = groupAccordingToCAtomsAndDoubleBonds(result,new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>(),paramsOrdered,className,ruleName);
+        cAtomsRange = (RangeInteger)ranges.get(0);
+        dbsRanges = (Hashtable<Integer,RangeInteger>)ranges.get(1);
+//      }
+      @SuppressWarnings("unused")
+      Vector rangesNeg = groupAccordingToCAtomsAndDoubleBonds(negatives,new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>(),negativesOrdered,className,ruleName);
+      float tolerance = 4f;
+      float maxDev = -1f;
+      if (RulesContainer.getRetentionTimeMaxDeviation(ruleName)!=null) maxDev = new Float(RulesContainer.getRetentionTimeMaxDeviation(ruleName));
+      
+      //this is for oh
+      boolean diffOh = false;
+      int oh = -1;
+      for (Hashtable<Integer,Hashtable<String,LipidParameterSet>> sameC : paramsOrdered.values()){
+        for (Hashtable<String,LipidParameterSet> sameDbs : sameC.values()) {
+          for (LipidParameterSet set : sameDbs.values()) {
+            if (oh==-1)
+              oh = set.getOhNumber();
+            else if (oh!=set.getOhNumber())
+              diffOh = true;
           }
-          @SuppressWarnings("rawtypes")
-          Vector proposedRanges = proposeLMFilterRanges(unprocessed, cAtomsMaxRange, dbsMaxRanges, cAtomsRange, dbsRanges);
-          RangeInteger newCAtomsRange = (RangeInteger)proposedRanges.get(0);
-          Hashtable<Integer,RangeInteger> newDbsRanges = (Hashtable<Integer,RangeInteger>) proposedRanges.get(1);
-//        this is only for debug purposes
-//          for (int i=newCAtomsRange.getStart(); i<=newCAtomsRange.getStop(); i++){
-//            if (!newDbsRanges.containsKey(i)) continue;
-//            RangeInteger dbsRange = newDbsRanges.get(i);
-//            System.out.println("Proposed Range calculation: "+i+":"+dbsRange.getStart()+"-"+dbsRange.getStop());
-//          }
-          RtPredictVO predVO = new RtPredictVO(optimizer,counterModel,newCAtomsRange,newDbsRanges);
-          classRtPredictVOs.put(mod, predVO);
-          
-          Pattern cAtomsPattern =  Pattern.compile(RulesContainer.getCAtomsFromNamePattern(ruleName));
-          Pattern dbsPattern =  Pattern.compile(RulesContainer.getDoubleBondsFromNamePattern(ruleName));
-          for (String analyteName : ms1ToPredict.get(className).keySet()){
-            Hashtable<String,QuantVO> analytesMod = ms1ToPredict.get(className).get(analyteName);
-            if (!analytesMod.containsKey(mod)) continue;
-            QuantVO quantVO = analytesMod.get(mod);
-            Matcher cAtomsMatcher = cAtomsPattern.matcher(analyteName);
-            if (!cAtomsMatcher.matches()) throw new RulesException("The analyte "+analyteName+" does not match the "+FragRuleParser.GENERAL_CATOMS_PARSE+" pattern \""+RulesContainer.getCAtomsFromNamePattern(ruleName)+"\" of the class "+ruleName+"!");
-            Matcher dbsMatcher = dbsPattern.matcher(analyteName);
-            int cAtoms = Integer.parseInt(cAtomsMatcher.group(1));
-            if (!dbsMatcher.matches()) throw new RulesException("The analyte "+analyteName+" does not match the "+FragRuleParser.GENERAL_DBOND_PARSE+" pattern \""+RulesContainer.getDoubleBondsFromNamePattern(ruleName)+"\" of the class "+ruleName+"!");
-            int dbs = Integer.parseInt(dbsMatcher.group(1));
-// the lines with the 4/ are necessary if the prediction is based on consecutive model predictions
-////            if (!newDbsRanges.containsKey(cAtoms)) continue;
-////            RangeInteger dbsRange = newDbsRanges.get(cAtoms);
-////            if (dbsRange.insideRange(dbs))
-              quantVO.setRetTime(optimizer.calculateFitValue(new float[]{cAtoms,dbs}));
-          }          
-        }
-        catch (LMException e) {
-          System.out.println("Warning: "+className+"_"+mod+" was not RT filtered: "+e.getMessage());
         }
       }
-      if (classRtPredictVOs.size()>0) rtPredictVOs.put(className, classRtPredictVOs);
+      Vector resultsLM = doIterativeLMOptimization(paramsOrdered,paramsOrdered,cAtomsRange,dbsRanges,negativesOrdered,tolerance,maxDev,diffOh);
+      LevenbergMarquardtOptimizer optimizer = (LevenbergMarquardtOptimizer)resultsLM.get(0);
+      LevenbergMarquardtOptimizer counterModel = (LevenbergMarquardtOptimizer)resultsLM.get(1);
+                
+      // the model was fitted - now check for which hits shall we make the prediction
+      Hashtable<String,Hashtable<String,LipidParameterSet>> unprocResult = new Hashtable<String,Hashtable<String,LipidParameterSet>>(result); 
+      for (String analyteName : ms1ToPredictOfClass.keySet()){
+        Hashtable<String,QuantVO> analytesMod = ms1ToPredictOfClass.get(analyteName);
+        if (!analytesMod.containsKey(mod) || unprocResult.containsKey(analyteName)) continue;
+        QuantVO quantVO = analytesMod.get(mod);
+        LipidParameterSet setForPred = new LipidParameterSet((float)quantVO.getAnalyteMass(), quantVO.getAnalyteName(),
+            quantVO.getDbs(), quantVO.getOhNumber(), quantVO.getModName(), "-1.0", quantVO.getAnalyteFormula(), quantVO.getModFormula(),
+            quantVO.getCharge());
+        Hashtable<String,LipidParameterSet> forPred = new Hashtable<String,LipidParameterSet>();
+        forPred.put(setForPred.getRt(), setForPred);
+        unprocResult.put(analyteName, forPred);
+      }
+      Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>> unprocessed = new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>();
+      ranges = groupAccordingToCAtomsAndDoubleBonds(unprocResult,new Hashtable<Integer,Hashtable<Integer,Hashtable<String,LipidParameterSet>>>(),unprocessed,className,ruleName);
+      RangeInteger cAtomsMaxRange = (RangeInteger)ranges.get(0);
+      Hashtable<Integer,RangeInteger> dbsMaxRanges = (Hashtable<Integer,RangeInteger>)ranges.get(1);
+      if (prevPredictions!=null && prevPredictions.containsKey(className) && prevPredictions.get(className).containsKey(mod)){
+        RtPredictVO prevVO = prevPredictions.get(className).get(mod);
+        cAtomsRange = prevVO.getcAtomsRange();
+        dbsRanges = prevVO.getDbsRanges();
+      }
+      Vector proposedRanges = proposeLMFilterRanges(unprocessed, cAtomsMaxRange, dbsMaxRanges, cAtomsRange, dbsRanges);
+      RangeInteger newCAtomsRange = (RangeInteger)proposedRanges.get(0);
+      Hashtable<Integer,RangeInteger> newDbsRanges = (Hashtable<Integer,RangeInteger>) proposedRanges.get(1);
+//    this is only for debug purposes
+//      for (int i=newCAtomsRange.getStart(); i<=newCAtomsRange.getStop(); i++){
+//        if (!newDbsRanges.containsKey(i)) continue;
+//        RangeInteger dbsRange = newDbsRanges.get(i);
+//        System.out.println("Proposed Range calculation: "+i+":"+dbsRange.getStart()+"-"+dbsRange.getStop());
+//      }
+      predVO = new RtPredictVO(optimizer,counterModel,newCAtomsRange,newDbsRanges);
+      
+      Pattern cAtomsPattern =  Pattern.compile(RulesContainer.getCAtomsFromNamePattern(ruleName));
+      Pattern dbsPattern =  Pattern.compile(RulesContainer.getDoubleBondsFromNamePattern(ruleName));
+      for (String analyteName : ms1ToPredictOfClass.keySet()){
+        Hashtable<String,QuantVO> analytesMod = ms1ToPredictOfClass.get(analyteName);
+        if (!analytesMod.containsKey(mod)) continue;
+        QuantVO quantVO = analytesMod.get(mod);
+        Matcher cAtomsMatcher = cAtomsPattern.matcher(analyteName);
+        if (!cAtomsMatcher.matches()) throw new RulesException("The analyte "+analyteName+" does not match the "+FragRuleParser.GENERAL_CATOMS_PARSE+" pattern \""+RulesContainer.getCAtomsFromNamePattern(ruleName)+"\" of the class "+ruleName+"!");
+        Matcher dbsMatcher = dbsPattern.matcher(analyteName);
+        int cAtoms = Integer.parseInt(cAtomsMatcher.group(1));
+        if (!dbsMatcher.matches()) throw new RulesException("The analyte "+analyteName+" does not match the "+FragRuleParser.GENERAL_DBOND_PARSE+" pattern \""+RulesContainer.getDoubleBondsFromNamePattern(ruleName)+"\" of the class "+ruleName+"!");
+        int dbs = Integer.parseInt(dbsMatcher.group(1));
+// the lines with the 4/ are necessary if the prediction is based on consecutive model predictions
+////        if (!newDbsRanges.containsKey(cAtoms)) continue;
+////        RangeInteger dbsRange = newDbsRanges.get(cAtoms);
+////        if (dbsRange.insideRange(dbs))
+          quantVOs.add(quantVO);
+          retTimes.add(optimizer.calculateFitValue(new float[]{cAtoms,dbs}));
+      }          
     }
-    return rtPredictVOs;
+    catch (LMException e) {
+      lmException = e;
+    }
+    Vector prediction = new Vector();
+    prediction.add(predVO);
+    prediction.add(quantVOs);
+    prediction.add(retTimes);
+    prediction.add(lmException);
+    return prediction;
   }
 
   
@@ -245,13 +318,18 @@ public class PostQuantificationProcessor
    * @throws IOException general exception if there is something wrong about the file
    * @throws SpectrummillParserException exception if there is something wrong about the elementconfig.xml, or an element is not there
    */
+  @SuppressWarnings("unchecked")
   private Hashtable<String,Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>> correctByRetentionTimeSeries(Hashtable<String,Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>> unprocessed,
       Hashtable<String,Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>> ms2Removed, Hashtable<String,Boolean> adductInsensitiveRtFilter_) throws RulesException, NoRuleException, IOException, SpectrummillParserException{
     Vector<Hashtable<String,Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>>> dataOrdered = orderData(unprocessed,ms2Removed,adductInsensitiveRtFilter_);
     Hashtable<String,Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>> results = dataOrdered.get(0);
     Hashtable<String,Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>> postProcessData = dataOrdered.get(1);
     Hashtable<String,Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>> negativeExamples = dataOrdered.get(2);
-    // start post processing for every class mod combination
+    // the filters of the class mod combinations are independent of each other - first, the input of each filter is collected
+    Vector<String> filterClasses = new Vector<String>();
+    Vector<String> filterMods = new Vector<String>();
+    Vector<Hashtable<String,Hashtable<String,LipidParameterSet>>> filterInputs = new Vector<Hashtable<String,Hashtable<String,LipidParameterSet>>>();
+    Vector<Callable<Hashtable<String,Hashtable<String,LipidParameterSet>>>> filters = new Vector<Callable<Hashtable<String,Hashtable<String,LipidParameterSet>>>>();
     for (String className : postProcessData.keySet()){
       if (adductInsensitiveRtFilter_.get(className)){
         boolean diffOh = false;
@@ -304,31 +382,18 @@ public class PostQuantificationProcessor
             negatives.put(analyteName,sameAnalyte);
           }
         }
-        float minDev = extractMinimumAcceptedDeviationValue(className,resultsModIgnored);
-        try {
-          resultsModIgnored = filterRetentionTimeSeries(className,anyValidRuleName,resultsModIgnored,negatives,maxDev,minDev,true,diffOh);
-        }
-        catch (LMException e) {
-          System.out.println("Warning: "+className+" was not RT filtered: "+e.getMessage());
-        }
-        // store the results to the returning hash
-        Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>> resultsClass = new Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>();
-        for (String analyteName : resultsModIgnored.keySet()){
-          Hashtable<String,Hashtable<String,LipidParameterSet>> resultsAnalyte = new Hashtable<String,Hashtable<String,LipidParameterSet>>();
-          Hashtable<String,LipidParameterSet> sameAnalyte = resultsModIgnored.get(analyteName);
-          for (String rt : sameAnalyte.keySet()){
-            LipidParameterSet set = sameAnalyte.get(rt);
-            String finalRt = new String(rt);
-            if (finalRt.indexOf("_")!=-1) finalRt = finalRt.substring(0,finalRt.indexOf("_"));
-            String mod = set.getModificationName();
-            Hashtable<String,LipidParameterSet> resultsMod = new Hashtable<String,LipidParameterSet>();
-            if (resultsAnalyte.containsKey(mod)) resultsMod = resultsAnalyte.get(mod);
-            resultsMod.put(finalRt, set);
-            resultsAnalyte.put(mod, resultsMod);
-            resultsClass.put(analyteName, resultsAnalyte);
-            results.put(className,resultsClass);
-          }
-        }
+        final Hashtable<String,Hashtable<String,LipidParameterSet>> input = resultsModIgnored;
+        final Hashtable<String,Hashtable<String,LipidParameterSet>> negativesOfClass = negatives;
+        final String ruleName = anyValidRuleName;
+        final float maxDevOfClass = maxDev;
+        final boolean respectOh = diffOh;
+        filterClasses.add(className);
+        filterMods.add(null);
+        filterInputs.add(input);
+        filters.add(() -> {
+          float minDev = extractMinimumAcceptedDeviationValue(className,input);
+          return filterRetentionTimeSeries(className,ruleName,input,negativesOfClass,maxDevOfClass,minDev,true,respectOh);
+        });
       }else{ 
         for (String mod : postProcessData.get(className).keySet()){
           Hashtable<String,Hashtable<String,LipidParameterSet>> negatives = new Hashtable<String,Hashtable<String,LipidParameterSet>>();
@@ -346,32 +411,142 @@ public class PostQuantificationProcessor
                 diffOh = true;
            }
           }
-          try {
+          final Hashtable<String,Hashtable<String,LipidParameterSet>> negativesOfMod = negatives;
+          final boolean respectOh = diffOh;
+          filterClasses.add(className);
+          filterMods.add(mod);
+          filterInputs.add(result);
+          filters.add(() -> {
             float maxDev = -1f;
             if (RulesContainer.getRetentionTimeMaxDeviation(ruleName)!=null) maxDev = new Float(RulesContainer.getRetentionTimeMaxDeviation(ruleName));
-            float minDev = extractMinimumAcceptedDeviationValue(className,postProcessData.get(className).get(mod));
-            result = filterRetentionTimeSeries(className,ruleName,postProcessData.get(className).get(mod),negatives,maxDev,minDev,false,diffOh);
-          }
-          catch (LMException e) {
-            System.out.println("Warning: "+className+"_"+mod+" was not RT filtered: "+e.getMessage());
-          }
-
-          // store the results to the returning hash
-          Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>> resultsClass = new Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>();
-          if (results.containsKey(className)) resultsClass = results.get(className);
-          for (String analyteName : result.keySet()){
-            Hashtable<String,Hashtable<String,LipidParameterSet>> resultsAnalyte = new Hashtable<String,Hashtable<String,LipidParameterSet>>();
-            if (resultsClass.containsKey(analyteName)) resultsAnalyte = resultsClass.get(analyteName);
-            resultsAnalyte.put(mod, result.get(analyteName));
+            float minDev = extractMinimumAcceptedDeviationValue(className,result);
+            return filterRetentionTimeSeries(className,ruleName,result,negativesOfMod,maxDev,minDev,false,respectOh);
+          });
+        }
+      }
+    }
+    
+    // second, the filters are executed, and the results are stored in the sequence of the class mod combinations
+    Vector<Object> outcomes = executeIndependently(filters);
+    for (int i=0; i!=outcomes.size(); i++){
+      String className = filterClasses.get(i);
+      String filterMod = filterMods.get(i);
+      Object outcome = outcomes.get(i);
+      if (outcome instanceof Exception && !(outcome instanceof LMException)) throwPostProcessingException((Exception)outcome);
+      if (filterMod==null){
+        Hashtable<String,Hashtable<String,LipidParameterSet>> resultsModIgnored = filterInputs.get(i);
+        if (outcome instanceof LMException)
+          System.out.println("Warning: "+className+" was not RT filtered: "+((LMException)outcome).getMessage());
+        else
+          resultsModIgnored = (Hashtable<String,Hashtable<String,LipidParameterSet>>)outcome;
+        // store the results to the returning hash
+        Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>> resultsClass = new Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>();
+        for (String analyteName : resultsModIgnored.keySet()){
+          Hashtable<String,Hashtable<String,LipidParameterSet>> resultsAnalyte = new Hashtable<String,Hashtable<String,LipidParameterSet>>();
+          Hashtable<String,LipidParameterSet> sameAnalyte = resultsModIgnored.get(analyteName);
+          for (String rt : sameAnalyte.keySet()){
+            LipidParameterSet set = sameAnalyte.get(rt);
+            String finalRt = new String(rt);
+            if (finalRt.indexOf("_")!=-1) finalRt = finalRt.substring(0,finalRt.indexOf("_"));
+            String mod = set.getModificationName();
+            Hashtable<String,LipidParameterSet> resultsMod = new Hashtable<String,LipidParameterSet>();
+            if (resultsAnalyte.containsKey(mod)) resultsMod = resultsAnalyte.get(mod);
+            resultsMod.put(finalRt, set);
+            resultsAnalyte.put(mod, resultsMod);
             resultsClass.put(analyteName, resultsAnalyte);
             results.put(className,resultsClass);
           }
         }
+      }else{
+        String mod = filterMod;
+        Hashtable<String,Hashtable<String,LipidParameterSet>> result = filterInputs.get(i);
+        if (outcome instanceof LMException)
+          System.out.println("Warning: "+className+"_"+mod+" was not RT filtered: "+((LMException)outcome).getMessage());
+        else
+          result = (Hashtable<String,Hashtable<String,LipidParameterSet>>)outcome;
+
+        // store the results to the returning hash
+        Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>> resultsClass = new Hashtable<String,Hashtable<String,Hashtable<String,LipidParameterSet>>>();
+        if (results.containsKey(className)) resultsClass = results.get(className);
+        for (String analyteName : result.keySet()){
+          Hashtable<String,Hashtable<String,LipidParameterSet>> resultsAnalyte = new Hashtable<String,Hashtable<String,LipidParameterSet>>();
+          if (resultsClass.containsKey(analyteName)) resultsAnalyte = resultsClass.get(analyteName);
+          resultsAnalyte.put(mod, result.get(analyteName));
+          resultsClass.put(analyteName, resultsAnalyte);
+          results.put(className,resultsClass);
+        }
       }
     }
     return results;
   }
   
+  /**
+   * executes independent model fits; if an executor is set, the fits are executed in parallel
+   * @param tasks the fits to execute
+   * @return for each fit in the sequence of the tasks: the result, or the exception it has thrown; if the fits are executed
+   *         in the calling thread, the fits after an exception other than an LMException are skipped
+   */
+  private <T> Vector<Object> executeIndependently(Vector<Callable<T>> tasks){
+    Vector<Object> outcomes = new Vector<Object>();
+    if (executor_==null || tasks.size()<2){
+      for (Callable<T> task : tasks){
+        try{
+          outcomes.add(task.call());
+        } catch (Exception ex){
+          outcomes.add(ex);
+          if (!(ex instanceof LMException)) break;
+        }
+      }
+      return outcomes;
+    }
+    Vector<Future<T>> futures = new Vector<Future<T>>();
+    for (Callable<T> task : tasks){
+      try{
+        futures.add(executor_.submit(task));
+      } catch (RejectedExecutionException rex){
+        // the executor has already been shut down - the fit is executed in this thread
+        FutureTask<T> future = new FutureTask<T>(task);
+        future.run();
+        futures.add(future);
+      }
+    }
+    boolean interrupted = false;
+    for (Future<T> future : futures){
+      while (true){
+        try{
+          outcomes.add(future.get());
+          break;
+        } catch (InterruptedException ix){
+          // the fits are short - the result is awaited nevertheless, and the interruption is restored afterwards
+          interrupted = true;
+        } catch (ExecutionException ex){
+          if (ex.getCause() instanceof Exception) outcomes.add(ex.getCause());
+          else throw new RuntimeException(ex.getCause());
+          break;
+        }
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+    return outcomes;
+  }
+  
+  /**
+   * rethrows an exception of a model fit that was executed by executeIndependently
+   * @param ex the exception of the fit
+   * @throws RulesException specifies in detail which rule has been infringed
+   * @throws NoRuleException thrown if the library is not there
+   * @throws IOException general exception if there is something wrong about the file
+   * @throws SpectrummillParserException exception if there is something wrong about the elementconfig.xml, or an element is not there
+   */
+  private void throwPostProcessingException(Exception ex) throws RulesException, NoRuleException, IOException, SpectrummillParserException{
+    if (ex instanceof RulesException) throw (RulesException)ex;
+    if (ex instanceof NoRuleException) throw (NoRuleException)ex;
+    if (ex instanceof IOException) throw (IOException)ex;
+    if (ex instanceof SpectrummillParserException) throw (SpectrummillParserException)ex;
+    if (ex instanceof RuntimeException) throw (RuntimeException)ex;
+    throw new RuntimeException(ex);
+  }
+  
   /**
    * orders data in a manner that is appropriate for LM predection
    * @param unprocessed the unprocessed data
@@ -55,7 +55,7 @@ public class RulesContainer
   /** directory where the rules reside in */
   private String rulesDir_;
   
-  /** instances of the classes that cache the rules - the hash is the coresponding rules directory */
+  /** instances of the classes that cache the rules - the hash is the coresponding rules directory; accessed under the class lock, since concurrent quantifications share it */
   private static Hashtable<String,RulesContainer> instances_;
   
   /** the fragmentation rules - key is the name of the analyte class */
@@ -85,7 +85,7 @@ public class RulesContainer
    * @throws IOException general exception if there is something wrong about the file
    * @throws SpectrummillParserException exception if there is something wrong about the elementconfig.xml, or an element is not there
    */
-  private static RulesContainer getInstance(String rulesDir) throws RulesException, IOException, SpectrummillParserException {
+  private static synchronized RulesContainer getInstance(String rulesDir) throws RulesException, IOException, SpectrummillParserException {
     if (instances_==null) clearCache();
     if (!instances_.containsKey(rulesDir)){
       instances_.put(rulesDir, new RulesContainer(rulesDir));
@@ -121,6 +121,7 @@ public class RulesContainer
       FragRuleParser parser = new FragRuleParser(elementParser);
       try {
         parser.parseFile(file);
+        parser.compileIntensityRules();
         rules_.put(file.getName().substring(0,file.getName().length()-StaticUtils.RULE_FILE_SUFFIX.length()), parser);
       } catch (RulesException ex){
         throw new RulesException(file.getName()+": "+ex.getMessage());
@@ -1403,11 +1404,11 @@ public class RulesContainer
   /**
    * removes all stored fragmentation rules
    */
-  public static void clearCache(){
+  public static synchronized void clearCache(){
     instances_ = new Hashtable<String,RulesContainer>();
   }
 
-  public static void clearCache(String rulesDir){
+  public static synchronized void clearCache(String rulesDir){
     if (instances_!=null && instances_.containsKey(rulesDir))
       instances_.remove(rulesDir);
   }
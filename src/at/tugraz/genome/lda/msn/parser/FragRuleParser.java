@@ -1361,6 +1361,16 @@ public class FragRuleParser
     return this.positionIntensities_;
   }
   
+  /**
+   * translates the head, chain, and position rules for intensity comparisons into their flat form for the evaluation,
+   * i.e. the multiplication factors are parsed and the base peak is resolved only once - parseFile() has to be called before
+   */
+  public void compileIntensityRules(){
+    for (IntensityRuleVO rule : headIntensities_) rule.compile();
+    for (IntensityRuleVO rule : chainIntensities_) rule.compile();
+    for (IntensityRuleVO rule : positionIntensities_) rule.compile();
+  }
+  
   /**
    * hydroxylation range for the FA moiety - parseFile() has to be called before
    * @return the hydroxylation range for the FA moiety
@@ -40,6 +40,8 @@ public class ExpressionForComparisonVO
   private String globalMultiplier_;
   /** the fragments and their multiplication factors */
   private Vector<FragmentMultVO> fragments_;
+  /** the flat form of the expression for the evaluation - null as long as compile() has not been called*/
+  private volatile CompiledExpression compiled_;
   
   /**
    * Constructor requires the found fragments and its multiplication factors, and the global multiplier
@@ -87,19 +89,159 @@ public class ExpressionForComparisonVO
    * @return the calcualted value for the expression
    */
   public double evaluateExpression(Hashtable<String,CgProbe> found, Float basePeak){
+    CompiledExpression compiled = compile();
     double sum = 0d;
-    for (FragmentMultVO multVO : fragments_){
+    for (int i=0; i!=compiled.names_.length; i++){
       double value = 0d;
-      if (multVO.getFragmentName().equalsIgnoreCase(IntensityRuleVO.BASEPEAK_NAME)) value = basePeak;
-      else if (found!=null && found.containsKey(multVO.getFragmentName())) value = found.get(multVO.getFragmentName()).Area;
-      value = value*multVO.getMultFactor();
-      if (!multVO.isPositive()) value = value*-1d;
-      sum += value;
+      if (compiled.basePeak_[i]) value = basePeak;
+      else if (found!=null){
+        CgProbe probe = found.get(compiled.names_[i]);
+        if (probe!=null) value = probe.Area;
+      }
+      sum += value*compiled.factors_[i];
+    }
+    sum = sum*compiled.globalMultiplier_;
+    return sum;
+  }
+  
+  /**
+   * evaluates the expression directly on the detected head group and chain fragments; the result is the same as the evaluation
+   * on a hash containing the head group fragments, and the fragments of the chains whose chain type occurs in the expression
+   * (later chains overwriting earlier ones) - but without creating this hash
+   * @param headGroupFragments the detected head group fragments; key: fragment name
+   * @param chainFragments the detected chain fragments; first key: chain id; second key: fragment name
+   * @param chainsToCheck the chains for which this evaluation has to be performed
+   * @param basePeak the area of the base peak (if it is required in this equation)
+   * @return the calcualted value for the expression
+   */
+  public double evaluateExpression(Hashtable<String,CgProbe> headGroupFragments, Hashtable<String,Hashtable<String,CgProbe>> chainFragments,
+      Vector<FattyAcidVO> chainsToCheck, Float basePeak){
+    CompiledExpression compiled = compile();
+    double sum = 0d;
+    for (int i=0; i!=compiled.names_.length; i++){
+      double value = 0d;
+      if (compiled.basePeak_[i]) value = basePeak;
+      else{
+        CgProbe probe = getFragment(compiled, compiled.names_[i], headGroupFragments, chainFragments, chainsToCheck);
+        if (probe!=null) value = probe.Area;
+      }
+      sum += value*compiled.factors_[i];
     }
-    sum = sum*Double.parseDouble(globalMultiplier_);
+    sum = sum*compiled.globalMultiplier_;
     return sum;
   }
   
+  /**
+   * checks if any of the found fragments occurs in this expression with a positive sign, or if the expression contains the base peak
+   * @param found the found fragments; key: fragment name; value the peak identification object
+   * @return true if any of the found fragments are in this expression
+   */
+  public boolean areFragmentsFound(Hashtable<String,CgProbe> found){
+    CompiledExpression compiled = compile();
+    for (int i=0; i!=compiled.names_.length; i++){
+      if (compiled.basePeak_[i] || (found!=null && compiled.positive_[i] && found.containsKey(compiled.names_[i])))
+        return true;
+    }
+    return false;
+  }
+  
+  /**
+   * checks if any of the detected head group and chain fragments occurs in this expression with a positive sign, or if the expression contains the base peak
+   * @param headGroupFragments the detected head group fragments; key: fragment name
+   * @param chainFragments the detected chain fragments; first key: chain id; second key: fragment name
+   * @param chainsToCheck the chains for which this evaluation has to be performed
+   * @return true if any of the found fragments are in this expression
+   */
+  public boolean areFragmentsFound(Hashtable<String,CgProbe> headGroupFragments, Hashtable<String,Hashtable<String,CgProbe>> chainFragments,
+      Vector<FattyAcidVO> chainsToCheck){
+    CompiledExpression compiled = compile();
+    for (int i=0; i!=compiled.names_.length; i++){
+      if (compiled.basePeak_[i] || (compiled.positive_[i] && getFragment(compiled, compiled.names_[i], headGroupFragments, chainFragments, chainsToCheck)!=null))
+        return true;
+    }
+    return false;
+  }
+  
+  /**
+   * translates the expression into flat arrays, where the multiplication factors are parsed, the signs applied, and the base peak
+   * resolved; the evaluation methods call it automatically, but a parser may call it in advance
+   * @return the compiled expression
+   */
+  public CompiledExpression compile(){
+    CompiledExpression compiled = compiled_;
+    if (compiled==null){
+      compiled = new CompiledExpression(fragments_, Double.parseDouble(globalMultiplier_));
+      compiled_ = compiled;
+    }
+    return compiled;
+  }
+  
+  /**
+   * returns a detected fragment from the head group or chain fragments in the same precedence as the hash that
+   * IntensityRuleVO used to create for an evaluation: the chains whose chain type comes later in the expression first,
+   * later chains before earlier ones, and the head group fragments at last
+   * @param compiled the compiled expression
+   * @param name the name of the fragment
+   * @param headGroupFragments the detected head group fragments; key: fragment name
+   * @param chainFragments the detected chain fragments; first key: chain id; second key: fragment name
+   * @param chainsToCheck the chains for which this evaluation has to be performed
+   * @return the detected fragment; null if it was not detected
+   */
+  private static CgProbe getFragment(CompiledExpression compiled, String name, Hashtable<String,CgProbe> headGroupFragments,
+      Hashtable<String,Hashtable<String,CgProbe>> chainFragments, Vector<FattyAcidVO> chainsToCheck){
+    for (short chainType : compiled.chainTypes_){
+      for (int i=chainsToCheck.size()-1; i!=-1; i--){
+        FattyAcidVO chain = chainsToCheck.get(i);
+        if (chain.getChainType()!=chainType) continue;
+        Hashtable<String,CgProbe> fragments = chainFragments.get(chain.getChainId());
+        if (fragments==null) continue;
+        CgProbe probe = fragments.get(name);
+        if (probe!=null) return probe;
+      }
+    }
+    return headGroupFragments.get(name);
+  }
+  
+  /**
+   * the flat form of an expression: the fragment names, their multiplication factors including the sign, base peak flags,
+   * and the parsed global multiplier
+   */
+  public static class CompiledExpression
+  {
+    /** the names of the fragments*/
+    private final String[] names_;
+    /** the multiplication factors of the fragments; negative for subtracted fragments*/
+    private final double[] factors_;
+    /** true if the fragment is added, false if it is subtracted*/
+    private final boolean[] positive_;
+    /** true if the fragment is the base peak*/
+    private final boolean[] basePeak_;
+    /** the global multiplier*/
+    private final double globalMultiplier_;
+    /** the distinct chain types of the fragments, sorted by their last occurrence in descending order*/
+    private final short[] chainTypes_;
+    
+    private CompiledExpression(Vector<FragmentMultVO> fragments, double globalMultiplier){
+      names_ = new String[fragments.size()];
+      factors_ = new double[fragments.size()];
+      positive_ = new boolean[fragments.size()];
+      basePeak_ = new boolean[fragments.size()];
+      Vector<Short> chainTypes = new Vector<Short>();
+      for (int i=0; i!=fragments.size(); i++){
+        FragmentMultVO multVO = fragments.get(i);
+        names_[i] = multVO.getFragmentName();
+        positive_[i] = multVO.isPositive();
+        factors_[i] = multVO.isPositive() ? multVO.getMultFactor() : -multVO.getMultFactor();
+        basePeak_[i] = multVO.getFragmentName().equalsIgnoreCase(IntensityRuleVO.BASEPEAK_NAME);
+        Short type = fragments.get(fragments.size()-1-i).getFragmentType();
+        if (!chainTypes.contains(type)) chainTypes.add(type);
+      }
+      chainTypes_ = new short[chainTypes.size()];
+      for (int i=0; i!=chainTypes.size(); i++) chainTypes_[i] = chainTypes.get(i);
+      globalMultiplier_ = globalMultiplier;
+    }
+  }
+  
   /**
    * 
    * @return the position assignment for a fragment
@@ -475,36 +475,11 @@ public class IntensityRuleVO
    */
   public boolean enoughFragmentsForRuleEvaluationFound(Hashtable<String,CgProbe> headGroupFragments, Hashtable<String,Hashtable<String,CgProbe>> chainFragments,
       Vector<FattyAcidVO> chainsToCheck) {
-    Hashtable<String,CgProbe> foundFragments = getFragmentsForExpression(biggerExpression_, headGroupFragments, chainFragments,
-        chainsToCheck);
-    boolean biggerFragsFound = areFragmentsFound(biggerExpression_,foundFragments);
-    foundFragments = getFragmentsForExpression(smallerExpression_, headGroupFragments, chainFragments,
-        chainsToCheck);
-    boolean smallerFragsFound = areFragmentsFound(smallerExpression_,foundFragments);
+    boolean biggerFragsFound = biggerExpression_.areFragmentsFound(headGroupFragments, chainFragments, chainsToCheck);
+    boolean smallerFragsFound = smallerExpression_.areFragmentsFound(headGroupFragments, chainFragments, chainsToCheck);
     return (biggerFragsFound && smallerFragsFound);
   }
   
-  /**
-   * returns all of the fragments that belong to a certain equation expression
-   * @param expression the equation expression
-   * @param headGroupFragments the detected head group fragments
-   * @param chainFragments the detected chain fragments
-   * @param chainsToCheck the chains for which this evaluation has to be performed
-   * @return all of the fragments that belong to a certain equation expression; key: fragment name; value: the detected fragment
-   */
-  private Hashtable<String,CgProbe> getFragmentsForExpression(ExpressionForComparisonVO expression, Hashtable<String,CgProbe> headGroupFragments, Hashtable<String,Hashtable<String,CgProbe>> chainFragments,
-      Vector<FattyAcidVO> chainsToCheck) {
-    Hashtable<String,CgProbe> foundFragments = new Hashtable<String,CgProbe>(headGroupFragments);
-    for (FragmentMultVO fragVO : expression.getFragments()) {
-      for (FattyAcidVO chain : chainsToCheck) {
-        if (chain.getChainType()!=fragVO.getFragmentType() || !chainFragments.containsKey(chain.getChainId()))
-          continue;
-        foundFragments.putAll(chainFragments.get(chain.getChainId()));
-      }
-    }
-    return foundFragments;
-  }
-  
   /**
    * checks if the any of the found fragments occur in one part of the equation comparator
    * @param expression object containing all information on one side of the comparator
@@ -512,15 +487,7 @@ public class IntensityRuleVO
    * @return true if any of the found fragments are in this equation part
    */
   private boolean areFragmentsFound(ExpressionForComparisonVO expression, Hashtable<String,CgProbe> found){
-    boolean foundFrags = false;
-    for (FragmentMultVO multVO : expression.getFragments()){
-      String name = multVO.getFragmentName();
-      if (name.equalsIgnoreCase(BASEPEAK_NAME) || (found!=null && found.containsKey(name) && multVO.isPositive())){
-        foundFrags = true;
-        break;
-      }
-    }
-    return foundFrags;
+    return expression.areFragmentsFound(found);
   }
   
   /**
@@ -556,16 +523,20 @@ public class IntensityRuleVO
    */
   public boolean isRuleFulfilled(Hashtable<String,CgProbe> headGroupFragments, Hashtable<String,Hashtable<String,CgProbe>> chainFragments,
       Vector<FattyAcidVO> chainsToCheck, Float basePeak) {
-    Hashtable<String,CgProbe> foundFragments = getFragmentsForExpression(biggerExpression_, headGroupFragments, chainFragments,
-        chainsToCheck);
-    double biggerArea = getBiggerArea(foundFragments,basePeak);
-    foundFragments = getFragmentsForExpression(smallerExpression_, headGroupFragments, chainFragments,
-        chainsToCheck);
-    double smallerArea = getSmallerArea(foundFragments,basePeak);
+    double biggerArea = biggerExpression_.evaluateExpression(headGroupFragments, chainFragments, chainsToCheck, basePeak);
+    double smallerArea = smallerExpression_.evaluateExpression(headGroupFragments, chainFragments, chainsToCheck, basePeak);
     if (biggerArea>smallerArea) return true;
     else return false; 
   }
   
+  /**
+   * translates the expressions of the rule into their flat form for the evaluation
+   */
+  public void compile(){
+    biggerExpression_.compile();
+    smallerExpression_.compile();
+  }
+  
   /**
    * checks if the rule contains chains of different types
    */
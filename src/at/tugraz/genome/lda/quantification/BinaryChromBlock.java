@@ -0,0 +1,124 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import at.tugraz.genome.dbutilities.Base64;
+
+/**
+ * A block of consecutive m/z bins read from a chrom file in the binary columnar format.
+ * The values are accessed directly in the read buffer, without decoding them into objects.
+ * @author agent
+ *
+ */
+public class BinaryChromBlock
+{
+  /** the bytes of the records*/
+  private ByteBuffer buffer_;
+  /** the start positions of the records in the buffer; the last entry marks the end of the last record*/
+  private int[] offsets_;
+
+  /**
+   * constructor for a block of m/z bins
+   * @param buffer the bytes of the records
+   * @param offsets the start positions of the records in the buffer; the last entry marks the end of the last record
+   */
+  public BinaryChromBlock(ByteBuffer buffer, int[] offsets){
+    this.buffer_ = buffer;
+    this.offsets_ = offsets;
+  }
+
+  /**
+   *
+   * @return the amount of m/z bins in this block
+   */
+  public int getNumberOfBins(){
+    return offsets_.length-1;
+  }
+  
+  /**
+   *
+   * @return the amount of bytes of the records in this block
+   */
+  public int getNumberOfBytes(){
+    return offsets_[offsets_.length-1]-offsets_[0];
+  }
+  
+  /**
+   * returns a block of some consecutive bins of this block; the records are not copied
+   * @param fromBin the position of the first bin in this block
+   * @param toBin the position after the last bin in this block
+   * @return the block containing the requested bins
+   */
+  public BinaryChromBlock getSubBlock(int fromBin, int toBin){
+    return new BinaryChromBlock(buffer_, Arrays.copyOfRange(offsets_, fromBin, toBin+1));
+  }
+
+  /**
+   *
+   * @param bin the position of the bin in the block
+   * @return the amount of data points (scans with an intensity) of this bin
+   */
+  public int getNumberOfPoints(int bin){
+    return (offsets_[bin+1]-offsets_[bin])/BinaryChromIndex.BYTES_PER_POINT;
+  }
+
+  /**
+   *
+   * @param bin the position of the bin in the block
+   * @param point the position of the data point in the bin
+   * @return the scan number of the data point
+   */
+  public int getScanNumber(int bin, int point){
+    return buffer_.getInt(offsets_[bin]+point*4);
+  }
+
+  /**
+   *
+   * @param bin the position of the bin in the block
+   * @param point the position of the data point in the bin
+   * @return the intensity of the data point
+   */
+  public float getIntensity(int bin, int point){
+    return buffer_.getFloat(offsets_[bin]+(getNumberOfPoints(bin)+point)*4);
+  }
+
+  /**
+   * returns the bin in the line format of the old chrom files, i.e. Base64 encoded (int scan number, float intensity) pairs
+   * @param bin the position of the bin in the block
+   * @return the Base64 encoded line; an empty String if there is no signal
+   */
+  public String toBase64Line(int bin){
+    int nrOfPoints = getNumberOfPoints(bin);
+    if (nrOfPoints==0) return "";
+    ByteBuffer buffer = ByteBuffer.allocate(nrOfPoints*BinaryChromIndex.BYTES_PER_POINT);
+    for (int i=0; i!=nrOfPoints; i++){
+      buffer.putInt(getScanNumber(bin,i));
+      buffer.putFloat(getIntensity(bin,i));
+    }
+    return String.valueOf(Base64.encode(buffer.array()));
+  }
+}
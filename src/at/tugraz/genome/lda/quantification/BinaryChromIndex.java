@@ -0,0 +1,190 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Index of a chrom file in the binary columnar format.
+ * In this format, every m/z bin (line of the old text format) is stored as one record consisting of the
+ * scan numbers as raw int values followed by the intensities as raw float values (big endian).
+ * Empty bins have a record length of zero. The index file starts with a fixed header (magic number, version,
+ * number of the first bin, number of bins), followed by one long byte offset per bin and a closing offset
+ * marking the end of the last record. Thus, the position and the length of every bin is available without any
+ * parsing, and a range of consecutive bins is one contiguous block in the chrom file.
+ * @author agent
+ *
+ */
+public class BinaryChromIndex
+{
+  /** header file entry for the chrom format; header files without this entry belong to the Base64 line format*/
+  public final static String CHROMATOGRAM_HEADER_FILE_FORMAT = "ChromFormat";
+  /** value of the header file entry for the binary columnar format*/
+  public final static String CHROM_FORMAT_BINARY = "binaryColumnar";
+
+  /** magic number at the start of the index file ("LDAB")*/
+  public final static int MAGIC_NUMBER = 0x4C444142;
+  /** the current version of the binary format*/
+  public final static int VERSION = 1;
+  /** the amount of bytes of the index header*/
+  public final static int HEADER_BYTES = 16;
+  /** the amount of bytes per data point (int scan number + float intensity)*/
+  public final static int BYTES_PER_POINT = 8;
+
+  /** the number of the first bin in the index*/
+  private int firstBin_;
+  /** the byte offsets of the bins; the last entry marks the end of the last record*/
+  private LongBuffer offsets_;
+
+  /**
+   * constructor for an index
+   * @param firstBin the number of the first bin in the index
+   * @param offsets the byte offsets of the bins; the last entry marks the end of the last record
+   */
+  public BinaryChromIndex(int firstBin, long[] offsets){
+    this(firstBin, LongBuffer.wrap(offsets));
+  }
+  
+  /**
+   * constructor for an index
+   * @param firstBin the number of the first bin in the index
+   * @param offsets the byte offsets of the bins; the last entry marks the end of the last record
+   */
+  private BinaryChromIndex(int firstBin, LongBuffer offsets){
+    this.firstBin_ = firstBin;
+    this.offsets_ = offsets;
+  }
+  
+  /**
+   * creates an index directly on the content of an index file (e.g. a memory mapping) - the offsets are not copied
+   * @param content the content of the index file; position 0 must be the start of the file
+   * @return the index
+   * @throws IOException thrown if the content is not a binary chrom index of a supported version
+   */
+  public static BinaryChromIndex fromBuffer(ByteBuffer content) throws IOException{
+    if (content.limit()<HEADER_BYTES || content.getInt(0)!=MAGIC_NUMBER || content.getInt(4)>VERSION)
+      throw new IOException("The content is not a binary chrom index of a supported version!");
+    int firstBin = content.getInt(8);
+    int nrOfBins = content.getInt(12);
+    ByteBuffer offsets = content.duplicate();
+    offsets.position(HEADER_BYTES);
+    offsets.limit(HEADER_BYTES+(nrOfBins+1)*8);
+    return new BinaryChromIndex(firstBin, offsets.slice().asLongBuffer());
+  }
+
+  /**
+   * reads an index file
+   * @param indexFilePath path to the index file
+   * @return the index
+   * @throws IOException thrown if the file cannot be read or is not a binary chrom index
+   */
+  public static BinaryChromIndex read(String indexFilePath) throws IOException{
+    DataInputStream in = null;
+    try{
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFilePath)));
+      int magic = in.readInt();
+      int version = in.readInt();
+      if (magic!=MAGIC_NUMBER || version>VERSION)
+        throw new IOException("The file "+indexFilePath+" is not a binary chrom index of a supported version!");
+      int firstBin = in.readInt();
+      int nrOfBins = in.readInt();
+      long[] offsets = new long[nrOfBins+1];
+      for (int i=0; i!=offsets.length; i++) offsets[i] = in.readLong();
+      return new BinaryChromIndex(firstBin, offsets);
+    } finally{
+      if (in!=null) in.close();
+    }
+  }
+
+  /**
+   * writes the index to a file
+   * @param indexFilePath path to the index file
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  public void write(String indexFilePath) throws IOException{
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFilePath)));
+    writeHeader(out,firstBin_,getNumberOfBins());
+    for (int i=0; i!=offsets_.limit(); i++) out.writeLong(offsets_.get(i));
+    out.close();
+  }
+
+  /**
+   * writes the fixed size header of an index file; afterwards, (nrOfBins+1) offsets have to be written
+   * @param out the output stream of the index file
+   * @param firstBin the number of the first bin
+   * @param nrOfBins the amount of bins
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  public static void writeHeader(DataOutputStream out, int firstBin, int nrOfBins) throws IOException{
+    out.writeInt(MAGIC_NUMBER);
+    out.writeInt(VERSION);
+    out.writeInt(firstBin);
+    out.writeInt(nrOfBins);
+  }
+
+  /**
+   *
+   * @return the number of the first bin in the index
+   */
+  public int getFirstBin(){
+    return firstBin_;
+  }
+
+  /**
+   *
+   * @return the amount of bins in the index
+   */
+  public int getNumberOfBins(){
+    return offsets_.limit()-1;
+  }
+
+  /**
+   *
+   * @return the number of the bin after the last one in the index
+   */
+  public int getEndBin(){
+    return firstBin_+getNumberOfBins();
+  }
+
+  /**
+   * returns the byte offset where the record of a bin starts; bins outside the index are clamped to its borders
+   * @param bin the number of the bin
+   * @return the byte offset where the record of a bin starts
+   */
+  public long getOffset(int bin){
+    int pos = bin-firstBin_;
+    if (pos<0) pos = 0;
+    if (pos>=offsets_.limit()) pos = offsets_.limit()-1;
+    return offsets_.get(pos);
+  }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+
+import at.tugraz.genome.maspectras.quantification.CgException;
+
+/**
+ * Plan for reading the MS1 chromatograms of a whole target list in one forward sweep through a binary chrom file.
+ * The m/z ranges of the analytes are registered before the start; overlapping ranges are merged to blocks which are
+ * read in ascending m/z order by a separate thread. The reads of the analyzers are served from these blocks, i.e.
+ * thousands of random accesses are replaced by a sequential pass - the analytes should be processed in ascending
+ * m/z order too. The memory is bounded: no block is larger than the limit, the bytes of a block are reserved before
+ * it is read, the sweep pauses when the next block does not fit, and a block is released as soon as all of the
+ * analytes using it are finished. Reads that are not covered by a loaded block are done directly from the file;
+ * only a read of the block that is being loaded at the moment waits for it.
+ *
+ * @author agent
+ *
+ */
+public class ChromExtractionPlan implements Runnable
+{
+  /** the reader that reads the blocks of the sweep*/
+  private LipidomicsChromReader reader_;
+  /** the maximum amount of bytes of the loaded blocks*/
+  private long maxBytes_;
+  /** the last bin of the MS1 chrom file*/
+  private int endBin_;
+
+  /** the registered bin ranges; first entry: start bin; second entry: bin after the last one; third entry: the position in owners_*/
+  private Vector<int[]> ranges_;
+  /** the owners of the registered ranges*/
+  private Vector<Object> owners_;
+
+  /** the first bins of the merged blocks, in ascending order*/
+  private int[] startBins_;
+  /** the bins after the last bins of the merged blocks*/
+  private int[] stopBins_;
+  /** the amount of bytes of the merged blocks*/
+  private long[] blockBytes_;
+  /** the amount of registered ranges of each block whose owners are not finished*/
+  private int[] users_;
+  /** the loaded blocks; null if the block has not been read yet, or if it has been released*/
+  private BinaryChromBlock[] blocks_;
+  /** the blocks of each owner*/
+  private IdentityHashMap<Object,Vector<Integer>> blocksOfOwner_;
+  /** the amount of bytes of the currently loaded blocks, and of the block that is being read*/
+  private long loadedBytes_;
+  /** the block that is being read by the sweep; -1 if none*/
+  private int readingBlock_;
+  /** true if the sweep shall be stopped*/
+  private boolean stopped_;
+
+  /** the amount of reads served by loaded blocks*/
+  private int servedReads_;
+  /** the amount of reads that had to access the file*/
+  private int fileReads_;
+
+  /**
+   * creates an empty plan for the MS1 chrom file of a reader
+   * @param reader the reader of a binary chrom file
+   * @param maxBytes the maximum amount of bytes of the blocks that are held in memory
+   * @throws CgException thrown if the index file cannot be read
+   */
+  public ChromExtractionPlan(LipidomicsChromReader reader, long maxBytes) throws CgException
+  {
+    this.reader_ = reader;
+    this.maxBytes_ = maxBytes;
+    this.endBin_ = reader.getEndBin(1);
+    this.ranges_ = new Vector<int[]>();
+    this.owners_ = new Vector<Object>();
+    this.blocksOfOwner_ = new IdentityHashMap<Object,Vector<Integer>>();
+    this.loadedBytes_ = 0l;
+    this.readingBlock_ = -1;
+    this.stopped_ = false;
+  }
+
+  /**
+   * registers the MS1 m/z range required by an analyte - has to be called before the start
+   * @param owner the analyte requiring the range (compared by identity)
+   * @param from the lower m/z value
+   * @param to the upper m/z value
+   */
+  public void addRange(Object owner, float from, float to)
+  {
+    int startBin = reader_.getBinNumber(from);
+    if (startBin<0) startBin = 0;
+    int stopBin = reader_.getBinNumber(to);
+    if (stopBin>endBin_) stopBin = endBin_;
+    if (stopBin<=startBin) return;
+    ranges_.add(new int[]{startBin,stopBin,owners_.size()});
+    owners_.add(owner);
+  }
+
+  /**
+   * merges the registered ranges to blocks and starts the sweep through the chrom file; overlapping ranges are merged
+   * as long as the block does not exceed the memory limit - ranges that exceed the limit on their own are read directly
+   * @throws CgException thrown if the index file cannot be read
+   */
+  public void start() throws CgException
+  {
+    Collections.sort(ranges_, new Comparator<int[]>(){
+      public int compare(int[] o1, int[] o2){
+        return Integer.compare(o1[0], o2[0]);
+      }});
+    //the offsets within a block are int values
+    long blockLimit = Math.min(maxBytes_, Integer.MAX_VALUE);
+    Vector<int[]> merged = new Vector<int[]>();
+    int[] current = null;
+    for (int[] range : ranges_){
+      if (getBytes(range[0],range[1])>blockLimit) continue;
+      if (current==null || range[0]>current[1] || getBytes(current[0],Math.max(current[1],range[1]))>blockLimit){
+        current = new int[]{range[0],range[1]};
+        merged.add(current);
+      } else if (range[1]>current[1]){
+        current[1] = range[1];
+      }
+      Object owner = owners_.get(range[2]);
+      Vector<Integer> ofOwner = blocksOfOwner_.get(owner);
+      if (ofOwner==null){
+        ofOwner = new Vector<Integer>();
+        blocksOfOwner_.put(owner, ofOwner);
+      }
+      ofOwner.add(merged.size()-1);
+    }
+    startBins_ = new int[merged.size()];
+    stopBins_ = new int[merged.size()];
+    blockBytes_ = new long[merged.size()];
+    users_ = new int[merged.size()];
+    blocks_ = new BinaryChromBlock[merged.size()];
+    for (int i=0; i!=merged.size(); i++){
+      startBins_[i] = merged.get(i)[0];
+      stopBins_[i] = merged.get(i)[1];
+      blockBytes_[i] = getBytes(startBins_[i],stopBins_[i]);
+    }
+    for (Vector<Integer> ofOwner : blocksOfOwner_.values()){
+      for (Integer block : ofOwner) users_[block]++;
+    }
+    ranges_ = null;
+    owners_ = null;
+    Thread sweep = new Thread(this, "ChromExtractionPlan");
+    sweep.setDaemon(true);
+    sweep.start();
+  }
+
+  /**
+   * @param startBin the first bin
+   * @param stopBin the bin after the last one
+   * @return the amount of bytes of the records of these bins
+   * @throws CgException thrown if the index file cannot be read
+   */
+  private long getBytes(int startBin, int stopBin) throws CgException
+  {
+    return reader_.getBinOffset(stopBin, 1)-reader_.getBinOffset(startBin, 1);
+  }
+
+  /**
+   * reads the blocks in ascending order; the bytes of a block are reserved before it is read, and the sweep pauses
+   * as long as the next block does not fit into the memory limit
+   */
+  public void run()
+  {
+    for (int i=0; i!=startBins_.length; i++){
+      synchronized(this){
+        while (!stopped_ && users_[i]>0 && loadedBytes_>0 && loadedBytes_+blockBytes_[i]>maxBytes_){
+          try{
+            wait();
+          }catch (InterruptedException e){
+            return;
+          }
+        }
+        if (stopped_) return;
+        if (users_[i]==0) continue;
+        loadedBytes_ += blockBytes_[i];
+        readingBlock_ = i;
+      }
+      BinaryChromBlock block = null;
+      try{
+        block = reader_.readBinaryBins(startBins_[i], stopBins_[i], 1);
+      }catch (CgException e){
+        //the analyzers read the chromatograms themselves
+      }
+      synchronized(this){
+        readingBlock_ = -1;
+        if (block!=null && !stopped_ && users_[i]>0)
+          blocks_[i] = block;
+        else if (!stopped_)
+          loadedBytes_ -= blockBytes_[i];
+        notifyAll();
+        if (block==null) return;
+      }
+    }
+  }
+
+  /**
+   * returns the records of consecutive bins, if they are within a loaded block; if the block is being read at the moment,
+   * the read waits for it, otherwise, it does not wait for the sweep
+   * @param startBin the first bin
+   * @param stopBin the bin after the last one
+   * @return the block containing the records; null if the bins are not within a loaded block
+   */
+  public synchronized BinaryChromBlock getBlock(int startBin, int stopBin)
+  {
+    if (blocks_==null || stopBin<=startBin) return null;
+    //the last block starting at or before the start bin
+    int low = 0;
+    int high = startBins_.length;
+    while (low<high){
+      int middle = (low+high)>>>1;
+      if (startBins_[middle]<=startBin) low = middle+1;
+      else high = middle;
+    }
+    int position = low-1;
+    if (position>=0 && stopBin<=stopBins_[position]){
+      while (!stopped_ && readingBlock_==position){
+        try{
+          wait();
+        }catch (InterruptedException e){
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    if (position>=0 && stopBin<=stopBins_[position] && blocks_[position]!=null){
+      servedReads_++;
+      return blocks_[position].getSubBlock(startBin-startBins_[position], stopBin-startBins_[position]);
+    }
+    fileReads_++;
+    return null;
+  }
+
+  /**
+   * informs the plan that an analyte is finished - blocks that are not required anymore are released
+   * @param owner the analyte (compared by identity)
+   */
+  public synchronized void release(Object owner)
+  {
+    Vector<Integer> ofOwner = blocksOfOwner_.remove(owner);
+    if (ofOwner==null) return;
+    for (Integer block : ofOwner){
+      users_[block]--;
+      if (users_[block]==0 && blocks_[block]!=null){
+        loadedBytes_ -= blockBytes_[block];
+        blocks_[block] = null;
+      }
+    }
+    notifyAll();
+  }
+
+  /**
+   * stops the sweep and releases all blocks
+   */
+  public synchronized void stop()
+  {
+    stopped_ = true;
+    if (blocks_!=null){
+      for (int i=0; i!=blocks_.length; i++) blocks_[i] = null;
+    }
+    loadedBytes_ = 0l;
+    notifyAll();
+  }
+
+  /**
+   * @return the amount of merged blocks
+   */
+  public int getNumberOfBlocks()
+  {
+    return startBins_!=null ? startBins_.length : 0;
+  }
+
+  /**
+   * @return the amount of reads served by loaded blocks
+   */
+  public synchronized int getServedReads()
+  {
+    return servedReads_;
+  }
+
+  /**
+   * @return the amount of MS1 reads that had to access the file
+   */
+  public synchronized int getFileReads()
+  {
+    return fileReads_;
+  }
+}
@@ -0,0 +1,397 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * Coarse summary of the MS1 signal of a binary chrom file: the m/z bins are grouped to blocks of BINS_PER_MZ_BLOCK bins,
+ * and the scans are grouped to at most MAX_RT_BLOCKS retention time blocks; for every cell of this grid, the highest
+ * intensity of a scan (summed over the bins of the m/z block) and the total ion current are stored. Only m/z blocks
+ * containing signal are stored. The summary is written next to the index file at the chrom translation, and allows to check
+ * without reading any chromatogram whether there is signal in an m/z band at all.
+ * The summary file starts with a fixed header (magic number, version, the length of the chrom file it originates from,
+ * the first bin, the amount of bins per m/z block, the amount of retention time blocks, the amount of stored m/z blocks),
+ * followed by the start and stop times of the retention time blocks; then, every stored m/z block consists of its number,
+ * the highest intensities, and the total ion currents of its cells.
+ * @author agent
+ *
+ */
+public class ChromSummaryIndex
+{
+  /** the suffix of the summary file; it replaces the ".idx" of the index file*/
+  public final static String FILE_SUFFIX = ".sum";
+  /** magic number at the start of the summary file ("LDAS")*/
+  public final static int MAGIC_NUMBER = 0x4C444153;
+  /** the current version of the summary format*/
+  public final static int VERSION = 1;
+  /** the amount of m/z bins that are grouped to one m/z block*/
+  public final static int BINS_PER_MZ_BLOCK = 64;
+  /** the maximum amount of retention time blocks*/
+  public final static int MAX_RT_BLOCKS = 64;
+
+  /** the length of the chrom file the summary originates from*/
+  private long chromFileLength_;
+  /** the number of the first bin of the chrom file*/
+  private int firstBin_;
+  /** the amount of bins per m/z block*/
+  private int binsPerBlock_;
+  /** the numbers of the m/z blocks containing signal, in ascending order*/
+  private int[] mzBlocks_;
+  /** the retention time of the first scan of every retention time block (in seconds)*/
+  private float[] rtBlockStarts_;
+  /** the retention time of the last scan of every retention time block (in seconds)*/
+  private float[] rtBlockStops_;
+  /** the highest intensity of a scan in every cell; position: positionOfMzBlock*amountOfRtBlocks+rtBlock*/
+  private float[] highestIntensities_;
+  /** the total ion current of every cell; position: positionOfMzBlock*amountOfRtBlocks+rtBlock*/
+  private double[] totalIonCurrents_;
+  /** the highest intensity of the whole chrom file*/
+  private float highestIntensity_;
+
+  /**
+   * constructor for a summary
+   * @param chromFileLength the length of the chrom file the summary originates from
+   * @param firstBin the number of the first bin of the chrom file
+   * @param binsPerBlock the amount of bins per m/z block
+   * @param mzBlocks the numbers of the m/z blocks containing signal, in ascending order
+   * @param rtBlockStarts the retention time of the first scan of every retention time block
+   * @param rtBlockStops the retention time of the last scan of every retention time block
+   * @param highestIntensities the highest intensity of every cell
+   * @param totalIonCurrents the total ion current of every cell
+   */
+  private ChromSummaryIndex(long chromFileLength, int firstBin, int binsPerBlock, int[] mzBlocks, float[] rtBlockStarts, float[] rtBlockStops,
+      float[] highestIntensities, double[] totalIonCurrents){
+    this.chromFileLength_ = chromFileLength;
+    this.firstBin_ = firstBin;
+    this.binsPerBlock_ = binsPerBlock;
+    this.mzBlocks_ = mzBlocks;
+    this.rtBlockStarts_ = rtBlockStarts;
+    this.rtBlockStops_ = rtBlockStops;
+    this.highestIntensities_ = highestIntensities;
+    this.totalIonCurrents_ = totalIonCurrents;
+    this.highestIntensity_ = 0f;
+    for (float intensity : highestIntensities) if (intensity>highestIntensity_) highestIntensity_ = intensity;
+  }
+
+  /**
+   * creates the summary of an MS1 chrom file in the binary columnar format by one sequential pass through the file
+   * @param indexFilePath path to the binary index file
+   * @param chromFilePath path to the binary chrom file
+   * @param retentionTimeFilePath path to the retention time file
+   * @return the summary
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  public static ChromSummaryIndex create(String indexFilePath, String chromFilePath, String retentionTimeFilePath) throws IOException{
+    BinaryChromIndex index = BinaryChromIndex.read(indexFilePath);
+    float[] retentionTimes = readRetentionTimes(retentionTimeFilePath);
+    int nrOfRtBlocks = Math.min(MAX_RT_BLOCKS, Math.max(1, retentionTimes.length));
+    int scansPerBlock = Math.max(1, (retentionTimes.length+nrOfRtBlocks-1)/nrOfRtBlocks);
+    nrOfRtBlocks = Math.max(1, (retentionTimes.length+scansPerBlock-1)/scansPerBlock);
+    float[] rtBlockStarts = new float[nrOfRtBlocks];
+    float[] rtBlockStops = new float[nrOfRtBlocks];
+    for (int i=0; i!=nrOfRtBlocks; i++){
+      rtBlockStarts[i] = Float.MAX_VALUE;
+      rtBlockStops[i] = -Float.MAX_VALUE;
+    }
+    for (int i=0; i!=retentionTimes.length; i++){
+      int rtBlock = i/scansPerBlock;
+      if (retentionTimes[i]<rtBlockStarts[rtBlock]) rtBlockStarts[rtBlock] = retentionTimes[i];
+      if (retentionTimes[i]>rtBlockStops[rtBlock]) rtBlockStops[rtBlock] = retentionTimes[i];
+    }
+    Vector<Integer> mzBlocks = new Vector<Integer>();
+    Vector<float[]> highestIntensities = new Vector<float[]>();
+    Vector<double[]> totalIonCurrents = new Vector<double[]>();
+    //the intensities of the scans summed over the bins of the current m/z block
+    double[] scanIntensities = new double[Math.max(1, nrOfRtBlocks*scansPerBlock)];
+    File chromFile = new File(chromFilePath);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(chromFile)));
+    try{
+      long position = 0l;
+      int[] scanNumbers = new int[1024];
+      for (int blockStart=index.getFirstBin(); blockStart<index.getEndBin(); blockStart+=BINS_PER_MZ_BLOCK){
+        int blockStop = Math.min(index.getEndBin(), blockStart+BINS_PER_MZ_BLOCK);
+        long start = index.getOffset(blockStart);
+        int nrOfPoints = (int)((index.getOffset(blockStop)-start)/BinaryChromIndex.BYTES_PER_POINT);
+        if (nrOfPoints<=0) continue;
+        for (int bin=blockStart; bin!=blockStop; bin++){
+          start = index.getOffset(bin);
+          nrOfPoints = (int)((index.getOffset(bin+1)-start)/BinaryChromIndex.BYTES_PER_POINT);
+          if (nrOfPoints<=0) continue;
+          if (start<position){
+            in.close();
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(chromFile)));
+            position = 0l;
+          }
+          while (position<start){
+            long skipped = in.skip(start-position);
+            if (skipped<=0) throw new IOException("The chrom file "+chromFilePath+" is shorter than declared by its index!");
+            position += skipped;
+          }
+          if (scanNumbers.length<nrOfPoints) scanNumbers = new int[nrOfPoints];
+          for (int i=0; i!=nrOfPoints; i++) scanNumbers[i] = in.readInt();
+          for (int i=0; i!=nrOfPoints; i++){
+            float intensity = in.readFloat();
+            int scan = Math.min(scanIntensities.length-1, Math.max(0, scanNumbers[i]));
+            scanIntensities[scan] += intensity;
+          }
+          position += nrOfPoints*BinaryChromIndex.BYTES_PER_POINT;
+        }
+        float[] highest = new float[nrOfRtBlocks];
+        double[] tic = new double[nrOfRtBlocks];
+        boolean signal = false;
+        for (int scan=0; scan!=scanIntensities.length; scan++){
+          if (scanIntensities[scan]==0d) continue;
+          int rtBlock = scan/scansPerBlock;
+          //rounded upwards to remain an upper bound of the float sums of the chromatograms
+          float intensity = Math.nextUp((float)scanIntensities[scan]);
+          if (intensity>highest[rtBlock]) highest[rtBlock] = intensity;
+          tic[rtBlock] += scanIntensities[scan];
+          scanIntensities[scan] = 0d;
+          signal = true;
+        }
+        if (!signal) continue;
+        mzBlocks.add((blockStart-index.getFirstBin())/BINS_PER_MZ_BLOCK);
+        highestIntensities.add(highest);
+        totalIonCurrents.add(tic);
+      }
+    } finally{
+      in.close();
+    }
+    int[] blocks = new int[mzBlocks.size()];
+    float[] highest = new float[mzBlocks.size()*nrOfRtBlocks];
+    double[] tic = new double[mzBlocks.size()*nrOfRtBlocks];
+    for (int i=0; i!=blocks.length; i++){
+      blocks[i] = mzBlocks.get(i);
+      System.arraycopy(highestIntensities.get(i), 0, highest, i*nrOfRtBlocks, nrOfRtBlocks);
+      System.arraycopy(totalIonCurrents.get(i), 0, tic, i*nrOfRtBlocks, nrOfRtBlocks);
+    }
+    return new ChromSummaryIndex(chromFile.length(), index.getFirstBin(), BINS_PER_MZ_BLOCK, blocks, rtBlockStarts, rtBlockStops, highest, tic);
+  }
+
+  /**
+   * reads the retention times of a retention time file in the sequence of the scans
+   * @param retentionTimeFilePath path to the retention time file
+   * @return the retention times (in seconds); the position is the number of the scan in the chrom file
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  private static float[] readRetentionTimes(String retentionTimeFilePath) throws IOException{
+    File file = new File(retentionTimeFilePath);
+    float[] retentionTimes = new float[(int)(file.length()/8l)];
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try{
+      for (int i=0; i!=retentionTimes.length; i++){
+        in.readInt();
+        retentionTimes[i] = in.readFloat();
+      }
+    } finally{
+      in.close();
+    }
+    return retentionTimes;
+  }
+
+  /**
+   * reads a summary file
+   * @param summaryFilePath path to the summary file
+   * @return the summary
+   * @throws IOException thrown if the file cannot be read or is not a summary of a supported version
+   */
+  public static ChromSummaryIndex read(String summaryFilePath) throws IOException{
+    DataInputStream in = null;
+    try{
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(summaryFilePath)));
+      int magic = in.readInt();
+      int version = in.readInt();
+      if (magic!=MAGIC_NUMBER || version>VERSION)
+        throw new IOException("The file "+summaryFilePath+" is not a chrom summary of a supported version!");
+      long chromFileLength = in.readLong();
+      int firstBin = in.readInt();
+      int binsPerBlock = in.readInt();
+      int nrOfRtBlocks = in.readInt();
+      int nrOfMzBlocks = in.readInt();
+      float[] rtBlockStarts = new float[nrOfRtBlocks];
+      float[] rtBlockStops = new float[nrOfRtBlocks];
+      for (int i=0; i!=nrOfRtBlocks; i++) rtBlockStarts[i] = in.readFloat();
+      for (int i=0; i!=nrOfRtBlocks; i++) rtBlockStops[i] = in.readFloat();
+      int[] mzBlocks = new int[nrOfMzBlocks];
+      float[] highestIntensities = new float[nrOfMzBlocks*nrOfRtBlocks];
+      double[] totalIonCurrents = new double[nrOfMzBlocks*nrOfRtBlocks];
+      for (int i=0; i!=nrOfMzBlocks; i++){
+        mzBlocks[i] = in.readInt();
+        for (int j=0; j!=nrOfRtBlocks; j++) highestIntensities[i*nrOfRtBlocks+j] = in.readFloat();
+        for (int j=0; j!=nrOfRtBlocks; j++) totalIonCurrents[i*nrOfRtBlocks+j] = in.readDouble();
+      }
+      return new ChromSummaryIndex(chromFileLength, firstBin, binsPerBlock, mzBlocks, rtBlockStarts, rtBlockStops, highestIntensities, totalIonCurrents);
+    } finally{
+      if (in!=null) in.close();
+    }
+  }
+
+  /**
+   * reads the summary of a binary chrom file, if it is there and if it originates from this chrom file
+   * @param indexFilePath path to the binary index file
+   * @param chromFilePath path to the binary chrom file
+   * @return the summary; null if there is no valid summary
+   */
+  public static ChromSummaryIndex readIfValid(String indexFilePath, String chromFilePath){
+    File summaryFile = new File(getSummaryFilePath(indexFilePath));
+    if (!summaryFile.exists()) return null;
+    try{
+      ChromSummaryIndex summary = read(summaryFile.getAbsolutePath());
+      if (summary.chromFileLength_!=new File(chromFilePath).length()) return null;
+      return summary;
+    } catch (IOException iox){
+      return null;
+    }
+  }
+
+  /**
+   * writes the summary to a file
+   * @param summaryFilePath path to the summary file
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  public void write(String summaryFilePath) throws IOException{
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(summaryFilePath)));
+    try{
+      int nrOfRtBlocks = rtBlockStarts_.length;
+      out.writeInt(MAGIC_NUMBER);
+      out.writeInt(VERSION);
+      out.writeLong(chromFileLength_);
+      out.writeInt(firstBin_);
+      out.writeInt(binsPerBlock_);
+      out.writeInt(nrOfRtBlocks);
+      out.writeInt(mzBlocks_.length);
+      for (float time : rtBlockStarts_) out.writeFloat(time);
+      for (float time : rtBlockStops_) out.writeFloat(time);
+      for (int i=0; i!=mzBlocks_.length; i++){
+        out.writeInt(mzBlocks_[i]);
+        for (int j=0; j!=nrOfRtBlocks; j++) out.writeFloat(highestIntensities_[i*nrOfRtBlocks+j]);
+        for (int j=0; j!=nrOfRtBlocks; j++) out.writeDouble(totalIonCurrents_[i*nrOfRtBlocks+j]);
+      }
+    } finally{
+      out.close();
+    }
+  }
+
+  /**
+   * @param indexFilePath path to the binary index file of MS1
+   * @return the path to the summary file of this chrom file
+   */
+  public static String getSummaryFilePath(String indexFilePath){
+    if (indexFilePath.endsWith(".idx")) return indexFilePath.substring(0,indexFilePath.length()-".idx".length())+FILE_SUFFIX;
+    return indexFilePath+FILE_SUFFIX;
+  }
+
+  /**
+   * returns an upper bound of the intensities of a chromatogram summed over a range of m/z bins within a retention time window;
+   * for every retention time block, the highest intensities of the touched m/z blocks are summed
+   * @param startBin the first bin
+   * @param stopBin the bin after the last one
+   * @param startTime the start of the retention time window in seconds; a negative value for the whole time range
+   * @param stopTime the end of the retention time window in seconds; a negative value for the whole time range
+   * @return the upper bound of the intensities; 0 if there is no signal at all
+   */
+  public float getHighestIntensity(int startBin, int stopBin, float startTime, float stopTime){
+    float highest = 0f;
+    int[] cells = getCellRanges(startBin, stopBin, startTime, stopTime);
+    for (int rtBlock=cells[2]; rtBlock<cells[3]; rtBlock++){
+      float sum = 0f;
+      for (int i=cells[0]; i<cells[1]; i++) sum += highestIntensities_[i*rtBlockStarts_.length+rtBlock];
+      if (sum>highest) highest = sum;
+    }
+    return highest;
+  }
+
+  /**
+   * returns the total ion current of the grid cells touched by a range of m/z bins and a retention time window
+   * @param startBin the first bin
+   * @param stopBin the bin after the last one
+   * @param startTime the start of the retention time window in seconds; a negative value for the whole time range
+   * @param stopTime the end of the retention time window in seconds; a negative value for the whole time range
+   * @return the total ion current
+   */
+  public double getTotalIonCurrent(int startBin, int stopBin, float startTime, float stopTime){
+    double tic = 0d;
+    int[] cells = getCellRanges(startBin, stopBin, startTime, stopTime);
+    for (int i=cells[0]; i<cells[1]; i++){
+      for (int rtBlock=cells[2]; rtBlock<cells[3]; rtBlock++){
+        tic += totalIonCurrents_[i*rtBlockStarts_.length+rtBlock];
+      }
+    }
+    return tic;
+  }
+
+  /**
+   * @return the highest intensity of a scan summed over the bins of an m/z block in the whole chrom file
+   */
+  public float getHighestIntensity(){
+    return highestIntensity_;
+  }
+
+  /**
+   * returns the stored grid cells touched by a range of m/z bins and a retention time window
+   * @param startBin the first bin
+   * @param stopBin the bin after the last one
+   * @param startTime the start of the retention time window in seconds; a negative value for the whole time range
+   * @param stopTime the end of the retention time window in seconds; a negative value for the whole time range
+   * @return [0] the position of the first stored m/z block; [1] the position after the last one; [2] the first retention time block; [3] the retention time block after the last one
+   */
+  private int[] getCellRanges(int startBin, int stopBin, float startTime, float stopTime){
+    int[] cells = new int[4];
+    int firstBlock = (int)Math.max(0l, ((long)startBin-(long)firstBin_)/binsPerBlock_);
+    int lastBlock = (int)Math.min(Integer.MAX_VALUE, (Math.max((long)stopBin-(long)firstBin_,0l)+binsPerBlock_-1l)/binsPerBlock_);
+    cells[0] = firstPositionNotBelow(firstBlock);
+    cells[1] = firstPositionNotBelow(lastBlock);
+    cells[2] = 0;
+    cells[3] = rtBlockStarts_.length;
+    if (startTime>=0 && stopTime>=0){
+      while (cells[2]<cells[3] && rtBlockStops_[cells[2]]<startTime) cells[2]++;
+      while (cells[3]>cells[2] && rtBlockStarts_[cells[3]-1]>stopTime) cells[3]--;
+    }
+    return cells;
+  }
+
+  /**
+   * @param mzBlock the number of an m/z block
+   * @return the position of the first stored m/z block whose number is not below the given one
+   */
+  private int firstPositionNotBelow(int mzBlock){
+    int low = 0;
+    int high = mzBlocks_.length;
+    while (low<high){
+      int middle = (low+high)>>>1;
+      if (mzBlocks_[middle]<mzBlock) low = middle+1;
+      else high = middle;
+    }
+    return low;
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import at.tugraz.genome.lda.LipidomicsConstants;
+import at.tugraz.genome.maspectras.quantification.CgChromatogram;
+
+/**
+ * Process-wide cache of smoothed chromatograms, shared by the analyzers of all quantification threads.
+ * Isobaric species, different adducts of the same m/z, and the isobar separation read the same m/z bands
+ * again and again; the smoothing of such a band is done only once.
+ * The cache is bounded by the size set in LipidomicsConstants (chromCacheSize in MB); when the limit is
+ * exceeded, the least recently used chromatograms are evicted. The cache is disabled by default (chromCacheSize=0);
+ * the chromatograms of a chrom file are removed when its quantification has finished. The chromatograms are copied
+ * when they are stored and when they are returned, since the callers modify their chromatograms.
+ *
+ * @author agent
+ *
+ */
+public class ChromatogramCache
+{
+  /** the approximate memory consumption of one scan of a chromatogram (4 float values and the array overhead)*/
+  private final static long BYTES_PER_SCAN = 40l;
+  /** the approximate memory consumption of a chromatogram object and its key*/
+  private final static long BYTES_PER_CHROM = 300l;
+
+  private static Logger log_ = Logger.getLogger(ChromatogramCache.class.getName());
+
+  private static ChromatogramCache instance_ = null;
+
+  /** the cached chromatograms in access order - the first entry is the least recently used one*/
+  private LinkedHashMap<Key,CgChromatogram> cache_;
+  /** the estimated size of the cached chromatograms in bytes*/
+  private long size_;
+  /** how often a requested chromatogram was found in the cache*/
+  private long hits_;
+  /** how often a requested chromatogram was not in the cache*/
+  private long misses_;
+  /** how many chromatograms have been removed because of the size limit*/
+  private long evictions_;
+
+  private ChromatogramCache()
+  {
+    cache_ = new LinkedHashMap<Key,CgChromatogram>(256, 0.75f, true);
+    size_ = 0l;
+    hits_ = 0l;
+    misses_ = 0l;
+    evictions_ = 0l;
+  }
+
+  /**
+   * @return the cache shared by all quantification threads
+   */
+  public static synchronized ChromatogramCache getInstance()
+  {
+    if (instance_==null) instance_ = new ChromatogramCache();
+    return instance_;
+  }
+
+  /**
+   * @return true if the cache is enabled by the chromCacheSize setting
+   */
+  public static boolean isEnabled()
+  {
+    return LipidomicsConstants.getChromCacheSize()>0;
+  }
+
+  /**
+   * creates an identifier of a chrom file for the cache keys; the identifier contains the modification time
+   * and the size of the header file, thus, a chrom file that was translated anew gets another identifier
+   * @param headerFilePath the path to the header file of the chrom file
+   * @return identifier of the chrom file
+   */
+  public static String createFileIdentifier(String headerFilePath)
+  {
+    File header = new File(headerFilePath);
+    String path = header.getAbsolutePath();
+    try {
+      path = header.getCanonicalPath();
+    }
+    catch (IOException e) {}
+    return path+";"+header.lastModified()+";"+header.length();
+  }
+
+  /**
+   * returns a copy of a cached chromatogram
+   * @param key the parameters of the chromatogram
+   * @return copy of the cached chromatogram; null if the chromatogram is not cached
+   */
+  public synchronized CgChromatogram get(Key key)
+  {
+    CgChromatogram chrom = cache_.get(key);
+    if (chrom==null){
+      misses_++;
+      return null;
+    }
+    hits_++;
+    return copyChromatogram(chrom);
+  }
+
+  /**
+   * stores a copy of a chromatogram; least recently used chromatograms are evicted if the size limit is exceeded
+   * @param key the parameters of the chromatogram
+   * @param chrom the smoothed chromatogram
+   */
+  public synchronized void put(Key key, CgChromatogram chrom)
+  {
+    long maxSize = LipidomicsConstants.getChromCacheSize()*1024l*1024l;
+    long chromSize = estimateSize(chrom);
+    if (chromSize>maxSize) return;
+    CgChromatogram previous = cache_.put(key, copyChromatogram(chrom));
+    if (previous!=null) size_ -= estimateSize(previous);
+    size_ += chromSize;
+    Iterator<Map.Entry<Key,CgChromatogram>> it = cache_.entrySet().iterator();
+    while (size_>maxSize && it.hasNext()){
+      Map.Entry<Key,CgChromatogram> eldest = it.next();
+      size_ -= estimateSize(eldest.getValue());
+      it.remove();
+      evictions_++;
+    }
+  }
+
+  /**
+   * removes all chromatograms from the cache; the counters are kept
+   */
+  public synchronized void clear()
+  {
+    cache_.clear();
+    size_ = 0l;
+  }
+
+  /**
+   * removes the chromatograms of one chrom file from the cache, and logs the counters of the cache
+   * @param fileIdentifier the identifier of the chrom file (see createFileIdentifier)
+   */
+  public synchronized void clear(String fileIdentifier)
+  {
+    Iterator<Map.Entry<Key,CgChromatogram>> it = cache_.entrySet().iterator();
+    while (it.hasNext()){
+      Map.Entry<Key,CgChromatogram> entry = it.next();
+      if (!entry.getKey().file_.startsWith(fileIdentifier+";")) continue;
+      size_ -= estimateSize(entry.getValue());
+      it.remove();
+    }
+    log_.info("Chromatogram cache: "+hits_+" hits, "+misses_+" misses, "+evictions_+" evictions; "+cache_.size()+" chromatograms ("+size_/(1024l*1024l)+" MB) of other files remain");
+  }
+
+  /**
+   * @return how often a requested chromatogram was found in the cache
+   */
+  public synchronized long getHits()
+  {
+    return hits_;
+  }
+
+  /**
+   * @return how often a requested chromatogram was not in the cache
+   */
+  public synchronized long getMisses()
+  {
+    return misses_;
+  }
+
+  /**
+   * @return how many chromatograms have been removed because of the size limit
+   */
+  public synchronized long getEvictions()
+  {
+    return evictions_;
+  }
+
+  /**
+   * @return the amount of cached chromatograms
+   */
+  public synchronized int getNrOfChromatograms()
+  {
+    return cache_.size();
+  }
+
+  /**
+   * @return the estimated size of the cached chromatograms in bytes
+   */
+  public synchronized long getSize()
+  {
+    return size_;
+  }
+
+  private static long estimateSize(CgChromatogram chrom)
+  {
+    return BYTES_PER_CHROM+BYTES_PER_SCAN*chrom.Value.length;
+  }
+
+  /**
+   * copies a chromatogram that has just been read and smoothed - the values of each scan are copied too
+   * @param chrom the chromatogram to copy
+   * @return the copy
+   */
+  private static CgChromatogram copyChromatogram(CgChromatogram chrom)
+  {
+    CgChromatogram copy = new CgChromatogram(chrom.Value.length);
+    for (int i=0; i!=chrom.Value.length; i++) copy.Value[i] = chrom.Value[i].clone();
+    copy.LowerMzBand = chrom.LowerMzBand;
+    copy.Mz = chrom.Mz;
+    copy.UpperMzBand = chrom.UpperMzBand;
+    copy.ScanCount = chrom.ScanCount;
+    copy.LoValley = chrom.LoValley;
+    copy.Peak = chrom.Peak;
+    copy.UpValley = chrom.UpValley;
+    copy.PeakTime = chrom.PeakTime;
+    copy.PeakTimeAverage = chrom.PeakTimeAverage;
+    copy.Background = chrom.Background;
+    copy.Area = chrom.Area;
+    copy.AreaErr = chrom.AreaErr;
+    copy.Good = chrom.Good;
+    copy.anythingThere = chrom.anythingThere;
+    copy.isProfile_ = chrom.isProfile_;
+    copy.startSmoothScan_ = chrom.startSmoothScan_;
+    copy.stopSmoothScan_ = chrom.stopSmoothScan_;
+    copy.precalcPows_ = chrom.precalcPows_;
+    copy.setHighestIntensity(chrom.getHighestIntensity());
+    return copy;
+  }
+
+  /**
+   * The parameters that define a smoothed chromatogram: the chrom file, the m/z band, the MS-level,
+   * the smoothing parameters and the retention time range of the smoothing
+   *
+   * @author agent
+   *
+   */
+  public static class Key
+  {
+    private String file_;
+    private float mz_;
+    private float lowerMzBand_;
+    private float upperMzBand_;
+    private int msLevel_;
+    private float smoothRange_;
+    private int smoothRepeats_;
+    private float meanSmoothRange_;
+    private int meanSmoothRepeats_;
+    private float startTime_;
+    private float stopTime_;
+    private boolean useCuda_;
+    private int hashCode_;
+
+    /**
+     * @param file the identifier of the chrom file (see createFileIdentifier), followed by ";" and the reading parameters
+     * @param mz the m/z value
+     * @param lowerMzBand the m/z tolerance in the lower direction
+     * @param upperMzBand the m/z tolerance in the upper direction
+     * @param msLevel the MS-level
+     * @param smoothRange the range for the Savitzky-Golay smoothing
+     * @param smoothRepeats the repeats of the Savitzky-Golay smoothing
+     * @param meanSmoothRange the range for the mean smoothing
+     * @param meanSmoothRepeats the repeats of the mean smoothing
+     * @param startTime the start time of the smoothing range
+     * @param stopTime the stop time of the smoothing range
+     * @param useCuda is the smoothing done on the graphics card
+     */
+    public Key(String file, float mz, float lowerMzBand, float upperMzBand, int msLevel, float smoothRange, int smoothRepeats,
+        float meanSmoothRange, int meanSmoothRepeats, float startTime, float stopTime, boolean useCuda)
+    {
+      this.file_ = file;
+      this.mz_ = mz;
+      this.lowerMzBand_ = lowerMzBand;
+      this.upperMzBand_ = upperMzBand;
+      this.msLevel_ = msLevel;
+      this.smoothRange_ = smoothRange;
+      this.smoothRepeats_ = smoothRepeats;
+      this.meanSmoothRange_ = meanSmoothRange;
+      this.meanSmoothRepeats_ = meanSmoothRepeats;
+      this.startTime_ = startTime;
+      this.stopTime_ = stopTime;
+      this.useCuda_ = useCuda;
+      int hash = file.hashCode();
+      hash = 31*hash+Float.floatToIntBits(mz);
+      hash = 31*hash+Float.floatToIntBits(lowerMzBand);
+      hash = 31*hash+Float.floatToIntBits(upperMzBand);
+      hash = 31*hash+msLevel;
+      hash = 31*hash+Float.floatToIntBits(smoothRange);
+      hash = 31*hash+smoothRepeats;
+      hash = 31*hash+Float.floatToIntBits(meanSmoothRange);
+      hash = 31*hash+meanSmoothRepeats;
+      hash = 31*hash+Float.floatToIntBits(startTime);
+      hash = 31*hash+Float.floatToIntBits(stopTime);
+      hash = 31*hash+(useCuda ? 1 : 0);
+      this.hashCode_ = hash;
+    }
+
+    public int hashCode()
+    {
+      return hashCode_;
+    }
+
+    public boolean equals(Object obj)
+    {
+      if (this==obj) return true;
+      if (!(obj instanceof Key)) return false;
+      Key other = (Key)obj;
+      return hashCode_==other.hashCode_
+          && Float.floatToIntBits(mz_)==Float.floatToIntBits(other.mz_)
+          && Float.floatToIntBits(lowerMzBand_)==Float.floatToIntBits(other.lowerMzBand_)
+          && Float.floatToIntBits(upperMzBand_)==Float.floatToIntBits(other.upperMzBand_)
+          && msLevel_==other.msLevel_
+          && Float.floatToIntBits(smoothRange_)==Float.floatToIntBits(other.smoothRange_)
+          && smoothRepeats_==other.smoothRepeats_
+          && Float.floatToIntBits(meanSmoothRange_)==Float.floatToIntBits(other.meanSmoothRange_)
+          && meanSmoothRepeats_==other.meanSmoothRepeats_
+          && Float.floatToIntBits(startTime_)==Float.floatToIntBits(other.startTime_)
+          && Float.floatToIntBits(stopTime_)==Float.floatToIntBits(other.stopTime_)
+          && useCuda_==other.useCuda_
+          && file_.equals(other.file_);
+    }
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import at.tugraz.genome.dbutilities.Base64;
+
+/**
+ * The cached MSn spectra of one MS-level in decoded form. The Base64 encoded spectra of the MSn spectra cache are
+ * decoded once into m/z and intensity arrays which are sorted by m/z; peaks that do not exceed the noise level of
+ * their spectrum (1.5 times the estimated noise) are removed already at decoding. The spectra are sorted by their
+ * retention times, thus, the spectra of a retention time window, as well as the peaks of an m/z range, are found by
+ * binary search.
+ *
+ * @author agent
+ *
+ */
+public class DecodedMSnSpectra
+{
+  /** the factor for the estimated noise of a spectrum - peaks must exceed the noise times this factor*/
+  private final static float NOISE_FACTOR = 1.5f;
+
+  /** the consecutive scan numbers of the spectra, sorted by retention time*/
+  private int[] consScanNumbers_;
+  /** the retention times of the spectra*/
+  private float[] retentionTimes_;
+  /** the m/z values of the peaks of each spectrum, in ascending order*/
+  private float[][] mzs_;
+  /** the intensities of the peaks of each spectrum*/
+  private float[][] intensities_;
+  /** true if the retention times increase with the consecutive scan numbers - otherwise the time window cannot be found by binary search*/
+  private boolean rtSorted_;
+
+  /**
+   * decodes the cached spectra of one MS-level
+   * @param spectra the cached spectra; key: consecutive scan number; value: the original scan number and the Base64 encoded spectrum, separated by a blank
+   * @param noise the estimated noise of the spectra; key: consecutive scan number
+   * @param retentionTimes the retention times of the MS-level; key: consecutive scan number
+   */
+  public DecodedMSnSpectra(Hashtable<Integer,String> spectra, Hashtable<Integer,Float> noise, Hashtable<Integer,Float> retentionTimes)
+  {
+    consScanNumbers_ = new int[spectra.size()];
+    int count = 0;
+    for (Integer consScanNumber : spectra.keySet()){
+      consScanNumbers_[count] = consScanNumber;
+      count++;
+    }
+    Arrays.sort(consScanNumbers_);
+    retentionTimes_ = new float[consScanNumbers_.length];
+    mzs_ = new float[consScanNumbers_.length][];
+    intensities_ = new float[consScanNumbers_.length][];
+    rtSorted_ = true;
+    for (int i=0; i!=consScanNumbers_.length; i++){
+      retentionTimes_[i] = retentionTimes.get(consScanNumbers_[i]);
+      if (i>0 && retentionTimes_[i]<retentionTimes_[i-1]) rtSorted_ = false;
+      decodeSpectrum(i, spectra.get(consScanNumbers_[i]), noise.get(consScanNumbers_[i])*NOISE_FACTOR);
+    }
+  }
+
+  /**
+   * decodes a spectrum into the m/z and intensity arrays, and removes the peaks at or below the noise level
+   * @param position the position of the spectrum in the arrays
+   * @param spectrum the original scan number and the Base64 encoded spectrum, separated by a blank
+   * @param noiseLevel the noise level of the spectrum
+   */
+  private void decodeSpectrum(int position, String spectrum, float noiseLevel)
+  {
+    FloatBuffer buffer = ByteBuffer.wrap(Base64.decode(spectrum.substring(spectrum.indexOf(" ")+1))).asFloatBuffer();
+    int nrOfPeaks = buffer.limit()/2;
+    float[] mzs = new float[nrOfPeaks];
+    float[] intensities = new float[nrOfPeaks];
+    int count = 0;
+    boolean sorted = true;
+    for (int i=0; i!=nrOfPeaks; i++){
+      float mz = buffer.get();
+      float intensity = buffer.get();
+      if (!(intensity>0f) || !(intensity>noiseLevel)) continue;
+      if (count>0 && mz<mzs[count-1]) sorted = false;
+      mzs[count] = mz;
+      intensities[count] = intensity;
+      count++;
+    }
+    if (!sorted){
+      Integer[] indices = new Integer[count];
+      for (int i=0; i!=count; i++) indices[i] = i;
+      final float[] toSort = mzs;
+      Arrays.sort(indices, (a,b) -> Float.compare(toSort[a],toSort[b]));
+      float[] sortedMzs = new float[count];
+      float[] sortedIntensities = new float[count];
+      for (int i=0; i!=count; i++){
+        sortedMzs[i] = mzs[indices[i]];
+        sortedIntensities[i] = intensities[indices[i]];
+      }
+      mzs = sortedMzs;
+      intensities = sortedIntensities;
+    }
+    mzs_[position] = count==mzs.length ? mzs : Arrays.copyOf(mzs, count);
+    intensities_[position] = count==intensities.length ? intensities : Arrays.copyOf(intensities, count);
+  }
+
+  /**
+   * adds the intensities of an m/z range to the intensity column of a chromatogram
+   * @param from the lower m/z border (inclusive)
+   * @param to the upper m/z border (inclusive)
+   * @param startTime the lowest retention time (inclusive); ignored if not positive
+   * @param stopTime the highest retention time (inclusive); ignored if not positive
+   * @param values the values of the chromatogram, indexed by the consecutive scan number
+   * @return the highest intensity of a single peak within the m/z range
+   */
+  public float addIntensities(float from, float to, float startTime, float stopTime, float[][] values)
+  {
+    float highestInt = 0f;
+    int start = 0;
+    int stop = consScanNumbers_.length;
+    if (rtSorted_){
+      if (startTime>0f) start = lowerBound(retentionTimes_, startTime, 0, stop);
+      if (stopTime>0f) stop = upperBound(retentionTimes_, stopTime, start, stop);
+    }
+    for (int i=start; i<stop; i++){
+      if (startTime>0f && retentionTimes_[i]<startTime) continue;
+      if (stopTime>0f && retentionTimes_[i]>stopTime) continue;
+      float[] mzs = mzs_[i];
+      float[] intensities = intensities_[i];
+      float[] value = values[consScanNumbers_[i]];
+      for (int j=lowerBound(mzs, from, 0, mzs.length); j<mzs.length && mzs[j]<=to; j++){
+        value[1] += intensities[j];
+        if (intensities[j]>highestInt) highestInt = intensities[j];
+      }
+    }
+    return highestInt;
+  }
+
+  /**
+   * @return the amount of decoded spectra
+   */
+  public int getNumberOfSpectra()
+  {
+    return consScanNumbers_.length;
+  }
+
+  /**
+   * @param position the position of the spectrum (sorted by retention time)
+   * @return the consecutive scan number of the spectrum
+   */
+  public int getConsScanNumber(int position)
+  {
+    return consScanNumbers_[position];
+  }
+
+  /**
+   * @param position the position of the spectrum (sorted by retention time)
+   * @return the retention time of the spectrum
+   */
+  public float getRetentionTime(int position)
+  {
+    return retentionTimes_[position];
+  }
+
+  /**
+   * @param position the position of the spectrum (sorted by retention time)
+   * @return the m/z values of the peaks above the noise level, in ascending order
+   */
+  public float[] getMzs(int position)
+  {
+    return mzs_[position];
+  }
+
+  /**
+   * @param position the position of the spectrum (sorted by retention time)
+   * @return the intensities of the peaks above the noise level
+   */
+  public float[] getIntensities(int position)
+  {
+    return intensities_[position];
+  }
+
+  /**
+   * @param values an array sorted in ascending order
+   * @param value the value to look for
+   * @param from the first position to consider
+   * @param to the position after the last one to consider
+   * @return the first position whose value is not smaller than the value
+   */
+  protected static int lowerBound(float[] values, float value, int from, int to)
+  {
+    int low = from;
+    int high = to;
+    while (low<high){
+      int middle = (low+high)>>>1;
+      if (values[middle]<value) low = middle+1;
+      else high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * @param values an array sorted in ascending order
+   * @param value the value to look for
+   * @param from the first position to consider
+   * @param to the position after the last one to consider
+   * @return the first position whose value is greater than the value
+   */
+  protected static int upperBound(float[] values, float value, int from, int to)
+  {
+    int low = from;
+    int high = to;
+    while (low<high){
+      int middle = (low+high)>>>1;
+      if (values[middle]<=value) low = middle+1;
+      else high = middle;
+    }
+    return low;
+  }
+}
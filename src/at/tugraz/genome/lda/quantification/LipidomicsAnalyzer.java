@@ -29,10 +29,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Hashtable;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 //import javax.imageio.ImageIO;
 //
@@ -68,6 +73,7 @@ import at.tugraz.genome.maspectras.quantification.CgDefines;
 import at.tugraz.genome.maspectras.quantification.CgException;
 import at.tugraz.genome.maspectras.quantification.CgProbe;
 import at.tugraz.genome.maspectras.quantification.ChromaAnalyzer;
+import at.tugraz.genome.maspectras.quantification.ChromatogramReader;
 import at.tugraz.genome.maspectras.quantification.Probe3D;
 import at.tugraz.genome.maspectras.utils.Calculator;
 
@@ -81,6 +87,27 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
   
   private boolean useCuda_;
   protected SavGolJNI sav_gol_jni_;
+  /** identifies the chrom file and the reading parameters in the keys of the shared ChromatogramCache*/
+  private String chromCacheFile_;
+  /** the CPU implementation of the Savitzky-Golay smoothing; null if CUDA or the smoothing of CgChromatogram is used*/
+  private SavGolSmoother smoother_;
+  /** reads and smooths the isotopic chromatograms of an analyte concurrently; null if the isotopes are read one after another*/
+  private ExecutorService isotopeExecutor_;
+  /** the chromatograms that are read ahead by the isotopeExecutor_; key: the reading parameters*/
+  private Hashtable<String,Future<CgChromatogram>> prefetchedChroms_ = new Hashtable<String,Future<CgChromatogram>>();
+  /** the m/z value, the charge, the m/z difference between two isotopes, and the MS-level of the analyte whose isotopes are read ahead*/
+  private float prefetchMz_;
+  private int prefetchCharge_;
+  private float prefetchMassToAdd_;
+  private int prefetchMsLevel_;
+  /** the next isotope to be read ahead, and the amount of isotopes of the analyte*/
+  private int nextPrefetchIsotope_;
+  private int prefetchIsotopes_;
+  /** the SavGolSmoother of each thread of the isotopeExecutor_, since the SavGolSmoother is not thread-safe*/
+  private final static ThreadLocal<SavGolSmoother> ISOTOPE_SMOOTHERS = new ThreadLocal<SavGolSmoother>(){
+    protected SavGolSmoother initialValue(){
+      return new SavGolSmoother();
+    }};
   
   public LipidomicsAnalyzer(String headerFilePath, String indexFilePath, String retentionTimeFilePath, String chromatogramFilePath, boolean useCuda)throws CgException{
     super();
@@ -101,6 +128,9 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
       sav_gol_jni_.initMalloc( max_length );
     }
     this.useCuda_ = useCuda;
+    this.smoother_ = lReader.getSavGolSmoother();
+    this.chromCacheFile_ = ChromatogramCache.createFileIdentifier(headerFilePath)+";"+LipidomicsConstants.isSparseData()+";"+LipidomicsConstants.getChromSmoothRange()+";"+
+        LipidomicsConstants.getChromSmoothEngine();
     this.init();
   }
   
@@ -398,6 +428,7 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
   }
   
   private void releaseCacheHashes(){
+    this.discardPrefetchedChromatograms();
     this.chromProbes_ = null;
     this.fromProbeToProfile_ = null;
     this.profileProbes_ = null;
@@ -407,6 +438,182 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
   }
 
   protected CgChromatogram readAChromatogram(float mz, float lowerMzBand, float upperMzBand,int msLevel,float smoothRange, int smoothRepeats, float meanSmoothRange, int meanSmoothRepeats, float startTime, float stopTime) throws CgException{
+    if (prefetchedChroms_.size()>0){
+      Future<CgChromatogram> prefetched = prefetchedChroms_.remove(getPrefetchKey(mz, lowerMzBand, upperMzBand, msLevel, smoothRange, smoothRepeats, meanSmoothRange, meanSmoothRepeats, startTime, stopTime));
+      if (prefetched!=null){
+        try{
+          CgChromatogram cx = prefetched.get();
+          prefetchNextIsotope();
+          return cx;
+        } catch (ExecutionException ex){
+          if (ex.getCause() instanceof CgException) throw (CgException)ex.getCause();
+          throw new CgException(String.valueOf(ex.getCause()));
+        } catch (InterruptedException ex){
+          throw new CgException(ex.getMessage());
+        }
+      }
+    }
+    return readAChromatogram(mz, lowerMzBand, upperMzBand, msLevel, smoothRange, smoothRepeats, meanSmoothRange, meanSmoothRepeats, startTime, stopTime, smoother_);
+  }
+  
+  /**
+   * reads a smoothed chromatogram from the shared ChromatogramCache, or from the chrom file if it is not cached
+   * @param mz the m/z value
+   * @param lowerMzBand the m/z tolerance in the lower direction
+   * @param upperMzBand the m/z tolerance in the upper direction
+   * @param msLevel the MS-level
+   * @param smoothRange the range for the Savitzky-Golay smoothing
+   * @param smoothRepeats the repeats of the Savitzky-Golay smoothing
+   * @param meanSmoothRange the range for the mean smoothing
+   * @param meanSmoothRepeats the repeats of the mean smoothing
+   * @param startTime the start time of the smoothing range
+   * @param stopTime the stop time of the smoothing range
+   * @param smoother the SavGolSmoother of the calling thread; null if CUDA or the smoothing of CgChromatogram is used
+   * @return the smoothed chromatogram
+   * @throws CgException thrown if there is something wrong with the chrom access
+   */
+  private CgChromatogram readAChromatogram(float mz, float lowerMzBand, float upperMzBand,int msLevel,float smoothRange, int smoothRepeats, float meanSmoothRange, int meanSmoothRepeats, float startTime, float stopTime,
+      SavGolSmoother smoother) throws CgException{
+    //MSn chromatograms of precursorFragmentation data depend on the currently cached MSn spectra, thus, they cannot be shared
+    if (!ChromatogramCache.isEnabled() || (msLevel>1 && !ChromatogramReader.CHROMATOGRAM_HEADER_FILE_MSMS_TYPE_FULL.equalsIgnoreCase(reader_.getMsmsType())))
+      return readAndSmoothChromatogram(mz, lowerMzBand, upperMzBand, msLevel, smoothRange, smoothRepeats, meanSmoothRange, meanSmoothRepeats, startTime, stopTime, smoother);
+    ChromatogramCache.Key key = new ChromatogramCache.Key(chromCacheFile_, mz, lowerMzBand, upperMzBand, msLevel, smoothRange, smoothRepeats,
+        meanSmoothRange, meanSmoothRepeats, startTime, stopTime, useCuda_);
+    ChromatogramCache cache = ChromatogramCache.getInstance();
+    CgChromatogram cx = cache.get(key);
+    if (cx==null){
+      cx = readAndSmoothChromatogram(mz, lowerMzBand, upperMzBand, msLevel, smoothRange, smoothRepeats, meanSmoothRange, meanSmoothRepeats, startTime, stopTime, smoother);
+      cache.put(key, cx);
+    }
+    return cx;
+  }
+  
+  /**
+   * sets the executor that reads and smooths the isotopic chromatograms of an analyte concurrently
+   * @param executor the executor; null if the isotopes shall be read one after another
+   */
+  public void setIsotopeExecutor(ExecutorService executor){
+    this.isotopeExecutor_ = executor;
+  }
+  
+  /**
+   * starts reading and smoothing the MS1 chromatograms of the isotopes of an analyte in the isotopeExecutor_; the chromatograms are
+   * taken by the readAChromatogram calls with the same parameters - the checks depending on other isotopes are done one isotope
+   * after another when the chromatograms are taken. At most isotopeChromThreads chromatograms are read ahead at once; whenever
+   * one is taken, the reading of the next isotope is started
+   * @param mz the m/z value of the analyte
+   * @param charge the charge of the analyte
+   * @param nrOfIsotopes the amount of isotopes to read, starting with isotope 0
+   * @param previousIsotope true if the chromatogram of the isotope before isotope 0 is read too
+   * @param msLevel the MS-level
+   * @param negative true if the isotopes are searched in the negative direction
+   */
+  private void prefetchIsotopeChromatograms(float mz, int charge, int nrOfIsotopes, boolean previousIsotope, int msLevel, boolean negative){
+    discardPrefetchedChromatograms();
+    if (isotopeExecutor_==null || useCuda_ || msLevel!=1 || !((LipidomicsChromReader)reader_).isBinaryFormat()) return;
+    prefetchMz_ = mz;
+    prefetchCharge_ = charge;
+    prefetchMassToAdd_ = LipidomicsConstants.getNeutronMass();
+    if (negative) prefetchMassToAdd_*=-1;
+    prefetchMsLevel_ = msLevel;
+    prefetchIsotopes_ = nrOfIsotopes;
+    nextPrefetchIsotope_ = previousIsotope ? -1 : 0;
+    for (int i=0; i<LipidomicsConstants.getIsotopeChromThreads(); i++) prefetchNextIsotope();
+  }
+  
+  /**
+   * starts reading and smoothing the MS1 chromatogram of the next isotope of the analyte set by prefetchIsotopeChromatograms in the isotopeExecutor_
+   */
+  private void prefetchNextIsotope(){
+    if (nextPrefetchIsotope_>=prefetchIsotopes_) return;
+    int isotope = nextPrefetchIsotope_;
+    nextPrefetchIsotope_++;
+    //the same float operations as in the detection, since the m/z value is part of the key
+    final float isoMz;
+    if (isotope==-1) isoMz = prefetchMz_-prefetchMassToAdd_/(float)prefetchCharge_;
+    else if (isotope==0) isoMz = prefetchMz_;
+    else isoMz = prefetchMz_+isotope*prefetchMassToAdd_/(float)prefetchCharge_;
+    final float tolerance = coarseChromMzTolerance_;
+    final float smoothRange = chromSmoothRange_;
+    final int smoothRepeats = chromSmoothRepeats_;
+    final int msLevel = prefetchMsLevel_;
+    String key = getPrefetchKey(isoMz, tolerance, tolerance, msLevel, smoothRange, smoothRepeats, smoothRange, 0, -1f, Float.MAX_VALUE);
+    try{
+      prefetchedChroms_.put(key, isotopeExecutor_.submit(() -> readAChromatogram(isoMz, tolerance, tolerance, msLevel, smoothRange, smoothRepeats,
+          smoothRange, 0, -1f, Float.MAX_VALUE, smoother_!=null ? ISOTOPE_SMOOTHERS.get() : null)));
+    //the executor has been shut down - the chromatogram is read in the calling thread
+    } catch (RejectedExecutionException rex){
+    }
+  }
+  
+  /**
+   * cancels the chromatograms that are read ahead, but have not been requested
+   */
+  private void discardPrefetchedChromatograms(){
+    for (Future<CgChromatogram> prefetched : prefetchedChroms_.values()) prefetched.cancel(false);
+    prefetchedChroms_.clear();
+  }
+  
+  private static String getPrefetchKey(float mz, float lowerMzBand, float upperMzBand,int msLevel,float smoothRange, int smoothRepeats, float meanSmoothRange, int meanSmoothRepeats, float startTime, float stopTime){
+    return mz+";"+lowerMzBand+";"+upperMzBand+";"+msLevel+";"+smoothRange+";"+smoothRepeats+";"+meanSmoothRange+";"+meanSmoothRepeats+";"+startTime+";"+stopTime;
+  }
+  
+  /**
+   * creates a plan for reading the MS1 chromatograms of a target list in one forward sweep through the chrom file
+   * @param maxBytes the maximum amount of bytes of the chrom blocks that are held in memory
+   * @return the extraction plan; null if the chrom file is not in the binary format, or if it is memory mapped anyway
+   * @throws CgException thrown if the index file cannot be read
+   */
+  public ChromExtractionPlan createExtractionPlan(long maxBytes) throws CgException{
+    LipidomicsChromReader lReader = (LipidomicsChromReader) reader_;
+    if (!lReader.isBinaryFormat() || LipidomicsConstants.isMemoryMappedChrom()) return null;
+    return new ChromExtractionPlan(lReader, maxBytes);
+  }
+  
+  /**
+   * sets the plan whose MS1 chrom blocks are read ahead; null removes the plan
+   * @param plan the extraction plan
+   */
+  public void setExtractionPlan(ChromExtractionPlan plan){
+    ((LipidomicsChromReader) reader_).setExtractionPlan(plan);
+  }
+  
+  /**
+   * @return the summary of the MS1 signal written at the chrom translation; null if there is no valid summary
+   */
+  public ChromSummaryIndex getMs1Summary(){
+    return ((LipidomicsChromReader) reader_).getMs1Summary();
+  }
+  
+  /**
+   * returns the highest MS1 intensity of an m/z range according to a summary
+   * @param summary the summary of the MS1 signal of this chrom file
+   * @param from the lower m/z value
+   * @param to the upper m/z value
+   * @return the highest intensity within the m/z range
+   */
+  public float getHighestMs1Intensity(ChromSummaryIndex summary, float from, float to){
+    return ((LipidomicsChromReader) reader_).getHighestMs1Intensity(summary, from, to);
+  }
+  
+  /**
+   * reads a chromatogram from the chrom file and smoothes it
+   * @param mz the m/z value
+   * @param lowerMzBand the m/z tolerance in the lower direction
+   * @param upperMzBand the m/z tolerance in the upper direction
+   * @param msLevel the MS-level
+   * @param smoothRange the range for the Savitzky-Golay smoothing
+   * @param smoothRepeats the repeats of the Savitzky-Golay smoothing
+   * @param meanSmoothRange the range for the mean smoothing
+   * @param meanSmoothRepeats the repeats of the mean smoothing
+   * @param startTime the start time of the smoothing range
+   * @param stopTime the stop time of the smoothing range
+   * @param smoother the SavGolSmoother of the calling thread; null if CUDA or the smoothing of CgChromatogram is used
+   * @return the smoothed chromatogram
+   * @throws CgException thrown if there is something wrong with the chrom access
+   */
+  private CgChromatogram readAndSmoothChromatogram(float mz, float lowerMzBand, float upperMzBand,int msLevel,float smoothRange, int smoothRepeats, float meanSmoothRange, int meanSmoothRepeats, float startTime, float stopTime,
+      SavGolSmoother smoother) throws CgException{
 //  long time = System.currentTimeMillis();
 	CgChromatogram cx = reader_.readChromatogram(mz - lowerMzBand,mz + upperMzBand,msLevel);
     cx.Mz = mz;
@@ -428,17 +635,13 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
     }
     boolean copyRawData = true;
     if (meanSmoothRange>0){
-      cx.smoothMean(meanSmoothRange, meanSmoothRepeats,copyRawData);
+      //the LipidomicsChromatogram shares the scans with cx
+      new LipidomicsChromatogram(cx).smoothMean(meanSmoothRange, meanSmoothRepeats,copyRawData);
       copyRawData = false;
     }
 //    System.out.println("Reading Time: "+(System.currentTimeMillis()-time));
 //    time = System.currentTimeMillis();
-    if (useCuda_){
-      LipidomicsChromatogram lCx = new LipidomicsChromatogram(cx);
-      lCx.Smooth(smoothRange, smoothRepeats, copyRawData, sav_gol_jni_);
-    } else {
-      cx.Smooth(smoothRange, smoothRepeats, copyRawData);
-    }
+    smoothChromatogram(cx, smoothRange, smoothRepeats, copyRawData, smoother);
     
 //    System.out.println("Smoothing Time: "+(System.currentTimeMillis()-time));
     return cx;
@@ -516,7 +719,7 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
         
         LipidomicsChromatogram chrom = new LipidomicsChromatogram(this.readJustIntensitiesOfInterest((float)frag.getMass()-msnMzTolerance_,(float)frag.getMass()+msnMzTolerance_,
             0f,Float.MAX_VALUE,msLevel));
-        chrom.Smooth(chromSmoothRange_, this.chromSmoothRepeats_);
+        smoothChromatogram(chrom, chromSmoothRange_, this.chromSmoothRepeats_, true);
         chrom.GetMaximumAndAverage();
 
 //        printChromaToFile(chrom,"D:\\Alex\\PRM\\test.png");
@@ -720,6 +923,7 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
     coarseChromMzTolerance_ = LipidomicsConstants.getCoarseChromMzTolerance(mz);
     useSameCgHashFor3D_ = true;
     this.initCacheHashes();
+    this.prefetchIsotopeChromatograms(mz, charge, Math.max(probabs.size(), possibleProbabs.size()), removeIfOtherIsotopePresent_, msLevel, negative);
     float massToAdd = LipidomicsConstants.getNeutronMass();
     if (negative) massToAdd*=-1;
 //    this.sameCgHash_ = new Vector<CgProbe>();
@@ -1289,6 +1493,7 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
       float retentionTime, float prevTimeTolerance, float afterTimeTolerance, int timeType, Vector<Double>probabs,
       Vector<Double>possibleProbabs, int msLevel, boolean negative) throws CgException{
     this.coarseChromMzTolerance_ = LipidomicsConstants.getCoarseChromMzTolerance(mz);
+    this.prefetchIsotopeChromatograms(mz, charge, Math.max(probabs.size(), possibleProbabs.size()), true, msLevel, negative);
     float massToAdd = LipidomicsConstants.getNeutronMass();
     if (negative) massToAdd*=-1;
 //    return this.processByMzProbabsAndPossibleRetentionTime(mz, //mzTolerance, 
@@ -1774,6 +1979,8 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
 //    return this.processByMzProbabsAndPossibleRetentionTime(mz, //mzTolerance, 
 //        -1, -1, -1, -1, probabs, possibleProbabs);
     this.coarseChromMzTolerance_ = LipidomicsConstants.getCoarseChromMzTolerance(mz);
+    //the isotopes are searched in the positive direction only
+    this.prefetchIsotopeChromatograms(mz, charge, Math.max(probabs.size(), possibleProbabs.size()), true, msLevel, false);
     float massToAdd = LipidomicsConstants.getNeutronMass();
     LipidomicsChromatogram mainChrom = new LipidomicsChromatogram(readAChromatogram(mz, this.coarseChromMzTolerance_, this.coarseChromMzTolerance_, msLevel, chromSmoothRange_,chromSmoothRepeats_));
     mainChrom.GetMaximumAndAverage();
@@ -2887,14 +3094,40 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
         lChrom.smoothMean(meanSmoothRange, meanSmoothRepeats,copyRawData);
         copyRawData = false;
       }
-      if( useCuda_ ){
-        lChrom.Smooth(mzSmoothRange, smoothRepeats, copyRawData, sav_gol_jni_);
-      } else {
-        lChrom.Smooth(mzSmoothRange, smoothRepeats, copyRawData);
-      }
+      smoothChromatogram(lChrom, mzSmoothRange, smoothRepeats, copyRawData);
     }
     return chroms;
   }
+  
+  /**
+   * Savitzky-Golay smoothing of a chromatogram by the engine in use: CUDA, the SavGolSmoother, or CgChromatogram.Smooth
+   * @param chrom the chromatogram to smooth
+   * @param smoothRange the range for the smoothing
+   * @param smoothRepeats the amount of repeats
+   * @param copyRawData true if the raw intensities shall be copied to the smoothed ones before smoothing
+   */
+  protected void smoothChromatogram(CgChromatogram chrom, float smoothRange, int smoothRepeats, boolean copyRawData){
+    smoothChromatogram(chrom, smoothRange, smoothRepeats, copyRawData, smoother_);
+  }
+  
+  /**
+   * Savitzky-Golay smoothing of a chromatogram by the engine in use
+   * @param chrom the chromatogram to smooth
+   * @param smoothRange the range for the smoothing
+   * @param smoothRepeats the amount of repeats
+   * @param copyRawData true if the raw intensities shall be copied to the smoothed ones before smoothing
+   * @param smoother the SavGolSmoother of the calling thread; null if CUDA or the smoothing of CgChromatogram is used
+   */
+  private void smoothChromatogram(CgChromatogram chrom, float smoothRange, int smoothRepeats, boolean copyRawData, SavGolSmoother smoother){
+    if (useCuda_){
+      LipidomicsChromatogram lChrom = (chrom instanceof LipidomicsChromatogram) ? (LipidomicsChromatogram)chrom : new LipidomicsChromatogram(chrom);
+      lChrom.Smooth(smoothRange, smoothRepeats, copyRawData, sav_gol_jni_);
+    } else if (smoother!=null){
+      smoother.smooth(chrom, smoothRange, smoothRepeats, copyRawData);
+    } else {
+      chrom.Smooth(smoothRange, smoothRepeats, copyRawData);
+    }
+  }
    
   @SuppressWarnings({ "unchecked", "rawtypes" })
   private Vector getSmallAndBroadProbe(CgProbe rightProfileProbe, int mainScan, LipidomicsChromatogram coarseChrom, int charge, int msLevel)throws CgException,QuantificationException{
@@ -4507,6 +4740,99 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
     return result;
   }
   
+  /**
+   * calculates the areas under the curve for several MSn fragments at once; the results are the same as the ones of calculateMs2Area
+   * for each single fragment, but the fragments of one MS-level are matched against each spectrum in a single pass over the sorted
+   * fragment m/z values and the sorted peaks of the spectrum; this is only possible for precursor-indexed MSn data, where the spectra
+   * are decoded once - for other data, calculateMs2Area has to be used for each fragment
+   * @param fragments the fragments to be quantified; fragments of MS-levels without MS1 peaks in probesWithMSnSpectra are skipped
+   * @param probesWithMSnSpectra the MS1 peaks defining the retention time limits; key: MS-level
+   * @return the calculated fragment areas; key: the fragment; fragments of MS-levels without decoded spectra are not contained
+   * @throws CgException thrown if there is something wrong with the chrom access
+   */
+  public Hashtable<FragmentVO,CgProbe> calculateMs2Areas(Collection<FragmentVO> fragments, Hashtable<Integer,Vector<CgProbe>> probesWithMSnSpectra) throws CgException{
+    Hashtable<FragmentVO,CgProbe> results = new Hashtable<FragmentVO,CgProbe>();
+    Hashtable<Integer,List<FragmentVO>> fragmentsOfLevel = new Hashtable<Integer,List<FragmentVO>>();
+    for (FragmentVO fragment : fragments){
+      if (!probesWithMSnSpectra.containsKey(fragment.getMsLevel())) continue;
+      List<FragmentVO> ofLevel = fragmentsOfLevel.get(fragment.getMsLevel());
+      if (ofLevel==null){
+        ofLevel = new ArrayList<FragmentVO>();
+        fragmentsOfLevel.put(fragment.getMsLevel(), ofLevel);
+      }
+      ofLevel.add(fragment);
+    }
+    LipidomicsChromReader lReader = (LipidomicsChromReader) reader_;
+    for (Integer msLevel : fragmentsOfLevel.keySet()){
+      List<FragmentVO> ofLevel = fragmentsOfLevel.get(msLevel);
+      Vector<CgProbe> probes = probesWithMSnSpectra.get(msLevel);
+      DecodedMSnSpectra spectra = null;
+      if (ChromatogramReader.CHROMATOGRAM_HEADER_FILE_MSMS_TYPE_PRECURSOR.equalsIgnoreCase(lReader.getMsmsType()))
+        spectra = lReader.getDecodedMSnSpectra(msLevel);
+      if (spectra==null) continue;
+      float[] startStopRt = this.getStartStopTimeFromProbes(probes);
+      float lowestRt = startStopRt[0];
+      float highestRt = startStopRt[1];
+      //the fragments are sorted by their lower m/z border - the tolerance is the same for all, thus the upper borders are sorted too
+      Collections.sort(ofLevel, new Comparator<FragmentVO>(){
+        public int compare(FragmentVO o1, FragmentVO o2){
+          return Float.compare((float)o1.getMass()-msnMzTolerance_, (float)o2.getMass()-msnMzTolerance_);
+        }});
+      int nrOfFragments = ofLevel.size();
+      float[] froms = new float[nrOfFragments];
+      float[] tos = new float[nrOfFragments];
+      for (int i=0; i!=nrOfFragments; i++){
+        froms[i] = (float)ofLevel.get(i).getMass()-msnMzTolerance_;
+        tos[i] = (float)ofLevel.get(i).getMass()+msnMzTolerance_;
+      }
+      float[] areas = new float[nrOfFragments];
+      float[] highestInts = new float[nrOfFragments];
+      float[] peakRts = new float[nrOfFragments];
+      float[] scanIntensities = new float[nrOfFragments];
+      for (int i=0; i!=spectra.getNumberOfSpectra(); i++){
+        float rt = spectra.getRetentionTime(i);
+        if (!(rt>lowestRt) || rt>highestRt) continue;
+        float[] mzs = spectra.getMzs(i);
+        float[] intensities = spectra.getIntensities(i);
+        int firstPeak = 0;
+        for (int j=0; j!=nrOfFragments; j++){
+          while (firstPeak<mzs.length && mzs[firstPeak]<froms[j]) firstPeak++;
+          float intensity = 0f;
+          for (int k=firstPeak; k<mzs.length && mzs[k]<=tos[j]; k++) intensity += intensities[k];
+          scanIntensities[j] = intensity;
+        }
+        for (int j=0; j!=nrOfFragments; j++){
+          areas[j] += scanIntensities[j];
+          if (scanIntensities[j]>highestInts[j]){
+            highestInts[j] = scanIntensities[j];
+            peakRts[j] = rt;
+          }
+        }
+      }
+      for (int j=0; j!=nrOfFragments; j++){
+        FragmentVO fragment = ofLevel.get(j);
+        CgProbe result = new CgProbe(0,fragment.getCharge(),msLevel,fragment.getFormula());
+        result.AreaStatus = CgAreaStatus.NothingThere;
+        if (areas[j]>0){
+          result.AreaStatus = CgAreaStatus.OK;
+          result.Area = areas[j];
+          result.AreaError = 0f;
+          result.Background = 0f;
+          result.Peak = peakRts[j];
+          result.LowerValley = lowestRt;
+          result.UpperValley = highestRt;
+          result.Mz = (float)fragment.getMass();
+          result.LowerMzBand = msnMzTolerance_;
+          result.UpperMzBand = msnMzTolerance_;
+          result.isotopeNumber = 0;
+          result.setFromOtherSpecies(fragment.isMandatory()==FragmentRuleVO.MANDATORY_OTHER);
+        }
+        results.put(fragment, result);
+      }
+    }
+    return results;
+  }
+  
   /**
    * returns the retention times of MSn spectra that are within the detected MS1 peaks
    * @param msLevel the MS-level of the spectra
@@ -4755,6 +5081,38 @@ public class LipidomicsAnalyzer extends ChromaAnalyzer
     return theSame;
   }
   
+  /**
+   * returns a retention time range that contains all peak centers the 0 isotopic peaks of this identification are compared to
+   * in isPeakCenterTheSame; i.e. if isPeakCenterTheSame is true for two identifications, their ranges overlap
+   * @param set the MS1 identification
+   * @return [0] the lower and [1] the upper border of the range; an empty range (lower>upper) if there are no 0 isotopic peaks,
+   *         and an infinite range if the borders cannot be determined
+   */
+  public static float[] getPeakCenterOverlapRange(LipidParameterSet set){
+    float[] range = new float[]{Float.POSITIVE_INFINITY,Float.NEGATIVE_INFINITY};
+    if (set.getIsotopicProbes()==null || set.getIsotopicProbes().size()==0){
+      range[0] = Float.NEGATIVE_INFINITY;
+      range[1] = Float.POSITIVE_INFINITY;
+      return range;
+    }
+    float overlapPeakDistanceDivisor = LipidomicsConstants.getOverlapPeakDistanceDivisor();
+    float overlapFullDistanceDivisor = LipidomicsConstants.getOverlapFullDistanceDivisor();
+    for (CgProbe probe : set.getIsotopicProbes().get(0)){
+      //the same thresholds as in isProbe1InProbe2Third; the peak itself is within the range in any case
+      float lowerThreshold1 = probe.Peak-(probe.Peak-probe.LowerValley)/overlapPeakDistanceDivisor;
+      float lowerThreshold2 = probe.Peak-(probe.UpperValley-probe.LowerValley)/overlapFullDistanceDivisor;
+      float upperThreshold1 = probe.Peak+(probe.UpperValley-probe.Peak)/overlapPeakDistanceDivisor;
+      float upperThreshold2 = probe.Peak+(probe.UpperValley-probe.LowerValley)/overlapFullDistanceDivisor;
+      float lower = Math.min(probe.Peak, Math.min(lowerThreshold1, lowerThreshold2));
+      float upper = Math.max(probe.Peak, Math.max(upperThreshold1, upperThreshold2));
+      if (Float.isNaN(lower)) lower = Float.NEGATIVE_INFINITY;
+      if (Float.isNaN(upper)) upper = Float.POSITIVE_INFINITY;
+      range[0] = Math.min(range[0], lower);
+      range[1] = Math.max(range[1], upper);
+    }
+    return range;
+  }
+  
   /**
    * returns one chromatogram at a speciefied m/z value and MS level
    * @param mz the m/z value for the chromatogram
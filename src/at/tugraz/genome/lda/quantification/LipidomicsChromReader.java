@@ -23,15 +23,28 @@
 
 package at.tugraz.genome.lda.quantification;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
 import java.util.Hashtable;
+import java.util.Properties;
 import java.util.Vector;
 
+import at.tugraz.genome.lda.LipidomicsConstants;
 import at.tugraz.genome.maspectras.quantification.CgException;
 import at.tugraz.genome.maspectras.quantification.ChromatogramReader;
 import at.tugraz.genome.maspectras.quantification.CgChromatogram;
 import at.tugraz.genome.maspectras.quantification.CgProbe;
+import at.tugraz.genome.maspectras.quantification.Probe3D;
+import at.tugraz.genome.maspectras.utils.Calculator;
+import at.tugraz.genome.util.BioUtilsConstants;
 
 /**
+ * Chromatogram reader supporting the Base64 line format of the chrom files, as well as the binary columnar format (see BinaryChromIndex).
+ * The format is detected by the entry in the header file.
  * 
  * @author Juergen Hartler
  *
@@ -40,6 +53,28 @@ public class LipidomicsChromReader extends ChromatogramReader
 {
   private boolean useCuda_;
   protected SavGolJNI sav_gol_jni_;
+  /** are there sparse time points in MS1 -> interpolation*/
+  private boolean sparseData_;
+  /** is the chrom file in the binary columnar format*/
+  private boolean binaryFormat_;
+  /** the paths to the binary chrom files; key: MS-level*/
+  private Hashtable<Integer,String> binaryChromFiles_;
+  /** the paths to the binary index files; key: MS-level*/
+  private Hashtable<Integer,String> binaryIndexFiles_;
+  /** the already read binary indices; key: MS-level*/
+  private Hashtable<Integer,BinaryChromIndex> binaryIndices_;
+  /** read the binary files by shared memory mappings*/
+  private boolean memoryMapped_;
+  /** the shared memory mappings of the binary chrom files; key: MS-level*/
+  private Hashtable<Integer,MappedChromFile> mappedChromFiles_;
+  /** the shared memory mappings of the binary index files; key: MS-level*/
+  private Hashtable<Integer,MappedChromFile> mappedIndexFiles_;
+  /** the spectra of the MSn spectra cache in decoded form; key: MS-level; the levels are decoded at the first request*/
+  private Hashtable<Integer,DecodedMSnSpectra> decodedMSnSpectra_;
+  /** the MS1 blocks read ahead in one forward sweep through the binary chrom file; null if there is no plan*/
+  private ChromExtractionPlan extractionPlan_;
+  /** the CPU implementation of the Savitzky-Golay smoothing; null if CUDA or the smoothing of CgChromatogram is used*/
+  private SavGolSmoother smoother_;
   
   /**
    * This constructor is used on the cluster; here all of the information is definable
@@ -56,13 +91,273 @@ public class LipidomicsChromReader extends ChromatogramReader
       boolean sparseData, float chromSmoothRange, boolean useCuda) throws CgException{
     super(headerFilePath, indexFilePath, retentionTimeFilePath, chromatogramFilePath, sparseData, chromSmoothRange);
     this.useCuda_ = useCuda;
+    this.sparseData_ = sparseData;
+    if (!useCuda && LipidomicsConstants.useJavaSmoothEngine()) smoother_ = new SavGolSmoother();
+    this.initChromFormat(indexFilePath, chromatogramFilePath);
+  }
+  
+  /**
+   * detects the format of the chrom file by the header file, and sets the file paths for the binary format
+   * @param indexFilePath the path to the index file provided by the constructor
+   * @param chromatogramFilePath the path to the chromatogram file provided by the constructor
+   * @throws CgException thrown if the header file cannot be read
+   */
+  private void initChromFormat(String indexFilePath, String chromatogramFilePath) throws CgException{
+    Properties props = new Properties();
+    FileInputStream in = null;
+    try{
+      in = new FileInputStream(headerFilePath_);
+      props.load(in);
+    }catch (IOException iox){
+      throw new CgException(iox.getMessage());
+    }finally{
+      if (in!=null){
+        try{in.close();}catch(IOException iox){}
+      }
+    }
+    binaryFormat_ = BinaryChromIndex.CHROM_FORMAT_BINARY.equalsIgnoreCase(props.getProperty(BinaryChromIndex.CHROMATOGRAM_HEADER_FILE_FORMAT));
+    binaryChromFiles_ = new Hashtable<Integer,String>();
+    binaryIndexFiles_ = new Hashtable<Integer,String>();
+    binaryIndices_ = new Hashtable<Integer,BinaryChromIndex>();
+    mappedChromFiles_ = new Hashtable<Integer,MappedChromFile>();
+    mappedIndexFiles_ = new Hashtable<Integer,MappedChromFile>();
+    decodedMSnSpectra_ = new Hashtable<Integer,DecodedMSnSpectra>();
+    memoryMapped_ = LipidomicsConstants.isMemoryMappedChrom();
+    if (!binaryFormat_) return;
+    binaryChromFiles_.put(1, dataFilePath_);
+    binaryIndexFiles_.put(1, indexFilePath_);
+    if (getMsmsType()!=null && getMsmsType().equalsIgnoreCase(CHROMATOGRAM_HEADER_FILE_MSMS_TYPE_FULL)){
+      for (int i=2; i<=getHighestMsLevel(); i++){
+        if (indexFilePath==null || indexFilePath.length()<1)
+          binaryIndexFiles_.put(i, props.getProperty(BioUtilsConstants.INDEX_HEADER_FILE_INDEX_FILE+String.valueOf(i)));
+        else
+          binaryIndexFiles_.put(i, indexFilePath+String.valueOf(i));
+        if (chromatogramFilePath==null || chromatogramFilePath.length()<1)
+          binaryChromFiles_.put(i, props.getProperty(BioUtilsConstants.INDEX_HEADER_FILE_INDEXED_FILE+String.valueOf(i)));
+        else
+          binaryChromFiles_.put(i, chromatogramFilePath+String.valueOf(i));
+      }
+    }
   }
 
   /** reads an m/z profile from the chrom file and smooths it */
   protected Vector<CgChromatogram> readProfiles(Vector<CgProbe> probes, float mzTolerance, float timeTolerance,float maxTimeDeviation,
       float mzSmoothRange, int smoothRepeats, int msLevel, SavGolJNI sav_gol_jni) throws CgException{
     sav_gol_jni_ = sav_gol_jni; 
-    return super.readProfiles(probes, mzTolerance, timeTolerance, maxTimeDeviation, mzSmoothRange, smoothRepeats, msLevel);
+    return readProfiles(probes, mzTolerance, timeTolerance, maxTimeDeviation, mzSmoothRange, smoothRepeats, msLevel);
+  }
+  
+  /** reads an m/z profile from the chrom file and smooths it */
+  protected Vector<CgChromatogram> readProfiles(Vector<CgProbe> probes, float mzTolerance, float timeTolerance, float maxTimeDeviation,
+      float mzSmoothRange, int smoothRepeats, int msLevel) throws CgException{
+    if (!isBinaryLevel(msLevel))
+      return super.readProfiles(probes, mzTolerance, timeTolerance, maxTimeDeviation, mzSmoothRange, smoothRepeats, msLevel);
+    Hashtable<Integer,Float> startTime = new Hashtable<Integer,Float>();
+    Hashtable<Integer,Float> stopTime = new Hashtable<Integer,Float>();
+    Hashtable<Integer,CgChromatogram> singleProfiles = new Hashtable<Integer,CgChromatogram>();
+    if (probes.size()>0){
+      float mz = probes.get(0).Mz;
+      BinaryChromBlock block = readBinaryBlock(mz-mzTolerance, mz+mzTolerance, msLevel);
+      int nrOfBins = block.getNumberOfBins();
+      for (int i=0; i!=probes.size(); i++){
+        CgProbe probe = probes.get(i);
+        startTime.put(i, probe.Peak-timeTolerance);
+        stopTime.put(i, probe.Peak+timeTolerance);
+        CgChromatogram profile = new CgChromatogram(nrOfBins);
+        for (int j=0; j!=nrOfBins; j++) profile.Value[j][1] = 0f;
+        singleProfiles.put(i, profile);
+      }
+      Hashtable<Integer,Float> retentionTimes = getRetentionTimesOriginal();
+      float mzStep = (float)getLowestResolution_()/(float)getMultiplicationFactorForInt_();
+      for (int i=0; i!=nrOfBins; i++){
+        for (int j=0; j!=singleProfiles.size(); j++){
+          singleProfiles.get(j).Value[i][0] = mz-mzTolerance+((float)i)*mzStep;
+        }
+        int nrOfPoints = block.getNumberOfPoints(i);
+        for (int k=0; k!=nrOfPoints; k++){
+          float retentionTime = retentionTimes.get(block.getScanNumber(i,k));
+          float intensity = block.getIntensity(i,k);
+          for (int j=0; j!=singleProfiles.size(); j++){
+            if (startTime.get(j)<retentionTime && retentionTime<stopTime.get(j))
+              singleProfiles.get(j).Value[i][1] += intensity;
+          }
+        }
+      }
+    }
+    return smoothSingleProfiles(probes, singleProfiles, mzSmoothRange, smoothRepeats, startTime, stopTime);
+  }
+  
+  /** reads the chromatogram of an m/z range; for the binary format, the values are summed up directly from the read records*/
+  protected CgChromatogram readChromatogram(float from, float to, float startTime, float stopTime, int msLevel, Probe3D probe) throws CgException{
+    if (probe==null && msLevel>1 && CHROMATOGRAM_HEADER_FILE_MSMS_TYPE_PRECURSOR.equalsIgnoreCase(getMsmsType()))
+      return readCachedMSnChromatogram(from, to, startTime, stopTime, msLevel);
+    if (!isBinaryLevel(msLevel))
+      return super.readChromatogram(from, to, startTime, stopTime, msLevel, probe);
+    Hashtable<Integer,Float> rtTimes = getRetentionTimes(msLevel,true);
+    int amountOfScans = rtTimes.size();
+    CgChromatogram chrom = new CgChromatogram(amountOfScans);
+    float highestInt = 0f;
+    for (int i=0; i!=amountOfScans; i++){
+      chrom.Value[i][0] = rtTimes.get(i);
+      chrom.Value[i][1] = 0f;
+    }
+    BinaryChromBlock block = readBinaryBlock(from, to, msLevel);
+    float mzAdduct = (float)getLowestResolution_()/(float)getMultiplicationFactorForInt_();
+    for (int i=0; i!=block.getNumberOfBins(); i++){
+      int nrOfPoints = block.getNumberOfPoints(i);
+      if (nrOfPoints==0) continue;
+      Float[] timeBorders = null;
+      if (probe!=null){
+        float currentMz = probe.getEllipseMzPosition()-probe.getEllipseMzStretch()+((float)i)*mzAdduct;
+        timeBorders = Calculator.calculateEllipseXBorderValues(currentMz, probe.getEllipseTimePosition(), probe.getEllipseMzPosition(), probe.getEllipseTimeStretch(), probe.getEllipseMzStretch());
+        if (probe.getLowerHardRtLimit()>=0 && timeBorders[0]<probe.getLowerHardRtLimit()) timeBorders[0] = probe.getLowerHardRtLimit();
+        if (probe.getUpperHardRtLimit()>=0 && timeBorders[1]>probe.getUpperHardRtLimit()) timeBorders[1] = probe.getUpperHardRtLimit();
+      }
+      for (int k=0; k!=nrOfPoints; k++){
+        int scanNumber = block.getScanNumber(i,k);
+        float intensity = block.getIntensity(i,k);
+        if (probe!=null && (timeBorders[0]>chrom.Value[scanNumber][0] || chrom.Value[scanNumber][0]>timeBorders[1])) continue;
+        chrom.Value[scanNumber][1] += intensity;
+        if (intensity>highestInt) highestInt = intensity;
+      }
+    }
+    chrom.setHighestIntensity(highestInt);
+    if (msLevel==1 && sparseData_)
+      chrom.doChromValueInterpolation(getRetentionTimes(1,false));
+    return chrom;
+  }
+  
+  /** for the binary format, the records are returned in the Base64 line format, which is required by the viewers*/
+  public String[] getRawLines(float from, float to) throws CgException{
+    if (!binaryFormat_) return super.getRawLines(from, to);
+    return getRawLines(from, to, 1);
+  }
+  
+  /** for the binary format, the records are returned in the Base64 line format, which is required by the viewers*/
+  public String[] getRawLines(float from, float to, int msLevel, int lowestResolutionMultiplicationFactor) throws CgException{
+    if (!isBinaryLevel(msLevel))
+      return super.getRawLines(from, to, msLevel, lowestResolutionMultiplicationFactor);
+    BinaryChromBlock block = readBinaryBlock(from, to, msLevel);
+    String[] lines = new String[block.getNumberOfBins()];
+    for (int i=0; i!=lines.length; i++) lines[i] = block.toBase64Line(i);
+    return lines;
+  }
+  
+  /**
+   * reads the records of the m/z bins between two m/z values with a single access to the binary chrom file;
+   * the bin borders are the same as the line borders of the Base64 line format
+   * @param from the lower m/z value
+   * @param to the upper m/z value
+   * @param msLevel the MS-level
+   * @return the block containing the records of the m/z bins
+   * @throws CgException thrown if there is something wrong with the file access
+   */
+  protected BinaryChromBlock readBinaryBlock(float from, float to, int msLevel) throws CgException{
+    BinaryChromIndex index = getBinaryIndex(msLevel);
+    int startBin = getBinNumber(from);
+    if (startBin<0) startBin = 0;
+    int stopBin = getBinNumber(to);
+    if (stopBin>index.getEndBin()) stopBin = index.getEndBin();
+    if (msLevel==1 && extractionPlan_!=null){
+      BinaryChromBlock block = extractionPlan_.getBlock(startBin, stopBin);
+      if (block!=null) return block;
+    }
+    return readBinaryBins(startBin, stopBin, msLevel);
+  }
+  
+  /**
+   * reads the records of consecutive m/z bins with a single access to the binary chrom file
+   * @param startBin the first bin
+   * @param stopBin the bin after the last one
+   * @param msLevel the MS-level
+   * @return the block containing the records of the m/z bins
+   * @throws CgException thrown if there is something wrong with the file access
+   */
+  protected BinaryChromBlock readBinaryBins(int startBin, int stopBin, int msLevel) throws CgException{
+    BinaryChromIndex index = getBinaryIndex(msLevel);
+    int nrOfBins = stopBin-startBin;
+    if (nrOfBins<0) nrOfBins = 0;
+    long startOffset = index.getOffset(startBin);
+    //the offsets within the block are int values
+    if (index.getOffset(startBin+nrOfBins)-startOffset>Integer.MAX_VALUE)
+      throw new CgException("The bins "+startBin+"-"+stopBin+" are too large to be read at once");
+    int[] offsets = new int[nrOfBins+1];
+    for (int i=0; i!=offsets.length; i++) offsets[i] = (int)(index.getOffset(startBin+i)-startOffset);
+    if (mappedChromFiles_.containsKey(msLevel))
+      return new BinaryChromBlock(mappedChromFiles_.get(msLevel).getBuffer(startOffset, startOffset+offsets[nrOfBins]),offsets);
+    byte[] bytes = new byte[offsets[nrOfBins]];
+    if (bytes.length>0){
+      RandomAccessFile file = null;
+      try{
+        file = new RandomAccessFile(binaryChromFiles_.get(msLevel),"r");
+        file.seek(startOffset);
+        file.readFully(bytes);
+      }catch (IOException iox){
+        throw new CgException(iox.getMessage());
+      }finally{
+        if (file!=null){
+          try{file.close();}catch(IOException iox){}
+        }
+      }
+    }
+    return new BinaryChromBlock(ByteBuffer.wrap(bytes),offsets);
+  }
+  
+  /**
+   * returns the index of a binary chrom file - the index is read at the first access;
+   * in memory mapped mode, the index and chrom files are mapped (or the existing mappings of other readers are used)
+   * @param msLevel the MS-level
+   * @return the index of the binary chrom file
+   * @throws CgException thrown if the index file cannot be read
+   */
+  private synchronized BinaryChromIndex getBinaryIndex(int msLevel) throws CgException{
+    if (!binaryIndices_.containsKey(msLevel)){
+      try{
+        if (memoryMapped_){
+          MappedChromFile mappedIndex = MappedChromFile.getInstance(binaryIndexFiles_.get(msLevel));
+          MappedChromFile mappedChrom = MappedChromFile.getInstance(binaryChromFiles_.get(msLevel));
+          mappedIndexFiles_.put(msLevel, mappedIndex);
+          mappedChromFiles_.put(msLevel, mappedChrom);
+          binaryIndices_.put(msLevel, BinaryChromIndex.fromBuffer(mappedIndex.getBuffer()));
+        }
+        if (!binaryIndices_.containsKey(msLevel))
+          binaryIndices_.put(msLevel, BinaryChromIndex.read(binaryIndexFiles_.get(msLevel)));
+      }catch (IOException iox){
+        throw new CgException(iox.getMessage());
+      }
+    }
+    return binaryIndices_.get(msLevel);
+  }
+  
+  /**
+   * the number of the bin (line in the Base64 line format) of an m/z value - the calculation is the same as in ChromatogramReader
+   * @param mzValue the m/z value
+   * @return the number of the bin
+   */
+  protected int getBinNumber(float mzValue){
+    float value = mzValue*((float)(getMultiplicationFactorForInt_()/getLowestResolution_()));
+    if (!Float.isInfinite(value) && !Float.isNaN(value))
+      value = new BigDecimal(value).setScale(0,RoundingMode.DOWN).floatValue();
+    return Math.round(value)-getLowestMz_()/getLowestResolution_();
+  }
+  
+  /**
+   * 
+   * @param msLevel the MS-level
+   * @return true if the chrom file of this MS-level is stored in the binary columnar format
+   */
+  protected boolean isBinaryLevel(int msLevel){
+    if (!binaryFormat_) return false;
+    if (msLevel==1) return true;
+    return binaryChromFiles_.containsKey(msLevel);
+  }
+  
+  /**
+   * 
+   * @return true if the chrom file is stored in the binary columnar format
+   */
+  public boolean isBinaryFormat(){
+    return binaryFormat_;
   }
 
   /** smoothing the single profiles */
@@ -77,16 +372,117 @@ public class LipidomicsChromReader extends ChromatogramReader
       cx.UpperMzBand = stopTime.get(i);
       if (useCuda_){
           cx.Smooth(mzSmoothRange, smoothRepeats, sav_gol_jni_);
-        } else {
+        } else if (smoother_==null){
           cx.Smooth(mzSmoothRange, smoothRepeats);
         }
       profiles.add(cx);
-    }    
+    }
+    if (smoother_!=null) smoother_.smooth(profiles, mzSmoothRange, smoothRepeats, true);
     return profiles;
   }
+  
+  /**
+   * @return the CPU implementation of the Savitzky-Golay smoothing; null if CUDA or the smoothing of CgChromatogram is used
+   */
+  public SavGolSmoother getSavGolSmoother(){
+    return smoother_;
+  }
  
+  /**
+   * sets the plan whose blocks are read ahead in a forward sweep - MS1 reads are served from these blocks when possible
+   * @param plan the extraction plan; null removes the plan
+   */
+  public void setExtractionPlan(ChromExtractionPlan plan){
+    this.extractionPlan_ = plan;
+  }
+  
+  /**
+   * @return the summary of the MS1 signal written at the chrom translation; null if the chrom file is not binary, or if there is no valid summary
+   */
+  public ChromSummaryIndex getMs1Summary(){
+    if (!binaryFormat_) return null;
+    return ChromSummaryIndex.readIfValid(binaryIndexFiles_.get(1), binaryChromFiles_.get(1));
+  }
+  
+  /**
+   * returns the highest MS1 intensity of an m/z range according to a summary - the value is an upper bound of the intensities
+   * of every chromatogram read within this range
+   * @param summary the summary of the MS1 signal of this chrom file
+   * @param from the lower m/z value
+   * @param to the upper m/z value
+   * @return the highest intensity within the m/z range
+   */
+  public float getHighestMs1Intensity(ChromSummaryIndex summary, float from, float to){
+    return summary.getHighestIntensity(getBinNumber(from), getBinNumber(to)+1, -1f, -1f);
+  }
+  
+  /**
+   * @param msLevel the MS-level
+   * @return the last bin of the binary chrom file of this MS-level
+   * @throws CgException thrown if the index file cannot be read
+   */
+  protected int getEndBin(int msLevel) throws CgException{
+    return getBinaryIndex(msLevel).getEndBin();
+  }
+  
+  /**
+   * @param bin the number of the bin
+   * @param msLevel the MS-level
+   * @return the position of the records of this bin in the binary chrom file
+   * @throws CgException thrown if the index file cannot be read
+   */
+  protected long getBinOffset(int bin, int msLevel) throws CgException{
+    return getBinaryIndex(msLevel).getOffset(bin);
+  }
+  
   public Hashtable<Integer,Integer> getMsmsNrOfScans(){
     return msmsNrOfScans_;
   }
   
+  /** caches the MSn spectra of a precursor range; the decoded spectra of the previous range are discarded*/
+  public Hashtable<Integer,Boolean> prepareMSnSpectraCache(float startMz, float stopMz, float startTime, float stopTime, int minNrOfPeaks) throws CgException{
+    decodedMSnSpectra_ = new Hashtable<Integer,DecodedMSnSpectra>();
+    return super.prepareMSnSpectraCache(startMz, stopMz, startTime, stopTime, minNrOfPeaks);
+  }
+  
+  /**
+   * returns the spectra of the MSn spectra cache in decoded form - prepareMSnSpectraCache has to be called before
+   * @param msLevel the MS-level
+   * @return the decoded spectra; null if there are no cached spectra of this MS-level
+   */
+  public DecodedMSnSpectra getDecodedMSnSpectra(int msLevel){
+    DecodedMSnSpectra decoded = decodedMSnSpectra_.get(msLevel);
+    if (decoded==null){
+      Hashtable<Integer,String> spectra = getMSnSpectraCache().get(msLevel);
+      if (spectra==null) return null;
+      decoded = new DecodedMSnSpectra(spectra, getMSnSpectraNoise().get(msLevel), getRetentionTimes(msLevel,true));
+      decodedMSnSpectra_.put(msLevel, decoded);
+    }
+    return decoded;
+  }
+  
+  /**
+   * reads the chromatogram of an m/z range from the cached MSn spectra; every spectrum is decoded only once per cache
+   * @param from the lower m/z border
+   * @param to the upper m/z border
+   * @param startTime the lowest retention time; ignored if not positive
+   * @param stopTime the highest retention time; ignored if not positive
+   * @param msLevel the MS-level
+   * @return the chromatogram; the intensities outside the retention time window are 0
+   */
+  private CgChromatogram readCachedMSnChromatogram(float from, float to, float startTime, float stopTime, int msLevel){
+    Hashtable<Integer,Float> rtTimes = getRetentionTimes(msLevel,true);
+    int amountOfScans = rtTimes.size();
+    CgChromatogram chrom = new CgChromatogram(amountOfScans);
+    for (int i=0; i!=amountOfScans; i++){
+      chrom.Value[i][0] = rtTimes.get(i);
+      chrom.Value[i][1] = 0f;
+    }
+    float highestInt = 0f;
+    DecodedMSnSpectra decoded = getDecodedMSnSpectra(msLevel);
+    if (decoded!=null) highestInt = decoded.addIntensities(from, to, startTime, stopTime, chrom.Value);
+    chrom.setHighestIntensity(highestInt);
+    return chrom;
+  }
+  
 }
@@ -23,6 +23,7 @@
 
 package at.tugraz.genome.lda.quantification;
 
+import at.tugraz.genome.lda.LipidomicsConstants;
 import at.tugraz.genome.maspectras.quantification.CgChromatogram;
 import at.tugraz.genome.maspectras.utils.Calculator;
 
@@ -114,6 +115,72 @@ public class LipidomicsChromatogram extends CgChromatogram
           GetValleysOriginal();
   }
   
+  /**
+   * mean smoothing with the same windows as CgChromatogram.smoothMean (the lower border inclusive, the upper one exclusive);
+   * the borders of the windows are determined once in a single pass for all repeats, and the means are summed up in float
+   * precision in the order of Calculator.mean, thus, the results are identical to the ones of CgChromatogram.smoothMean.
+   * Since the float sum of a window depends on this summation order, every window is summed up completely, i.e. the costs
+   * grow with the smoothing range like the ones of CgChromatogram.smoothMean; a running sum would change the last digits.
+   * CgChromatogram.smoothMean is used if its smoothing engine is selected, or if the times are not in ascending order.
+   * @param range the range for the mean calculation in both directions
+   * @param repeats the amount of smoothing repeats
+   * @param copyRawDataFirst true if the raw intensities shall be copied to the smoothed ones before smoothing
+   */
+  public void smoothMean(float range, int repeats, boolean copyRawDataFirst)
+  {
+    if (!LipidomicsConstants.useJavaSmoothEngine()){
+      super.smoothMean(range, repeats, copyRawDataFirst);
+      return;
+    }
+    if (copyRawDataFirst) copyRawData();
+    for (int i=0; i<ScanCount; i++){
+      if (i>0 && !(Value[i-1][0]<=Value[i][0])){
+        super.smoothMean(range, repeats, false);
+        return;
+      }
+    }
+    int startScan = 0;
+    int stopScan = ScanCount;
+    if (startSmoothScan_>-1) startScan = startSmoothScan_;
+    if (stopSmoothScan_>-1) stopScan = stopSmoothScan_;
+    if (stopScan<=startScan) return;
+    // the borders of the windows are increasing with the scan number
+    int[] lower = new int[stopScan-startScan];
+    int[] upper = new int[stopScan-startScan];
+    int lo = 0;
+    int hi = 0;
+    for (int i=startScan; i<stopScan; i++){
+      while (lo<i && Value[i][0]-Value[lo+1][0]>=range) lo++;
+      if (hi<i) hi = i;
+      while (hi<ScanCount-1 && Value[hi][0]-Value[i][0]<range) hi++;
+      lower[i-startScan] = lo;
+      upper[i-startScan] = hi;
+    }
+    for (int j=0; j<repeats; j++){
+      for (int i=startScan; i<stopScan; i++){
+        float sum = 0f;
+        int count = 0;
+        for (int k=lower[i-startScan]; k<upper[i-startScan]; k++){
+          if (Float.isNaN(Value[k][2])) continue;
+          sum += Value[k][2];
+          count++;
+        }
+        Value[i][3] = count>0 ? sum/(float)count : Float.NaN;
+      }
+      for (int i=startScan; i<stopScan; i++) Value[i][2] = Value[i][3];
+    }
+    float rawMax = 0f;
+    float fitMax = 0f;
+    for (int i=startScan; i<stopScan; i++){
+      if (Value[i][1]>rawMax) rawMax = Value[i][1];
+    }
+    for (int i=startScan; i<stopScan; i++){
+      if (Value[i][2]>fitMax) fitMax = Value[i][2];
+    }
+    float scale = rawMax/fitMax;
+    for (int i=startScan; i<stopScan; i++) Value[i][2] = Value[i][2]*scale;
+  }
+  
   public void Smooth(float range, int repeats, boolean copyRawDataFirst, SavGolJNI sav_gol)
   {
     if (copyRawDataFirst) copyRawData();
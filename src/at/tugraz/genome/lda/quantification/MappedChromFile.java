@@ -0,0 +1,161 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Hashtable;
+
+/**
+ * Read-only memory mapping of a file of the binary chrom format.
+ * A file is mapped only once per JVM - all readers of the same file (e.g. the analyzers of the quantification threads)
+ * share the mapping. The mapping is held as long as at least one reader references it; afterwards, it is released by
+ * the garbage collector. When the file changes on disk (length or modification date), it is mapped anew.
+ * A single mapping is limited to 2GB; larger files are mapped in segments that overlap each other, so that a requested
+ * part of the file is usually covered by one segment. Parts crossing the overlap are copied from the adjacent segments.
+ * @author agent
+ *
+ */
+public class MappedChromFile
+{
+  /** the distance between the start positions of two segments*/
+  private final static long SEGMENT_SIZE = 1l<<30;
+  /** the number of bytes a segment reaches into the following one*/
+  private final static long SEGMENT_OVERLAP = 1l<<28;
+  
+  /** the currently mapped files; key: absolute path*/
+  private static Hashtable<String,WeakReference<MappedChromFile>> mappedFiles_ = new Hashtable<String,WeakReference<MappedChromFile>>();
+
+  /** the length of the file at the time of the mapping*/
+  private long length_;
+  /** the modification date of the file at the time of the mapping*/
+  private long lastModified_;
+  /** the distance between the start positions of two segments of this mapping*/
+  private long segmentSize_;
+  /** the mapped segments of the file; segment i starts at the position i*segmentSize_*/
+  private MappedByteBuffer[] segments_;
+
+  /**
+   * maps a file into memory
+   * @param file the file to be mapped
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  private MappedChromFile(File file) throws IOException{
+    this(file,SEGMENT_SIZE,SEGMENT_OVERLAP);
+  }
+  
+  /**
+   * maps a file into memory in segments
+   * @param file the file to be mapped
+   * @param segmentSize the distance between the start positions of two segments
+   * @param segmentOverlap the number of bytes a segment reaches into the following one
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  MappedChromFile(File file, long segmentSize, long segmentOverlap) throws IOException{
+    length_ = file.length();
+    lastModified_ = file.lastModified();
+    segmentSize_ = segmentSize;
+    int nrOfSegments = (int)(length_/segmentSize_);
+    if (nrOfSegments==0 || length_%segmentSize_!=0) nrOfSegments++;
+    segments_ = new MappedByteBuffer[nrOfSegments];
+    RandomAccessFile raf = new RandomAccessFile(file,"r");
+    try{
+      FileChannel channel = raf.getChannel();
+      for (int i=0; i!=segments_.length; i++){
+        long start = i*segmentSize_;
+        segments_[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize_+segmentOverlap, length_-start));
+      }
+    } finally{
+      // the mapping stays valid after closing the channel
+      raf.close();
+    }
+  }
+
+  /**
+   * returns the shared mapping of a file; if the file is not mapped yet, it is mapped
+   * @param path the path to the file
+   * @return the shared mapping of the file
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  public static synchronized MappedChromFile getInstance(String path) throws IOException{
+    File file = new File(path);
+    if (!file.exists()) throw new IOException("The file "+path+" does not exist!");
+    String key = file.getAbsolutePath();
+    MappedChromFile mapped = null;
+    if (mappedFiles_.containsKey(key)) mapped = mappedFiles_.get(key).get();
+    if (mapped==null || mapped.length_!=file.length() || mapped.lastModified_!=file.lastModified()){
+      mapped = new MappedChromFile(file);
+      mappedFiles_.put(key, new WeakReference<MappedChromFile>(mapped));
+    }
+    return mapped;
+  }
+
+  /**
+   *
+   * @return an independent view of the whole file (own position and limit, shared content if the file fits in one segment)
+   */
+  public ByteBuffer getBuffer(){
+    return getBuffer(0,length_);
+  }
+
+  /**
+   * returns a view on a part of the mapping without copying any data; if the part is not covered by one segment,
+   * the bytes are copied from the segments
+   * @param start the start position in the file
+   * @param stop the stop position in the file (exclusive)
+   * @return a view on a part of the mapping; the position 0 of the view corresponds to the start position
+   */
+  public ByteBuffer getBuffer(long start, long stop){
+    if (stop-start>Integer.MAX_VALUE)
+      throw new IllegalArgumentException("A part of a mapped file must not be larger than 2GB!");
+    int segment = (int)(start/segmentSize_);
+    if (segment==segments_.length) segment--;
+    long segmentStart = segment*segmentSize_;
+    if (stop-segmentStart<=segments_[segment].capacity()){
+      ByteBuffer buffer = segments_[segment].duplicate();
+      buffer.limit((int)(stop-segmentStart));
+      buffer.position((int)(start-segmentStart));
+      return buffer.slice();
+    }
+    ByteBuffer copy = ByteBuffer.allocate((int)(stop-start));
+    long position = start;
+    while (position<stop){
+      segment = (int)(position/segmentSize_);
+      segmentStart = segment*segmentSize_;
+      ByteBuffer buffer = segments_[segment].duplicate();
+      buffer.position((int)(position-segmentStart));
+      buffer.limit((int)Math.min(stop-segmentStart, segmentSize_));
+      position += buffer.remaining();
+      copy.put(buffer);
+    }
+    copy.flip();
+    return copy;
+  }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import java.util.Collection;
+
+import at.tugraz.genome.maspectras.quantification.CgChromatogram;
+
+/**
+ * CPU implementation of the Savitzky-Golay smoothing of CgChromatogram.Smooth, i.e. the intensity weighted fit of a polynomial
+ * of 4th order within the smoothing range of each scan. The results are identical to CgChromatogram.Smooth, since every
+ * floating point operation is done in the same sequence; the speed-up comes from the following:
+ * the fit windows depend on the retention times only, and are determined once for all repeats;
+ * the weights (intensity^0.25) are calculated once per scan and repeat, instead of once per scan and fit;
+ * the fit matrix contains just 9 different sums, which are accumulated in one pass together with the right-hand side;
+ * the data is held in primitive arrays that are reused for all chromatograms smoothed by one instance.
+ * An instance is not thread-safe - each analyzer has its own one.
+ *
+ * @author agent
+ *
+ */
+public class SavGolSmoother
+{
+  /** the order of the fitted polynomial*/
+  private final static int ORDER = 4;
+  /** the minimum amount of scans within a fit window*/
+  private final static int MIN_WINDOW = 10;
+  /** the weights are calculated for this amount of scans beyond the smoothing range*/
+  private final static int WEIGHT_MARGIN = 10;
+
+  /** the retention times (or m/z values of profiles)*/
+  private float[] times_;
+  /** the intensities of the current repeat*/
+  private float[] values_;
+  /** the smoothed intensities of the current repeat*/
+  private float[] smoothed_;
+  /** the weights of the fit matrix (intensity^0.25) - 0 outside the precalculated range*/
+  private float[] weights_;
+  /** the weights of the right-hand side of the fit in double precision*/
+  private double[] rhsWeights_;
+  /** the first scan of the fit window of each scan*/
+  private int[] lower_;
+  /** the last scan of the fit window of each scan*/
+  private int[] upper_;
+
+  /** the sums of the weighted powers of the time differences*/
+  private float[] powerSums_;
+  /** the fit matrix*/
+  private float[][] mtrx_;
+  /** the right-hand side of the fit, and the fitted coefficients afterwards*/
+  private float[] vec_;
+  /** the row permutation of the LU decomposition*/
+  private int[] indx_;
+  /** the implicit scaling of the rows of the LU decomposition*/
+  private float[] vv_;
+
+  public SavGolSmoother()
+  {
+    times_ = new float[0];
+    values_ = new float[0];
+    smoothed_ = new float[0];
+    weights_ = new float[0];
+    rhsWeights_ = new double[0];
+    lower_ = new int[0];
+    upper_ = new int[0];
+    powerSums_ = new float[2*ORDER+1];
+    mtrx_ = new float[ORDER+1][ORDER+1];
+    vec_ = new float[ORDER+1];
+    indx_ = new int[ORDER+1];
+    vv_ = new float[ORDER+1];
+  }
+
+  /**
+   * smooths several chromatograms; results are identical to CgChromatogram.Smooth
+   * @param chroms the chromatograms to smooth
+   * @param range the smoothing range
+   * @param repeats the amount of smoothing repeats
+   * @param copyRawDataFirst true if the raw intensities shall be copied to the smoothed ones before smoothing
+   */
+  public void smooth(Collection<? extends CgChromatogram> chroms, float range, int repeats, boolean copyRawDataFirst)
+  {
+    for (CgChromatogram chrom : chroms) smooth(chrom, range, repeats, copyRawDataFirst);
+  }
+
+  /**
+   * smooths a chromatogram; results are identical to CgChromatogram.Smooth
+   * @param chrom the chromatogram to smooth
+   * @param range the smoothing range
+   * @param repeats the amount of smoothing repeats
+   * @param copyRawDataFirst true if the raw intensities shall be copied to the smoothed ones before smoothing
+   */
+  public void smooth(CgChromatogram chrom, float range, int repeats, boolean copyRawDataFirst)
+  {
+    int scanCount = chrom.ScanCount;
+    float[][] value = chrom.Value;
+    if (scanCount<1) return;
+    float threshold = value[0][1];
+    for (int i=0; i<scanCount; i++){
+      if (value[i][1]<threshold) threshold = value[i][1];
+    }
+    if (copyRawDataFirst){
+      for (int i=0; i<scanCount; i++) value[i][2] = value[i][1];
+    }
+    if (repeats<1) return;
+    ensureCapacity(scanCount);
+    for (int i=0; i<scanCount; i++){
+      times_[i] = value[i][0];
+      values_[i] = value[i][2];
+    }
+    int startScan = 0;
+    int stopScan = scanCount;
+    if (chrom.startSmoothScan_>-1) startScan = chrom.startSmoothScan_;
+    if (chrom.stopSmoothScan_>-1) stopScan = chrom.stopSmoothScan_;
+    int preCalcStart = calcBoundIndex(startScan, range, false, scanCount)-WEIGHT_MARGIN;
+    if (preCalcStart<0) preCalcStart = 0;
+    int preCalcStop = calcBoundIndex(stopScan, range, true, scanCount)+WEIGHT_MARGIN;
+    if (preCalcStop>scanCount) preCalcStop = scanCount;
+
+    //the fit windows depend on the times only
+    int lowestScan = preCalcStart;
+    int highestScan = preCalcStop-1;
+    for (int i=startScan; i<stopScan; i++){
+      int lower = calcBoundIndex(i, range, false, scanCount);
+      int upper = calcBoundIndex(i, range, true, scanCount);
+      while (upper-lower<MIN_WINDOW){
+        if (lower>0) lower--;
+        if (upper<scanCount-1) upper++;
+        if (lower<=0 && upper>=scanCount-1) break;
+      }
+      lower_[i] = lower;
+      upper_[i] = upper;
+      if (lower<lowestScan) lowestScan = lower;
+      if (upper>highestScan) highestScan = upper;
+    }
+
+    for (int j=0; j<repeats; j++){
+      for (int i=lowestScan; i<=highestScan; i++){
+        rhsWeights_[i] = Math.pow(values_[i], 0.25);
+        weights_[i] = (preCalcStart<=i && i<preCalcStop) ? (float)rhsWeights_[i] : 0f;
+      }
+      for (int i=startScan; i<stopScan; i++) smoothed_[i] = smoothDataPoint(i, lower_[i], upper_[i], threshold);
+      for (int i=startScan; i<stopScan; i++) values_[i] = smoothed_[i];
+    }
+    for (int i=startScan; i<stopScan; i++){
+      value[i][2] = values_[i];
+      value[i][3] = values_[i];
+    }
+    chrom.precalcPows_ = new float[value.length];
+    for (int i=preCalcStart; i<preCalcStop; i++) chrom.precalcPows_[i] = weights_[i];
+  }
+
+  /**
+   * the same as CgChromatogram.calcBoundIndex
+   */
+  private int calcBoundIndex(int dtIndx, float range, boolean posDirection, int scanCount)
+  {
+    int boundIndex = dtIndx;
+    if (posDirection){
+      while (boundIndex<scanCount-1 && times_[boundIndex]-times_[dtIndx]<range) boundIndex++;
+    } else {
+      while (boundIndex>0 && times_[dtIndx]-times_[boundIndex]<range) boundIndex--;
+    }
+    return boundIndex;
+  }
+
+  /**
+   * fits the polynomial to the scans of the window
+   * @param dtIndx the scan to smooth
+   * @param lower the first scan of the window
+   * @param upper the last scan of the window
+   * @param threshold the lowest raw intensity of the chromatogram
+   * @return the smoothed intensity
+   */
+  private float smoothDataPoint(int dtIndx, int lower, int upper, float threshold)
+  {
+    int order = ORDER<upper-lower-1 ? ORDER : upper-lower-1;
+    if (order<1) return values_[dtIndx];
+    int size = order+1;
+    int powers = 2*order;
+    float x = times_[dtIndx];
+    for (int m=0; m<=powers; m++) powerSums_[m] = 0f;
+    for (int i=0; i<size; i++) vec_[i] = 0f;
+    for (int k=lower; k<=upper; k++){
+      float diff = times_[k]-x;
+      float intensity = values_[k];
+      boolean weighted = intensity>1.0f;
+      float weight = weights_[k];
+      powerSums_[0] += weighted ? 1.0f*weight : 1.0f;
+      float adding = diff;
+      for (int m=1; m<=powers; m++){
+        if (m>1) adding *= diff;
+        powerSums_[m] += weighted ? adding*weight : adding;
+      }
+      if (weighted){
+        double rhsWeight = rhsWeights_[k];
+        vec_[0] += (float)(1.0d*(double)intensity*rhsWeight);
+        vec_[1] += (float)((double)diff*(double)intensity*rhsWeight);
+        for (int i=2; i<size; i++) vec_[i] += (float)(Math.pow(diff, i)*(double)intensity*rhsWeight);
+      } else {
+        vec_[0] += 1.0f*intensity;
+        vec_[1] += diff*intensity;
+        for (int i=2; i<size; i++) vec_[i] += (float)Math.pow(diff, i)*intensity;
+      }
+    }
+    for (int i=0; i<size; i++){
+      for (int j=0; j<size; j++) mtrx_[i][j] = powerSums_[i+j];
+    }
+    luDecomposition(size);
+    luBacksubstitution(size);
+    float val = vec_[0];
+    if (val>threshold) return val;
+    return threshold;
+  }
+
+  /**
+   * LU decomposition of the fit matrix - the same operations as in CgChromatogram
+   * @param order the size of the matrix
+   */
+  private void luDecomposition(int order)
+  {
+    float big;
+    float dum;
+    float sum;
+    float temp;
+    int imax = 0;
+    for (int i=0; i<order; i++){
+      big = 0.0f;
+      for (int j=0; j<order; j++){
+        if ((temp=Math.abs(mtrx_[i][j]))>big) big = temp;
+      }
+      vv_[i] = 1.0f/big;
+    }
+    for (int j=0; j<order; j++){
+      for (int i=0; i<j; i++){
+        sum = mtrx_[i][j];
+        for (int k=0; k<i; k++) sum -= mtrx_[i][k]*mtrx_[k][j];
+        mtrx_[i][j] = sum;
+      }
+      big = 0.0f;
+      for (int i=j; i<order; i++){
+        sum = mtrx_[i][j];
+        for (int k=0; k<j; k++) sum -= mtrx_[i][k]*mtrx_[k][j];
+        mtrx_[i][j] = sum;
+        if ((dum=vv_[i]*Math.abs(sum))>=big){
+          big = dum;
+          imax = i;
+        }
+      }
+      if (j!=imax){
+        for (int k=0; k<order; k++){
+          dum = mtrx_[imax][k];
+          mtrx_[imax][k] = mtrx_[j][k];
+          mtrx_[j][k] = dum;
+        }
+        vv_[imax] = vv_[j];
+      }
+      indx_[j] = imax;
+      if (mtrx_[j][j]==0.0f) mtrx_[j][j] = 1.0E-20f;
+      dum = 1.0f/mtrx_[j][j];
+      for (int i=j+1; i<order; i++) mtrx_[i][j] *= dum;
+    }
+  }
+
+  /**
+   * back substitution of the LU decomposed fit matrix - the same operations as in CgChromatogram
+   * @param order the size of the matrix
+   */
+  private void luBacksubstitution(int order)
+  {
+    float sum;
+    int ii = -1;
+    for (int i=0; i<order; i++){
+      int ip = indx_[i];
+      sum = vec_[ip];
+      vec_[ip] = vec_[i];
+      if (ii!=-1){
+        for (int j=ii; j<i; j++) sum -= mtrx_[i][j]*vec_[j];
+      } else if (sum!=0.0f){
+        ii = i;
+      }
+      vec_[i] = sum;
+    }
+    for (int i=order-1; i>=0; i--){
+      sum = vec_[i];
+      for (int j=i+1; j<order; j++) sum -= mtrx_[i][j]*vec_[j];
+      vec_[i] = sum/mtrx_[i][i];
+    }
+  }
+
+  private void ensureCapacity(int scanCount)
+  {
+    if (times_.length>=scanCount) return;
+    times_ = new float[scanCount];
+    values_ = new float[scanCount];
+    smoothed_ = new float[scanCount];
+    weights_ = new float[scanCount];
+    rhsWeights_ = new double[scanCount];
+    lower_ = new int[scanCount];
+    upper_ = new int[scanCount];
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Vector;
+import java.util.logging.Logger;
+
+import at.tugraz.genome.lda.LipidomicsConstants;
+import at.tugraz.genome.lda.Settings;
+import at.tugraz.genome.maspectras.parser.exceptions.SpectrummillParserException;
+import at.tugraz.genome.maspectras.parser.spectrummill.ElementConfigParser;
+
+/**
+ * Process-wide cache of theoretical isotopic distributions calculated by the ElementConfigParser of the Settings.
+ * The mass lists of a batch contain the same chemical formulas again and again; each distribution is calculated once.
+ * The key is the chemical formula, the amount of isotopes, and the NH4 correction; the cached value is the positive and
+ * the (optional) negative distribution as returned by the parser. Distributions of other parsers are not cached.
+ * If isoDistributionCacheFile is set in the LipidomicsConstants, the cache is stored in this file, and read at the first
+ * request in the next run; the file is discarded if the elementconfig.xml has been changed in the meantime.
+ *
+ * @author agent
+ *
+ */
+public class IsotopeDistributionCache
+{
+  private static Logger log_ = Logger.getLogger(IsotopeDistributionCache.class.getName());
+
+  /** the separator between the values of a line in the cache file*/
+  private final static String SEPARATOR = "\t";
+  /** the separator between the probabilities of a distribution in the cache file*/
+  private final static String VALUE_SEPARATOR = ",";
+
+  /** the cached distributions; key: formula, amount of isotopes, and NH4 correction*/
+  private final static Hashtable<String,Vector<Vector<Double>>> distributions_ = new Hashtable<String,Vector<Vector<Double>>>();
+  /** the parser the cached distributions originate from*/
+  private static ElementConfigParser parser_ = null;
+  /** the identifier of the elementconfig.xml the cached distributions originate from*/
+  private static String elementConfig_ = null;
+  /** the cache file that has been read*/
+  private static String loadedFile_ = null;
+  /** true if there are distributions that are not stored in the cache file*/
+  private static boolean modified_ = false;
+  /** how often a requested distribution was found in the cache*/
+  private static long hits_ = 0l;
+  /** how often a requested distribution had to be calculated*/
+  private static long misses_ = 0l;
+
+  /**
+   * returns the isotopic distributions of a chemical formula; the same as ElementConfigParser.calculateChemicalFormulaIntensityDistribution,
+   * but a distribution is calculated only once
+   * @param elementParser the parser containing the relative abundances of the elements
+   * @param chemicalFormula the chemical formula
+   * @param lastIsotope the amount of isotopes to calculate
+   * @param nh4Correction true if the distribution shall be corrected by NH4
+   * @return [0] the positive distribution; [1] the negative distribution (optional); the vectors are copies of the cached ones
+   * @throws SpectrummillParserException if there is something wrong with the elementconfig.xml or the chemical formula
+   */
+  public static Vector<Vector<Double>> calculateChemicalFormulaIntensityDistribution(ElementConfigParser elementParser, String chemicalFormula,
+      int lastIsotope, boolean nh4Correction) throws SpectrummillParserException{
+    if (!isCacheable(elementParser))
+      return elementParser.calculateChemicalFormulaIntensityDistribution(chemicalFormula, lastIsotope, nh4Correction);
+    String key = chemicalFormula+SEPARATOR+lastIsotope+SEPARATOR+nh4Correction;
+    Vector<Vector<Double>> distris = distributions_.get(key);
+    if (distris!=null){
+      synchronized(IsotopeDistributionCache.class){
+        hits_++;
+      }
+      return copyDistributions(distris);
+    }
+    distris = elementParser.calculateChemicalFormulaIntensityDistribution(chemicalFormula, lastIsotope, nh4Correction);
+    synchronized(IsotopeDistributionCache.class){
+      misses_++;
+      if (parser_==elementParser){
+        distributions_.put(key, copyDistributions(distris));
+        modified_ = true;
+      }
+    }
+    return distris;
+  }
+
+  /**
+   * writes the distributions to the cache file, if it is set in the LipidomicsConstants and if there are new distributions;
+   * a failure is logged only, since the cache file is not essential
+   */
+  public static synchronized void store(){
+    String cacheFile = LipidomicsConstants.getIsoDistributionCacheFile();
+    if (cacheFile==null || !modified_ || elementConfig_==null) return;
+    File file = new File(cacheFile);
+    File tmpFile = new File(cacheFile+".tmp");
+    BufferedWriter out = null;
+    try{
+      if (file.getAbsoluteFile().getParentFile()!=null) file.getAbsoluteFile().getParentFile().mkdirs();
+      out = new BufferedWriter(new FileWriter(tmpFile));
+      out.write(elementConfig_);
+      out.newLine();
+      for (Map.Entry<String,Vector<Vector<Double>>> entry : distributions_.entrySet()){
+        StringBuilder line = new StringBuilder(entry.getKey());
+        for (Vector<Double> distri : entry.getValue()){
+          line.append(SEPARATOR);
+          for (int i=0; i!=distri.size(); i++){
+            if (i>0) line.append(VALUE_SEPARATOR);
+            line.append(String.valueOf(distri.get(i)));
+          }
+        }
+        out.write(line.toString());
+        out.newLine();
+      }
+      out.close();
+      out = null;
+      if (file.exists() && !file.delete()) throw new IOException("The file "+cacheFile+" cannot be replaced");
+      if (!tmpFile.renameTo(file)) throw new IOException("The file "+tmpFile.getAbsolutePath()+" cannot be renamed");
+      loadedFile_ = cacheFile;
+      modified_ = false;
+    } catch (IOException iox){
+      log_.warning("The isotopic distributions cannot be stored: "+iox.getMessage());
+    } finally{
+      if (out!=null){
+        try{out.close();}catch(IOException iox){}
+        tmpFile.delete();
+      }
+    }
+  }
+
+  /**
+   * removes all distributions; the cache file is not changed
+   */
+  public static synchronized void clear(){
+    distributions_.clear();
+    parser_ = null;
+    elementConfig_ = null;
+    loadedFile_ = null;
+    modified_ = false;
+  }
+
+  /**
+   * @return how often a requested distribution was found in the cache
+   */
+  public static synchronized long getHits(){
+    return hits_;
+  }
+
+  /**
+   * @return how often a requested distribution had to be calculated
+   */
+  public static synchronized long getMisses(){
+    return misses_;
+  }
+
+  /**
+   * @return the amount of cached distributions
+   */
+  public static int getNrOfDistributions(){
+    return distributions_.size();
+  }
+
+  /**
+   * checks whether the distributions of this parser can be cached; the cache is reset if the parser of the Settings has changed,
+   * and the cache file is read at the first request
+   * @param elementParser the parser of the request
+   * @return true if the distributions of this parser can be cached
+   */
+  private static synchronized boolean isCacheable(ElementConfigParser elementParser){
+    if (elementParser==null || elementParser!=Settings.getElementParser() || Settings.getElementConfigPath()==null) return false;
+    if (parser_!=elementParser){
+      String elementConfig = createFileIdentifier(Settings.getElementConfigPath());
+      if (elementConfig_==null || !elementConfig_.equals(elementConfig)){
+        distributions_.clear();
+        loadedFile_ = null;
+        modified_ = false;
+      }
+      parser_ = elementParser;
+      elementConfig_ = elementConfig;
+    }
+    String cacheFile = LipidomicsConstants.getIsoDistributionCacheFile();
+    if (cacheFile!=null && !cacheFile.equals(loadedFile_)){
+      loadedFile_ = cacheFile;
+      load(cacheFile);
+    }
+    return true;
+  }
+
+  /**
+   * reads the distributions of a cache file; the file is ignored if it originates from another elementconfig.xml, or if it is corrupt
+   * @param cacheFile the path to the cache file
+   */
+  private static void load(String cacheFile){
+    File file = new File(cacheFile);
+    if (!file.exists()) return;
+    Hashtable<String,Vector<Vector<Double>>> distris = new Hashtable<String,Vector<Vector<Double>>>();
+    BufferedReader in = null;
+    try{
+      in = new BufferedReader(new FileReader(file));
+      String line = in.readLine();
+      if (line==null || !line.equals(elementConfig_)) return;
+      while ((line=in.readLine())!=null){
+        String[] parts = line.split(SEPARATOR,-1);
+        if (parts.length<4) throw new IOException("corrupt line: "+line);
+        String key = parts[0]+SEPARATOR+parts[1]+SEPARATOR+parts[2];
+        Vector<Vector<Double>> both = new Vector<Vector<Double>>();
+        for (int i=3; i<parts.length; i++){
+          Vector<Double> distri = new Vector<Double>();
+          if (parts[i].length()>0){
+            for (String value : parts[i].split(VALUE_SEPARATOR,-1)) distri.add(Double.parseDouble(value));
+          }
+          both.add(distri);
+        }
+        distris.put(key, both);
+      }
+      for (String key : distris.keySet()){
+        if (!distributions_.containsKey(key)) distributions_.put(key, distris.get(key));
+      }
+    } catch (IOException | NumberFormatException ex){
+      log_.warning("The isotopic distribution cache "+cacheFile+" cannot be read: "+ex.getMessage());
+    } finally{
+      if (in!=null){
+        try{in.close();}catch(IOException iox){}
+      }
+    }
+  }
+
+  private static String createFileIdentifier(String filePath){
+    File file = new File(filePath);
+    String path = file.getAbsolutePath();
+    try {
+      path = file.getCanonicalPath();
+    }
+    catch (IOException e) {}
+    return path+";"+file.lastModified()+";"+file.length();
+  }
+
+  private static Vector<Vector<Double>> copyDistributions(Vector<Vector<Double>> distris){
+    Vector<Vector<Double>> copy = new Vector<Vector<Double>>();
+    for (Vector<Double> distri : distris) copy.add(new Vector<Double>(distri));
+    return copy;
+  }
+}
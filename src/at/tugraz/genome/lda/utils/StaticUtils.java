@@ -976,7 +976,7 @@ public class StaticUtils
   }
   
   public static Vector<Double> calculateChemicalFormulaIntensityDistribution(ElementConfigParser elementParser, String chemicalFormula, int isosDesired, boolean nh4Corr) throws SpectrummillParserException{
-    Vector<Vector<Double>> bothDistris = elementParser.calculateChemicalFormulaIntensityDistribution(chemicalFormula,isosDesired,nh4Corr);
+    Vector<Vector<Double>> bothDistris = IsotopeDistributionCache.calculateChemicalFormulaIntensityDistribution(elementParser,chemicalFormula,isosDesired,nh4Corr);
     Vector<Double> distri = bothDistris.get(0);
     if (bothDistris.size()>1){
       Vector<Double> negDistri = bothDistris.get(1);
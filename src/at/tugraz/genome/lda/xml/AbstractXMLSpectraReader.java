@@ -28,14 +28,22 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamReader;
 
+import at.tugraz.genome.lda.LipidomicsConstants;
 import at.tugraz.genome.lda.swing.Range;
+import at.tugraz.genome.maspectras.quantification.CgBase64;
 import at.tugraz.genome.maspectras.quantification.CgDefines;
 import at.tugraz.genome.maspectras.quantification.CgException;
 import at.tugraz.genome.maspectras.quantification.CgScan;
@@ -82,6 +90,21 @@ public abstract class AbstractXMLSpectraReader implements XMLSpectraReader
   /** was polarity switching used*/
   private boolean polaritySwitching_ = false;
   
+  /** the amount of decodings that may be pending per decode worker, before the parsing waits for the results*/
+  private final static int MAX_PENDING_DECODINGS_PER_THREAD = 16;
+  
+  /** the workers decoding the binary peak data; null if the decoding is done by the parsing thread*/
+  private ExecutorService decodeService_ = null;
+  
+  /** the maximum amount of pending decodings*/
+  private int maxPendingDecodings_ = 0;
+  
+  /** the decodings and deliveries to the AddScan interfaces, in the order of the file*/
+  private LinkedList<PendingDecoding> pendingDecodings_ = new LinkedList<PendingDecoding>();
+  
+  /** the last MS1 scan that was handed to each AddScan interface - required, since the delivery to the interfaces is delayed by the decoding*/
+  private Hashtable<AddScan,CgScan> lastBaseScans_ = new Hashtable<AddScan,CgScan>();
+  
   /**
    * Constructs an AbstractXmlSpectraReader object with given information.
    * 
@@ -153,6 +176,15 @@ public abstract class AbstractXMLSpectraReader implements XMLSpectraReader
     int eventType;
     boolean foundTagRun = false;
     
+    int decodeThreads = LipidomicsConstants.getXmlDecodeThreads();
+    if (!readOnlyRequiredInfoForMultiThreading && decodeThreads>0){
+      //the Base64 decoder initializes its static lookup tables lazily - this must not happen concurrently in the workers
+      new CgBase64();
+      decodeService_ = Executors.newFixedThreadPool(decodeThreads);
+      maxPendingDecodings_ = decodeThreads*MAX_PENDING_DECODINGS_PER_THREAD;
+    }
+    pendingDecodings_.clear();
+    lastBaseScans_.clear();
     try {
       
       // =========================================================
@@ -191,6 +223,8 @@ public abstract class AbstractXMLSpectraReader implements XMLSpectraReader
             if (reader_.getLocalName().equalsIgnoreCase(getTagRun())) {
               foundTagRun = true;
               readMsRun(readOnlyRequiredInfoForMultiThreading);
+              deliverPendingScans();
+              lastBaseScans_.clear();
             }
             break;
         }
@@ -201,6 +235,14 @@ public abstract class AbstractXMLSpectraReader implements XMLSpectraReader
       ex.printStackTrace();
       throw new CgException(ex.getMessage());
     }finally{
+      if (decodeService_!=null){
+        for (PendingDecoding pending : pendingDecodings_){
+          if (pending.decoding_!=null) pending.decoding_.cancel(true);
+        }
+        pendingDecodings_.clear();
+        decodeService_.shutdownNow();
+        decodeService_ = null;
+      }
       if (!foundTagRun) {
         throw new CgException(String.format(
             "The file %s does not contain the required tag <%s> and could therefore not be read by %s.", 
@@ -246,6 +288,122 @@ public abstract class AbstractXMLSpectraReader implements XMLSpectraReader
     if (currentHighMz>getHighestMz()) setHighestMz(currentHighMz);
   }
   
+  /**
+   * This method schedules the decoding of binary peak data. If there are decode workers, the decoding is executed
+   * by one of them, and the parsing continues meanwhile; otherwise, the decoding is executed immediately.
+   * The raw data has to be read from the XML stream beforehand, since the stream is accessible by the parsing thread only.
+   * 
+   * @param decoder The decoding of the peak data and the filling of the CgScan objects
+   * 
+   * @throws CgException All internal exceptions are mapped to the CgException type.
+   */
+  protected void decodePeaks(PeakDecoder decoder) throws CgException
+  {
+    if (decodeService_==null){
+      decoder.decode();
+      return;
+    }
+    Future<Void> decoding = decodeService_.submit(() -> {
+      decoder.decode();
+      return null;
+    });
+    enqueue(new PendingDecoding(decoding,null));
+  }
+  
+  /**
+   * This method hands the MS1 scans to the AddScan interfaces - one scan for each interface.
+   * If there are decode workers, the delivery is delayed until all previously scheduled decodings are finished,
+   * thus the AddScan interfaces receive complete scans in the order of the file.
+   * 
+   * @param scans The scans for the AddScan interfaces, in the order of the interfaces
+   * 
+   * @throws CgException All internal exceptions are mapped to the CgException type.
+   */
+  protected void deliverScans(Vector<CgScan> scans) throws CgException
+  {
+    ScanDelivery delivery = () -> {
+      for (int j=0; j!=adders_.length; j++){
+        CgScan sc = scans.get(j);
+        setCurrentGlobalMaxima(sc.LowMz, sc.HighMz);
+        
+        // =================================================
+        // Now we can inform our caller that we have a valid
+        // new scan!
+        // =================================================
+        adders_[j].AddScan(sc);
+      }
+    };
+    if (decodeService_==null){
+      delivery.deliver();
+      return;
+    }
+    for (int j=0; j!=adders_.length; j++) lastBaseScans_.put(adders_[j], scans.get(j));
+    enqueue(new PendingDecoding(null,delivery));
+  }
+  
+  /**
+   * Returns the last MS1 scan of an AddScan interface, to which the MSn scans have to be attached.
+   * If there are decode workers, this is the last scan that was scheduled for delivery to the interface.
+   * 
+   * @param adder The AddScan interface
+   * 
+   * @return the last MS1 scan of an AddScan interface
+   */
+  protected CgScan getLastBaseScan(AddScan adder)
+  {
+    if (decodeService_==null) return adder.getLastBaseScan();
+    return lastBaseScans_.get(adder);
+  }
+  
+  /**
+   * This method waits for all scheduled decodings and hands the remaining scans to the AddScan interfaces.
+   * 
+   * @throws CgException All internal exceptions are mapped to the CgException type.
+   */
+  protected void deliverPendingScans() throws CgException
+  {
+    while (!pendingDecodings_.isEmpty()) deliverNextPending();
+  }
+  
+  /**
+   * This method adds a decoding/delivery to the queue; if there are too many pending decodings, the parsing
+   * waits until the oldest ones are finished (back-pressure). Finished decodings at the start of the queue are delivered.
+   * 
+   * @param pending The decoding/delivery to add
+   * 
+   * @throws CgException All internal exceptions are mapped to the CgException type.
+   */
+  private void enqueue(PendingDecoding pending) throws CgException
+  {
+    pendingDecodings_.add(pending);
+    while (pendingDecodings_.size()>maxPendingDecodings_) deliverNextPending();
+    while (!pendingDecodings_.isEmpty() && (pendingDecodings_.getFirst().decoding_==null || pendingDecodings_.getFirst().decoding_.isDone()))
+      deliverNextPending();
+  }
+  
+  /**
+   * This method waits for the oldest decoding in the queue and executes its delivery.
+   * 
+   * @throws CgException All internal exceptions are mapped to the CgException type.
+   */
+  private void deliverNextPending() throws CgException
+  {
+    PendingDecoding pending = pendingDecodings_.removeFirst();
+    if (pending.decoding_!=null){
+      try {
+        pending.decoding_.get();
+      }
+      catch (ExecutionException ex) {
+        if (ex.getCause() instanceof CgException) throw (CgException)ex.getCause();
+        throw new CgException(ex.getCause().getMessage());
+      }
+      catch (InterruptedException ex) {
+        throw new CgException(ex.getMessage());
+      }
+    }
+    if (pending.delivery_!=null) pending.delivery_.deliver();
+  }
+  
   /**
    * This method uncompresses a zlib compressed byte array
    * @param decoded The compressed byte array
@@ -486,4 +644,50 @@ public abstract class AbstractXMLSpectraReader implements XMLSpectraReader
   {
   }
   
+  /**
+   * The decoding of the binary peak data of a scan, i.e. Base64 decoding, decompression, and
+   * distribution of the peaks to the CgScan objects of the AddScan interfaces.
+   */
+  protected interface PeakDecoder
+  {
+    /**
+     * decodes the peak data and fills the CgScan objects
+     * @throws CgException All internal exceptions are mapped to the CgException type.
+     */
+    public void decode() throws CgException;
+  }
+  
+  /**
+   * The delivery of decoded scans to the AddScan interfaces
+   */
+  private interface ScanDelivery
+  {
+    /**
+     * hands the scans to the AddScan interfaces
+     * @throws CgException All internal exceptions are mapped to the CgException type.
+     */
+    public void deliver() throws CgException;
+  }
+  
+  /**
+   * An entry of the decoding queue: a decoding executed by a worker and/or a delivery executed by the parsing thread
+   */
+  private class PendingDecoding
+  {
+    /** the decoding executed by a decode worker; may be null*/
+    private Future<Void> decoding_;
+    /** the delivery to be executed after the decoding; may be null*/
+    private ScanDelivery delivery_;
+    
+    /**
+     * @param decoding the decoding executed by a decode worker; may be null
+     * @param delivery the delivery to be executed after the decoding; may be null
+     */
+    private PendingDecoding(Future<Void> decoding, ScanDelivery delivery)
+    {
+      this.decoding_ = decoding;
+      this.delivery_ = delivery;
+    }
+  }
+  
 }
@@ -23,6 +23,8 @@
 
 package at.tugraz.genome.lda.xml;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.DoubleBuffer;
@@ -67,6 +69,9 @@ public class MzMLReader extends AbstractXMLSpectraReader
   /** the MS-level of the previous scan*/
   private int lastMsLevel_;
   
+  /** the spectrum offset index of the file that was last accessed randomly*/
+  private MzMLSpectrumIndex spectrumIndex_;
+  
   //the required XML tag, of which the content will be read. 
   private static final String TAG_RUN = "run";
   
@@ -98,6 +103,12 @@ public class MzMLReader extends AbstractXMLSpectraReader
   private static final String ENTRY_32_BIT_FLOAT = "32-bit float";
   private static final String ENTRY_NO_COMPRESSION = "no compression";
   private static final String ENTRY_ZLIB_COMPRESSION = "zlib compression";
+  private static final String ENTRY_NUMPRESS_LINEAR = "MS-Numpress linear prediction compression";
+  private static final String ENTRY_NUMPRESS_PIC = "MS-Numpress positive integer compression";
+  private static final String ENTRY_NUMPRESS_SLOF = "MS-Numpress short logged float compression";
+  private static final String ENTRY_NUMPRESS_LINEAR_ZLIB = "MS-Numpress linear prediction compression followed by zlib compression";
+  private static final String ENTRY_NUMPRESS_PIC_ZLIB = "MS-Numpress positive integer compression followed by zlib compression";
+  private static final String ENTRY_NUMPRESS_SLOF_ZLIB = "MS-Numpress short logged float compression followed by zlib compression";
   private static final String ENTRY_MZ_ARRAY = "m/z array";
   private static final String ENTRY_INTENSITY_ARRAY = "intensity array";
   private static final String ENTRY_BASE_PEAK_MZ = "base peak m/z";
@@ -360,6 +371,24 @@ public class MzMLReader extends AbstractXMLSpectraReader
                 case ENTRY_ZLIB_COMPRESSION:
                   compression = ENTRY_ZLIB_COMPRESSION;
                   break;
+                case ENTRY_NUMPRESS_LINEAR:
+                  compression = ENTRY_NUMPRESS_LINEAR;
+                  break;
+                case ENTRY_NUMPRESS_PIC:
+                  compression = ENTRY_NUMPRESS_PIC;
+                  break;
+                case ENTRY_NUMPRESS_SLOF:
+                  compression = ENTRY_NUMPRESS_SLOF;
+                  break;
+                case ENTRY_NUMPRESS_LINEAR_ZLIB:
+                  compression = ENTRY_NUMPRESS_LINEAR_ZLIB;
+                  break;
+                case ENTRY_NUMPRESS_PIC_ZLIB:
+                  compression = ENTRY_NUMPRESS_PIC_ZLIB;
+                  break;
+                case ENTRY_NUMPRESS_SLOF_ZLIB:
+                  compression = ENTRY_NUMPRESS_SLOF_ZLIB;
+                  break;
                 case ENTRY_MZ_ARRAY: 
                   break;
                 case ENTRY_INTENSITY_ARRAY: // m/z maxima are stored in the m/z array
@@ -373,11 +402,7 @@ public class MzMLReader extends AbstractXMLSpectraReader
               
               String binaryString = reader_.getText().trim();
  
-              if (precision==ENTRY_64_BIT_FLOAT){
-                floatArray = decode64(binaryString, compression);                  
-              }else{
-                floatArray = decode32(binaryString, compression); 
-              }
+              floatArray = decode(binaryString, precision, compression);
               maxima[0] = floatArray[0];
               maxima[1] = floatArray[floatArray.length-1];
             }
@@ -664,17 +689,7 @@ public class MzMLReader extends AbstractXMLSpectraReader
                     readPeaks(scans,ranges,peaksCount,false,(lowMzFound&&highMzFound));
                   }
                   
-                  for (int j=0; j!=adders_.length; j++){
-                    AddScan adder = adders_[j];
-                    sc = scans.get(j);
-                    setCurrentGlobalMaxima(sc.LowMz, sc.HighMz);
-                   
-                    // =================================================
-                    // Now we can inform our caller that we have a valid
-                    // new scan!
-                    // =================================================
-                    adder.AddScan(sc);
-                  }
+                  deliverScans(scans);
                 } else
                   throw new CgException(
                       "No adder for Header and Scans defined.");
@@ -727,8 +742,8 @@ public class MzMLReader extends AbstractXMLSpectraReader
                 baseScans = new Vector<CgScan>();
                 scanRanges = new Vector<Range>();
                 for (AddScan adder : this.adders_){
-                  if (adder.getLastBaseScan()!=null){
-                    baseScans.add(adder.getLastBaseScan());
+                  if (getLastBaseScan(adder)!=null){
+                    baseScans.add(getLastBaseScan(adder));
                     scanRanges.add(new Range(adder.getLowerThreshold(),adder.getUpperThreshold()));
                   }
                 }
@@ -778,21 +793,18 @@ public class MzMLReader extends AbstractXMLSpectraReader
    */
   protected void readPeaks(Vector<CgScan> scans, Vector<Range> ranges, int peaksCount, boolean msms, boolean foundMzBorders) throws CgException
   {  
-    float mzValueArray[] = {};
-    float intensityValueArray[] = {};
+    String mzBinary = null;
+    String mzPrecision = null;
+    String mzCompression = null;
+    String intensityBinary = null;
+    String intensityPrecision = null;
+    String intensityCompression = null;
     boolean mzValueArrayFound = false;
     boolean intensityValueArrayFound = false;
     int eventType;
     String precision = null;
     String compression = null;
     String valueType = "";
-    Hashtable<Integer,Vector<Float>> mzValueHash = new Hashtable<Integer,Vector<Float>>();  
-    Hashtable<Integer,Vector<Float>> intensityValueHash = new Hashtable<Integer,Vector<Float>>();
-    
-    for (int k=0;k!=scans.size();k++){
-      mzValueHash.put(k, new Vector<Float>());
-      intensityValueHash.put(k, new Vector<Float>());
-    }
     
     try {
       eventType = reader_.next();
@@ -816,6 +828,24 @@ public class MzMLReader extends AbstractXMLSpectraReader
                 case ENTRY_ZLIB_COMPRESSION:
                   compression = ENTRY_ZLIB_COMPRESSION;
                   break;
+                case ENTRY_NUMPRESS_LINEAR:
+                  compression = ENTRY_NUMPRESS_LINEAR;
+                  break;
+                case ENTRY_NUMPRESS_PIC:
+                  compression = ENTRY_NUMPRESS_PIC;
+                  break;
+                case ENTRY_NUMPRESS_SLOF:
+                  compression = ENTRY_NUMPRESS_SLOF;
+                  break;
+                case ENTRY_NUMPRESS_LINEAR_ZLIB:
+                  compression = ENTRY_NUMPRESS_LINEAR_ZLIB;
+                  break;
+                case ENTRY_NUMPRESS_PIC_ZLIB:
+                  compression = ENTRY_NUMPRESS_PIC_ZLIB;
+                  break;
+                case ENTRY_NUMPRESS_SLOF_ZLIB:
+                  compression = ENTRY_NUMPRESS_SLOF_ZLIB;
+                  break;
                 case ENTRY_MZ_ARRAY: 
                   valueType = ENTRY_MZ_ARRAY;
                   break;
@@ -829,12 +859,9 @@ public class MzMLReader extends AbstractXMLSpectraReader
               if (eventType != XMLStreamReader.CHARACTERS) 
                 return;
               
-              String binaryString = reader_.getText().trim();
-              if (precision==ENTRY_64_BIT_FLOAT){
-                mzValueArray = decode64(binaryString, compression);
-              } else {
-                mzValueArray = decode32(binaryString, compression); 
-              }
+              mzBinary = reader_.getText().trim();
+              mzPrecision = precision;
+              mzCompression = compression;
               mzValueArrayFound = true;
               
             } else if (reader_.getLocalName().equalsIgnoreCase(TAG_BINARY) && valueType == ENTRY_INTENSITY_ARRAY) {
@@ -842,12 +869,9 @@ public class MzMLReader extends AbstractXMLSpectraReader
               if (eventType != XMLStreamReader.CHARACTERS) 
                 return;
               
-              String binaryString = reader_.getText().trim();
-              if (precision==ENTRY_64_BIT_FLOAT){
-                intensityValueArray = decode64(binaryString, compression);
-              } else {
-                intensityValueArray = decode32(binaryString, compression); 
-              }
+              intensityBinary = reader_.getText().trim();
+              intensityPrecision = precision;
+              intensityCompression = compression;
               intensityValueArrayFound = true;
               
             }
@@ -857,33 +881,17 @@ public class MzMLReader extends AbstractXMLSpectraReader
             
             if (reader_.getLocalName().equalsIgnoreCase(TAG_BINARY_DATA_ARRAY_LIST)) {
               if (mzValueArrayFound&&intensityValueArrayFound) {
-                
-                for (int i = 0; i < peaksCount; i++) {
-                  float mzValue = mzValueArray[i];
-                  float intensityValue = intensityValueArray[i];
-                  if (!msms && scans.size()>1 && (mzValue<getMaxRange().getStart() || getMaxRange().getStop()<=mzValue))continue;
-                  for (int k=0;k!=scans.size();k++){
-                    if (msms || (ranges.get(k).getStart()<=mzValue && mzValue<ranges.get(k).getStop())){  
-                      mzValueHash.get(k).add(mzValue);
-                      intensityValueHash.get(k).add(intensityValue);
-                    }
-                  }
-                }
-
-                for (int k=0;k!=scans.size();k++){
-                  CgScan scan = scans.get(k);
-                  scan.PeaksCount = mzValueHash.get(k).size();
-                  scan.Scan = new float[scan.PeaksCount][2];
-                  for (int i=0; i!=scan.PeaksCount;i++){
-                    scan.Scan[i][0] = mzValueHash.get(k).get(i);
-                    scan.Scan[i][1] = intensityValueHash.get(k).get(i);
-                  }
-                  if (scan.PeaksCount>0 && !foundMzBorders){
-                    scan.LowMz = mzValueArray[0];
-                    scan.HighMz = mzValueArray[mzValueArray.length-1];
-                  }
-                }
-                
+                final String mzValues = mzBinary;
+                final String mzBits = mzPrecision;
+                final String mzCompressionType = mzCompression;
+                final String intensityValues = intensityBinary;
+                final String intensityBits = intensityPrecision;
+                final String intensityCompressionType = intensityCompression;
+                decodePeaks(() -> {
+                  float[] mzValueArray = decode(mzValues, mzBits, mzCompressionType);
+                  float[] intensityValueArray = decode(intensityValues, intensityBits, intensityCompressionType);
+                  distributePeaks(mzValueArray,intensityValueArray,scans,ranges,peaksCount,msms,foundMzBorders);
+                });
               }
               return;
             } 
@@ -892,10 +900,371 @@ public class MzMLReader extends AbstractXMLSpectraReader
         eventType = reader_.next();
       } while (eventType != XMLStreamReader.END_DOCUMENT);
     }
+    catch (CgException ex) {
+      throw ex;
+    }
     catch (Exception ex) {
       throw new CgException(ex.getMessage());
     } 
-  } 
+  }
+  
+  /**
+   * This method decodes a binary String according to its precision.
+   * 
+   * @param binary The binary String to decode
+   * @param precision The precision of the values
+   * @param compression The compression of the binary String
+   * 
+   * @return a float array containing the decoded information
+   * @throws CgException thrown if MS-Numpress compressed data is corrupt
+   */
+  private float[] decode(String binary, String precision, String compression) throws CgException
+  {
+    if (isNumpressCompression(compression))
+      return decodeNumpress(binary, compression);
+    else if (precision==ENTRY_64_BIT_FLOAT)
+      return decode64(binary, compression);
+    else
+      return decode32(binary, compression);
+  }
+  
+  /**
+   * 
+   * @param compression The compression of a binary String
+   * @return true if the binary String is compressed by MS-Numpress
+   */
+  private boolean isNumpressCompression(String compression)
+  {
+    return compression==ENTRY_NUMPRESS_LINEAR || compression==ENTRY_NUMPRESS_PIC || compression==ENTRY_NUMPRESS_SLOF ||
+        compression==ENTRY_NUMPRESS_LINEAR_ZLIB || compression==ENTRY_NUMPRESS_PIC_ZLIB || compression==ENTRY_NUMPRESS_SLOF_ZLIB;
+  }
+  
+  /**
+   * This method decodes an MS-Numpress compressed binary String; the precision cvParam is irrelevant for MS-Numpress.
+   * 
+   * @param binary The binary String to decode
+   * @param compression The MS-Numpress compression of the binary String
+   * 
+   * @return a float array containing the decoded information
+   * @throws CgException thrown if the MS-Numpress data is corrupt
+   */
+  private float[] decodeNumpress(String binary, String compression) throws CgException
+  {
+    CgBase64 cgb = new CgBase64();    
+    byte[] decoded = cgb.decode(binary);
+    
+    if (compression==ENTRY_NUMPRESS_LINEAR_ZLIB || compression==ENTRY_NUMPRESS_PIC_ZLIB || compression==ENTRY_NUMPRESS_SLOF_ZLIB){
+      decoded = decompressZLIB(decoded);
+    }
+    
+    double[] doubleArray;
+    if (compression==ENTRY_NUMPRESS_LINEAR || compression==ENTRY_NUMPRESS_LINEAR_ZLIB)
+      doubleArray = NumpressDecoder.decodeLinear(decoded);
+    else if (compression==ENTRY_NUMPRESS_PIC || compression==ENTRY_NUMPRESS_PIC_ZLIB)
+      doubleArray = NumpressDecoder.decodePic(decoded);
+    else
+      doubleArray = NumpressDecoder.decodeSlof(decoded);
+    
+    float[] floatArray = new float[doubleArray.length];
+    for (int i = 0 ; i < doubleArray.length; i++)
+        floatArray[i] = (float) doubleArray[i];
+    
+    return floatArray;
+  }
+  
+  /**
+   * This method stores the decoded peaks of a scan in the CgScan objects, according to their m/z range restrictions.
+   * 
+   * @param mzValueArray The decoded m/z values
+   * @param intensityValueArray The decoded intensities
+   * @param scans
+   *          Pass the CgScan object that represents the level 1 scan to which
+   *          this scan belongs to.
+   * @param ranges
+   *          The m/z range restrictions that apply for every CgScan object
+   * @param peaksCount The number of peaks in the binary data array
+   * @param msms True if it is a MSn scan
+   * @param foundMzBorders True if the lowest and highest m/z values of the file have been found
+   */
+  private void distributePeaks(float[] mzValueArray, float[] intensityValueArray, Vector<CgScan> scans, Vector<Range> ranges,
+      int peaksCount, boolean msms, boolean foundMzBorders)
+  {
+    Hashtable<Integer,Vector<Float>> mzValueHash = new Hashtable<Integer,Vector<Float>>();  
+    Hashtable<Integer,Vector<Float>> intensityValueHash = new Hashtable<Integer,Vector<Float>>();
+    for (int k=0;k!=scans.size();k++){
+      mzValueHash.put(k, new Vector<Float>());
+      intensityValueHash.put(k, new Vector<Float>());
+    }
+    for (int i = 0; i < peaksCount; i++) {
+      float mzValue = mzValueArray[i];
+      float intensityValue = intensityValueArray[i];
+      if (!msms && scans.size()>1 && (mzValue<getMaxRange().getStart() || getMaxRange().getStop()<=mzValue))continue;
+      for (int k=0;k!=scans.size();k++){
+        if (msms || (ranges.get(k).getStart()<=mzValue && mzValue<ranges.get(k).getStop())){  
+          mzValueHash.get(k).add(mzValue);
+          intensityValueHash.get(k).add(intensityValue);
+        }
+      }
+    }
+
+    for (int k=0;k!=scans.size();k++){
+      CgScan scan = scans.get(k);
+      scan.PeaksCount = mzValueHash.get(k).size();
+      scan.Scan = new float[scan.PeaksCount][2];
+      for (int i=0; i!=scan.PeaksCount;i++){
+        scan.Scan[i][0] = mzValueHash.get(k).get(i);
+        scan.Scan[i][1] = intensityValueHash.get(k).get(i);
+      }
+      if (scan.PeaksCount>0 && !foundMzBorders){
+        scan.LowMz = mzValueArray[0];
+        scan.HighMz = mzValueArray[mzValueArray.length-1];
+      }
+    }
+  }
+  
+  /**
+   * Returns the spectrum offset index of an indexedmzML file; the index is read once and kept for subsequent requests.
+   * 
+   * @param fileName The path to the mzML file
+   * 
+   * @return the spectrum offset index; null if the file does not contain an index
+   * 
+   * @throws CgException All internal exceptions are mapped to the CgException type.
+   */
+  public MzMLSpectrumIndex getSpectrumIndex(String fileName) throws CgException
+  {
+    if (spectrumIndex_==null || !spectrumIndex_.getFileName().equals(fileName))
+      spectrumIndex_ = MzMLSpectrumIndex.read(fileName);
+    return spectrumIndex_;
+  }
+  
+  /**
+   * Reads a single spectrum of an indexedmzML file, without parsing the rest of the file.
+   * ATTENTION: random access must not be used while the reader is reading a file by ReadFile.
+   * 
+   * @param fileName The path to the mzML file
+   * @param id The native ID of the spectrum
+   * 
+   * @return the spectrum (an MsMsScan for MSn spectra); null if there is no spectrum with this ID
+   * 
+   * @throws CgException All internal exceptions are mapped to the CgException type; also thrown if the file is not indexed.
+   */
+  public CgScan readSpectrum(String fileName, String id) throws CgException
+  {
+    int position = getRequiredSpectrumIndex(fileName).getPosition(id);
+    if (position<0) return null;
+    return readSpectrum(fileName, position);
+  }
+  
+  /**
+   * Reads a single spectrum of an indexedmzML file, without parsing the rest of the file.
+   * ATTENTION: random access must not be used while the reader is reading a file by ReadFile.
+   * 
+   * @param fileName The path to the mzML file
+   * @param position The position of the spectrum in the file (the spectrum index attribute; the scan number minus one)
+   * 
+   * @return the spectrum (an MsMsScan for MSn spectra)
+   * 
+   * @throws CgException All internal exceptions are mapped to the CgException type; also thrown if the file is not indexed.
+   */
+  public CgScan readSpectrum(String fileName, int position) throws CgException
+  {
+    Vector<Integer> positions = new Vector<Integer>();
+    positions.add(position);
+    return readSpectra(getRequiredSpectrumIndex(fileName), positions, true).get(0);
+  }
+  
+  /**
+   * Reads the spectra of an indexedmzML file that are within a retention time and precursor m/z range,
+   * without parsing the rest of the file. The first request reads the headers of all spectra (not their binary data).
+   * ATTENTION: random access must not be used while the reader is reading a file by ReadFile.
+   * 
+   * @param fileName The path to the mzML file
+   * @param msLevel The MS-level of the spectra; 0 for any level
+   * @param rtStart The lowest retention time in seconds (inclusive)
+   * @param rtStop The highest retention time in seconds (inclusive)
+   * @param precursorStart The lowest precursor m/z (inclusive); ignored for MS1 spectra
+   * @param precursorStop The highest precursor m/z (exclusive); ignored for MS1 spectra
+   * 
+   * @return the spectra in the order of the file (MsMsScan objects for MSn spectra)
+   * 
+   * @throws CgException All internal exceptions are mapped to the CgException type; also thrown if the file is not indexed.
+   */
+  public Vector<CgScan> readSpectra(String fileName, int msLevel, float rtStart, float rtStop, float precursorStart, float precursorStop) throws CgException
+  {
+    MzMLSpectrumIndex index = getRequiredSpectrumIndex(fileName);
+    if (!index.hasSpectrumInfo()){
+      Vector<Integer> all = new Vector<Integer>();
+      for (int i=0; i!=index.getNumberOfSpectra(); i++) all.add(i);
+      Vector<CgScan> headers = readSpectra(index, all, false);
+      int[] msLevels = new int[headers.size()];
+      float[] retentionTimes = new float[headers.size()];
+      float[] precursorMzs = new float[headers.size()];
+      for (int i=0; i!=headers.size(); i++){
+        CgScan header = headers.get(i);
+        msLevels[i] = header.MsLevel;
+        retentionTimes[i] = header.RetentionTime;
+        precursorMzs[i] = -1f;
+        if (header instanceof MsMsScan) precursorMzs[i] = ((MsMsScan)header).getMs1PrecursorMz();
+      }
+      index.setSpectrumInfo(msLevels, retentionTimes, precursorMzs);
+    }
+    return readSpectra(index, index.getPositions(msLevel, rtStart, rtStop, precursorStart, precursorStop), true);
+  }
+  
+  /**
+   * @param fileName The path to the mzML file
+   * @return the spectrum offset index
+   * @throws CgException thrown if the file does not contain an index
+   */
+  private MzMLSpectrumIndex getRequiredSpectrumIndex(String fileName) throws CgException
+  {
+    MzMLSpectrumIndex index = getSpectrumIndex(fileName);
+    if (index==null) throw new CgException(String.format("The file %s is not an indexed mzML file!", fileName));
+    return index;
+  }
+  
+  /**
+   * Reads spectra at the positions of the offset index.
+   * 
+   * @param index The spectrum offset index
+   * @param positions The positions of the spectra to read
+   * @param withPeaks True if the peaks shall be read; otherwise, only the spectrum header is read
+   * 
+   * @return the spectra in the order of the positions
+   * 
+   * @throws CgException All internal exceptions are mapped to the CgException type.
+   */
+  private Vector<CgScan> readSpectra(MzMLSpectrumIndex index, Vector<Integer> positions, boolean withPeaks) throws CgException
+  {
+    Vector<CgScan> spectra = new Vector<CgScan>();
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(index.getFileName(),"r");
+      for (Integer position : positions){
+        reader_ = MzMLSpectrumIndex.createReaderAt(raf, index.getOffset(position));
+        spectra.add(readSingleSpectrum(withPeaks));
+        reader_.close();
+      }
+    }
+    catch (CgException ex) {
+      throw ex;
+    }
+    catch (Exception ex) {
+      ex.printStackTrace();
+      throw new CgException(ex.getMessage());
+    }
+    finally {
+      reader_ = null;
+      try {
+        if (raf!=null) raf.close();
+      }
+      catch (IOException iox) {
+        iox.printStackTrace();
+      }
+    }
+    return spectra;
+  }
+  
+  /**
+   * This method reads one spectrum element, starting at the current position of the reader.
+   * In contrast to readScan, the spectrum is not handed to the AddScan interfaces and not attached to any base scan.
+   * 
+   * @param withPeaks True if the peaks shall be read; otherwise, the reading stops at the binary data
+   * 
+   * @return the spectrum (an MsMsScan for MSn spectra)
+   * 
+   * @throws Exception if there is something wrong with the XML
+   */
+  private CgScan readSingleSpectrum(boolean withPeaks) throws Exception
+  {
+    int spectrumIndex = -1;
+    int peaksCount = 0;
+    int msLevel = 0;
+    float lowMz = Float.MAX_VALUE;
+    float highMz = 0f;
+    boolean lowMzFound = false;
+    boolean highMzFound = false;
+    int polarity = CgDefines.POLARITY_NO;
+    float scanStartTime = 0f;
+    float basePeakMz = 0f;
+    float basePeakIntensity = 0f;
+    float totalIonCurrent = 0f;
+    float precursorIntensity = 0f;
+    Vector<String> precursorMzs = new Vector<String>();
+    boolean foundBinaryData = false;
+    String value;
+    
+    while (reader_.hasNext() && !foundBinaryData){
+      int eventType = reader_.next();
+      if (eventType==XMLStreamReader.START_ELEMENT){
+        if (reader_.getLocalName().equalsIgnoreCase(TAG_SPECTRUM)){
+          spectrumIndex = Integer.parseInt(getRequiredAttribute(reader_, ATTRIBUTE_INDEX));
+          peaksCount = Integer.parseInt(getRequiredAttribute(reader_, ATTRIBUTE_DEFAULT_ARRAY_LENGTH));
+        } else if (reader_.getLocalName().equalsIgnoreCase(TAG_CV_PARAM)){
+          value = reader_.getAttributeValue(null, ATTRIBUTE_VALUE);
+          switch (getRequiredAttribute(reader_, ATTRIBUTE_NAME)) {
+            case ENTRY_MS_LEVEL:
+              msLevel = Integer.parseInt(value);
+              break;
+            case ENTRY_LOWEST_OBSERVED_MZ:
+              lowMz = Float.parseFloat(value);
+              lowMzFound = true;
+              break;
+            case ENTRY_HIGHEST_OBSERVED_MZ:
+              highMz = Float.parseFloat(value);
+              highMzFound = true;
+              break;
+            case ENTRY_POSITIVE_SCAN:
+              polarity = CgDefines.POLARITY_POSITIVE;
+              break;
+            case ENTRY_NEGATIVE_SCAN:
+              polarity = CgDefines.POLARITY_NEGATIVE; 
+              break;
+            case ENTRY_SCAN_START_TIME:
+              scanStartTime = convertTimeFormat(value, reader_.getAttributeValue(null, ATTRIBUTE_UNIT_NAME));
+              break;
+            case ENTRY_BASE_PEAK_MZ:
+              basePeakMz = Float.parseFloat(value);
+              break;
+            case ENTRY_BASE_PEAK_INTENSITY:
+              basePeakIntensity = Float.parseFloat(value);
+              break;
+            case ENTRY_TOTAL_ION_CURRENT:
+              totalIonCurrent = Float.parseFloat(value);
+              break;
+            case ENTRY_SELECTED_ION_MZ:
+              precursorMzs.add(value);
+              break;
+            case ENTRY_PEAK_INTENSITY:
+              precursorIntensity = Float.parseFloat(value);
+              break;
+          }
+        } else if (reader_.getLocalName().equalsIgnoreCase(TAG_BINARY_DATA_ARRAY_LIST)){
+          foundBinaryData = true;
+        }
+      } else if (eventType==XMLStreamReader.END_ELEMENT && reader_.getLocalName().equalsIgnoreCase(TAG_SPECTRUM)){
+        break;
+      }
+    }
+    
+    CgScan scan;
+    if (msLevel>1)
+      scan = new MsMsScan(0, spectrumIndex+1, msLevel, scanStartTime, lowMz, highMz, basePeakMz, basePeakIntensity,
+          totalIonCurrent, precursorMzs.size()>0 ? getPrecursorMzString(precursorMzs) : null, precursorIntensity, polarity);
+    else
+      scan = new CgScan(0, spectrumIndex+1, msLevel, scanStartTime, lowMz, highMz, basePeakMz, basePeakIntensity,
+          totalIonCurrent, polarity);
+    if (withPeaks && foundBinaryData){
+      Vector<CgScan> scans = new Vector<CgScan>();
+      scans.add(scan);
+      Vector<Range> ranges = new Vector<Range>();
+      ranges.add(new Range(0f,Float.MAX_VALUE));
+      //the msms flag keeps all peaks, irrespective of any m/z range
+      readPeaks(scans, ranges, peaksCount, true, (lowMzFound&&highMzFound));
+    }
+    return scan;
+  }
   
   
 }
\ No newline at end of file
@@ -0,0 +1,277 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.xml;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import at.tugraz.genome.maspectras.quantification.CgException;
+
+/**
+ * The spectrum offset index of an indexedmzML file, i.e. the byte positions of the spectra as written in the
+ * &lt;indexList&gt; at the end of the file. The index allows reading individual spectra without parsing the whole file.
+ * The retention times, MS-levels and precursor m/z values of the spectra are not part of the index; they are
+ * collected on request by reading the spectrum headers (the binary data is skipped).
+ *
+ * @author agent
+ */
+public class MzMLSpectrumIndex
+{
+  //the XML tags of the index
+  private static final String TAG_INDEX = "index";
+  private static final String TAG_OFFSET = "offset";
+  private static final String TAG_INDEX_LIST = "indexList";
+
+  //the XML attributes of the index
+  private static final String ATTRIBUTE_NAME = "name";
+  private static final String ATTRIBUTE_ID_REF = "idRef";
+
+  //the name of the spectrum index
+  private static final String ENTRY_SPECTRUM = "spectrum";
+
+  /** the amount of bytes at the end of the file where the indexListOffset is searched*/
+  private static final int TAIL_LENGTH = 4096;
+  /** the pattern of the indexListOffset element*/
+  private static final Pattern INDEX_LIST_OFFSET = Pattern.compile("<indexListOffset>\\s*(\\d+)\\s*</indexListOffset>");
+
+  /** the factory for the StAX readers - creating a factory is expensive, compared to reading a single spectrum*/
+  private static XMLInputFactory factory_ = null;
+
+  /** the path to the mzML file*/
+  private String fileName_;
+  /** the native IDs of the spectra, in the order of the file*/
+  private Vector<String> ids_;
+  /** the byte offsets of the spectra, in the order of the file*/
+  private Vector<Long> offsets_;
+  /** lookup from the native ID to the position in the file*/
+  private Hashtable<String,Integer> idLookup_;
+
+  /** the MS-levels of the spectra; null as long as the spectrum headers have not been read*/
+  private int[] msLevels_;
+  /** the retention times of the spectra in seconds; null as long as the spectrum headers have not been read*/
+  private float[] retentionTimes_;
+  /** the (first) precursor m/z values of the spectra; -1 for spectra without precursor*/
+  private float[] precursorMzs_;
+
+  /**
+   * constructor for an index
+   * @param fileName the path to the mzML file
+   * @param ids the native IDs of the spectra
+   * @param offsets the byte offsets of the spectra
+   */
+  private MzMLSpectrumIndex(String fileName, Vector<String> ids, Vector<Long> offsets)
+  {
+    this.fileName_ = fileName;
+    this.ids_ = ids;
+    this.offsets_ = offsets;
+    this.idLookup_ = new Hashtable<String,Integer>();
+    for (int i=0; i!=ids.size(); i++) idLookup_.put(ids.get(i), i);
+  }
+
+  /**
+   * reads the spectrum offset index of an indexedmzML file
+   * @param fileName the path to the mzML file
+   * @return the spectrum offset index; null if the file is not an (uncompressed) indexedmzML file
+   * @throws CgException thrown if the index is present, but cannot be read
+   */
+  public static MzMLSpectrumIndex read(String fileName) throws CgException
+  {
+    File file = new File(fileName);
+    if (!file.exists()) return null;
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(file,"r");
+      long tailStart = Math.max(0l, raf.length()-TAIL_LENGTH);
+      byte[] tail = new byte[(int)(raf.length()-tailStart)];
+      raf.seek(tailStart);
+      raf.readFully(tail);
+      Matcher matcher = INDEX_LIST_OFFSET.matcher(new String(tail,"UTF-8"));
+      if (!matcher.find()) return null;
+      long indexListOffset = Long.parseLong(matcher.group(1));
+      if (indexListOffset>=raf.length()) throw new CgException("The indexListOffset of "+fileName+" points beyond the end of the file!");
+
+      Vector<String> ids = new Vector<String>();
+      Vector<Long> offsets = new Vector<Long>();
+      XMLStreamReader reader = createReaderAt(raf, indexListOffset);
+      boolean spectrumIndex = false;
+      String idRef = null;
+      while (reader.hasNext()){
+        int eventType = reader.next();
+        if (eventType==XMLStreamReader.START_ELEMENT){
+          if (reader.getLocalName().equalsIgnoreCase(TAG_INDEX)){
+            spectrumIndex = ENTRY_SPECTRUM.equalsIgnoreCase(reader.getAttributeValue(null, ATTRIBUTE_NAME));
+          } else if (spectrumIndex && reader.getLocalName().equalsIgnoreCase(TAG_OFFSET)){
+            idRef = reader.getAttributeValue(null, ATTRIBUTE_ID_REF);
+            ids.add(idRef);
+            offsets.add(Long.parseLong(reader.getElementText().trim()));
+          }
+        } else if (eventType==XMLStreamReader.END_ELEMENT){
+          if (reader.getLocalName().equalsIgnoreCase(TAG_INDEX_LIST)) break;
+          if (reader.getLocalName().equalsIgnoreCase(TAG_INDEX)) spectrumIndex = false;
+        }
+      }
+      reader.close();
+      if (ids.size()==0) return null;
+      return new MzMLSpectrumIndex(fileName, ids, offsets);
+    }
+    catch (IOException | XMLStreamException | NumberFormatException ex) {
+      ex.printStackTrace();
+      throw new CgException("The spectrum index of "+fileName+" cannot be read: "+ex.getMessage());
+    }
+    finally {
+      try {
+        if (raf!=null) raf.close();
+      }
+      catch (IOException iox) {
+        iox.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * creates a StAX reader that starts at a certain byte position of a file - the caller has to close the file
+   * @param raf the file
+   * @param offset the byte position where the reading shall start
+   * @return the StAX reader
+   * @throws IOException thrown if there is something wrong with the file access
+   * @throws XMLStreamException thrown if the StAX reader cannot be created
+   */
+  protected static synchronized XMLStreamReader createReaderAt(RandomAccessFile raf, long offset) throws IOException, XMLStreamException
+  {
+    if (factory_==null){
+      factory_ = XMLInputFactory.newInstance();
+      factory_.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+      factory_.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+    raf.seek(offset);
+    InputStream in = new BufferedInputStream(Channels.newInputStream(raf.getChannel()));
+    return factory_.createXMLStreamReader(in, "UTF-8");
+  }
+
+  /**
+   *
+   * @return the path to the mzML file
+   */
+  public String getFileName()
+  {
+    return this.fileName_;
+  }
+
+  /**
+   *
+   * @return the amount of spectra in the index
+   */
+  public int getNumberOfSpectra()
+  {
+    return this.ids_.size();
+  }
+
+  /**
+   *
+   * @param position the position of the spectrum in the file (the spectrum index attribute)
+   * @return the native ID of the spectrum
+   */
+  public String getId(int position)
+  {
+    return this.ids_.get(position);
+  }
+
+  /**
+   *
+   * @param id the native ID of a spectrum
+   * @return the position of the spectrum in the file; -1 if the ID is not in the index
+   */
+  public int getPosition(String id)
+  {
+    Integer position = this.idLookup_.get(id);
+    if (position==null) return -1;
+    return position;
+  }
+
+  /**
+   *
+   * @param position the position of the spectrum in the file (the spectrum index attribute)
+   * @return the byte offset of the spectrum
+   */
+  public long getOffset(int position)
+  {
+    return this.offsets_.get(position);
+  }
+
+  /**
+   *
+   * @return true if the MS-levels, retention times, and precursor m/z values of the spectra are available
+   */
+  public boolean hasSpectrumInfo()
+  {
+    return this.retentionTimes_!=null;
+  }
+
+  /**
+   * sets the MS-levels, retention times, and precursor m/z values of the spectra
+   * @param msLevels the MS-levels of the spectra
+   * @param retentionTimes the retention times of the spectra in seconds
+   * @param precursorMzs the (first) precursor m/z values of the spectra; -1 for spectra without precursor
+   */
+  protected void setSpectrumInfo(int[] msLevels, float[] retentionTimes, float[] precursorMzs)
+  {
+    this.msLevels_ = msLevels;
+    this.retentionTimes_ = retentionTimes;
+    this.precursorMzs_ = precursorMzs;
+  }
+
+  /**
+   * returns the positions of the spectra fulfilling certain criteria; requires the spectrum information
+   * @param msLevel the MS-level of the spectra; 0 for any level
+   * @param rtStart the lowest retention time in seconds (inclusive)
+   * @param rtStop the highest retention time in seconds (inclusive)
+   * @param precursorStart the lowest precursor m/z (inclusive); ignored for MS1 spectra
+   * @param precursorStop the highest precursor m/z (exclusive); ignored for MS1 spectra
+   * @return the positions of the spectra in the file
+   */
+  public Vector<Integer> getPositions(int msLevel, float rtStart, float rtStop, float precursorStart, float precursorStop)
+  {
+    Vector<Integer> positions = new Vector<Integer>();
+    if (!hasSpectrumInfo()) return positions;
+    for (int i=0; i!=msLevels_.length; i++){
+      if (msLevel>0 && msLevels_[i]!=msLevel) continue;
+      if (retentionTimes_[i]<rtStart || rtStop<retentionTimes_[i]) continue;
+      if (msLevels_[i]>1 && (precursorMzs_[i]<precursorStart || precursorStop<=precursorMzs_[i])) continue;
+      positions.add(i);
+    }
+    return positions;
+  }
+}
@@ -574,17 +574,7 @@ public class MzXMLReader extends AbstractXMLSpectraReader
                   }
 
                   readPeaks(scans,ranges,peaksCount,false,foundMzBorders);
-                  for (int j=0; j!=adders_.length; j++){
-                    AddScan adder = adders_[j];
-                    sc = scans.get(j);
-                    setCurrentGlobalMaxima(sc.LowMz, sc.HighMz);
-                    
-                    // =================================================
-                    // Now we can inform our caller that we have a valid
-                    // new scan!
-                    // =================================================
-                    adder.AddScan(sc);
-                  }
+                  deliverScans(scans);
                   if (msLevel > myHeader_.highestMSLevel) myHeader_.highestMSLevel=msLevel;
                 } else
                   throw new CgException(
@@ -639,17 +629,7 @@ public class MzXMLReader extends AbstractXMLSpectraReader
                       }
                     }
                     
-                    for (int j=0; j!=adders_.length; j++){
-                      AddScan adder = adders_[j];
-                      sc = scans.get(j);
-                      setCurrentGlobalMaxima(sc.LowMz, sc.HighMz);
-                      
-                      // =================================================
-                      // Now we can inform our caller that we have a valid
-                      // new scan!
-                      // =================================================
-                      adder.AddScan(sc);
-                    }
+                    deliverScans(scans);
                   } else
                     throw new CgException("No adder for Header and Scans defined.");
                 }
@@ -657,8 +637,8 @@ public class MzXMLReader extends AbstractXMLSpectraReader
                   baseScans = new Vector<CgScan>();
                   scanRanges = new Vector<Range>();
                   for (AddScan adder : this.adders_){
-                    if (adder.getLastBaseScan()!=null){
-                      baseScans.add(adder.getLastBaseScan());
+                    if (getLastBaseScan(adder)!=null){
+                      baseScans.add(getLastBaseScan(adder));
                       scanRanges.add(new Range(adder.getLowerThreshold(),adder.getUpperThreshold()));
                     }
                   }
@@ -724,8 +704,8 @@ public class MzXMLReader extends AbstractXMLSpectraReader
                 baseScans = new Vector<CgScan>();
                 scanRanges = new Vector<Range>();
                 for (AddScan adder : this.adders_){
-                  if (adder.getLastBaseScan()!=null){
-                    baseScans.add(adder.getLastBaseScan());
+                  if (getLastBaseScan(adder)!=null){
+                    baseScans.add(getLastBaseScan(adder));
                     scanRanges.add(new Range(adder.getLowerThreshold(),adder.getUpperThreshold()));
                   }
                 }
@@ -764,9 +744,8 @@ public class MzXMLReader extends AbstractXMLSpectraReader
    */
   protected void readPeaks(Vector<CgScan> scans, Vector<Range> ranges, int peaksCount, boolean msms, boolean foundMzBorders) throws CgException
   {
-    int i, j;
+    int i;
     String s;
-    CgBase64 cgb = new CgBase64();
 
     // =========================================================
     // Read the peaks - Attributes:
@@ -796,15 +775,48 @@ public class MzXMLReader extends AbstractXMLSpectraReader
         scan.PairOrder = pairOrder;
       }
     }
-    float lowestMzValue = Float.MAX_VALUE;
-    float highestMzValue = 0f;
     try {
       reader_.next();
       if (reader_.getEventType()==XMLStreamReader.END_ELEMENT) return;
       s = reader_.getText().trim(); // In s we have a Base64 coded value array!
       if (scans == null || scans.size()==0 || s == null || s.equalsIgnoreCase(TAG_END_PEAKS))
         return;
-
+    }
+    catch (Exception ex) {
+      ex.printStackTrace();
+      throw new CgException(ex.getMessage());
+    }
+    final String base64 = s;
+    final String compression = compressionType;
+    final int bits = precision;
+    decodePeaks(() -> decodePeaks(base64,compression,bits,scans,ranges,peaksCount,msms,foundMzBorders));
+  }
+  
+  /**
+   * This method decodes the Base64 coded peaks of a scan and stores them in the CgScan objects; it may be called by a decode worker.
+   * 
+   * @param s The Base64 coded value array
+   * @param compressionType The compression type of the value array
+   * @param precision The precision of the values (32 or 64 bit)
+   * @param scans
+   *          Pass the CgScan object that represents the level 1 scan to which
+   *          this scan belongs to.
+   * @param ranges
+   *          The m/z range restrictions that apply for every CgScan object
+   * @param peaksCount The number of peaks in the binary data array
+   * @param msms True if it is a MSn scan
+   * @param foundMzBorders True if the lowest and highest m/z values of the file have been found
+   * 
+   * @throws CgException All internal exceptions are mapped to the CgException type.
+   */
+  private void decodePeaks(String s, String compressionType, int precision, Vector<CgScan> scans, Vector<Range> ranges,
+      int peaksCount, boolean msms, boolean foundMzBorders) throws CgException
+  {
+    int i, j;
+    CgBase64 cgb = new CgBase64();
+    float lowestMzValue = Float.MAX_VALUE;
+    float highestMzValue = 0f;
+    try {
       // =================================================
       // Process the data, in case we have to store it. In
       // C#, we have to store the byte array into a memory
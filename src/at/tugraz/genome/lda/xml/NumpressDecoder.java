@@ -0,0 +1,209 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.xml;
+
+import java.util.Arrays;
+
+import at.tugraz.genome.maspectras.quantification.CgException;
+
+/**
+ * Decoder for binary data arrays compressed by MS-Numpress (Teleman et al., Mol Cell Proteomics 13(6), 2014).
+ * Three codecs are supported:
+ * linear prediction (m/z values), positive integer (intensities), and short logged float (intensities).
+ * The input of the methods is the binary data after Base64 decoding and, if applicable, zlib decompression.
+ * All codecs start with the fixed point (scaling factor) as 8 byte big endian double. The linear prediction and the
+ * positive integer codec store integers as variable length sequences of half-bytes: the first half-byte tells the
+ * amount of leading zero (0-8) or leading 0xf (9-15: amount+8) half-bytes, the remaining half-bytes follow, the least
+ * significant first.
+ * @author agent
+ *
+ */
+public class NumpressDecoder
+{
+  /** the length of the fixed point header*/
+  private final static int FIXED_POINT_LENGTH = 8;
+
+  /** the binary data*/
+  private byte[] data_;
+  /** the current byte position in the binary data*/
+  private int position_;
+  /** true if the lower half-byte of the current byte is the next one*/
+  private boolean half_;
+
+  /**
+   * constructor for reading half-byte encoded integers
+   * @param data the binary data
+   * @param position the byte position where the half-byte encoded integers start
+   */
+  private NumpressDecoder(byte[] data, int position)
+  {
+    this.data_ = data;
+    this.position_ = position;
+    this.half_ = false;
+  }
+
+  /**
+   * decodes values compressed by MS-Numpress linear prediction
+   * @param data the binary data
+   * @return the decoded values
+   * @throws CgException thrown if the data is corrupt
+   */
+  public static double[] decodeLinear(byte[] data) throws CgException
+  {
+    if (data.length==FIXED_POINT_LENGTH) return new double[0];
+    if (data.length<FIXED_POINT_LENGTH+4)
+      throw new CgException("Corrupt MS-Numpress linear prediction data: only "+data.length+" bytes!");
+    double fixedPoint = decodeFixedPoint(data);
+    // every value requires at least one half-byte
+    double[] result = new double[2+Math.max(0,(data.length-16)*2)];
+    long previous = 0;
+    long current = readUnsignedInt(data,FIXED_POINT_LENGTH);
+    result[0] = current/fixedPoint;
+    if (data.length==FIXED_POINT_LENGTH+4) return Arrays.copyOf(result,1);
+    if (data.length<FIXED_POINT_LENGTH+8)
+      throw new CgException("Corrupt MS-Numpress linear prediction data: "+data.length+" bytes!");
+    long next = readUnsignedInt(data,FIXED_POINT_LENGTH+4);
+    result[1] = next/fixedPoint;
+    int count = 2;
+    NumpressDecoder decoder = new NumpressDecoder(data,FIXED_POINT_LENGTH+8);
+    while (decoder.hasNextInt()){
+      previous = current;
+      current = next;
+      next = 2*current-previous+decoder.nextInt();
+      result[count] = next/fixedPoint;
+      count++;
+    }
+    return Arrays.copyOf(result,count);
+  }
+
+  /**
+   * decodes values compressed by MS-Numpress positive integer compression
+   * @param data the binary data
+   * @return the decoded values
+   * @throws CgException thrown if the data is corrupt
+   */
+  public static double[] decodePic(byte[] data) throws CgException
+  {
+    double[] result = new double[data.length*2];
+    int count = 0;
+    NumpressDecoder decoder = new NumpressDecoder(data,0);
+    while (decoder.hasNextInt()){
+      result[count] = decoder.nextInt()&0xffffffffl;
+      count++;
+    }
+    return Arrays.copyOf(result,count);
+  }
+
+  /**
+   * decodes values compressed by MS-Numpress short logged float compression
+   * @param data the binary data
+   * @return the decoded values
+   * @throws CgException thrown if the data is corrupt
+   */
+  public static double[] decodeSlof(byte[] data) throws CgException
+  {
+    if (data.length<FIXED_POINT_LENGTH || (data.length-FIXED_POINT_LENGTH)%2!=0)
+      throw new CgException("Corrupt MS-Numpress short logged float data: "+data.length+" bytes!");
+    double fixedPoint = decodeFixedPoint(data);
+    double[] result = new double[(data.length-FIXED_POINT_LENGTH)/2];
+    for (int i=0; i!=result.length; i++){
+      int pos = FIXED_POINT_LENGTH+2*i;
+      int value = (data[pos]&0xff)|((data[pos+1]&0xff)<<8);
+      result[i] = Math.exp(value/fixedPoint)-1d;
+    }
+    return result;
+  }
+
+  /**
+   * @param data the binary data
+   * @return the fixed point stored in the first 8 bytes (big endian)
+   */
+  private static double decodeFixedPoint(byte[] data)
+  {
+    long bits = 0l;
+    for (int i=0; i!=FIXED_POINT_LENGTH; i++) bits = (bits<<8)|(data[i]&0xffl);
+    return Double.longBitsToDouble(bits);
+  }
+
+  /**
+   * @param data the binary data
+   * @param position the byte position of the integer
+   * @return the unsigned 4 byte little endian integer at this position
+   */
+  private static long readUnsignedInt(byte[] data, int position)
+  {
+    long value = 0l;
+    for (int i=0; i!=4; i++) value |= (data[position+i]&0xffl)<<(i*8);
+    return value;
+  }
+
+  /**
+   * @return true if there is another half-byte encoded integer; an odd amount of half-bytes is padded by a 0 half-byte
+   */
+  private boolean hasNextInt()
+  {
+    if (position_>=data_.length) return false;
+    if (position_==data_.length-1 && half_ && (data_[position_]&0xf)==0) return false;
+    return true;
+  }
+
+  /**
+   * @return the next half-byte
+   */
+  private int nextHalfByte()
+  {
+    int halfByte;
+    if (half_){
+      halfByte = data_[position_]&0xf;
+      position_++;
+    } else
+      halfByte = (data_[position_]>>4)&0xf;
+    half_ = !half_;
+    return halfByte;
+  }
+
+  /**
+   * @return the next half-byte encoded integer
+   * @throws CgException thrown if the data ends within the integer
+   */
+  private int nextInt() throws CgException
+  {
+    int head = nextHalfByte();
+    int leading;
+    int value = 0;
+    if (head<=8){
+      leading = head;
+    } else {
+      leading = head-8;
+      for (int i=0; i!=leading; i++) value |= 0xf0000000>>>(4*i);
+    }
+    if (leading==8) return value;
+    int remainingHalfBytes = (data_.length-position_)*2-(half_ ? 1 : 0);
+    if (remainingHalfBytes<8-leading)
+      throw new CgException("Corrupt MS-Numpress data: the data ends within an integer!");
+    for (int i=leading; i!=8; i++) value |= nextHalfByte()<<((i-leading)*4);
+    return value;
+  }
+
+}
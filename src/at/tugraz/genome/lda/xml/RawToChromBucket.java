@@ -0,0 +1,309 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2017 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.xml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Vector;
+
+import at.tugraz.genome.maspectras.quantification.CgException;
+import at.tugraz.genome.maspectras.quantification.CgScan;
+import at.tugraz.genome.maspectras.quantification.CgScanHeader;
+import at.tugraz.genome.maspectras.quantification.MsMsScan;
+
+/**
+ * Temporary storage of the scans of one m/z slice of a chrom translation.
+ * When a chrom translation requires several iterations, the slices of the later iterations are read in the same
+ * pass as the first one: this class receives the scans of its slice like a RawToChromThread, but spills them to a
+ * binary bucket file instead of keeping them in memory. When the iteration of the slice is due, the bucket is
+ * replayed into the RawToChromThread of the slice - the raw file has not to be parsed (and decoded) once more.
+ * An MS1 scan is written when the next MS1 scan arrives, since the reader attaches the MSn scans afterwards.
+ * @author agent
+ *
+ */
+public class RawToChromBucket implements AddScan
+{
+  /** record type for an AddHeader call*/
+  private final static byte RECORD_HEADER = 1;
+  /** record type for an addParentFileName call*/
+  private final static byte RECORD_PARENT_FILE = 2;
+  /** record type for a setStartStopHeader call*/
+  private final static byte RECORD_START_STOP = 3;
+  /** record type for an AddScan call*/
+  private final static byte RECORD_SCAN = 4;
+
+  /** the thread that shall receive the scans of this slice*/
+  private RawToChromThread target_;
+  /** the temporary bucket file*/
+  private File bucketFile_;
+  /** the output stream to the bucket file*/
+  private DataOutputStream out_;
+  /** the headers are kept in memory, since the reader changes them while reading the scans*/
+  private Vector<CgScanHeader> headers_;
+  /** the last MS1 scan - it is written to the bucket when the next one arrives*/
+  private CgScan lastBaseScan_;
+  /** the maximum amount of scans of the current file (as declared by its header)*/
+  private int maxScans_;
+  /** the amount of scans of the current file*/
+  private int scanCount_;
+
+  /**
+   * creates a bucket for a slice
+   * @param target the thread that shall receive the scans of this slice; the m/z thresholds must be set already
+   * @param directory the directory where the temporary bucket file shall be stored
+   * @throws IOException thrown if the bucket file cannot be created
+   */
+  public RawToChromBucket(RawToChromThread target, String directory) throws IOException{
+    this.target_ = target;
+    this.headers_ = new Vector<CgScanHeader>();
+    this.bucketFile_ = File.createTempFile("scans", ".bucket", new File(directory));
+    this.bucketFile_.deleteOnExit();
+    this.out_ = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(bucketFile_),1024*1024));
+    this.lastBaseScan_ = null;
+    this.maxScans_ = 0;
+    this.scanCount_ = 0;
+  }
+
+  public void AddScan(CgScan sx) throws CgException
+  {
+    if (scanCount_==maxScans_) return;
+    try{
+      flushLastBaseScan();
+    } catch (IOException iox){
+      throw new CgException(iox.getMessage());
+    }
+    lastBaseScan_ = sx;
+    scanCount_++;
+  }
+
+  public void AddHeader(CgScanHeader hx) throws CgException
+  {
+    try{
+      flushLastBaseScan();
+      out_.writeByte(RECORD_HEADER);
+      out_.writeInt(headers_.size());
+    } catch (IOException iox){
+      throw new CgException(iox.getMessage());
+    }
+    headers_.add(hx);
+    maxScans_ = hx.ScanCount;
+    scanCount_ = 0;
+  }
+
+  public void setStartStopHeader(CgScanHeader hx) throws CgException
+  {
+    try{
+      out_.writeByte(RECORD_START_STOP);
+      out_.writeFloat(hx.StartTime);
+      out_.writeFloat(hx.EndTime);
+    } catch (IOException iox){
+      throw new CgException(iox.getMessage());
+    }
+  }
+
+  public CgScan getLastBaseScan()
+  {
+    return lastBaseScan_;
+  }
+
+  public void addParentFileName(String fileName) throws CgException
+  {
+    try{
+      out_.writeByte(RECORD_PARENT_FILE);
+      out_.writeUTF(fileName);
+    } catch (IOException iox){
+      throw new CgException(iox.getMessage());
+    }
+  }
+
+  public float getLowerThreshold()
+  {
+    return target_.getLowerThreshold();
+  }
+
+  public float getUpperThreshold()
+  {
+    return target_.getUpperThreshold();
+  }
+
+  /**
+   * has to be called after the reading pass; writes the remaining scan and closes the bucket file
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  public void finishWriting() throws IOException{
+    flushLastBaseScan();
+    out_.close();
+  }
+
+  /**
+   * feeds the stored scans into the thread of this slice and deletes the bucket file afterwards
+   * @return the thread of this slice, filled with the scans
+   * @throws CgException thrown if the bucket cannot be read
+   */
+  public RawToChromThread replay() throws CgException{
+    DataInputStream in = null;
+    try{
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(bucketFile_),1024*1024));
+      while (true){
+        byte recordType;
+        try{
+          recordType = in.readByte();
+        } catch (EOFException eof){
+          break;
+        }
+        if (recordType==RECORD_HEADER){
+          target_.AddHeader(headers_.get(in.readInt()));
+        } else if (recordType==RECORD_PARENT_FILE){
+          target_.addParentFileName(in.readUTF());
+        } else if (recordType==RECORD_START_STOP){
+          CgScanHeader startStop = new CgScanHeader();
+          startStop.StartTime = in.readFloat();
+          startStop.EndTime = in.readFloat();
+          target_.setStartStopHeader(startStop);
+        } else if (recordType==RECORD_SCAN){
+          CgScan scan = readScan(in,false);
+          int nrOfSubscanNumbers = in.readInt();
+          for (int i=0; i!=nrOfSubscanNumbers; i++) scan.SubScans.add(in.readInt());
+          int nrOfFullSubscans = in.readInt();
+          for (int i=0; i!=nrOfFullSubscans; i++) scan.getFullSubScans().add(readScan(in,true));
+          target_.AddScan(scan);
+        } else
+          throw new CgException("The bucket file "+bucketFile_.getAbsolutePath()+" is corrupt!");
+      }
+    } catch (IOException iox){
+      iox.printStackTrace();
+      throw new CgException(iox.getMessage());
+    } finally{
+      try{
+        if (in!=null) in.close();
+      } catch (IOException iox){
+        iox.printStackTrace();
+      }
+      bucketFile_.delete();
+      headers_ = null;
+    }
+    return target_;
+  }
+
+  /**
+   * removes the bucket file without replaying it - in case the translation was aborted
+   */
+  public void cleanUp(){
+    try{
+      out_.close();
+    } catch (IOException iox){
+    }
+    bucketFile_.delete();
+  }
+
+  /**
+   * writes the last MS1 scan (together with its MSn scans) to the bucket
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  private void flushLastBaseScan() throws IOException{
+    if (lastBaseScan_==null) return;
+    out_.writeByte(RECORD_SCAN);
+    writeScan(lastBaseScan_,false);
+    out_.writeInt(lastBaseScan_.SubScans.size());
+    for (Integer subscanNumber : lastBaseScan_.SubScans) out_.writeInt(subscanNumber);
+    ArrayList<CgScan> fullSubScans = lastBaseScan_.getFullSubScans();
+    out_.writeInt(fullSubScans.size());
+    for (CgScan subScan : fullSubScans) writeScan(subScan,true);
+    lastBaseScan_ = null;
+  }
+
+  /**
+   * writes the values and the peaks of a scan
+   * @param scan the scan
+   * @param msms true if the scan is an MsMsScan
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  private void writeScan(CgScan scan, boolean msms) throws IOException{
+    out_.writeInt(scan.Num);
+    out_.writeInt(scan.MsLevel);
+    out_.writeFloat(scan.RetentionTime);
+    out_.writeFloat(scan.LowMz);
+    out_.writeFloat(scan.HighMz);
+    out_.writeFloat(scan.BasePeakMz);
+    out_.writeFloat(scan.BasePeakIntensity);
+    out_.writeFloat(scan.TotIonCurrent);
+    out_.writeInt(scan.getPolarity());
+    if (msms){
+      MsMsScan msmsScan = (MsMsScan)scan;
+      String precursorMz = msmsScan.getPrecursorMzAsString();
+      out_.writeBoolean(precursorMz!=null);
+      if (precursorMz!=null) out_.writeUTF(precursorMz);
+      out_.writeFloat(msmsScan.getPrecursorIntensity());
+    }
+    out_.writeInt(scan.PeaksCount);
+    for (int i=0; i!=scan.PeaksCount; i++){
+      out_.writeFloat(scan.Scan[i][0]);
+      out_.writeFloat(scan.Scan[i][1]);
+    }
+  }
+
+  /**
+   * reads a scan written by writeScan
+   * @param in the input stream of the bucket file
+   * @param msms true if the scan is an MsMsScan
+   * @return the scan
+   * @throws IOException thrown if there is something wrong with the file access
+   */
+  private CgScan readScan(DataInputStream in, boolean msms) throws IOException{
+    int num = in.readInt();
+    int msLevel = in.readInt();
+    float retentionTime = in.readFloat();
+    float lowMz = in.readFloat();
+    float highMz = in.readFloat();
+    float basePeakMz = in.readFloat();
+    float basePeakIntensity = in.readFloat();
+    float totIonCurrent = in.readFloat();
+    int polarity = in.readInt();
+    CgScan scan;
+    if (msms){
+      String precursorMz = null;
+      if (in.readBoolean()) precursorMz = in.readUTF();
+      float precursorIntensity = in.readFloat();
+      scan = new MsMsScan(0,num,msLevel,retentionTime,lowMz,highMz,basePeakMz,basePeakIntensity,totIonCurrent,precursorMz,precursorIntensity,polarity);
+    } else
+      scan = new CgScan(0,num,msLevel,retentionTime,lowMz,highMz,basePeakMz,basePeakIntensity,totIonCurrent,polarity);
+    int peaksCount = in.readInt();
+    scan.PeaksCount = peaksCount;
+    scan.Scan = new float[peaksCount][2];
+    for (int i=0; i!=peaksCount; i++){
+      scan.Scan[i][0] = in.readFloat();
+      scan.Scan[i][1] = in.readFloat();
+    }
+    return scan;
+  }
+
+}
@@ -24,11 +24,11 @@
 package at.tugraz.genome.lda.xml;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Hashtable;
@@ -37,7 +37,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.Vector;
 
-import at.tugraz.genome.dbutilities.Base64;
+import at.tugraz.genome.lda.quantification.BinaryChromIndex;
 import at.tugraz.genome.maspectras.quantification.CgDefines;
 import at.tugraz.genome.maspectras.quantification.CgException;
 import at.tugraz.genome.maspectras.quantification.CgScan;
@@ -120,6 +120,9 @@ public class RawToChromThread extends Thread  implements AddScan
   /** the name of the retention-time file(s)*/
   private Hashtable<String,String[]> retentionTimeFileName_;
   
+  /** write the chrom files in the binary columnar format instead of the Base64 line format*/
+  private boolean binaryFormat_;
+  
   /** MSn scans require an MS1 scan before. For polarity switched data,
    * a dummy positive MS1 scan might be added when scans start with negative MS1 scans,
    * and a positive MSn scan comes before an positve MS1 scan
@@ -135,6 +138,16 @@ public class RawToChromThread extends Thread  implements AddScan
   public final static String FILE_SUFFIX_POLARITY_POSITIVE = "_positive";
   /** the suffix to be added to the negative chrom file of polarity switched data*/
   public final static String FILE_SUFFIX_POLARITY_NEGATIVE = "_negative";
+  
+  /** the characters of the Base64 encoding*/
+  private final static byte[] BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+  /** the padding character of the Base64 encoding*/
+  private final static byte BASE64_PAD = '=';
+  
+  /** reusable buffer for the records of the m/z bins and the MSn spectra - prevents allocations per bin*/
+  private byte[] recordBuffer_;
+  /** reusable buffer for the Base64 encoded lines of the text format*/
+  private byte[] lineBuffer_;
 
   /**
    * this constructor sets default values and inits required hash tables
@@ -183,6 +196,7 @@ public class RawToChromThread extends Thread  implements AddScan
     this.lowestMz_ = otherThread.lowestMz_;
     this.highestMz_ = otherThread.highestMz_;
     this.highestMsLevel_ = otherThread.highestMsLevel_;
+    this.binaryFormat_ = otherThread.binaryFormat_;
   }
   
   public void run(){
@@ -331,7 +345,6 @@ public class RawToChromThread extends Thread  implements AddScan
     
     Hashtable<String,BufferedOutputStream> stream = new Hashtable<String,BufferedOutputStream>();
     Hashtable<String,DataOutputStream> streamIndex = new Hashtable<String,DataOutputStream>();
-    Hashtable<String,float[][]> intensityValuesSection = new Hashtable<String,float[][]>();
     Hashtable<String,Vector<BufferedOutputStream>> msmsChromStreams = new Hashtable<String,Vector<BufferedOutputStream>>();
     Hashtable<String,Vector<DataOutputStream>> msmsIndexStreams = new Hashtable<String,Vector<DataOutputStream>>();
     Hashtable<String,Hashtable<Integer,Integer>> mzIndizes = new Hashtable<String,Hashtable<Integer,Integer>>();
@@ -347,6 +360,11 @@ public class RawToChromThread extends Thread  implements AddScan
     for (String key : headerHash_.keySet()){
       stream.put(key, new BufferedOutputStream(new FileOutputStream(dir+chromFileName_.get(key)[filePosition])));
       streamIndex.put(key,new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir+indexFileName_.get(key)[filePosition]))));
+      if (binaryFormat_){
+        int nrOfBins = 0;
+        if (upperThreshInt_>lowerThreshInt_) nrOfBins = (upperThreshInt_-lowerThreshInt_+lowestResolution_-1)/lowestResolution_;
+        BinaryChromIndex.writeHeader(streamIndex.get(key), (lowerThreshInt_-lowestMz_)/lowestResolution_, nrOfBins);
+      }
       // this is for the MSMS
       msmsChromStreams.put(key, new Vector<BufferedOutputStream>());
       msmsIndexStreams.put(key, new Vector<DataOutputStream>());
@@ -374,61 +392,56 @@ public class RawToChromThread extends Thread  implements AddScan
     writeChrom2(msmsChromStreams,msmsIndexStreams,msmsScans,mzIndizes,bytesIndices,floatOfLowerMz,floatOfUpperMz);
     
     
-    Hashtable<String,Long> bytesIndex = new Hashtable<String,Long>();
-    for (String key : headerHash_.keySet()){
-      bytesIndex.put(key, 0l);
-      intensityValuesSection.put(key, createIntensityArray(getCorrectScanCount(key,polarity),elementsForBatchCalculation_));
+    // the per file values are resolved to arrays once - the loop over the m/z bins must not allocate any objects
+    String[] keys = headerHash_.keySet().toArray(new String[headerHash_.size()]);
+    CgScan[][] scansOfKeys = new CgScan[keys.length][];
+    int[] scanCounts = new int[keys.length];
+    float[][][] intensityValuesSection = new float[keys.length][][];
+    BufferedOutputStream[] chromStreams = new BufferedOutputStream[keys.length];
+    DataOutputStream[] indexStreams = new DataOutputStream[keys.length];
+    long[] bytesIndex = new long[keys.length];
+    int maxScanCount = 0;
+    for (int k=0; k!=keys.length; k++){
+      scansOfKeys[k] = getCorrectScans(keys[k], polarity);
+      scanCounts[k] = getCorrectScanCount(keys[k],polarity);
+      intensityValuesSection[k] = createIntensityArray(scanCounts[k],elementsForBatchCalculation_);
+      chromStreams[k] = stream.get(keys[k]);
+      indexStreams[k] = streamIndex.get(keys[k]);
+      bytesIndex[k] = 0l;
+      if (scanCounts[k]>maxScanCount) maxScanCount = scanCounts[k];
     }
+    ensureBufferCapacity(maxScanCount*BinaryChromIndex.BYTES_PER_POINT);
 
-    float intensity;
+    int batchWidth = elementsForBatchCalculation_*lowestResolution_;
     if (((this.lowerThreshInt_-lowestMz_)/lowestResolution_) % elementsForBatchCalculation_!=0){
-      int startValue = this.lowerThreshInt_-((this.lowerThreshInt_-lowestMz_) % (elementsForBatchCalculation_*lowestResolution_));
-      for (String key : headerHash_.keySet()){
-        CgScan[] scans = getCorrectScans(key, polarity);
-        for (int j=0; j<getCorrectScanCount(key,polarity); j++){
-          scans[j].fillIntensitiyArray(intensityValuesSection.get(key)[j],(Float.parseFloat((String.valueOf(startValue)))/(float)multiplicationFactorForInt_),(Float.parseFloat((String.valueOf(startValue+elementsForBatchCalculation_*lowestResolution_)))/(float)multiplicationFactorForInt_),elementsForBatchCalculation_);
-        }
-      }      
+      int startValue = this.lowerThreshInt_-((this.lowerThreshInt_-lowestMz_) % batchWidth);
+      fillIntensityArrays(scansOfKeys,scanCounts,intensityValuesSection,startValue,startValue+batchWidth);
     }
     for (int i=this.lowerThreshInt_; i<this.upperThreshInt_; i+=lowestResolution_){
-      if (((i-lowestMz_)/lowestResolution_) % elementsForBatchCalculation_==0){
-        for (String key : headerHash_.keySet()){
-          CgScan[] scans = getCorrectScans(key, polarity);
-          for (int j=0; j<getCorrectScanCount(key,polarity); j++){
-            scans[j].fillIntensitiyArray(intensityValuesSection.get(key)[j],(Float.parseFloat((String.valueOf(i)))/(float)multiplicationFactorForInt_),(Float.parseFloat((String.valueOf(i+elementsForBatchCalculation_*lowestResolution_)))/(float)multiplicationFactorForInt_),elementsForBatchCalculation_);
-          }
-        }
-      }
-      for (String key : headerHash_.keySet()){
-        Vector<Integer> scanNumbers = new Vector<Integer>();
-        Vector<Float> intensities = new Vector<Float>();
-        for (int j=0; j<getCorrectScanCount(key,polarity); j++){
-          intensity = intensityValuesSection.get(key)[j][((i-lowestMz_)/lowestResolution_) % elementsForBatchCalculation_];
-          if (intensity>0){
-            scanNumbers.add(new Integer(j));
-            intensities.add(intensity);
-          }
-        }
-        String chromString = "";
-        if (scanNumbers.size()>0){
-          ByteBuffer buffer = ByteBuffer.allocate(scanNumbers.size() * 2 * 4);
-          for (int j=0;j!=scanNumbers.size();j++){
-            buffer.putInt(scanNumbers.get(j).intValue());
-            buffer.putFloat(intensities.get(j).floatValue());
+      int bin = (i-lowestMz_)/lowestResolution_;
+      int column = bin % elementsForBatchCalculation_;
+      if (column==0) fillIntensityArrays(scansOfKeys,scanCounts,intensityValuesSection,i,i+batchWidth);
+      for (int k=0; k!=keys.length; k++){
+        if (binaryFormat_){
+          indexStreams[k].writeLong(bytesIndex[k]);
+          int length = fillBinaryRecord(intensityValuesSection[k],column,scanCounts[k]);
+          chromStreams[k].write(recordBuffer_,0,length);
+          bytesIndex[k] += length;
+        }else{
+          int length = fillTextRecord(intensityValuesSection[k],column,scanCounts[k]);
+          chromStreams[k].write(lineBuffer_,0,length);
+          if (bin % CgDefines.numberOfEntriesForIndex==0){
+            indexStreams[k].writeInt(bin);
+            indexStreams[k].writeLong(bytesIndex[k]);
           }
-          chromString = String.valueOf(Base64.encode(buffer.array()));
+          bytesIndex[k] += length;
         }
-        byte[] bytesToWrite = (chromString+"\n").getBytes();
-        stream.get(key).write(bytesToWrite);
-        long bytesIdx = bytesIndex.get(key);
-        if (((i-lowestMz_)/lowestResolution_) % CgDefines.numberOfEntriesForIndex==0){
-          streamIndex.get(key).writeInt((i-lowestMz_)/lowestResolution_);
-          streamIndex.get(key).writeLong(bytesIdx);
-        }
-        bytesIdx+=bytesToWrite.length;
-        bytesIndex.put(key, bytesIdx);
       }
     }
+    // the closing offset marks the end of the last record
+    if (binaryFormat_){
+      for (int k=0; k!=keys.length; k++) indexStreams[k].writeLong(bytesIndex[k]);
+    }
     
     if (numberOfMs2Scans_==null)
       numberOfMs2Scans_ = new Hashtable<String,Hashtable<Integer,Hashtable<Integer,Integer>>>();
@@ -566,6 +579,124 @@ public class RawToChromThread extends Thread  implements AddScan
     }
   }
   
+  /**
+   * fills the intensities of a batch of m/z bins for all files
+   * @param scansOfKeys the scans of the files
+   * @param scanCounts the amount of scans of the files
+   * @param intensityValuesSection the intensity arrays to be filled; first dimension: file; second dimension: scan; third dimension: bin in the batch
+   * @param start the lower m/z border of the batch in integer format
+   * @param stop the upper m/z border of the batch in integer format
+   */
+  private void fillIntensityArrays(CgScan[][] scansOfKeys, int[] scanCounts, float[][][] intensityValuesSection, int start, int stop){
+    float startMz = (float)start/(float)multiplicationFactorForInt_;
+    float stopMz = (float)stop/(float)multiplicationFactorForInt_;
+    for (int k=0; k!=scansOfKeys.length; k++){
+      for (int j=0; j<scanCounts[k]; j++){
+        scansOfKeys[k][j].fillIntensitiyArray(intensityValuesSection[k][j],startMz,stopMz,elementsForBatchCalculation_);
+      }
+    }
+  }
+  
+  /**
+   * writes the record of one m/z bin in the binary columnar format to the recordBuffer_: first the scan numbers, then the intensities
+   * @param intensityValues the intensities of the current batch; first dimension: scan; second dimension: bin in the batch
+   * @param column the position of the current bin in the batch
+   * @param scanCount the amount of scans
+   * @return the length of the record in bytes; 0 if there is no signal
+   */
+  private int fillBinaryRecord(float[][] intensityValues, int column, int scanCount){
+    int nrOfPoints = 0;
+    for (int j=0; j<scanCount; j++){
+      if (intensityValues[j][column]>0) nrOfPoints++;
+    }
+    int scanPosition = 0;
+    int intensityPosition = nrOfPoints*4;
+    for (int j=0; j<scanCount; j++){
+      if (intensityValues[j][column]>0){
+        putInt(recordBuffer_,scanPosition,j);
+        putInt(recordBuffer_,intensityPosition,Float.floatToIntBits(intensityValues[j][column]));
+        scanPosition += 4;
+        intensityPosition += 4;
+      }
+    }
+    return nrOfPoints*BinaryChromIndex.BYTES_PER_POINT;
+  }
+  
+  /**
+   * writes the line of one m/z bin in the text format to the lineBuffer_: the Base64 encoded pairs of scan number and intensity, followed by a line break
+   * @param intensityValues the intensities of the current batch; first dimension: scan; second dimension: bin in the batch
+   * @param column the position of the current bin in the batch
+   * @param scanCount the amount of scans
+   * @return the length of the line in bytes
+   */
+  private int fillTextRecord(float[][] intensityValues, int column, int scanCount){
+    int length = 0;
+    for (int j=0; j<scanCount; j++){
+      if (intensityValues[j][column]>0){
+        putInt(recordBuffer_,length,j);
+        putInt(recordBuffer_,length+4,Float.floatToIntBits(intensityValues[j][column]));
+        length += 8;
+      }
+    }
+    int lineLength = encodeBase64(recordBuffer_,length,lineBuffer_,0);
+    lineBuffer_[lineLength] = '\n';
+    return lineLength+1;
+  }
+  
+  /**
+   * enlarges the reusable buffers if necessary
+   * @param recordLength the required length of the recordBuffer_
+   */
+  private void ensureBufferCapacity(int recordLength){
+    if (recordBuffer_!=null && recordBuffer_.length>=recordLength) return;
+    recordBuffer_ = new byte[recordLength];
+    lineBuffer_ = new byte[((recordLength+2)/3)*4+1];
+  }
+  
+  /**
+   * writes an integer in big endian byte order (as ByteBuffer does)
+   * @param buffer the buffer to write to
+   * @param position the position in the buffer
+   * @param value the value
+   */
+  private static void putInt(byte[] buffer, int position, int value){
+    buffer[position] = (byte)(value>>>24);
+    buffer[position+1] = (byte)(value>>>16);
+    buffer[position+2] = (byte)(value>>>8);
+    buffer[position+3] = (byte)value;
+  }
+  
+  /**
+   * encodes binary data by Base64 (including padding, without line breaks), without any allocation
+   * @param data the binary data
+   * @param length the amount of bytes to encode
+   * @param target the buffer for the encoded data
+   * @param position the position in the target buffer where the encoded data shall start
+   * @return the amount of written characters
+   */
+  private static int encodeBase64(byte[] data, int length, byte[] target, int position){
+    int pos = position;
+    int i = 0;
+    for (; i+2<length; i+=3){
+      int bits = ((data[i]&0xff)<<16)|((data[i+1]&0xff)<<8)|(data[i+2]&0xff);
+      target[pos] = BASE64_CHARS[bits>>>18];
+      target[pos+1] = BASE64_CHARS[(bits>>>12)&0x3f];
+      target[pos+2] = BASE64_CHARS[(bits>>>6)&0x3f];
+      target[pos+3] = BASE64_CHARS[bits&0x3f];
+      pos += 4;
+    }
+    if (i<length){
+      int bits = (data[i]&0xff)<<16;
+      if (i+1<length) bits |= (data[i+1]&0xff)<<8;
+      target[pos] = BASE64_CHARS[bits>>>18];
+      target[pos+1] = BASE64_CHARS[(bits>>>12)&0x3f];
+      target[pos+2] = i+1<length ? BASE64_CHARS[(bits>>>6)&0x3f] : BASE64_PAD;
+      target[pos+3] = BASE64_PAD;
+      pos += 4;
+    }
+    return pos-position;
+  }
+  
   /** reserves space for an intensity array of a certain size -
    * previously more was done with this array, now the same command may be executed as well directly in the code*/
   private float[][] createIntensityArray(int x, int y){
@@ -587,6 +718,8 @@ public class RawToChromThread extends Thread  implements AddScan
   private void writeChrom2(Hashtable<String,Vector<BufferedOutputStream>> msmsChromStreams, Hashtable<String,Vector<DataOutputStream>> msmsIndexStreams, Hashtable<String,Vector<LinkedHashMap<String,Vector<MsMsScan>>>> msmsScans,Hashtable<String,Hashtable<Integer,Integer>> mzIndices,Hashtable<String,Hashtable<Integer,Long>> bytesIndices,
       Float lowerThreshold, Float upperThreshold) throws IOException{
     String ms1PrecMzString = null;
+    // reused for all precursors - holds the lines of one precursor m/z
+    ByteArrayOutputStream precursorRecord = new ByteArrayOutputStream();
     for (String key:headerHash_.keySet()){
       Hashtable<Integer,Integer> mzIndicesOneMzxml  = mzIndices.get(key);
       Hashtable<Integer,Long> byteIndicesOneMzxml = bytesIndices.get(key);
@@ -599,7 +732,7 @@ public class RawToChromThread extends Thread  implements AddScan
         for (String scanKey : scans.keySet()){
           ms1PrecMzString = scanKey;
           if (scanKey.indexOf(" ")!=-1) ms1PrecMzString = scanKey.substring(0,scanKey.indexOf(" "));
-          Float mzValue = new Float(ms1PrecMzString);
+          float mzValue = Float.parseFloat(ms1PrecMzString);
           if (lowerThreshold!=null && mzValue<lowerThreshold) continue;
         // there are the same amount of index entries as in the normal chrom format
         // e.g. if you have a file from 400-1800Da, a multiplicationFactorForInt_=1000 and a lowestResolution_=2;
@@ -609,7 +742,7 @@ public class RawToChromThread extends Thread  implements AddScan
         // this calculates the difference in lines to the last lowest mass value (in our case 400Da);
         // e.g. if you have a mass value 402.51Da and the settings with lowestResolution_=2 the calculation would be
         // (402.51*1000-400000)/2=1255 line in the hypothetical chrom file; that means this entry would be after the 2nd index entry (count starts with zero)
-          int currentResDiffToLowest = (Math.round(Calculator.roundFloat((Float.parseFloat(ms1PrecMzString))*(float)this.multiplicationFactorForInt_, 0,BigDecimal.ROUND_UP))-lowestMz_)/lowestResolution_;
+          int currentResDiffToLowest = (Math.round(Calculator.roundFloat(mzValue*(float)this.multiplicationFactorForInt_, 0,BigDecimal.ROUND_UP))-lowestMz_)/lowestResolution_;
         //if the current entry exceeds the value of the next index entry -> write the index entry and increase the index-value
           while (currentResDiffToLowest>=mzIndex && (mzIndex*lowestResolution_)<(upperThreshInt_-lowestMz_)){
             streamIndex.writeInt(mzIndex);
@@ -618,22 +751,27 @@ public class RawToChromThread extends Thread  implements AddScan
           }
           if (upperThreshold!=null && mzValue>=upperThreshold) continue;
           boolean foundOneScan = false;
-          String toWrite = ">"+scanKey+"\n";
+          precursorRecord.reset();
+          precursorRecord.write('>');
+          writeAscii(precursorRecord,scanKey);
+          precursorRecord.write('\n');
           for (MsMsScan scan : scans.get(scanKey)){
-            ByteBuffer buffer = ByteBuffer.allocate(scan.Scan.length * 2 * 4);
+            if (scan.Scan.length==0) continue;
+            ensureBufferCapacity(scan.Scan.length*8);
             for (int j=0; j<scan.Scan.length; j++){
-              buffer.putFloat(scan.Scan[j][0]);
-              buffer.putFloat(scan.Scan[j][1]);            
+              putInt(recordBuffer_,j*8,Float.floatToIntBits(scan.Scan[j][0]));
+              putInt(recordBuffer_,j*8+4,Float.floatToIntBits(scan.Scan[j][1]));
             }
-            if (scan.Scan.length>0){
-              toWrite+=scan.Num+" "+String.valueOf(Base64.encode(buffer.array()))+"\n";
-              foundOneScan=true;
-            }  
+            writeAscii(precursorRecord,String.valueOf(scan.Num));
+            precursorRecord.write(' ');
+            int length = encodeBase64(recordBuffer_,scan.Scan.length*8,lineBuffer_,0);
+            precursorRecord.write(lineBuffer_,0,length);
+            precursorRecord.write('\n');
+            foundOneScan=true;
           }
           if (foundOneScan){
-            byte[] bytesToWrite = toWrite.getBytes();
-            stream.write(bytesToWrite);
-            bytesIndex+=bytesToWrite.length;
+            precursorRecord.writeTo(stream);
+            bytesIndex+=precursorRecord.size();
           }
         }
         //this is for writing the MS2 index in iterations where no MS/MS spectra were found
@@ -655,6 +793,15 @@ public class RawToChromThread extends Thread  implements AddScan
     }
   }
 
+  /**
+   * writes the characters of a String that contains only ASCII characters (numbers, m/z values)
+   * @param out the stream to write to
+   * @param value the String
+   */
+  private static void writeAscii(ByteArrayOutputStream out, String value){
+    for (int i=0; i!=value.length(); i++) out.write(value.charAt(i));
+  }
+
   /**
    * writess the MSn retention time information
    * @param directory the output directory
@@ -920,6 +1067,14 @@ public class RawToChromThread extends Thread  implements AddScan
     }
   }
   
+  /**
+   * sets the format of the chrom files
+   * @param binaryFormat true for the binary columnar format; false for the Base64 line format
+   */
+  public void setBinaryFormat(boolean binaryFormat){
+    this.binaryFormat_ = binaryFormat;
+  }
+  
   /**
    * returns actual polarity scan count (used as index)
    * @return actual polarity scan count (used as index)
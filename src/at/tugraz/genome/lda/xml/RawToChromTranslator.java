@@ -41,7 +41,11 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.Vector;
 
+import at.tugraz.genome.lda.LipidomicsConstants;
+import at.tugraz.genome.lda.quantification.BinaryChromIndex;
+import at.tugraz.genome.lda.quantification.ChromSummaryIndex;
 import at.tugraz.genome.lda.utils.RangeInteger;
 import at.tugraz.genome.maspectras.GlobalConstants;
 import at.tugraz.genome.maspectras.quantification.CgDefines;
@@ -164,6 +168,9 @@ public class RawToChromTranslator implements AddScan
   /** was polarity switching used*/
   private boolean polaritySwitching_ = false;
   
+  /** write the chrom files in the binary columnar format instead of the Base64 line format*/
+  private boolean binaryFormat_;
+  
   
   /**
    * constructor for the translation
@@ -201,6 +208,7 @@ public class RawToChromTranslator implements AddScan
     initStoreHashes();
     highestMsLevel_ = 1;
     numberOfThreads_ = 1;
+    binaryFormat_ = LipidomicsConstants.isBinaryChromFormat();
   }
 
   /**
@@ -221,6 +229,14 @@ public class RawToChromTranslator implements AddScan
    numberOfThreads_ = numberOfThreads;
   }
   
+  /**
+   * sets the format of the chrom files - the default is defined by the "binaryChromFormat" setting
+   * @param binaryFormat true for the binary columnar format; false for the Base64 line format
+   */
+  public void setBinaryFormat(boolean binaryFormat){
+    this.binaryFormat_ = binaryFormat;
+  }
+  
   public void AddHeader(CgScanHeader hx) throws CgException
   {
     currentFileName_ = NO_NAME_PLACEHOLDER;
@@ -311,7 +327,25 @@ public class RawToChromTranslator implements AddScan
       e.printStackTrace();
       throw new CgException(e.getMessage());
     }
-
+    if (binaryFormat_) this.writeSummaryFiles();
+  }
+  
+  /**
+   * writes the summary of the MS1 signal next to the binary index files; the summary is optional - if it cannot be written,
+   * the quantification reads every chromatogram
+   */
+  private void writeSummaryFiles(){
+    for (String key : indexFileName_.keySet()){
+      for (int i=0; i!=indexFileName_.get(key).length; i++){
+        String indexFile = indexFileName_.get(key)[i];
+        if (indexFile==null || !(new File(indexFile)).exists()) continue;
+        try{
+          ChromSummaryIndex.create(indexFile, chromFileName_.get(key)[i], retentionTimeFileName_.get(key)[i]).write(ChromSummaryIndex.getSummaryFilePath(indexFile));
+        } catch (IOException iox){
+          System.out.println("Warning: the MS1 summary of "+indexFile+" cannot be written: "+iox.getMessage());
+        }
+      }
+    }
   }
 
   /**
@@ -337,29 +371,41 @@ public class RawToChromTranslator implements AddScan
     String suffix = "";
     if (msLevel>1) suffix  = String.valueOf(msLevel);
     this.initTranslatorObjects();
+    //the scans of the later iterations are spilled to bucket files while parsing for the first iteration
+    boolean singlePass = this.numberOfIterations_>1 && LipidomicsConstants.isSinglePassChromTranslation();
+    Hashtable<Integer,Hashtable<Integer,RawToChromBucket>> buckets = new Hashtable<Integer,Hashtable<Integer,RawToChromBucket>>();
     for (int i=0; i!=this.numberOfIterations_; i++){
       System.out.println("Starting iteration: "+(i+1));
       this.quantStatus_ = new Hashtable<Integer,Integer>();
       for (int j=0; j!=this.numberOfThreads_; j++){
-        RangeInteger threshold = this.getLowerUpperThreshold(i, j);
-        String[] directories = new String[2];
-        if (polaritySwitching_){
-          directories[0] = getCorrespondingThreadDirectory(CgDefines.POLARITY_POSITIVE, i, j);
-          directories[1] = getCorrespondingThreadDirectory(CgDefines.POLARITY_NEGATIVE, i, j);
-        }else{
-          directories[0] = getCorrespondingThreadDirectory(CgDefines.POLARITY_NO, i, j);
-          directories[1] = null;
-        }
-        RawToChromThread thread = new RawToChromThread(this.translators_.get(j));
-        thread.setRequiredInformation(directories,threshold.getStart(),threshold.getStop()); 
+        RawToChromThread thread = null;
+        if (singlePass && i>0) thread = buckets.get(i).get(j).replay();
+        else thread = createSliceThread(i,j);
         this.translators_.put(j, thread);
         this.quantStatus_.put(j, STATUS_WAITING);
       }
       AddScan[] adders = getAdders();
-      m_reader.setAdders(adders);
       if (this.numberOfIterations_>1 || this.numberOfThreads_>1){
-        this.m_reader.ReadFile(m_fileName+suffix);
+        if (singlePass && i==0){
+          adders = addScanBuckets(adders,buckets);
+          m_reader.setAdders(adders);
+          try{
+            this.m_reader.ReadFile(m_fileName+suffix);
+            for (Hashtable<Integer,RawToChromBucket> bucketsOfIteration : buckets.values()){
+              for (RawToChromBucket bucket : bucketsOfIteration.values()) bucket.finishWriting();
+            }
+          } catch (CgException | IOException ex){
+            for (Hashtable<Integer,RawToChromBucket> bucketsOfIteration : buckets.values()){
+              for (RawToChromBucket bucket : bucketsOfIteration.values()) bucket.cleanUp();
+            }
+            throw new CgException(ex.getMessage());
+          }
+        } else if (!singlePass){
+          m_reader.setAdders(adders);
+          this.m_reader.ReadFile(m_fileName+suffix);
+        }
       }else{
+        m_reader.setAdders(adders);
         this.translators_.get(0).setReadXmlContent(headerHash_,scanHash_,m_scanCount,polarity_scanCount_);
       }
     
@@ -431,6 +477,55 @@ public class RawToChromTranslator implements AddScan
     System.out.println("Total time: "+((System.currentTimeMillis()-time)/1000)+" secs");
   }
 
+  /**
+   * creates the RawToChromThread for a slice of the chrom translation
+   * @param iteration the iteration of the slice
+   * @param threadNr the thread number of the slice
+   * @return the thread with the directories and m/z thresholds of the slice
+   */
+  private RawToChromThread createSliceThread(int iteration, int threadNr){
+    RangeInteger threshold = this.getLowerUpperThreshold(iteration, threadNr);
+    String[] directories = new String[2];
+    if (polaritySwitching_){
+      directories[0] = getCorrespondingThreadDirectory(CgDefines.POLARITY_POSITIVE, iteration, threadNr);
+      directories[1] = getCorrespondingThreadDirectory(CgDefines.POLARITY_NEGATIVE, iteration, threadNr);
+    }else{
+      directories[0] = getCorrespondingThreadDirectory(CgDefines.POLARITY_NO, iteration, threadNr);
+      directories[1] = null;
+    }
+    RawToChromThread thread = new RawToChromThread(this.translators_.get(threadNr));
+    thread.setRequiredInformation(directories,threshold.getStart(),threshold.getStop());
+    return thread;
+  }
+  
+  /**
+   * creates the bucket files for the slices of the later iterations, and adds them to the adders of the first iteration
+   * @param adders the adders of the first iteration
+   * @param buckets the hash to be filled with the created buckets; first key: iteration; second key: thread number
+   * @return the adders of the first iteration and the buckets
+   * @throws CgException thrown if a bucket file cannot be created
+   */
+  private AddScan[] addScanBuckets(AddScan[] adders, Hashtable<Integer,Hashtable<Integer,RawToChromBucket>> buckets) throws CgException{
+    AddScan[] allAdders = new AddScan[this.numberOfIterations_*this.numberOfThreads_];
+    for (int j=0; j!=adders.length; j++) allAdders[j] = adders[j];
+    try{
+      for (int i=1; i<this.numberOfIterations_; i++){
+        Hashtable<Integer,RawToChromBucket> bucketsOfIteration = new Hashtable<Integer,RawToChromBucket>();
+        for (int j=0; j!=this.numberOfThreads_; j++){
+          RawToChromThread thread = createSliceThread(i,j);
+          RawToChromBucket bucket = new RawToChromBucket(thread,getCorrespondingThreadDirectory(polaritySwitching_ ? CgDefines.POLARITY_POSITIVE : CgDefines.POLARITY_NO, i, j));
+          bucketsOfIteration.put(j, bucket);
+          allAdders[i*this.numberOfThreads_+j] = bucket;
+        }
+        buckets.put(i, bucketsOfIteration);
+      }
+    } catch (IOException iox){
+      iox.printStackTrace();
+      throw new CgException(iox.getMessage());
+    }
+    return allAdders;
+  }
+  
   /**
    * merges the different chrom translations in a single file - when the file was translated in several slices
    */
@@ -463,28 +558,32 @@ public class RawToChromTranslator implements AddScan
           String levelSuffix = "";
           if (i>1) levelSuffix = String.valueOf(i);
           //merge index
-          Hashtable<Integer,Integer> lines = new Hashtable<Integer,Integer>();
-          Hashtable<Integer,Long> indices = new Hashtable<Integer,Long>();
-          int count = 0;
-          long previousLength = 0;
-          DataInputStream indexStream = new DataInputStream(new FileInputStream(indexFileName_.get(key)[filePosition]+levelSuffix));
-          count = readIndexFile(indexStream,lines,indices,count,previousLength);
-          indexStream.close();
-          previousLength += (new File (chromFileName_.get(key)[filePosition]+levelSuffix)).length();
-          for (int j=1; j!=totalSlices; j++){
-            String dir = baseDir+String.valueOf(j)+"/";
-            String indexFileName = dir+StringUtils.getJustFileName(indexFileName_.get(key)[filePosition])+levelSuffix;
-            DataInputStream in = new DataInputStream(new FileInputStream(indexFileName));
-            count = readIndexFile(in,lines,indices,count,previousLength);
-            in.close();
-            previousLength += (new File(dir+StringUtils.getJustFileName(chromFileName_.get(key)[filePosition])+levelSuffix)).length();
-          }
-          DataOutputStream streamIndex2 = new DataOutputStream(new FileOutputStream(indexFileName_.get(key)[filePosition]+levelSuffix));
-          for (int j=0; j!=count; j++){
-            streamIndex2.writeInt(lines.get(j));
-            streamIndex2.writeLong(indices.get(j));
+          if (binaryFormat_ && i==1){
+            mergeBinaryIndexFiles(key,filePosition,baseDir,totalSlices);
+          }else{
+            Hashtable<Integer,Integer> lines = new Hashtable<Integer,Integer>();
+            Hashtable<Integer,Long> indices = new Hashtable<Integer,Long>();
+            int count = 0;
+            long previousLength = 0;
+            DataInputStream indexStream = new DataInputStream(new FileInputStream(indexFileName_.get(key)[filePosition]+levelSuffix));
+            count = readIndexFile(indexStream,lines,indices,count,previousLength);
+            indexStream.close();
+            previousLength += (new File (chromFileName_.get(key)[filePosition]+levelSuffix)).length();
+            for (int j=1; j!=totalSlices; j++){
+              String dir = baseDir+String.valueOf(j)+"/";
+              String indexFileName = dir+StringUtils.getJustFileName(indexFileName_.get(key)[filePosition])+levelSuffix;
+              DataInputStream in = new DataInputStream(new FileInputStream(indexFileName));
+              count = readIndexFile(in,lines,indices,count,previousLength);
+              in.close();
+              previousLength += (new File(dir+StringUtils.getJustFileName(chromFileName_.get(key)[filePosition])+levelSuffix)).length();
+            }
+            DataOutputStream streamIndex2 = new DataOutputStream(new FileOutputStream(indexFileName_.get(key)[filePosition]+levelSuffix));
+            for (int j=0; j!=count; j++){
+              streamIndex2.writeInt(lines.get(j));
+              streamIndex2.writeLong(indices.get(j));
+            }
+            streamIndex2.close();
           }
-          streamIndex2.close();
             //merge retention times
           if (i>1){
             Hashtable<Integer,Float> retentionTimes = new Hashtable<Integer,Float>();
@@ -533,6 +632,52 @@ public class RawToChromTranslator implements AddScan
     }    
   }
   
+  /**
+   * merges the binary index files of the slices - the byte offsets of every slice are shifted by the length of the previous chrom files;
+   * bins that are not covered by any slice are stored as empty records
+   * @param key the file key
+   * @param filePosition when polarity switching is used, two chrom directories are generated - the file position is which one shall be merged
+   * @param baseDir the chrom directory
+   * @param totalSlices the amount of slices the file was translated in
+   * @throws IOException thrown when there is something wrong with the file access
+   */
+  private void mergeBinaryIndexFiles(String key, int filePosition, String baseDir, int totalSlices) throws IOException{
+    Vector<BinaryChromIndex> sliceIndices = new Vector<BinaryChromIndex>();
+    Vector<Long> previousLengths = new Vector<Long>();
+    long previousLength = 0;
+    sliceIndices.add(BinaryChromIndex.read(indexFileName_.get(key)[filePosition]));
+    previousLengths.add(previousLength);
+    previousLength += (new File (chromFileName_.get(key)[filePosition])).length();
+    for (int j=1; j!=totalSlices; j++){
+      String dir = baseDir+String.valueOf(j)+"/";
+      sliceIndices.add(BinaryChromIndex.read(dir+StringUtils.getJustFileName(indexFileName_.get(key)[filePosition])));
+      previousLengths.add(previousLength);
+      previousLength += (new File(dir+StringUtils.getJustFileName(chromFileName_.get(key)[filePosition]))).length();
+    }
+    int firstBin = sliceIndices.get(0).getFirstBin();
+    int endBin = firstBin;
+    for (BinaryChromIndex sliceIndex : sliceIndices){
+      if (sliceIndex.getEndBin()>endBin) endBin = sliceIndex.getEndBin();
+    }
+    long[] offsets = new long[endBin-firstBin+1];
+    int currentBin = firstBin;
+    for (int j=0; j!=sliceIndices.size(); j++){
+      BinaryChromIndex sliceIndex = sliceIndices.get(j);
+      long sliceStart = previousLengths.get(j);
+      //fill the bins between the slices
+      while (currentBin<sliceIndex.getFirstBin()){
+        offsets[currentBin-firstBin] = sliceStart;
+        currentBin++;
+      }
+      for (int bin=Math.max(currentBin,sliceIndex.getFirstBin()); bin<sliceIndex.getEndBin(); bin++){
+        offsets[bin-firstBin] = sliceIndex.getOffset(bin)+sliceStart;
+        currentBin = bin+1;
+      }
+    }
+    offsets[offsets.length-1] = previousLength;
+    new BinaryChromIndex(firstBin,offsets).write(indexFileName_.get(key)[filePosition]);
+  }
+  
   /**
    * checks if for this chrom file really all MS-levels are present - otherwise, the additional (empty) files are deleted 
    * @throws IOException thrown when there is something wrong with the file access
@@ -690,6 +835,7 @@ public class RawToChromTranslator implements AddScan
       RawToChromThread thread = new RawToChromThread(this.msms_,this.multiplicationFactorForInt_,this.lowestResolution_,this.highestMsLevel_);
       thread.setStaticInformation(elementsForBatchCalculation_,lowestMz,highestMz,chromFileName_,indexFileName_,
           retentionTimeFileName_);
+      thread.setBinaryFormat(binaryFormat_);
       this.translators_.put(i,thread);
     }
   }
@@ -730,6 +876,8 @@ public class RawToChromTranslator implements AddScan
     props.put(BioUtilsConstants.INDEX_HEADER_FILE_INDEX_FILE, this.indexFileName_.get(key)[filePosition]);
     props.put(BioUtilsConstants.INDEX_HEADER_FILE_INDEXED_FILE, this.chromFileName_.get(key)[filePosition]);
     props.put(GlobalConstants.CHROMATOGRAM_HEADER_FILE_RETENTION_TIME, this.retentionTimeFileName_.get(key)[filePosition]);
+    if (binaryFormat_)
+      props.put(BinaryChromIndex.CHROMATOGRAM_HEADER_FILE_FORMAT, BinaryChromIndex.CHROM_FORMAT_BINARY);
     int highestLevel = this.highestMsLevelHash_.get(key).get(filePosition);
     if (msmsInSeveralFiles_) highestLevel = msmsSeveralFilesHighestLevel_;
     props.put(GlobalConstants.CHROMATOGRAM_HEADER_FILE_MS_LEVEL, String.valueOf(highestLevel));
@@ -0,0 +1,205 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2021 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger, Leonida M. Lamp
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Random;
+
+import at.tugraz.genome.lda.LipidomicsConstants;
+import at.tugraz.genome.lda.xml.RawToChromTranslator;
+import at.tugraz.genome.maspectras.quantification.CgChromatogram;
+
+/**
+ *
+ * Junit Test class for the binary chrom format: the same mzXML file is translated to the binary and to the
+ * Base64 line format, and both chrom files are read back by the LipidomicsChromReader.
+ *
+ * @author agent
+ *
+ */
+class BinaryChromFormatTest
+{
+  //the m/z values of the simulated analytes
+  private final static float[] ANALYTE_MZS = {400.25f, 402.5f, 405.123f, 407.9f, 410.3f, 650.4f, 850.7f};
+
+  //the number of MS1 scans of the simulated file
+  private final static int NUMBER_OF_SCANS = 60;
+
+  //the temporary folder holding the simulated files
+  File tempDir;
+
+  //the reader for the binary chrom file
+  LipidomicsChromReader binaryReader;
+
+  //the reader for the Base64 line chrom file
+  LipidomicsChromReader lineReader;
+
+
+  @BeforeEach
+  void init() throws Exception
+  {
+    LipidomicsConstants.getInstance();
+    tempDir = Files.createTempDirectory("binaryChrom").toFile();
+    binaryReader = translateAndOpen("binary", true);
+    lineReader = translateAndOpen("lines", false);
+  }
+
+
+  @AfterEach
+  void teardown()
+  {
+    binaryReader = null;
+    lineReader = null;
+    deleteRecursively(tempDir);
+  }
+
+
+  @Test
+  @DisplayName("The format of the chrom files is detected by the header file.")
+  void formatDetectionTest()
+  {
+    assertTrue(binaryReader.isBinaryFormat());
+    assertFalse(lineReader.isBinaryFormat());
+    assertEquals(lineReader.getHighestMsLevel(), binaryReader.getHighestMsLevel());
+  }
+
+
+  @Test
+  @DisplayName("Chromatograms read from the binary format are identical to the ones of the Base64 line format.")
+  void readChromatogramTest() throws Exception
+  {
+    for (float mz=399f; mz<905f; mz+=0.37f) {
+      CgChromatogram binary = binaryReader.readChromatogram(mz-0.05f, mz+0.05f, 1);
+      CgChromatogram lines = lineReader.readChromatogram(mz-0.05f, mz+0.05f, 1);
+      assertEquals(lines.Value.length, binary.Value.length);
+      for (int i=0; i!=lines.Value.length; i++) {
+        assertEquals(lines.Value[i][0], binary.Value[i][0], String.format("retention time at m/z %s", mz));
+        assertEquals(lines.Value[i][1], binary.Value[i][1], String.format("intensity at m/z %s", mz));
+      }
+    }
+  }
+
+
+  @Test
+  @DisplayName("The binary records are returned in the Base64 line format for the viewers.")
+  void getRawLinesTest() throws Exception
+  {
+    for (float analyteMz : ANALYTE_MZS) {
+      String[] binary = binaryReader.getRawLines(analyteMz-0.05f, analyteMz+0.05f, 1);
+      String[] lines = lineReader.getRawLines(analyteMz-0.05f, analyteMz+0.05f, 1);
+      assertEquals(lines.length, binary.length);
+      boolean found = false;
+      for (int i=0; i!=lines.length; i++) {
+        String binaryLine = binary[i]==null ? "" : binary[i];
+        String line = lines[i]==null ? "" : lines[i];
+        assertEquals(line, binaryLine, String.format("line %s at m/z %s", i, analyteMz));
+        if (line.length()>0) found = true;
+      }
+      assertTrue(found, String.format("no signal found at m/z %s", analyteMz));
+    }
+  }
+
+
+  /**
+   * writes the simulated mzXML file to a sub folder of the temporary folder, translates it and opens the chrom file
+   * @param subDir the name of the sub folder
+   * @param binaryFormat true for the binary format; false for the Base64 line format
+   * @return reader for the translated chrom file
+   * @throws Exception
+   */
+  private LipidomicsChromReader translateAndOpen(String subDir, boolean binaryFormat) throws Exception
+  {
+    File dir = new File(tempDir, subDir);
+    dir.mkdirs();
+    File mzXML = new File(dir, "test.mzXML");
+    writeMzXML(mzXML);
+    RawToChromTranslator translator = new RawToChromTranslator(mzXML.getAbsolutePath(), "mzXML", 100, 1,
+        LipidomicsConstants.getChromMultiplicationFactorForInt(), LipidomicsConstants.getChromLowestResolution(), false);
+    translator.setBinaryFormat(binaryFormat);
+    translator.translateToChromatograms();
+    String base = new File(dir, "test.chrom").getAbsolutePath()+File.separator+"test";
+    return new LipidomicsChromReader(base+".head", base+".idx", base+".rtt", base+".chrom", false, 0.1f, false);
+  }
+
+
+  /**
+   * writes an mzXML file with Gaussian elution profiles at the analyte m/z values and random noise peaks
+   * @param file the file to write
+   * @throws IOException
+   */
+  private void writeMzXML(File file) throws IOException
+  {
+    Random random = new Random(7);
+    try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1")) {
+      out.write("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<mzXML xmlns=\"http://sashimi.sourceforge.net/schema_revision/mzXML_3.2\">\n");
+      out.write(String.format("<msRun scanCount=\"%d\" startTime=\"PT10S\" endTime=\"PT%dS\">\n", NUMBER_OF_SCANS, (int)(10+NUMBER_OF_SCANS*1.5)));
+      out.write("<parentFile fileName=\"test.raw\" fileType=\"RAWData\" fileSha1=\"0000000000000000000000000000000000000000\"/>\n");
+      for (int i=0; i!=NUMBER_OF_SCANS; i++) {
+        float[][] peaks = new float[ANALYTE_MZS.length+30][];
+        for (int j=0; j!=ANALYTE_MZS.length; j++) {
+          double x = (i-NUMBER_OF_SCANS/2d)/(NUMBER_OF_SCANS/6d);
+          peaks[j] = new float[] {ANALYTE_MZS[j]+0.004f*(random.nextFloat()-0.5f), (float)(1e5*Math.exp(-x*x)*(1+0.1*random.nextDouble()))+2f};
+        }
+        for (int j=ANALYTE_MZS.length; j!=peaks.length; j++)
+          peaks[j] = new float[] {399f+501f*random.nextFloat(), 10f+490f*random.nextFloat()};
+        java.util.Arrays.sort(peaks, (a,b) -> Float.compare(a[0], b[0]));
+        ByteBuffer buffer = ByteBuffer.allocate(peaks.length*8);
+        float total = 0f;
+        for (float[] peak : peaks) {
+          buffer.putFloat(peak[0]);
+          buffer.putFloat(peak[1]);
+          total += peak[1];
+        }
+        out.write(String.format(java.util.Locale.US, "<scan num=\"%d\" msLevel=\"1\" peaksCount=\"%d\" polarity=\"+\" retentionTime=\"PT%.3fS\" lowMz=\"%.4f\" highMz=\"%.4f\" basePeakMz=\"%.4f\" basePeakIntensity=\"%.1f\" totIonCurrent=\"%.1f\">\n",
+            i+1, peaks.length, 10f+i*1.5f, peaks[0][0], peaks[peaks.length-1][0], peaks[0][0], peaks[0][1], total));
+        out.write(String.format("<peaks precision=\"32\" byteOrder=\"network\" pairOrder=\"m/z-int\">%s</peaks>\n</scan>\n", Base64.getEncoder().encodeToString(buffer.array())));
+      }
+      out.write("</msRun>\n</mzXML>\n");
+    }
+  }
+
+
+  private void deleteRecursively(File file)
+  {
+    if (file==null) return;
+    File[] children = file.listFiles();
+    if (children!=null) {
+      for (File child : children) deleteRecursively(child);
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2021 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger, Leonida M. Lamp
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+
+import at.tugraz.genome.lda.LipidomicsConstants;
+import at.tugraz.genome.maspectras.quantification.CgChromatogram;
+
+/**
+ *
+ * Junit Test class for the mean smoothing of the LipidomicsChromatogram: the smoothed values have to be bit-identical
+ * to the ones of CgChromatogram.smoothMean.
+ *
+ * @author agent
+ *
+ */
+class LipidomicsChromatogramTest
+{
+  //the amount of simulated chromatograms
+  private final static int NUMBER_OF_CHROMS = 60;
+
+
+  @BeforeEach
+  void init() throws Exception
+  {
+    LipidomicsConstants.getInstance();
+    assertTrue(LipidomicsConstants.useJavaSmoothEngine());
+  }
+
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 5})
+  @DisplayName("Smooths chromatograms bit-identical to CgChromatogram.smoothMean.")
+  void smoothMeanTest(int repeats)
+  {
+    for (float range : new float[] {0f, 0.7f, 2.5f, 10f, 1000f}) {
+      Random random = new Random(repeats);
+      for (int k=0; k!=NUMBER_OF_CHROMS; k++) {
+        //given
+        CgChromatogram expected = createChromatogram(random, k);
+        LipidomicsChromatogram actual = copy(expected);
+
+        //when
+        expected.smoothMean(range, repeats, true);
+        actual.smoothMean(range, repeats, true);
+
+        //then
+        assertSameValues(expected, actual, String.format("chromatogram %s, range %s, repeats %s", k, range, repeats));
+      }
+    }
+  }
+
+
+  @Test
+  @DisplayName("Continues smoothing of already smoothed values bit-identical to CgChromatogram.smoothMean.")
+  void continueSmoothingTest()
+  {
+    Random random = new Random(17);
+    for (int k=0; k!=NUMBER_OF_CHROMS; k++) {
+      //given
+      CgChromatogram expected = createChromatogram(random, k);
+      LipidomicsChromatogram actual = copy(expected);
+
+      //when
+      expected.smoothMean(3f, 2, true);
+      expected.smoothMean(1.5f, 3, false);
+      actual.smoothMean(3f, 2, true);
+      actual.smoothMean(1.5f, 3, false);
+
+      //then
+      assertSameValues(expected, actual, String.format("chromatogram %s", k));
+    }
+  }
+
+
+  @Test
+  @DisplayName("Chromatograms with times in non-ascending order are smoothed by CgChromatogram.smoothMean.")
+  void nonAscendingTimesTest()
+  {
+    //given
+    CgChromatogram expected = createChromatogram(new Random(3), 1);
+    float time = expected.Value[10][0];
+    expected.Value[10][0] = expected.Value[11][0];
+    expected.Value[11][0] = time;
+    LipidomicsChromatogram actual = copy(expected);
+
+    //when
+    expected.smoothMean(4f, 3, true);
+    actual.smoothMean(4f, 3, true);
+
+    //then
+    assertSameValues(expected, actual, "non-ascending times");
+  }
+
+
+  private void assertSameValues(CgChromatogram expected, CgChromatogram actual, String message)
+  {
+    for (int i=0; i!=expected.ScanCount; i++) {
+      for (int j=0; j!=expected.Value[i].length; j++)
+        assertEquals(Float.floatToIntBits(expected.Value[i][j]), Float.floatToIntBits(actual.Value[i][j]),
+            String.format("%s: scan %s, column %s", message, i, j));
+    }
+  }
+
+
+  /**
+   * creates a noisy Gaussian elution profile with irregular scan times and identical consecutive times; some of the
+   * chromatograms are very short, have missing intensities, or a restricted smoothing range
+   * @param random the random generator
+   * @param k the number of the chromatogram
+   * @return the chromatogram
+   */
+  private static CgChromatogram createChromatogram(Random random, int k)
+  {
+    int nrOfScans = k%10==0 ? 1+random.nextInt(15) : 50+random.nextInt(400);
+    CgChromatogram chrom = new CgChromatogram(nrOfScans);
+    float time = 10f*random.nextFloat();
+    for (int i=0; i!=nrOfScans; i++) {
+      if (random.nextInt(20)!=0) time += 0.1f+random.nextFloat();
+      double x = (i-nrOfScans/2d)/(nrOfScans/8d);
+      chrom.Value[i][0] = time;
+      chrom.Value[i][1] = (float)(1e5*Math.exp(-x*x))+random.nextFloat()*(k%2==0 ? 3f : 500f);
+      if (k%4==3 && random.nextInt(10)==0) chrom.Value[i][1] = Float.NaN;
+    }
+    chrom.ScanCount = nrOfScans;
+    if (k%3==1) {
+      chrom.startSmoothScan_ = random.nextInt(nrOfScans);
+      chrom.stopSmoothScan_ = Math.min(nrOfScans, chrom.startSmoothScan_+1+random.nextInt(100));
+    }
+    return chrom;
+  }
+
+
+  private static LipidomicsChromatogram copy(CgChromatogram chrom)
+  {
+    LipidomicsChromatogram copy = new LipidomicsChromatogram(chrom.Value.length);
+    for (int i=0; i!=chrom.Value.length; i++) copy.Value[i] = chrom.Value[i].clone();
+    copy.ScanCount = chrom.ScanCount;
+    copy.startSmoothScan_ = chrom.startSmoothScan_;
+    copy.stopSmoothScan_ = chrom.stopSmoothScan_;
+    return copy;
+  }
+}
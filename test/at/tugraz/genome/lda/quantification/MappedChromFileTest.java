@@ -0,0 +1,127 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2021 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger, Leonida M. Lamp
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * Junit Test class for the segmented mapping of the MappedChromFile; small segment sizes simulate files larger than 2GB.
+ *
+ * @author agent
+ *
+ */
+class MappedChromFileTest
+{
+  //the length of the test file
+  private final static int FILE_LENGTH = 10000;
+
+  //the distance between the start positions of two segments
+  private final static long SEGMENT_SIZE = 1024;
+
+  //the number of bytes a segment reaches into the following one
+  private final static long SEGMENT_OVERLAP = 256;
+
+  //the test file
+  File file;
+
+  //the segmented mapping of the test file
+  MappedChromFile mapped;
+
+
+  @BeforeEach
+  void init() throws Exception
+  {
+    file = File.createTempFile("mappedChrom", ".chrom");
+    byte[] content = new byte[FILE_LENGTH];
+    for (int i=0; i!=content.length; i++) content[i] = expected(i);
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(content);
+    }
+    mapped = new MappedChromFile(file, SEGMENT_SIZE, SEGMENT_OVERLAP);
+  }
+
+
+  @AfterEach
+  void teardown()
+  {
+    mapped = null;
+    file.delete();
+  }
+
+
+  @Test
+  @DisplayName("Parts within one segment or its overlap are returned correctly.")
+  void withinSegmentTest()
+  {
+    assertContent(0, 100);
+    assertContent(1000, 1200);
+    assertContent(2048, 2048+1024+256);
+    assertContent(9216, FILE_LENGTH);
+  }
+
+
+  @Test
+  @DisplayName("Parts crossing the overlap of the segments are copied correctly.")
+  void acrossSegmentsTest()
+  {
+    assertContent(500, 1500);
+    assertContent(1023, 4097);
+    assertContent(0, FILE_LENGTH);
+    assertEquals(FILE_LENGTH, mapped.getBuffer().remaining());
+  }
+
+
+  @Test
+  @DisplayName("Empty parts are returned at any position.")
+  void emptyPartTest()
+  {
+    assertEquals(0, mapped.getBuffer(0, 0).remaining());
+    assertEquals(0, mapped.getBuffer(2048, 2048).remaining());
+    assertEquals(0, mapped.getBuffer(FILE_LENGTH, FILE_LENGTH).remaining());
+  }
+
+
+  private void assertContent(long start, long stop)
+  {
+    ByteBuffer buffer = mapped.getBuffer(start, stop);
+    assertEquals(stop-start, buffer.remaining(), String.format("length of part %s-%s", start, stop));
+    for (int i=0; i!=buffer.remaining(); i++)
+      assertEquals(expected(start+i), buffer.get(i), String.format("byte %s of part %s-%s", i, start, stop));
+  }
+
+
+  private static byte expected(long position)
+  {
+    return (byte)(position*31+position/251);
+  }
+}
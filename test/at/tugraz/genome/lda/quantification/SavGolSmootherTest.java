@@ -0,0 +1,170 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2021 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger, Leonida M. Lamp
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.quantification;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+import java.util.Vector;
+
+import at.tugraz.genome.maspectras.quantification.CgChromatogram;
+
+/**
+ *
+ * Junit Test class for the SavGolSmoother: the smoothed values have to be bit-identical to the ones of CgChromatogram.Smooth.
+ *
+ * @author agent
+ *
+ */
+class SavGolSmootherTest
+{
+  //the amount of simulated chromatograms
+  private final static int NUMBER_OF_CHROMS = 60;
+
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 3, 10})
+  @DisplayName("Smooths chromatograms bit-identical to CgChromatogram.Smooth.")
+  void smoothTest(int repeats)
+  {
+    for (float range : new float[] {3f, 8f, 20f}) {
+      //given
+      Vector<CgChromatogram> chroms = createChromatograms(new Random(repeats));
+      SavGolSmoother smoother = new SavGolSmoother();
+
+      for (int i=0; i!=chroms.size(); i++) {
+        CgChromatogram expected = copy(chroms.get(i));
+        CgChromatogram actual = copy(chroms.get(i));
+
+        //when
+        expected.Smooth(range, repeats, true);
+        smoother.smooth(actual, range, repeats, true);
+
+        //then
+        assertSameValues(expected, actual, String.format("chromatogram %s, range %s, repeats %s", i, range, repeats));
+      }
+    }
+  }
+
+
+  @Test
+  @DisplayName("Smooths several chromatograms at once, and continues smoothing of already smoothed values.")
+  void smoothCollectionTest()
+  {
+    //given
+    Vector<CgChromatogram> chroms = createChromatograms(new Random(17));
+    Vector<CgChromatogram> expected = new Vector<CgChromatogram>();
+    Vector<CgChromatogram> actual = new Vector<CgChromatogram>();
+    for (CgChromatogram chrom : chroms) {
+      expected.add(copy(chrom));
+      actual.add(copy(chrom));
+    }
+
+    //when
+    for (CgChromatogram chrom : expected) {
+      chrom.Smooth(5f, 2, true);
+      chrom.Smooth(5f, 2, false);
+    }
+    SavGolSmoother smoother = new SavGolSmoother();
+    smoother.smooth(actual, 5f, 2, true);
+    smoother.smooth(actual, 5f, 2, false);
+
+    //then
+    for (int i=0; i!=expected.size(); i++)
+      assertSameValues(expected.get(i), actual.get(i), String.format("chromatogram %s", i));
+  }
+
+
+  @Test
+  @DisplayName("Copies the raw data only, if there are no repeats.")
+  void noRepeatsTest()
+  {
+    //given
+    CgChromatogram expected = createChromatograms(new Random(3)).get(1);
+    CgChromatogram actual = copy(expected);
+
+    //when
+    expected.Smooth(8f, 0, true);
+    new SavGolSmoother().smooth(actual, 8f, 0, true);
+
+    //then
+    assertSameValues(expected, actual, "no repeats");
+  }
+
+
+  private void assertSameValues(CgChromatogram expected, CgChromatogram actual, String message)
+  {
+    for (int i=0; i!=expected.ScanCount; i++) {
+      for (int j=0; j!=expected.Value[i].length; j++)
+        assertEquals(Float.floatToIntBits(expected.Value[i][j]), Float.floatToIntBits(actual.Value[i][j]),
+            String.format("%s: scan %s, column %s", message, i, j));
+    }
+    assertArrayEquals(expected.precalcPows_, actual.precalcPows_, message);
+  }
+
+
+  /**
+   * creates noisy Gaussian elution profiles with irregular scan times; some of them are very short, and some have
+   * a restricted smoothing range
+   * @param random the random generator
+   * @return the chromatograms
+   */
+  private static Vector<CgChromatogram> createChromatograms(Random random)
+  {
+    Vector<CgChromatogram> chroms = new Vector<CgChromatogram>();
+    for (int k=0; k!=NUMBER_OF_CHROMS; k++) {
+      int nrOfScans = k%10==0 ? 5+random.nextInt(15) : 50+random.nextInt(400);
+      CgChromatogram chrom = new CgChromatogram(nrOfScans);
+      float time = 10f*random.nextFloat();
+      for (int i=0; i!=nrOfScans; i++) {
+        time += 0.5f+random.nextFloat();
+        double x = (i-nrOfScans/2d)/(nrOfScans/8d);
+        chrom.Value[i][0] = time;
+        chrom.Value[i][1] = (float)(1e5*Math.exp(-x*x))+random.nextFloat()*(k%2==0 ? 3f : 500f);
+      }
+      chrom.ScanCount = nrOfScans;
+      if (k%3==1) {
+        chrom.startSmoothScan_ = random.nextInt(nrOfScans);
+        chrom.stopSmoothScan_ = Math.min(nrOfScans, chrom.startSmoothScan_+1+random.nextInt(100));
+      }
+      chroms.add(chrom);
+    }
+    return chroms;
+  }
+
+
+  private static CgChromatogram copy(CgChromatogram chrom)
+  {
+    CgChromatogram copy = new CgChromatogram(chrom.Value.length);
+    for (int i=0; i!=chrom.Value.length; i++) copy.Value[i] = chrom.Value[i].clone();
+    copy.ScanCount = chrom.ScanCount;
+    copy.startSmoothScan_ = chrom.startSmoothScan_;
+    copy.stopSmoothScan_ = chrom.stopSmoothScan_;
+    return copy;
+  }
+}
@@ -34,12 +34,18 @@ import org.junit.jupiter.api.AfterEach;
 
 import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.Vector;
 import java.util.stream.Stream;
 import java.io.File;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 import at.tugraz.genome.lda.swing.Range;
 import at.tugraz.genome.maspectras.quantification.CgDefines;
+import at.tugraz.genome.maspectras.quantification.CgException;
+import at.tugraz.genome.maspectras.quantification.CgScan;
+import at.tugraz.genome.maspectras.quantification.MsMsScan;
 
 /**
  * 
@@ -59,6 +65,10 @@ class MzMLReaderTest
   //The path to the test folder
   String folderPath = "E:/Development/testMzXML/";
   
+  //A small indexedmzML file: 12 MS1 spectra (retention time 10s + 1.5s per scan) and after every third MS1 scan an MS2 spectrum
+  //(retention time + 0.2s) with the precursor m/z 402.5 or 405.123 alternating - 16 spectra in total
+  String indexedFilePath = "test/at/tugraz/genome/lda/xml/indexedSmall.mzML";
+  
   //The sub paths to the test files
   private static Stream<String> filePaths() {
     return Stream.of(
@@ -186,6 +196,91 @@ class MzMLReaderTest
   }  
   
   
+  @Test
+  @DisplayName("Reads the spectrum offset index of an indexedmzML file.")
+  void getSpectrumIndexTest() throws CgException
+  {
+    //when
+    MzMLSpectrumIndex index = readerMzML.getSpectrumIndex(indexedFilePath);
+    
+    //then
+    assertNotNull(index);
+    assertEquals(16, index.getNumberOfSpectra());
+    assertEquals("controllerType=0 controllerNumber=1 scan=6", index.getId(5));
+    assertEquals(5, index.getPosition(index.getId(5)));
+    assertSame(index, readerMzML.getSpectrumIndex(indexedFilePath));
+  }
+  
+  
+  @Test
+  @DisplayName("Returns no spectrum offset index for mzML files without index.")
+  void getSpectrumIndexOfNonIndexedFileTest() throws Exception
+  {
+    //given
+    String content = new String(Files.readAllBytes(new File(indexedFilePath).toPath()), StandardCharsets.UTF_8);
+    content = content.substring(0, content.indexOf("<indexList"))+"</indexedmzML>\n";
+    File nonIndexed = File.createTempFile("nonIndexed", ".mzML");
+    Files.write(nonIndexed.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    
+    //when
+    MzMLSpectrumIndex index = readerMzML.getSpectrumIndex(nonIndexed.getAbsolutePath());
+    nonIndexed.delete();
+    
+    //then
+    assertNull(index);
+  }
+  
+  
+  @Test
+  @DisplayName("Reads single spectra by position and by native ID.")
+  void readSpectrumTest() throws CgException
+  {
+    //when
+    CgScan ms1 = readerMzML.readSpectrum(indexedFilePath, 0);
+    CgScan byPosition = readerMzML.readSpectrum(indexedFilePath, 5);
+    CgScan byId = readerMzML.readSpectrum(indexedFilePath, "controllerType=0 controllerNumber=1 scan=6");
+    
+    //then
+    assertEquals(1, ms1.MsLevel);
+    assertEquals(37, ms1.PeaksCount);
+    assertEquals(10f, ms1.RetentionTime, 0.01f);
+    assertEquals(2, byPosition.MsLevel);
+    assertEquals(6, byPosition.Num);
+    assertEquals(20, byPosition.PeaksCount);
+    assertEquals(14.7f, byPosition.RetentionTime, 0.01f);
+    assertTrue(byPosition instanceof MsMsScan);
+    assertEquals(405.123f, ((MsMsScan)byPosition).getMs1PrecursorMz(), 0.0001f);
+    assertEquals(byPosition.Num, byId.Num);
+    for (int i=0; i!=byPosition.PeaksCount; i++) {
+      assertEquals(byPosition.Scan[i][0], byId.Scan[i][0]);
+      assertEquals(byPosition.Scan[i][1], byId.Scan[i][1]);
+    }
+    assertNull(readerMzML.readSpectrum(indexedFilePath, "controllerType=0 controllerNumber=1 scan=17"));
+  }
+  
+  
+  @Test
+  @DisplayName("Reads the spectra of an MS-level within a retention time and precursor range.")
+  void readSpectraTest() throws CgException
+  {
+    //when
+    Vector<CgScan> ms2 = readerMzML.readSpectra(indexedFilePath, 2, 0f, 1000f, 402.4f, 402.6f);
+    Vector<CgScan> ms1 = readerMzML.readSpectra(indexedFilePath, 1, 10f, 20f, 0f, 0f);
+    
+    //then
+    assertEquals(2, ms2.size());
+    for (CgScan scan : ms2) {
+      assertEquals(2, scan.MsLevel);
+      assertEquals(402.5f, ((MsMsScan)scan).getMs1PrecursorMz(), 0.0001f);
+    }
+    assertEquals(7, ms1.size());
+    for (int i=0; i!=ms1.size(); i++) {
+      assertEquals(1, ms1.get(i).MsLevel);
+      assertEquals(10f+i*1.5f, ms1.get(i).RetentionTime, 0.01f);
+    }
+  }
+  
+  
   @Test
   @DisplayName("Gets maxRange_ correctly.")
   void getMaxRangeTest() throws NoSuchFieldException, IllegalAccessException
@@ -0,0 +1,275 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2021 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger, Leonida M. Lamp
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.xml;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import at.tugraz.genome.maspectras.quantification.CgException;
+
+/**
+ *
+ * Junit Test class for the NumpressDecoder. The encoded data is created by a port of the MS-Numpress reference encoders.
+ *
+ * @author agent
+ *
+ */
+class NumpressDecoderTest
+{
+
+  @Test
+  @DisplayName("Decodes hand-encoded half-byte integers.")
+  void decodeKnownPicTest() throws CgException
+  {
+    //given: 1 -> half-bytes 7,1; 0 -> half-byte 8; padded by a 0 half-byte
+    final byte[] data = {(byte)0x71, (byte)0x80};
+
+    //when
+    final double[] result = NumpressDecoder.decodePic(data);
+
+    //then
+    assertArrayEquals(new double[] {1d, 0d}, result);
+  }
+
+
+  @Test
+  @DisplayName("Decodes m/z values compressed by linear prediction within the codec precision.")
+  void decodeLinearTest() throws CgException
+  {
+    //given
+    final double[] mzValues = createMzValues(500);
+    final double fixedPoint = optimalLinearFixedPoint(mzValues);
+
+    //when
+    final double[] result = NumpressDecoder.decodeLinear(encodeLinear(mzValues, fixedPoint));
+
+    //then
+    assertEquals(mzValues.length, result.length);
+    for (int i=0; i!=mzValues.length; i++)
+      assertEquals(mzValues[i], result[i], 0.5d/fixedPoint, String.format("value %s", i));
+  }
+
+
+  @Test
+  @DisplayName("Decodes short linear prediction arrays.")
+  void decodeShortLinearTest() throws CgException
+  {
+    for (int length=0; length!=4; length++) {
+      //given
+      final double[] mzValues = createMzValues(length);
+      final double fixedPoint = 10000d;
+
+      //when
+      final double[] result = NumpressDecoder.decodeLinear(encodeLinear(mzValues, fixedPoint));
+
+      //then
+      assertEquals(mzValues.length, result.length);
+      for (int i=0; i!=mzValues.length; i++)
+        assertEquals(mzValues[i], result[i], 0.5d/fixedPoint);
+    }
+  }
+
+
+  @Test
+  @DisplayName("Decodes intensities compressed by positive integer compression.")
+  void decodePicTest() throws CgException
+  {
+    //given
+    final double[] intensities = createIntensities(501);
+
+    //when
+    final double[] result = NumpressDecoder.decodePic(encodePic(intensities));
+
+    //then
+    assertEquals(intensities.length, result.length);
+    for (int i=0; i!=intensities.length; i++)
+      assertEquals(Math.round(intensities[i]), result[i], String.format("value %s", i));
+  }
+
+
+  @Test
+  @DisplayName("Decodes intensities compressed by short logged float compression within the codec precision.")
+  void decodeSlofTest() throws CgException
+  {
+    //given
+    final double[] intensities = createIntensities(500);
+    double highest = 0d;
+    for (double intensity : intensities) highest = Math.max(highest, intensity);
+    final double fixedPoint = Math.floor(0xffff/Math.log(highest+1d));
+
+    //when
+    final double[] result = NumpressDecoder.decodeSlof(encodeSlof(intensities, fixedPoint));
+
+    //then
+    assertEquals(intensities.length, result.length);
+    final double relativeError = Math.exp(0.5d/fixedPoint)-1d;
+    for (int i=0; i!=intensities.length; i++)
+      assertEquals(intensities[i], result[i], (intensities[i]+1d)*relativeError, String.format("value %s", i));
+  }
+
+
+  @Test
+  @DisplayName("Throws a CgException for corrupt data.")
+  void corruptDataTest()
+  {
+    assertThrows(CgException.class, () -> NumpressDecoder.decodeLinear(new byte[10]));
+    assertThrows(CgException.class, () -> NumpressDecoder.decodeSlof(new byte[11]));
+  }
+
+
+  private static double[] createMzValues(int length)
+  {
+    Random random = new Random(7);
+    double[] mzValues = new double[length];
+    double mz = 399d;
+    for (int i=0; i!=length; i++) {
+      mz += random.nextDouble();
+      mzValues[i] = mz;
+    }
+    return mzValues;
+  }
+
+
+  private static double[] createIntensities(int length)
+  {
+    Random random = new Random(11);
+    double[] intensities = new double[length];
+    for (int i=0; i!=length; i++)
+      intensities[i] = i%7==0 ? 0d : Math.pow(10d, 1d+6d*random.nextDouble());
+    return intensities;
+  }
+
+
+  private static double optimalLinearFixedPoint(double[] data)
+  {
+    double maxDouble = Math.max(data[0], data[1]);
+    for (int i=2; i<data.length; i++) {
+      double extrapolated = data[i-1]+(data[i-1]-data[i-2]);
+      maxDouble = Math.max(maxDouble, Math.ceil(Math.abs(data[i]-extrapolated)+1d));
+    }
+    return Math.floor(0x7fffffffl/maxDouble);
+  }
+
+
+  private static byte[] encodeLinear(double[] data, double fixedPoint)
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeFixedPoint(out, fixedPoint);
+    long[] ints = new long[data.length];
+    for (int i=0; i!=data.length; i++) ints[i] = (long)(data[i]*fixedPoint+0.5d);
+    for (int i=0; i<Math.min(2,data.length); i++) {
+      for (int j=0; j!=4; j++) out.write((int)((ints[i]>>(8*j))&0xff));
+    }
+    HalfBytes halfBytes = new HalfBytes();
+    for (int i=2; i<data.length; i++)
+      halfBytes.addInt((int)(ints[i]-(2*ints[i-1]-ints[i-2])));
+    halfBytes.writeTo(out);
+    return out.toByteArray();
+  }
+
+
+  private static byte[] encodePic(double[] data)
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    HalfBytes halfBytes = new HalfBytes();
+    for (double value : data) halfBytes.addInt((int)(value+0.5d));
+    halfBytes.writeTo(out);
+    return out.toByteArray();
+  }
+
+
+  private static byte[] encodeSlof(double[] data, double fixedPoint)
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeFixedPoint(out, fixedPoint);
+    for (double value : data) {
+      int encoded = (int)(Math.log(value+1d)*fixedPoint+0.5d);
+      out.write(encoded&0xff);
+      out.write((encoded>>8)&0xff);
+    }
+    return out.toByteArray();
+  }
+
+
+  private static void writeFixedPoint(ByteArrayOutputStream out, double fixedPoint)
+  {
+    byte[] bytes = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN).putDouble(fixedPoint).array();
+    out.write(bytes, 0, bytes.length);
+  }
+
+
+  /**
+   * collects half-byte encoded integers in the way of the MS-Numpress reference implementation
+   */
+  private static class HalfBytes
+  {
+    private ByteArrayOutputStream halfBytes_ = new ByteArrayOutputStream();
+
+    private void addInt(int value)
+    {
+      int mask = 0xf0000000;
+      int init = value&mask;
+      int leading;
+      if (init==0) {
+        leading = 8;
+        for (int i=0; i!=8; i++) {
+          if ((value&(mask>>>(4*i)))!=0) {
+            leading = i;
+            break;
+          }
+        }
+        halfBytes_.write(leading);
+      } else if (init==mask) {
+        leading = 7;
+        for (int i=0; i!=8; i++) {
+          int m = mask>>>(4*i);
+          if ((value&m)!=m) {
+            leading = i;
+            break;
+          }
+        }
+        halfBytes_.write(leading+8);
+      } else {
+        leading = 0;
+        halfBytes_.write(0);
+      }
+      for (int i=leading; i!=8; i++) halfBytes_.write((value>>>(4*(i-leading)))&0xf);
+    }
+
+    private void writeTo(ByteArrayOutputStream out)
+    {
+      byte[] values = halfBytes_.toByteArray();
+      for (int i=0; i<values.length; i+=2) {
+        int low = i+1<values.length ? values[i+1] : 0;
+        out.write((values[i]<<4)|low);
+      }
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * This file is part of Lipid Data Analyzer
+ * Lipid Data Analyzer - Automated annotation of lipid species and their molecular structures in high-throughput data from tandem mass spectrometry
+ * Copyright (c) 2021 Juergen Hartler, Andreas Ziegl, Gerhard G. Thallinger, Leonida M. Lamp
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Please contact lda@genome.tugraz.at if you need additional information or
+ * have any questions.
+ */
+
+package at.tugraz.genome.lda.xml;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Hashtable;
+import java.util.Locale;
+import java.util.Random;
+
+import at.tugraz.genome.lda.LipidomicsConstants;
+
+/**
+ *
+ * Junit Test class for the chrom writing of the RawToChromThread: the files translated from a generated mzXML file
+ * have to be byte-identical to the ones written by the implementation that created a String/Vector per m/z bin.
+ *
+ * @author agent
+ *
+ */
+class RawToChromThreadTest
+{
+  //the m/z values of the simulated analytes
+  private final static float[] ANALYTE_MZS = {400.25f, 402.5f, 405.123f, 407.9f, 410.3f, 650.4f, 850.7f};
+
+  //the number of MS1 scans of the simulated file
+  private final static int NUMBER_OF_SCANS = 90;
+
+  //the SHA-256 checksums of the files written by the previous implementation for the Base64 line format
+  private final static Hashtable<String,String> LINE_FORMAT_CHECKSUMS = new Hashtable<String,String>();
+
+  //the SHA-256 checksums of the files written by the previous implementation for the binary format
+  private final static Hashtable<String,String> BINARY_FORMAT_CHECKSUMS = new Hashtable<String,String>();
+
+  static {
+    LINE_FORMAT_CHECKSUMS.put("chrom", "380f1618eda47efc6f4b35917fa5bbb24f0373684329da7b676130a6525701a2");
+    LINE_FORMAT_CHECKSUMS.put("idx", "77abdbd8be7b093d4a2e014ab014b1844cb76dd848302d3831bf4921810e52db");
+    LINE_FORMAT_CHECKSUMS.put("rtt", "1ec4bab484dc2e8d7b3799c4d08134d55c99766b7ce4be1dbb069ba30cb3250e");
+    LINE_FORMAT_CHECKSUMS.put("chrom2", "c61f3df31bff18ccc4641c4381e6add08904ca6415372d09d1535ddf9519ef4d");
+    LINE_FORMAT_CHECKSUMS.put("idx2", "2d4d2395476d9f4623feb896e23f2e056b7bcd98fe7e69535b5abeac2f8e7851");
+    LINE_FORMAT_CHECKSUMS.put("rtt2", "683196efe2c393cc2fcc06fed4e7674ab4325eaec0d48bf523755da1f4f88753");
+    BINARY_FORMAT_CHECKSUMS.put("chrom", "63550015982a168aa935d1f2c92630172bfbe071a91325e49dbcd6546de8ff3f");
+    BINARY_FORMAT_CHECKSUMS.put("idx", "7e261bd39e7b001a31aefb96da17e84958bd5c0ff9804c147428ece79c54e84b");
+    BINARY_FORMAT_CHECKSUMS.put("rtt", "1ec4bab484dc2e8d7b3799c4d08134d55c99766b7ce4be1dbb069ba30cb3250e");
+    BINARY_FORMAT_CHECKSUMS.put("chrom2", "c61f3df31bff18ccc4641c4381e6add08904ca6415372d09d1535ddf9519ef4d");
+    BINARY_FORMAT_CHECKSUMS.put("idx2", "2d4d2395476d9f4623feb896e23f2e056b7bcd98fe7e69535b5abeac2f8e7851");
+    BINARY_FORMAT_CHECKSUMS.put("rtt2", "683196efe2c393cc2fcc06fed4e7674ab4325eaec0d48bf523755da1f4f88753");
+  }
+
+  //the temporary folder holding the simulated files
+  File tempDir;
+
+
+  @BeforeEach
+  void init() throws Exception
+  {
+    LipidomicsConstants.getInstance();
+    tempDir = Files.createTempDirectory("rawToChrom").toFile();
+  }
+
+
+  @AfterEach
+  void teardown()
+  {
+    deleteRecursively(tempDir);
+  }
+
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  @DisplayName("Writes chrom files byte-identical to the previous implementation.")
+  void writeToChromTest(boolean binaryFormat) throws Exception
+  {
+    //given
+    File mzXML = new File(tempDir, "test.mzXML");
+    writeMzXML(mzXML);
+    RawToChromTranslator translator = new RawToChromTranslator(mzXML.getAbsolutePath(), "mzXML", 100, 2,
+        LipidomicsConstants.getChromMultiplicationFactorForInt(), LipidomicsConstants.getChromLowestResolution(), true);
+    translator.setBinaryFormat(binaryFormat);
+
+    //when
+    translator.translateToChromatograms();
+
+    //then
+    Hashtable<String,String> expected = binaryFormat ? BINARY_FORMAT_CHECKSUMS : LINE_FORMAT_CHECKSUMS;
+    File chromDir = new File(tempDir, "test.chrom");
+    String[] suffixes = expected.keySet().toArray(new String[0]);
+    Arrays.sort(suffixes);
+    for (String suffix : suffixes) {
+      File file = new File(chromDir, "test."+suffix);
+      assertTrue(file.exists(), String.format("The file %s does not exist!", file.getName()));
+      assertEquals(expected.get(suffix), sha256(file), String.format("checksum of %s", file.getName()));
+    }
+  }
+
+
+  private static String sha256(File file) throws Exception
+  {
+    byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file.toPath()));
+    StringBuilder result = new StringBuilder();
+    for (byte b : digest) result.append(String.format("%02x", b&0xff));
+    return result.toString();
+  }
+
+
+  /**
+   * writes an mzXML file with Gaussian elution profiles at the analyte m/z values, random noise peaks,
+   * and an MS2 spectrum after every third MS1 scan
+   * @param file the file to write
+   * @throws IOException
+   */
+  private void writeMzXML(File file) throws IOException
+  {
+    Random random = new Random(7);
+    int nrOfScans = NUMBER_OF_SCANS+(NUMBER_OF_SCANS+2)/3;
+    try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1")) {
+      out.write("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<mzXML xmlns=\"http://sashimi.sourceforge.net/schema_revision/mzXML_3.2\">\n");
+      out.write(String.format("<msRun scanCount=\"%d\" startTime=\"PT10S\" endTime=\"PT%dS\">\n", nrOfScans, (int)(10+NUMBER_OF_SCANS*1.5)));
+      out.write("<parentFile fileName=\"test.raw\" fileType=\"RAWData\" fileSha1=\"0000000000000000000000000000000000000000\"/>\n");
+      int num = 1;
+      for (int i=0; i!=NUMBER_OF_SCANS; i++) {
+        float[][] peaks = new float[ANALYTE_MZS.length+30][];
+        for (int j=0; j!=ANALYTE_MZS.length; j++) {
+          double x = (i-NUMBER_OF_SCANS/2d)/(NUMBER_OF_SCANS/6d);
+          peaks[j] = new float[] {ANALYTE_MZS[j]+0.004f*(random.nextFloat()-0.5f), (float)(1e5*Math.exp(-x*x)*(1+0.1*random.nextDouble()))+2f};
+        }
+        for (int j=ANALYTE_MZS.length; j!=peaks.length; j++)
+          peaks[j] = new float[] {399f+501f*random.nextFloat(), 10f+490f*random.nextFloat()};
+        writeScan(out, num++, 1, 10f+i*1.5f, peaks, -1f);
+        if (i%3==0) {
+          float[][] fragments = new float[20][];
+          for (int j=0; j!=fragments.length; j++)
+            fragments[j] = new float[] {100f+300f*random.nextFloat(), 100f+4900f*random.nextFloat()};
+          writeScan(out, num++, 2, 10.2f+i*1.5f, fragments, i%2==0 ? 402.5f : 405.123f);
+        }
+      }
+      out.write("</msRun>\n</mzXML>\n");
+    }
+  }
+
+
+  private void writeScan(Writer out, int num, int msLevel, float retentionTime, float[][] peaks, float precursorMz) throws IOException
+  {
+    Arrays.sort(peaks, (a,b) -> Float.compare(a[0], b[0]));
+    ByteBuffer buffer = ByteBuffer.allocate(peaks.length*8);
+    float total = 0f;
+    for (float[] peak : peaks) {
+      buffer.putFloat(peak[0]);
+      buffer.putFloat(peak[1]);
+      total += peak[1];
+    }
+    out.write(String.format(Locale.US, "<scan num=\"%d\" msLevel=\"%d\" peaksCount=\"%d\" polarity=\"+\" retentionTime=\"PT%.3fS\" lowMz=\"%.4f\" highMz=\"%.4f\" basePeakMz=\"%.4f\" basePeakIntensity=\"%.1f\" totIonCurrent=\"%.1f\">\n",
+        num, msLevel, peaks.length, retentionTime, peaks[0][0], peaks[peaks.length-1][0], peaks[0][0], peaks[0][1], total));
+    if (precursorMz>0)
+      out.write(String.format(Locale.US, "<precursorMz precursorIntensity=\"1000.0\" activationMethod=\"CID\">%.4f</precursorMz>\n", precursorMz));
+    out.write(String.format("<peaks precision=\"32\" byteOrder=\"network\" pairOrder=\"m/z-int\">%s</peaks>\n</scan>\n", Base64.getEncoder().encodeToString(buffer.array())));
+  }
+
+
+  private void deleteRecursively(File file)
+  {
+    if (file==null) return;
+    File[] children = file.listFiles();
+    if (children!=null) {
+      for (File child : children) deleteRecursively(child);
+    }
+    file.delete();
+  }
+}